@@ -0,0 +1,326 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.cluster.service.ssh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ch.ethz.ssh2.compression.CompressionFactory;
+import ch.ethz.ssh2.packets.Packets;
+import ch.ethz.ssh2.transport.TransportConnection;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sends a status session through the ssh transport with and without the
+ * zlib compression. The session is one minute of status updates of a two
+ * node cluster with 50 resources, 5 VMs and 2 DRBD volumes, in the formats
+ * the hosts send them: the cib, virsh dumpxml, drbdsetup xml and the hw
+ * info, with the counters and time stamps changing between the rounds.
+ * <p>
+ * send is the CPU time of the side that compresses, receive of the side
+ * that uncompresses. The payload and the bytes on the wire of one session
+ * are reported as the wireBytes and payloadBytes counters of send.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SshCompressionBenchmark {
+    /** Status rounds, one every 2 seconds. */
+    private static final int ROUNDS = 30;
+    private static final int RESOURCES = 50;
+    private static final int VMS = 5;
+    private static final int MAX_CHANNEL_DATA = 32768;
+    private static final int RECEIVE_BUFFER_SIZE = 35000;
+
+    @Param({"none", "zlib"})
+    private String compression;
+
+    private List<byte[]> messages;
+    private long payload;
+    private byte[] wire;
+
+    /** Bytes of one session. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class SessionBytes {
+        public long wireBytes;
+        public long payloadBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+            payloadBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        messages = createSession();
+        payload = 0;
+        for (final byte[] message : messages) {
+            payload += message.length;
+        }
+        final CountingOutputStream out = new CountingOutputStream(new ByteArrayOutputStream());
+        send(out);
+        wire = out.getBuffer().toByteArray();
+    }
+
+    @Benchmark
+    public long send(final SessionBytes sessionBytes) throws IOException {
+        final CountingOutputStream out = new CountingOutputStream(null);
+        send(out);
+        sessionBytes.wireBytes = out.getCount();
+        sessionBytes.payloadBytes = payload;
+        return out.getCount();
+    }
+
+    @Benchmark
+    public long receive() throws IOException {
+        final TransportConnection tc = createTransportConnection(new ByteArrayInputStream(wire), null);
+        final byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+        long payload = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            payload += tc.receiveMessage(buffer, 0, buffer.length);
+        }
+        return payload;
+    }
+
+    private void send(final OutputStream out) throws IOException {
+        final TransportConnection tc = createTransportConnection(null, out);
+        for (final byte[] message : messages) {
+            tc.sendMessage(message);
+        }
+    }
+
+    private TransportConnection createTransportConnection(final InputStream in, final OutputStream out) {
+        final TransportConnection tc = new TransportConnection(in, out, new SecureRandom());
+        tc.changeSendCompression(CompressionFactory.createCompressor(compression));
+        tc.changeRecvCompression(CompressionFactory.createCompressor(compression));
+        return tc;
+    }
+
+    /** Splits the outputs of all rounds into SSH_MSG_CHANNEL_DATA messages. */
+    private static List<byte[]> createSession() throws UnsupportedEncodingException {
+        final List<byte[]> session = new ArrayList<byte[]>();
+        for (int round = 0; round < ROUNDS; round++) {
+            addChannelData(session, createCib(round));
+            for (int vm = 0; vm < VMS; vm++) {
+                addChannelData(session, createDomainXml(vm, round));
+            }
+            addChannelData(session, createDrbdXml(round));
+            addChannelData(session, createHwInfo(round));
+        }
+        return session;
+    }
+
+    private static void addChannelData(final List<byte[]> session, final String output)
+            throws UnsupportedEncodingException {
+        final byte[] data = output.getBytes("UTF-8");
+        for (int pos = 0; pos < data.length; pos += MAX_CHANNEL_DATA) {
+            final int len = Math.min(MAX_CHANNEL_DATA, data.length - pos);
+            final byte[] msg = new byte[9 + len];
+            msg[0] = (byte) Packets.SSH_MSG_CHANNEL_DATA;
+            msg[4] = 1;
+            msg[5] = (byte) (len >> 24);
+            msg[6] = (byte) (len >> 16);
+            msg[7] = (byte) (len >> 8);
+            msg[8] = (byte) len;
+            System.arraycopy(data, pos, msg, 9, len);
+            session.add(msg);
+        }
+    }
+
+    private static String createCib(final int round) {
+        final StringBuilder xml = new StringBuilder(RESOURCES * 2000);
+        xml.append("---start---\n<pcmk>\n<cib epoch=\"12\" num_updates=\"").append(100 + round)
+           .append("\" admin_epoch=\"0\" dc-uuid=\"1\" cib-last-written=\"Mon Oct 12 10:1")
+           .append(round % 10).append(":0").append(round % 6).append(" 2015\">\n <configuration>\n  <resources>\n");
+        for (int i = 1; i <= RESOURCES; i++) {
+            final String id = "res_Dummy_" + i;
+            xml.append("   <primitive class=\"ocf\" id=\"").append(id)
+               .append("\" provider=\"heartbeat\" type=\"Dummy\">\n")
+               .append("    <operations id=\"").append(id).append("-operations\">\n")
+               .append("     <op id=\"").append(id).append("-start-0\" interval=\"0\" name=\"start\"")
+               .append(" timeout=\"200\"/>\n")
+               .append("     <op id=\"").append(id).append("-stop-0\" interval=\"0\" name=\"stop\"")
+               .append(" timeout=\"192\"/>\n")
+               .append("     <op id=\"").append(id).append("-monitor-121\" interval=\"121\" name=\"monitor\"")
+               .append(" timeout=\"154\"/>\n")
+               .append("    </operations>\n   </primitive>\n");
+        }
+        xml.append("  </resources>\n </configuration>\n <status>\n");
+        for (int n = 1; n <= 2; n++) {
+            xml.append("  <node_state id=\"").append(n).append("\" uname=\"node").append(n)
+               .append("\" in_ccm=\"true\" crmd=\"online\" join=\"member\">\n   <lrm id=\"").append(n)
+               .append("\">\n    <lrm_resources>\n");
+            for (int i = 1; i <= RESOURCES; i++) {
+                xml.append("     <lrm_resource id=\"res_Dummy_").append(i)
+                   .append("\" type=\"Dummy\" class=\"ocf\" provider=\"heartbeat\">\n")
+                   .append("      <lrm_rsc_op id=\"res_Dummy_").append(i)
+                   .append("_monitor_121000\" operation=\"monitor\" call-id=\"").append(i * 7 + round)
+                   .append("\" rc-code=\"0\" op-status=\"0\" interval=\"121000\" last-rc-change=\"")
+                   .append(1444637000 + round * 2).append("\" exec-time=\"").append(10 + (i + round) % 13)
+                   .append("\" queue-time=\"0\"/>\n     </lrm_resource>\n");
+            }
+            xml.append("    </lrm_resources>\n   </lrm>\n  </node_state>\n");
+        }
+        xml.append(" </status>\n</cib>\n</pcmk>\n---done---\n");
+        return xml.toString();
+    }
+
+    private static String createDomainXml(final int vm, final int round) {
+        final String name = "vm" + vm;
+        return "<domain type='kvm' id='" + (vm + 1) + "'>\n"
+               + "  <name>" + name + "</name>\n"
+               + "  <uuid>0f2b7c4e-5a1d-4d8e-9c3b-00000000000" + vm + "</uuid>\n"
+               + "  <memory unit='KiB'>1048576</memory>\n"
+               + "  <currentMemory unit='KiB'>1048576</currentMemory>\n"
+               + "  <vcpu placement='static'>2</vcpu>\n"
+               + "  <os>\n    <type arch='x86_64' machine='pc-i440fx-2.1'>hvm</type>\n"
+               + "    <boot dev='hd'/>\n  </os>\n"
+               + "  <features>\n    <acpi/>\n    <apic/>\n    <pae/>\n  </features>\n"
+               + "  <clock offset='utc'/>\n"
+               + "  <on_poweroff>destroy</on_poweroff>\n  <on_reboot>restart</on_reboot>\n"
+               + "  <on_crash>restart</on_crash>\n"
+               + "  <devices>\n    <emulator>/usr/bin/kvm</emulator>\n"
+               + "    <disk type='block' device='disk'>\n"
+               + "      <driver name='qemu' type='raw' cache='none'/>\n"
+               + "      <source dev='/dev/drbd" + vm + "'/>\n"
+               + "      <target dev='vda' bus='virtio'/>\n"
+               + "      <address type='pci' domain='0x0000' bus='0x00' slot='0x05' function='0x0'/>\n"
+               + "    </disk>\n"
+               + "    <interface type='bridge'>\n"
+               + "      <mac address='52:54:00:6e:12:0" + vm + "'/>\n"
+               + "      <source bridge='br0'/>\n"
+               + "      <target dev='vnet" + vm + "'/>\n"
+               + "      <model type='virtio'/>\n"
+               + "    </interface>\n"
+               + "    <graphics type='vnc' port='" + (5900 + vm) + "' autoport='yes' listen='0.0.0.0'>\n"
+               + "      <listen type='address' address='0.0.0.0'/>\n"
+               + "    </graphics>\n"
+               + "  </devices>\n"
+               + "  <seclabel type='dynamic' model='apparmor' relabel='yes'>\n"
+               + "    <label>libvirt-0f2b7c4e-5a1d-4d8e-9c3b-00000000000" + vm + "</label>\n"
+               + "  </seclabel>\n"
+               + "  <cputime>" + (123456789L + round * 2000000L * (vm + 1)) + "</cputime>\n"
+               + "</domain>\n";
+    }
+
+    private static String createDrbdXml(final int round) {
+        final StringBuilder xml = new StringBuilder(4000);
+        xml.append("<config file=\"/etc/drbd.conf\">\n");
+        for (int r = 0; r < 2; r++) {
+            xml.append("<resource name=\"r").append(r).append("\" protocol=\"C\">\n");
+            for (int n = 1; n <= 2; n++) {
+                xml.append("    <host name=\"node").append(n).append("\">\n")
+                   .append("        <volume vnr=\"0\">\n")
+                   .append("            <device minor=\"").append(r).append("\">/dev/drbd").append(r)
+                   .append("</device>\n")
+                   .append("            <disk>/dev/vg0/lv").append(r).append("</disk>\n")
+                   .append("            <meta-disk>internal</meta-disk>\n")
+                   .append("        </volume>\n")
+                   .append("        <address family=\"ipv4\" port=\"").append(7788 + r).append("\">192.168.1.")
+                   .append(10 + n).append("</address>\n")
+                   .append("    </host>\n");
+            }
+            xml.append("    <section name=\"net\">\n")
+               .append("        <option name=\"allow-two-primaries\" value=\"yes\"/>\n")
+               .append("    </section>\n</resource>\n");
+        }
+        xml.append("</config>\n");
+        xml.append("0: cs:SyncSource ro:Primary/Secondary ds:UpToDate/Inconsistent C r-----\n")
+           .append("    ns:").append(1048576 + round * 40000).append(" nr:0 dw:0 dr:")
+           .append(1049000 + round * 40000).append(" al:0 bm:64 lo:0 pe:0 ua:0 ap:0 ep:1 wo:f oos:")
+           .append(2097152 - round * 40000).append('\n');
+        return xml.toString();
+    }
+
+    private static String createHwInfo(final int round) {
+        final StringBuilder info = new StringBuilder(2000);
+        info.append("net-info\n");
+        for (int i = 0; i < 4; i++) {
+            info.append("eth").append(i).append(" ipv4 192.168.").append(i).append(".11 255.255.255.0\n");
+        }
+        info.append("disk-space\n");
+        for (int i = 0; i < 8; i++) {
+            info.append("/dev/vg0/lv").append(i).append(' ').append((round + i * 3) % 100).append('\n');
+        }
+        info.append("uptime\n").append(123456 + round * 2).append(" seconds\n");
+        return info.toString();
+    }
+
+    /** Counts the bytes on the wire, optionally keeps them. */
+    private static final class CountingOutputStream extends OutputStream {
+        private final ByteArrayOutputStream buffer;
+        private long count = 0;
+
+        CountingOutputStream(final ByteArrayOutputStream buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(final int b) {
+            count++;
+            if (buffer != null) {
+                buffer.write(b);
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+            if (buffer != null) {
+                buffer.write(b, off, len);
+            }
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        ByteArrayOutputStream getBuffer() {
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.common.domain.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.ListResourceBundle;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import lcmc.configs.DistResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Builds the commands for all string keys of all DistResource bundles, with
+ * the dist and version of the bundle, once as it was done in
+ * Tools.getDistCommand and Host.replaceVars, with a bundle lookup for every
+ * part and with the regular expressions, and once with the cached command
+ * templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CommandTemplateBenchmark {
+    private static final String BUNDLE_PREFIX = "DistResource_";
+    private static final String ARCH = "x86_64";
+    private static final String KERNEL_VERSION = "3.2.0-4-amd64";
+    private static final String DIST_VERSION = "debian-squeeze";
+    private static final String HELPER = "/usr/local/bin/lcmc-gui-helper-1.7.0";
+
+    /** text, dist and version of every command. */
+    private final List<String[]> commands = new ArrayList<String[]>();
+
+    private final CommandTemplate.Variables variables = new CommandTemplate.Variables() {
+        @Override
+        public String get(final String placeholder) {
+            if ("@USER@".equals(placeholder)) {
+                return "lcmc";
+            } else if ("@PASSWORD@".equals(placeholder)) {
+                return "*****";
+            } else if ("@KERNELVERSIONDIR@".equals(placeholder)) {
+                return KERNEL_VERSION;
+            } else if ("@DISTRIBUTION@".equals(placeholder)) {
+                return DIST_VERSION;
+            } else if ("@ARCH@".equals(placeholder)) {
+                return ARCH;
+            } else if ("@SUPPORTDIR@".equals(placeholder)) {
+                return "support";
+            } else if ("@DRBDDIR@".equals(placeholder)) {
+                return "drbd";
+            } else if ("@GUI-HELPER@".equals(placeholder) || "@GUI-HELPER-PROG@".equals(placeholder)) {
+                return HELPER;
+            }
+            return null;
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException,
+                               URISyntaxException,
+                               ClassNotFoundException,
+                               InstantiationException,
+                               IllegalAccessException {
+        for (final String bundleName : getBundleNames()) {
+            final String distAndVersion = bundleName.substring(BUNDLE_PREFIX.length() - 1);
+            final String dist;
+            final String version;
+            if (distAndVersion.isEmpty()) {
+                dist = "";
+                version = "";
+            } else {
+                final int versionStart = distAndVersion.indexOf('_', 1);
+                dist = versionStart < 0 ? distAndVersion.substring(1) : distAndVersion.substring(1, versionStart);
+                version = versionStart < 0 ? "" : distAndVersion.substring(versionStart + 1);
+            }
+            final ListResourceBundle bundle =
+                    (ListResourceBundle) Class.forName("lcmc.configs." + bundleName).newInstance();
+            final Enumeration<String> keys = bundle.getKeys();
+            while (keys.hasMoreElements()) {
+                final String key = keys.nextElement();
+                if (bundle.getObject(key) instanceof String) {
+                    commands.add(new String[]{key, dist, version});
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void regexCommands(final Blackhole blackhole) {
+        for (final String[] command : commands) {
+            blackhole.consume(replaceVarsWithRegex(getDistCommandWithLookups(command[0], command[1], command[2])));
+        }
+    }
+
+    @Benchmark
+    public void commandTemplates(final Blackhole blackhole) {
+        for (final String[] command : commands) {
+            final String distCommand =
+                    Tools.getDistCommandTemplate(command[0], command[1], command[2], ARCH, false, false).toString();
+            blackhole.consume(CommandTemplate.compile(distCommand).render(variables));
+        }
+    }
+
+    /** The former Tools.getDistCommand without bash and sudo. */
+    private static String getDistCommandWithLookups(final String text, final String dist, final String version) {
+        final String[] texts = text.split(";;;");
+        final List<String> results = new ArrayList<String>();
+        for (final String t : texts) {
+            final ResourceBundle resourceString =
+                    ResourceBundle.getBundle("lcmc.configs.DistResource", new Locale(dist, version));
+            String distString;
+            try {
+                distString = resourceString.getString(t + '.' + ARCH);
+            } catch (final RuntimeException e) {
+                try {
+                    distString = resourceString.getString(t);
+                } catch (final RuntimeException e2) {
+                    distString = t;
+                }
+            }
+            results.add(distString);
+        }
+        return Tools.join(";;;", results.toArray(new String[results.size()]));
+    }
+
+    /** The former Host.replaceVars. */
+    private static String replaceVarsWithRegex(String command) {
+        if (command.contains("@USER@")) {
+            command = command.replaceAll("@USER@", "lcmc");
+        }
+        if (command.contains("@PASSWORD@")) {
+            command = command.replaceAll("@PASSWORD@", "*****");
+        }
+        if (command.contains("@KERNELVERSIONDIR@")) {
+            command = command.replaceAll("@KERNELVERSIONDIR@", KERNEL_VERSION);
+        }
+        if (command.contains("@DISTRIBUTION@")) {
+            command = command.replaceAll("@DISTRIBUTION@", DIST_VERSION);
+        }
+        if (command.contains("@ARCH@")) {
+            command = command.replaceAll("@ARCH@", ARCH);
+        }
+        if (command.contains("@SUPPORTDIR@")) {
+            command = command.replaceAll("@SUPPORTDIR@", "support");
+        }
+        if (command.contains("@DRBDDIR@")) {
+            command = command.replaceAll("@DRBDDIR@", "drbd");
+        }
+        if (command.contains("@GUI-HELPER@")) {
+            command = command.replaceAll("@GUI-HELPER@", HELPER);
+        }
+        if (command.contains("@GUI-HELPER-PROG@")) {
+            command = command.replaceAll("@GUI-HELPER-PROG@", HELPER);
+        }
+        return command;
+    }
+
+    /** Returns DistResource and the DistResource_* bundles from the class path. */
+    private static List<String> getBundleNames() throws IOException, URISyntaxException {
+        final List<String> names = new ArrayList<String>();
+        final URL url = DistResource.class.getResource("DistResource.class");
+        if ("jar".equals(url.getProtocol())) {
+            final JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+            final Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                addBundleName(names, entries.nextElement().getName().replaceFirst(".*/", ""));
+            }
+        } else {
+            final String[] files = new File(url.toURI()).getParentFile().list();
+            if (files != null) {
+                for (final String file : files) {
+                    addBundleName(names, file);
+                }
+            }
+        }
+        names.add("DistResource");
+        return names;
+    }
+
+    private static void addBundleName(final List<String> names, final String fileName) {
+        if (fileName.startsWith(BUNDLE_PREFIX) && fileName.endsWith(".class") && !fileName.contains("$")) {
+            names.add(fileName.substring(0, fileName.length() - ".class".length()));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.crm.domain;
+
+import java.util.concurrent.TimeUnit;
+
+import lcmc.host.domain.Host;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the DOM and the streaming cib query parser. The cib is the
+ * res_Dummy_N configuration from the lcmc-test/test8-30 test, scaled up to
+ * the given number of primitives, with constraints and lrm status on two
+ * nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CibQueryBenchmark {
+    private static final String[] NODES = {"node1", "node2"};
+
+    @Param({"100", "1000", "4000"})
+    private int primitives;
+
+    @Mock
+    private Host host;
+    @InjectMocks
+    private CrmXml crmXml;
+
+    private String cib;
+
+    @Setup
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        cib = createCib(primitives);
+    }
+
+    @Benchmark
+    public CibQuery domParser() {
+        return crmXml.parseCibQueryDom(cib);
+    }
+
+    @Benchmark
+    public CibQuery streamParser() {
+        return crmXml.parseCibQuery(cib);
+    }
+
+    static String createCib(final int primitives) {
+        final StringBuilder xml = new StringBuilder(primitives * 2000);
+        xml.append("<pcmk>\n<cib epoch=\"1\" num_updates=\"1\" admin_epoch=\"0\" dc-uuid=\"1\">\n")
+           .append(" <configuration>\n  <crm_config>\n   <cluster_property_set id=\"cib-bootstrap-options\">\n")
+           .append("    <nvpair id=\"cib-bootstrap-options-stonith-enabled\" name=\"stonith-enabled\"")
+           .append(" value=\"false\"/>\n")
+           .append("    <nvpair id=\"cib-bootstrap-options-no-quorum-policy\" name=\"no-quorum-policy\"")
+           .append(" value=\"ignore\"/>\n")
+           .append("   </cluster_property_set>\n  </crm_config>\n  <nodes>\n");
+        for (int n = 0; n < NODES.length; n++) {
+            xml.append("   <node id=\"").append(n + 1).append("\" uname=\"").append(NODES[n]).append("\"/>\n");
+        }
+        xml.append("  </nodes>\n  <resources>\n");
+        for (int i = 1; i <= primitives; i++) {
+            final String id = "res_Dummy_" + i;
+            xml.append("   <primitive class=\"ocf\" id=\"").append(id).append("\" provider=\"heartbeat\"")
+               .append(" type=\"Dummy\">\n")
+               .append("    <operations id=\"").append(id).append("-operations\">\n");
+            appendOp(xml, id, "start", "0", "200");
+            appendOp(xml, id, "stop", "0", "192");
+            appendOp(xml, id, "monitor", "121", "154");
+            appendOp(xml, id, "migrate_to", "0", "123");
+            appendOp(xml, id, "migrate_from", "0", "122");
+            xml.append("    </operations>\n")
+               .append("    <meta_attributes id=\"").append(id).append("-meta_attributes\">\n")
+               .append("     <nvpair id=\"").append(id).append("-meta_attributes-target-role\"")
+               .append(" name=\"target-role\" value=\"stopped\"/>\n")
+               .append("    </meta_attributes>\n   </primitive>\n");
+        }
+        xml.append("  </resources>\n  <constraints>\n");
+        for (int i = 2; i <= primitives; i++) {
+            xml.append("   <rsc_colocation id=\"c").append(i).append("\" rsc=\"res_Dummy_").append(i)
+               .append("\" score=\"INFINITY\" with-rsc=\"res_Dummy_").append(i - 1).append("\"/>\n")
+               .append("   <rsc_order first=\"res_Dummy_").append(i - 1).append("\" id=\"o").append(i)
+               .append("\" score=\"INFINITY\" then=\"res_Dummy_").append(i).append("\"/>\n");
+        }
+        xml.append("  </constraints>\n </configuration>\n <status>\n");
+        for (int n = 0; n < NODES.length; n++) {
+            xml.append("  <node_state id=\"").append(n + 1).append("\" uname=\"").append(NODES[n])
+               .append("\" in_ccm=\"true\" crmd=\"online\" join=\"member\">\n")
+               .append("   <lrm id=\"").append(n + 1).append("\">\n    <lrm_resources>\n");
+            for (int i = 1; i <= primitives; i++) {
+                xml.append("     <lrm_resource id=\"res_Dummy_").append(i)
+                   .append("\" type=\"Dummy\" class=\"ocf\" provider=\"heartbeat\">\n")
+                   .append("      <lrm_rsc_op id=\"res_Dummy_").append(i)
+                   .append("_last_0\" operation=\"stop\" rc-code=\"0\" op-status=\"0\" interval=\"0\"")
+                   .append(" transition-key=\"1:2:0:6b7d5f4c-7b4a-4a3a-8d8e-0a0a0a0a0a0a\"/>\n")
+                   .append("     </lrm_resource>\n");
+            }
+            xml.append("    </lrm_resources>\n   </lrm>\n  </node_state>\n");
+        }
+        xml.append(" </status>\n</cib>\n</pcmk>\n");
+        return xml.toString();
+    }
+
+    private static void appendOp(final StringBuilder xml,
+                                 final String id,
+                                 final String name,
+                                 final String interval,
+                                 final String timeout) {
+        xml.append("     <op id=\"").append(id).append('-').append(name).append("-").append(interval)
+           .append("\" interval=\"").append(interval).append("\" name=\"").append(name)
+           .append("\" timeout=\"").append(timeout).append("\"/>\n");
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.drbd.domain;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the event parsing with the regular expressions, as it was done
+ * in DrbdXml.parseDrbdEvent, with the DrbdEvent tokenizer. The events are
+ * recorded during a resync of two volumes. DRBD 9 prints the events2
+ * format, that is not parsed, and shows how fast such lines are skipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DrbdEventBenchmark {
+    /** drbdsetup /dev/drbd0 events -a -u */
+    private static final String[] DRBD_83_EVENTS = {
+        "1 ST 0 { cs:WFConnection st:Primary/Unknown ds:UpToDate/DUnknown r--- }\n",
+        "2 ST 0 { cs:WFReportParams st:Primary/Unknown ds:UpToDate/DUnknown r--- }\n",
+        "3 ST 0 { cs:WFBitMapS st:Primary/Secondary ds:UpToDate/Inconsistent r--- }\n",
+        "4 ST 0 { cs:SyncSource st:Primary/Secondary ds:UpToDate/Inconsistent r--- }\n",
+        "5 SP 0 0.8\n",
+        "6 SP 0 3.2\n",
+        "7 ST 1 { cs:SyncSource st:Primary/Secondary ds:UpToDate/Inconsistent r--- }\n",
+        "8 SP 1 0.3\n",
+        "9 SP 0 12.7\n",
+        "10 SP 1 5.9\n",
+        "11 UH 1 before-resync-target\n",
+        "12 ST 0 { cs:Connected st:Primary/Secondary ds:UpToDate/UpToDate r--- }\n",
+    };
+    /** drbdsetup all events */
+    private static final String[] DRBD_84_EVENTS = {
+        "1 ST 0,r0[0] { cs:WFConnection ro:Primary/Unknown ds:UpToDate/DUnknown r----- }\n",
+        "2 ST 0,r0[0] { cs:WFReportParams ro:Primary/Unknown ds:UpToDate/DUnknown r----- }\n",
+        "3 ST 0,r0[0] { cs:WFBitMapS ro:Primary/Secondary ds:UpToDate/Inconsistent r----- }\n",
+        "4 ST 0,r0[0] { cs:SyncSource ro:Primary/Secondary ds:UpToDate/Inconsistent r----- }\n",
+        "5 SP 0,r0[0] 0.8\n",
+        "6 SP 0,r0[0] 3.2\n",
+        "7 ST 1,r0[1] { cs:SyncSource ro:Primary/Secondary ds:UpToDate/Inconsistent r----- }\n",
+        "8 SP 1,r0[1] 0.3\n",
+        "9 SP 0,r0[0] 12.7\n",
+        "10 SP 1,r0[1] 5.9\n",
+        "11 UH 1,r0[1] split-brain\n",
+        "12 ST 0,r0[0] { cs:Connected ro:Primary/Secondary ds:UpToDate/UpToDate r----- }\n",
+    };
+    /** drbdsetup events2 all */
+    private static final String[] DRBD_9_EVENTS = {
+        "exists resource name:r0 role:Primary suspended:no\n",
+        "exists connection name:r0 peer-node-id:1 conn-name:node2 connection:Connected role:Secondary\n",
+        "change peer-device name:r0 peer-node-id:1 conn-name:node2 volume:0 replication:SyncSource"
+        + " peer-disk:Inconsistent resync-suspended:no\n",
+        "change peer-device name:r0 peer-node-id:1 conn-name:node2 volume:0 done:0.80\n",
+        "change peer-device name:r0 peer-node-id:1 conn-name:node2 volume:0 done:3.20\n",
+        "change peer-device name:r0 peer-node-id:1 conn-name:node2 volume:1 replication:SyncSource"
+        + " peer-disk:Inconsistent resync-suspended:no\n",
+        "change peer-device name:r0 peer-node-id:1 conn-name:node2 volume:1 done:0.30\n",
+        "change peer-device name:r0 peer-node-id:1 conn-name:node2 volume:0 done:12.70\n",
+        "change peer-device name:r0 peer-node-id:1 conn-name:node2 volume:1 done:5.90\n",
+        "call helper name:r0 peer-node-id:1 conn-name:node2 volume:1 helper:before-resync-target\n",
+        "change peer-device name:r0 peer-node-id:1 conn-name:node2 volume:0 replication:Established"
+        + " peer-disk:UpToDate\n",
+        "exists -\n",
+    };
+
+    @Param({"8.3", "8.4", "9"})
+    private String drbdVersion;
+
+    private String[] events;
+
+    @Setup
+    public void setUp() {
+        if ("8.3".equals(drbdVersion)) {
+            events = DRBD_83_EVENTS;
+        } else if ("8.4".equals(drbdVersion)) {
+            events = DRBD_84_EVENTS;
+        } else {
+            events = DRBD_9_EVENTS;
+        }
+    }
+
+    @Benchmark
+    public void regexParser(final Blackhole blackhole) {
+        for (final String event : events) {
+            parseWithRegex(event, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void tokenizer(final Blackhole blackhole) {
+        for (final String event : events) {
+            blackhole.consume(DrbdEvent.parse(event));
+        }
+    }
+
+    /** The parsing part of the former DrbdXml.parseDrbdEvent. */
+    private static void parseWithRegex(final String rawOutput, final Blackhole blackhole) {
+        final String output = rawOutput.trim();
+        Pattern p = Pattern.compile("^(\\d+)\\s+ST\\s+(\\S+)\\s+\\{\\s+cs:(\\S+)\\s+"
+                                    + "(?:st|ro):(\\S+)/(\\S+)\\s+ds:(\\S+)/(\\S+)\\s+(\\S+).*?");
+        Matcher m = p.matcher(output);
+        final Pattern pDev = Pattern.compile("^(\\d+),(\\S+)\\[(\\d+)\\]$");
+        if (m.matches()) {
+            final Matcher mDev = pDev.matcher(m.group(2));
+            blackhole.consume(mDev.matches() ? mDev.group(1) : m.group(2));
+            for (int i = 3; i <= 8; i++) {
+                blackhole.consume(m.group(i));
+            }
+            return;
+        }
+        p = Pattern.compile("^(\\d+)\\s+SP\\s+(\\S+)\\s(\\d+\\.\\d+).*");
+        m = p.matcher(output);
+        if (m.matches()) {
+            final Matcher mDev = pDev.matcher(m.group(2));
+            blackhole.consume(mDev.matches() ? mDev.group(1) : m.group(2));
+            blackhole.consume(m.group(3));
+            return;
+        }
+        p = Pattern.compile("^(\\d+)\\s+UH\\s+(\\S+)\\s([a-z-]+).*");
+        m = p.matcher(output);
+        if (m.matches()) {
+            final Matcher mDev = pDev.matcher(m.group(2));
+            blackhole.consume(mDev.matches() ? mDev.group(1) : m.group(2));
+            blackhole.consume(m.group(3));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ch.ethz.ssh2;
+
+/**
+ * A <code>ChannelWindowParameters</code> object can be used to specify the
+ * receive window and the maximum packet size that are offered to the server
+ * for every channel opened on a connection.
+ * <p>
+ * A channel starts with the initial window. If the server has to stop
+ * because the window is used up, while the reader keeps up with the data,
+ * the window grows towards the observed bandwidth-delay product, at least
+ * doubling each time, but never above the maximum window. Setting the
+ * maximum to the initial window turns the growing off.
+ *
+ * @see Connection#setChannelWindowParameters(ChannelWindowParameters)
+ */
+
+public class ChannelWindowParameters
+{
+	private final int initialWindowSize;
+	private final int maxWindowSize;
+	private final int maxPacketSize;
+
+	private static final int MIN_WINDOW_SIZE = 1024;
+	private static final int MAX_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final int MIN_PACKET_SIZE = 1024;
+
+	/**
+	 * The transport does not accept bigger packets than 35000 bytes. Leave
+	 * enough slack for the packet and the channel data headers.
+	 */
+	private static final int MAX_PACKET_SIZE = 35000 - 1024;
+
+	/**
+	 * Same as calling
+	 * {@link #ChannelWindowParameters(int, int, int) ChannelWindowParameters(30000, 30000, 33976)}.
+	 * This is also the default used by the Connection class, a fixed window
+	 * that every server copes with.
+	 */
+	public ChannelWindowParameters()
+	{
+		this(30000, 30000, MAX_PACKET_SIZE);
+	}
+
+	/**
+	 * All window sizes have to be &gt;= 1024 and &lt;= 64 MB, the packet
+	 * size &gt;= 1024 and &lt;= 33976. Furthermore,
+	 * initialWindowSize &lt;= maxWindowSize.
+	 *
+	 * @param initialWindowSize the window of a new channel
+	 * @param maxWindowSize the window cannot grow above this
+	 * @param maxPacketSize the biggest data packet the server may send
+	 */
+	public ChannelWindowParameters(int initialWindowSize, int maxWindowSize, int maxPacketSize)
+	{
+		if ((initialWindowSize < MIN_WINDOW_SIZE) || (initialWindowSize > MAX_WINDOW_SIZE))
+			throw new IllegalArgumentException("initialWindowSize out of range!");
+
+		if ((maxWindowSize < MIN_WINDOW_SIZE) || (maxWindowSize > MAX_WINDOW_SIZE))
+			throw new IllegalArgumentException("maxWindowSize out of range!");
+
+		if (maxWindowSize < initialWindowSize)
+			throw new IllegalArgumentException("maxWindowSize must not be smaller than initialWindowSize!");
+
+		if ((maxPacketSize < MIN_PACKET_SIZE) || (maxPacketSize > MAX_PACKET_SIZE))
+			throw new IllegalArgumentException("maxPacketSize out of range!");
+
+		this.initialWindowSize = initialWindowSize;
+		this.maxWindowSize = maxWindowSize;
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	/**
+	 * Get the window of a new channel.
+	 *
+	 * @return the initial window size in bytes
+	 */
+	public int getInitialWindowSize()
+	{
+		return initialWindowSize;
+	}
+
+	/**
+	 * Get the size the window can grow to.
+	 *
+	 * @return the maximum window size in bytes
+	 */
+	public int getMaxWindowSize()
+	{
+		return maxWindowSize;
+	}
+
+	/**
+	 * Get the maximum packet size offered to the server.
+	 *
+	 * @return the maximum packet size in bytes
+	 */
+	public int getMaxPacketSize()
+	{
+		return maxPacketSize;
+	}
+}
@@ -12,6 +12,7 @@ import java.util.Vector;
 
 import ch.ethz.ssh2.auth.AuthenticationManager;
 import ch.ethz.ssh2.channel.ChannelManager;
+import ch.ethz.ssh2.compression.CompressionFactory;
 import ch.ethz.ssh2.crypto.CryptoWishList;
 import ch.ethz.ssh2.crypto.cipher.BlockCipherFactory;
 import ch.ethz.ssh2.crypto.digest.MAC;
@@ -90,6 +91,8 @@ import ch.ethz.ssh2.util.TimeoutService.TimeoutToken;
 
 	private DHGexParameters dhgexpara = new DHGexParameters();
 
+	private ChannelWindowParameters channelWindowParameters = new ChannelWindowParameters();
+
 	private final String hostname;
 
 	private final int port;
@@ -173,7 +176,7 @@ import ch.ethz.ssh2.util.TimeoutService.TimeoutToken;
 			am = new AuthenticationManager(tm);
 
 		if (cm == null)
-			cm = new ChannelManager(tm);
+			cm = new ChannelManager(tm, channelWindowParameters);
 
 		if (user == null)
 			throw new IllegalArgumentException("user argument is null");
@@ -254,7 +257,7 @@ import ch.ethz.ssh2.util.TimeoutService.TimeoutToken;
 			am = new AuthenticationManager(tm);
 
 		if (cm == null)
-			cm = new ChannelManager(tm);
+			cm = new ChannelManager(tm, channelWindowParameters);
 
 		if (user == null)
 			throw new IllegalArgumentException("user argument is null");
@@ -300,7 +303,7 @@ import ch.ethz.ssh2.util.TimeoutService.TimeoutToken;
 			am = new AuthenticationManager(tm);
 
 		if (cm == null)
-			cm = new ChannelManager(tm);
+			cm = new ChannelManager(tm, channelWindowParameters);
 
 		if (user == null)
 			throw new IllegalArgumentException("user argument is null");
@@ -351,7 +354,7 @@ import ch.ethz.ssh2.util.TimeoutService.TimeoutToken;
 			am = new AuthenticationManager(tm);
 
 		if (cm == null)
-			cm = new ChannelManager(tm);
+			cm = new ChannelManager(tm, channelWindowParameters);
 
 		if (user == null)
 			throw new IllegalArgumentException("user argument is null");
@@ -419,7 +422,7 @@ import ch.ethz.ssh2.util.TimeoutService.TimeoutToken;
 			am = new AuthenticationManager(tm);
 
 		if (cm == null)
-			cm = new ChannelManager(tm);
+			cm = new ChannelManager(tm, channelWindowParameters);
 
 		if (user == null)
 			throw new IllegalArgumentException("user argument is null");
@@ -952,7 +955,7 @@ import ch.ethz.ssh2.util.TimeoutService.TimeoutToken;
 			am = new AuthenticationManager(tm);
 
 		if (cm == null)
-			cm = new ChannelManager(tm);
+			cm = new ChannelManager(tm, channelWindowParameters);
 
 		return am.getRemainingMethods(user);
 	}
@@ -1176,6 +1179,42 @@ import ch.ethz.ssh2.util.TimeoutService.TimeoutToken;
 		dhgexpara = dgp;
 	}
 
+	/**
+	 * Turns the "zlib@openssh.com" and "zlib" compression on or off. It is
+	 * off by default. It has to be called before the connection is
+	 * established. A server without compression falls back to "none", so
+	 * does a Java runtime older than 7.
+	 * 
+	 * @param enabled
+	 */
+	public synchronized void setCompression(boolean enabled)
+	{
+		if (tm != null)
+			throw new IllegalStateException("Connection to " + hostname + " is already in connected state!");
+
+		String[] algos = enabled ? CompressionFactory.getCompressorList() : CompressionFactory
+				.getDefaultCompressorList();
+
+		cryptoWishList.c2s_comp_algos = algos;
+		cryptoWishList.s2c_comp_algos = algos;
+	}
+
+	/**
+	 * Sets the receive window and packet size of the channels. Default values
+	 * are defined in the {@link ChannelWindowParameters} class. It has to be
+	 * called before the authentication, later calls have no effect.
+	 * 
+	 * @param cwp {@link ChannelWindowParameters}, non null.
+	 * 
+	 */
+	public synchronized void setChannelWindowParameters(ChannelWindowParameters cwp)
+	{
+		if (cwp == null)
+			throw new IllegalArgumentException();
+
+		channelWindowParameters = cwp;
+	}
+
 	/**
 	 * Unless you know what you are doing, you will never need this.
 	 * 
@@ -0,0 +1,24 @@
+package ch.ethz.ssh2;
+
+/**
+ * A <code>JumpHostProxyData</code> object is used to connect to the SSH-2 server
+ * through a "direct-tcpip" channel of an already authenticated connection to a
+ * jump host, instead of a TCP/IP socket. Every connect() opens a new channel,
+ * the connection to the jump host stays open.
+ * 
+ * @see Connection#setProxyData(ProxyData)
+ * @see Connection#createLocalStreamForwarder(String, int)
+ */
+
+public class JumpHostProxyData implements ProxyData
+{
+	public final Connection jumpHost;
+
+	/**
+	 * @param jumpHost Authenticated connection to the jump host.
+	 */
+	public JumpHostProxyData(Connection jumpHost)
+	{
+		this.jumpHost = jumpHost;
+	}
+}
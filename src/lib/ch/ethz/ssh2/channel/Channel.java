@@ -1,6 +1,8 @@
 
 package ch.ethz.ssh2.channel;
 
+import ch.ethz.ssh2.ChannelWindowParameters;
+
 /**
  * Channel.
  * 
@@ -40,6 +42,7 @@ public class Channel
 	static final int STATE_OPEN = 2;
 	static final int STATE_CLOSED = 4;
 
+	/* copy buffer of the stream forwarders */
 	static final int CHANNEL_BUFFER_SIZE = 30000;
 
 	/*
@@ -117,13 +120,27 @@ public class Channel
 	int localMaxPacketSize = -1;
 	int remoteMaxPacketSize = -1;
 
-	final byte[] stdoutBuffer = new byte[CHANNEL_BUFFER_SIZE];
-	final byte[] stderrBuffer = new byte[CHANNEL_BUFFER_SIZE];
+	/* the window we currently offer, grows up to maxWindowSize */
+	int windowSize;
+	final int maxWindowSize;
+
+	final ChannelBuffer stdoutBuffer;
+	final ChannelBuffer stderrBuffer;
+
+	/*
+	 * Window auto-tuning. The window is stalled, if the remote side used it
+	 * up. If we send a window adjust while stalled, the next data comes
+	 * one round trip later.
+	 */
+	boolean windowStalled = false;
+	long rttProbeTime = 0;
+	long rttNanos = 0;
+	long rateStartTime;
+	long rateStartBytes = 0;
 
-	int stdoutReadpos = 0;
-	int stdoutWritepos = 0;
-	int stderrReadpos = 0;
-	int stderrWritepos = 0;
+	long bytesReceived = 0;
+	long bytesSent = 0;
+	final long openTime;
 
 	boolean EOF = false;
 
@@ -147,14 +164,98 @@ public class Channel
 	{
 		this.cm = cm;
 
-		this.localWindow = CHANNEL_BUFFER_SIZE;
-		this.localMaxPacketSize = 35000 - 1024; // leave enough slack
+		ChannelWindowParameters cwp = cm.getWindowParameters();
+
+		this.windowSize = cwp.getInitialWindowSize();
+		this.maxWindowSize = cwp.getMaxWindowSize();
+		this.localWindow = windowSize;
+		this.localMaxPacketSize = cwp.getMaxPacketSize();
+
+		this.stdoutBuffer = new ChannelBuffer(windowSize);
+		this.stderrBuffer = new ChannelBuffer(windowSize);
+
+		this.openTime = System.nanoTime();
+		this.rateStartTime = openTime;
 
 		this.stdinStream = new ChannelOutputStream(this);
 		this.stdoutStream = new ChannelInputStream(this, false);
 		this.stderrStream = new ChannelInputStream(this, true);
 	}
 
+	/**
+	 * Called with the channel locked, after len bytes were received.
+	 */
+	void dataReceived(int len)
+	{
+		localWindow -= len;
+		bytesReceived += len;
+
+		if (rttProbeTime != 0)
+		{
+			rttNanos = System.nanoTime() - rttProbeTime;
+			rttProbeTime = 0;
+		}
+
+		if (localWindow == 0)
+			windowStalled = true;
+	}
+
+	/**
+	 * Called with the channel locked, after the reader took data. Opens the
+	 * window again once it is less than half open. Neither buffer may then
+	 * hold more than the window size, counting the data that the remote side
+	 * may still send.
+	 * 
+	 * @return the window increment to send to the remote side, 0 for none
+	 */
+	int adjustWindow()
+	{
+		if (localWindow >= ((windowSize + 1) / 2))
+			return 0;
+
+		growWindow();
+
+		int minFreeSpace = windowSize - Math.max(stdoutBuffer.available(), stderrBuffer.available());
+
+		int increment = minFreeSpace - localWindow;
+		localWindow = minFreeSpace;
+
+		if (windowStalled && increment > 0)
+		{
+			windowStalled = false;
+			rttProbeTime = System.nanoTime();
+		}
+
+		return increment;
+	}
+
+	/**
+	 * If the remote side had to stop, but the reader has read everything, the
+	 * window is the bottleneck. Grow it to twice the bandwidth-delay product
+	 * seen since the last growth, but at least double it.
+	 */
+	private void growWindow()
+	{
+		if (!windowStalled || windowSize >= maxWindowSize)
+			return;
+
+		if (stdoutBuffer.available() != 0 || stderrBuffer.available() != 0)
+			return;
+
+		long now = System.nanoTime();
+		long target = 2L * windowSize;
+
+		if (rttNanos > 0 && now > rateStartTime)
+		{
+			double rate = (double) (bytesReceived - rateStartBytes) / (now - rateStartTime);
+			target = Math.max(target, (long) (2 * rate * rttNanos));
+		}
+
+		windowSize = (int) Math.min(target, maxWindowSize);
+		rateStartTime = now;
+		rateStartBytes = bytesReceived;
+	}
+
 	/* Methods to allow access from classes outside of this package */
 
 	public ChannelInputStream getStderrStream()
@@ -188,6 +289,51 @@ public class Channel
 		}
 	}
 
+	/**
+	 * @return the number of data bytes received on stdout and stderr
+	 */
+	public long getBytesReceived()
+	{
+		synchronized (this)
+		{
+			return bytesReceived;
+		}
+	}
+
+	/**
+	 * @return the number of data bytes sent on stdin
+	 */
+	public long getBytesSent()
+	{
+		synchronized (this)
+		{
+			return bytesSent;
+		}
+	}
+
+	/**
+	 * @return the average received bytes per second since the channel was opened
+	 */
+	public long getReceiveRate()
+	{
+		synchronized (this)
+		{
+			long elapsed = System.nanoTime() - openTime;
+			return (elapsed > 0) ? (long) (bytesReceived * 1e9 / elapsed) : 0;
+		}
+	}
+
+	/**
+	 * @return the receive window currently offered to the server
+	 */
+	public int getWindowSize()
+	{
+		synchronized (this)
+		{
+			return windowSize;
+		}
+	}
+
 	public String getReasonClosed()
 	{
 		synchronized (reasonClosedLock)
@@ -0,0 +1,81 @@
+package ch.ethz.ssh2.channel;
+
+/**
+ * Receive buffer of one channel stream. It starts small and grows up to the
+ * channel's window when the data comes in. The unread data is moved to the
+ * front only when there is no room at the end, not on every read.
+ * <p>
+ * May only be accessed while holding the lock of the channel.
+ */
+class ChannelBuffer
+{
+	private static final int INITIAL_SIZE = 4096;
+
+	private byte[] buffer;
+	private int readpos = 0;
+	private int writepos = 0;
+
+	ChannelBuffer(int windowSize)
+	{
+		buffer = new byte[Math.min(INITIAL_SIZE, windowSize)];
+	}
+
+	int available()
+	{
+		return writepos - readpos;
+	}
+
+	/**
+	 * The caller makes sure that available() + len never exceeds the window
+	 * of the channel, so the buffer never grows beyond it.
+	 */
+	void write(byte[] src, int off, int len)
+	{
+		if (writepos + len > buffer.length)
+		{
+			int avail = available();
+
+			if (avail + len > buffer.length)
+			{
+				int newSize = buffer.length;
+				while (newSize < avail + len)
+					newSize *= 2;
+
+				byte[] newBuffer = new byte[newSize];
+				System.arraycopy(buffer, readpos, newBuffer, 0, avail);
+				buffer = newBuffer;
+			}
+			else
+			{
+				System.arraycopy(buffer, readpos, buffer, 0, avail);
+			}
+
+			readpos = 0;
+			writepos = avail;
+		}
+
+		System.arraycopy(src, off, buffer, writepos, len);
+		writepos += len;
+	}
+
+	int read(byte[] target, int off, int len)
+	{
+		int copylen = Math.min(len, available());
+
+		System.arraycopy(buffer, readpos, target, off, copylen);
+		readpos += copylen;
+
+		if (readpos == writepos)
+		{
+			readpos = 0;
+			writepos = 0;
+		}
+
+		return copylen;
+	}
+
+	int capacity()
+	{
+		return buffer.length;
+	}
+}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Vector;
 
 import ch.ethz.ssh2.ChannelCondition;
+import ch.ethz.ssh2.ChannelWindowParameters;
 import ch.ethz.ssh2.log.Logger;
 import ch.ethz.ssh2.packets.PacketChannelOpenConfirmation;
 import ch.ethz.ssh2.packets.PacketChannelOpenFailure;
@@ -51,12 +52,25 @@ import ch.ethz.ssh2.transport.TransportManager;
 
 	private boolean listenerThreadsAllowed = true;
 
+	private final ChannelWindowParameters windowParameters;
+
 	public ChannelManager(TransportManager tm)
+	{
+		this(tm, new ChannelWindowParameters());
+	}
+
+	public ChannelManager(TransportManager tm, ChannelWindowParameters windowParameters)
 	{
 		this.tm = tm;
+		this.windowParameters = windowParameters;
 		tm.registerMessageHandler(this, 80, 100);
 	}
 
+	ChannelWindowParameters getWindowParameters()
+	{
+		return windowParameters;
+	}
+
 	private Channel getChannel(int id)
 	{
 		synchronized (channels)
@@ -410,6 +424,7 @@ import ch.ethz.ssh2.transport.TransportManager;
 					thislen = estimatedMaxDataLen;
 
 				c.remoteWindow -= thislen;
+				c.bytesSent += thislen;
 
 				msg = new byte[1 + 8 + thislen];
 
@@ -775,10 +790,9 @@ import ch.ethz.ssh2.transport.TransportManager;
 			if (c.localWindow < len)
 				throw new IOException("Remote sent too much data, does not fit into window.");
 
-			c.localWindow -= len;
+			c.dataReceived(len);
 
-			System.arraycopy(msg, 13, c.stderrBuffer, c.stderrWritepos, len);
-			c.stderrWritepos += len;
+			c.stderrBuffer.write(msg, 13, len);
 
 			c.notifyAll();
 		}
@@ -807,8 +821,8 @@ import ch.ethz.ssh2.transport.TransportManager;
 			{
 				int current_cond = 0;
 
-				int stdoutAvail = c.stdoutWritepos - c.stdoutReadpos;
-				int stderrAvail = c.stderrWritepos - c.stderrReadpos;
+				int stdoutAvail = c.stdoutBuffer.available();
+				int stderrAvail = c.stderrBuffer.available();
 
 				if (stdoutAvail > 0)
 					current_cond = current_cond | ChannelCondition.STDOUT_DATA;
@@ -869,9 +883,9 @@ import ch.ethz.ssh2.transport.TransportManager;
 			int avail;
 
 			if (extended)
-				avail = c.stderrWritepos - c.stderrReadpos;
+				avail = c.stderrBuffer.available();
 			else
-				avail = c.stdoutWritepos - c.stdoutReadpos;
+				avail = c.stdoutBuffer.available();
 
 			return ((avail > 0) ? avail : (c.EOF ? -1 : 0));
 		}
@@ -896,8 +910,8 @@ import ch.ethz.ssh2.transport.TransportManager;
 				 * channel is already closed.
 				 */
 
-				stdoutAvail = c.stdoutWritepos - c.stdoutReadpos;
-				stderrAvail = c.stderrWritepos - c.stderrReadpos;
+				stdoutAvail = c.stdoutBuffer.available();
+				stderrAvail = c.stderrBuffer.available();
 
 				if ((!extended) && (stdoutAvail != 0))
 					break;
@@ -923,45 +937,20 @@ import ch.ethz.ssh2.transport.TransportManager;
 			/* OK, there is some data. Return it. */
 
 			if (!extended)
-			{
-				copylen = (stdoutAvail > len) ? len : stdoutAvail;
-				System.arraycopy(c.stdoutBuffer, c.stdoutReadpos, target, off, copylen);
-				c.stdoutReadpos += copylen;
-
-				if (c.stdoutReadpos != c.stdoutWritepos)
-
-					System.arraycopy(c.stdoutBuffer, c.stdoutReadpos, c.stdoutBuffer, 0, c.stdoutWritepos
-							- c.stdoutReadpos);
-
-				c.stdoutWritepos -= c.stdoutReadpos;
-				c.stdoutReadpos = 0;
-			}
+				copylen = c.stdoutBuffer.read(target, off, len);
 			else
-			{
-				copylen = (stderrAvail > len) ? len : stderrAvail;
-				System.arraycopy(c.stderrBuffer, c.stderrReadpos, target, off, copylen);
-				c.stderrReadpos += copylen;
-
-				if (c.stderrReadpos != c.stderrWritepos)
-
-					System.arraycopy(c.stderrBuffer, c.stderrReadpos, c.stderrBuffer, 0, c.stderrWritepos
-							- c.stderrReadpos);
-
-				c.stderrWritepos -= c.stderrReadpos;
-				c.stderrReadpos = 0;
-			}
+				copylen = c.stderrBuffer.read(target, off, len);
 
 			if (c.state != Channel.STATE_OPEN)
 				return copylen;
 
-			if (c.localWindow < ((Channel.CHANNEL_BUFFER_SIZE + 1) / 2))
-			{
-				int minFreeSpace = Math.min(Channel.CHANNEL_BUFFER_SIZE - c.stdoutWritepos, Channel.CHANNEL_BUFFER_SIZE
-						- c.stderrWritepos);
+			int oldWindowSize = c.windowSize;
 
-				increment = minFreeSpace - c.localWindow;
-				c.localWindow = minFreeSpace;
-			}
+			increment = c.adjustWindow();
+
+			if ((c.windowSize != oldWindowSize) && log.isEnabled())
+				log.log(50, "Growing window of channel " + c.localID + " from " + oldWindowSize + " to "
+						+ c.windowSize + " (rtt " + (c.rttNanos / 1000000) + " ms)");
 
 			remoteID = c.remoteID; /* read while holding the lock */
 			localID = c.localID; /* read while holding the lock */
@@ -1031,10 +1020,9 @@ import ch.ethz.ssh2.transport.TransportManager;
 			if (c.localWindow < len)
 				throw new IOException("Remote sent too much data, does not fit into window.");
 
-			c.localWindow -= len;
+			c.dataReceived(len);
 
-			System.arraycopy(msg, 9, c.stdoutBuffer, c.stdoutWritepos, len);
-			c.stdoutWritepos += len;
+			c.stdoutBuffer.write(msg, 9, len);
 
 			c.notifyAll();
 		}
@@ -1322,7 +1310,9 @@ import ch.ethz.ssh2.transport.TransportManager;
 		}
 
 		if (log.isEnabled())
-			log.log(50, "Got SSH_MSG_CHANNEL_CLOSE (channel " + id + ")");
+			log.log(50, "Got SSH_MSG_CHANNEL_CLOSE (channel " + id + ", received " + c.getBytesReceived()
+					+ " bytes at " + c.getReceiveRate() + " bytes/s, sent " + c.getBytesSent() + " bytes, window "
+					+ c.getWindowSize() + ")");
 	}
 
 	public void msgChannelSuccess(byte[] msg, int msglen) throws IOException
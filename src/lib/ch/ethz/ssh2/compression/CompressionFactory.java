@@ -0,0 +1,64 @@
+package ch.ethz.ssh2.compression;
+
+/**
+ * CompressionFactory. "none" is always supported and needs no compressor.
+ */
+public class CompressionFactory
+{
+	private static final String[] COMPRESSORS = { "zlib@openssh.com", "zlib", "none" };
+
+	/**
+	 * @return the compression methods offered if the compression is on,
+	 *         higher priority first. Only "none", if the runtime cannot do
+	 *         zlib.
+	 */
+	public static String[] getCompressorList()
+	{
+		if (!Zlib.isSupported())
+			return getDefaultCompressorList();
+
+		return COMPRESSORS.clone();
+	}
+
+	/**
+	 * @return the compression methods offered if the compression is off
+	 */
+	public static String[] getDefaultCompressorList()
+	{
+		return new String[] { "none" };
+	}
+
+	public static void checkCompressorList(String[] compressorCandidates)
+	{
+		for (int i = 0; i < compressorCandidates.length; i++)
+		{
+			boolean found = false;
+
+			for (int j = 0; j < COMPRESSORS.length; j++)
+			{
+				if (COMPRESSORS[j].equals(compressorCandidates[i]))
+					found = true;
+			}
+
+			if (!found)
+				throw new IllegalArgumentException("Unknown compression method '" + compressorCandidates[i] + "'");
+		}
+	}
+
+	/**
+	 * @return the compressor, or null for "none"
+	 */
+	public static Compressor createCompressor(String type)
+	{
+		if ("zlib@openssh.com".equals(type))
+			return new Zlib(true);
+
+		if ("zlib".equals(type))
+			return new Zlib(false);
+
+		if ((type == null) || "none".equals(type))
+			return null;
+
+		throw new IllegalArgumentException("Unknown compression method '" + type + "'");
+	}
+}
@@ -0,0 +1,28 @@
+package ch.ethz.ssh2.compression;
+
+import java.io.IOException;
+
+/**
+ * Compressor of the packet payloads in one direction. The result is left in
+ * the compressor's own buffer, that may be overwritten by the next call.
+ */
+public interface Compressor
+{
+	/**
+	 * @return the number of bytes in {@link #getBuffer()}
+	 */
+	public int compress(byte[] src, int off, int len);
+
+	/**
+	 * @return the number of bytes in {@link #getBuffer()}
+	 */
+	public int uncompress(byte[] src, int off, int len) throws IOException;
+
+	public byte[] getBuffer();
+
+	/**
+	 * @return true if the compression starts only after the user
+	 *         authentication succeeded (zlib@openssh.com)
+	 */
+	public boolean isDelayed();
+}
@@ -0,0 +1,131 @@
+package ch.ethz.ssh2.compression;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * "zlib" and "zlib@openssh.com" compression. Every packet is flushed with
+ * Z_SYNC_FLUSH, the zlib stream lives until the next key exchange.
+ * <p>
+ * The sync flush needs Deflater.deflate(byte[], int, int, int), that is only
+ * in Java 7 and later, see {@link #isSupported()}.
+ */
+public class Zlib implements Compressor
+{
+	/* The transport does not accept bigger packets anyway. */
+	private static final int MAX_UNCOMPRESSED_SIZE = 256 * 1024;
+
+	private static final boolean SUPPORTED = checkSupported();
+
+	private final boolean delayed;
+
+	private Deflater deflater;
+	private Inflater inflater;
+
+	private byte[] buffer = new byte[4096];
+
+	public Zlib(boolean delayed)
+	{
+		if (!SUPPORTED)
+			throw new IllegalStateException("zlib compression needs Java 7 or later");
+
+		this.delayed = delayed;
+	}
+
+	/**
+	 * @return whether the runtime can flush the compressed packets
+	 */
+	public static boolean isSupported()
+	{
+		return SUPPORTED;
+	}
+
+	private static boolean checkSupported()
+	{
+		try
+		{
+			Deflater.class.getMethod("deflate", new Class[] { byte[].class, int.class, int.class, int.class });
+			return true;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+
+	public int compress(byte[] src, int off, int len)
+	{
+		if (deflater == null)
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+		deflater.setInput(src, off, len);
+
+		int pos = 0;
+
+		while (true)
+		{
+			pos += deflater.deflate(buffer, pos, buffer.length - pos, Deflater.SYNC_FLUSH);
+
+			if (pos < buffer.length)
+				return pos;
+
+			grow();
+		}
+	}
+
+	public int uncompress(byte[] src, int off, int len) throws IOException
+	{
+		if (inflater == null)
+			inflater = new Inflater();
+
+		inflater.setInput(src, off, len);
+
+		int pos = 0;
+
+		try
+		{
+			while (true)
+			{
+				int n = inflater.inflate(buffer, pos, buffer.length - pos);
+				pos += n;
+
+				if (pos == buffer.length)
+				{
+					if (buffer.length >= MAX_UNCOMPRESSED_SIZE)
+						throw new IOException("Uncompressed packet is too big.");
+					grow();
+					continue;
+				}
+
+				if (inflater.needsInput())
+					return pos;
+
+				if (n == 0)
+					throw new IOException("Remote sent a broken compressed packet.");
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw (IOException) new IOException("Remote sent a broken compressed packet.").initCause(e);
+		}
+	}
+
+	public byte[] getBuffer()
+	{
+		return buffer;
+	}
+
+	public boolean isDelayed()
+	{
+		return delayed;
+	}
+
+	private void grow()
+	{
+		byte[] newBuffer = new byte[buffer.length * 2];
+		System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+		buffer = newBuffer;
+	}
+}
@@ -7,6 +7,7 @@ import java.security.SecureRandom;
 import ch.ethz.ssh2.ConnectionInfo;
 import ch.ethz.ssh2.DHGexParameters;
 import ch.ethz.ssh2.ServerHostKeyVerifier;
+import ch.ethz.ssh2.compression.CompressionFactory;
 import ch.ethz.ssh2.crypto.CryptoWishList;
 import ch.ethz.ssh2.crypto.KeyMaterial;
 import ch.ethz.ssh2.crypto.cipher.BlockCipher;
@@ -298,6 +299,7 @@ public class KexManager
 		}
 
 		tm.changeSendCipher(cbc, mac);
+		tm.changeSendCompression(CompressionFactory.createCompressor(kxs.np.comp_algo_client_to_server));
 		tm.kexFinished();
 	}
 
@@ -479,6 +481,7 @@ public class KexManager
 			}
 
 			tm.changeRecvCipher(cbc, mac);
+			tm.changeRecvCompression(CompressionFactory.createCompressor(kxs.np.comp_algo_server_to_client));
 
 			ConnectionInfo sci = new ConnectionInfo();
 
@@ -490,6 +493,8 @@ public class KexManager
 			sci.serverToClientCryptoAlgorithm = kxs.np.enc_algo_server_to_client;
 			sci.clientToServerMACAlgorithm = kxs.np.mac_algo_client_to_server;
 			sci.serverToClientMACAlgorithm = kxs.np.mac_algo_server_to_client;
+			sci.clientToServerCompressionAlgorithm = kxs.np.comp_algo_client_to_server;
+			sci.serverToClientCompressionAlgorithm = kxs.np.comp_algo_server_to_client;
 			sci.serverHostKeyAlgorithm = kxs.np.server_host_key_algo;
 			sci.serverHostKey = kxs.hostkey;
 
@@ -6,6 +6,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.SecureRandom;
 
+import ch.ethz.ssh2.compression.Compressor;
 import ch.ethz.ssh2.crypto.cipher.BlockCipher;
 import ch.ethz.ssh2.crypto.cipher.CipherInputStream;
 import ch.ethz.ssh2.crypto.cipher.CipherOutputStream;
@@ -50,6 +51,28 @@ public class TransportConnection
 
 	int recv_padd_blocksize = 8;
 
+	/* Depends on the negotiated compression, null for "none" */
+
+	Compressor send_comp;
+
+	Compressor recv_comp;
+
+	/* zlib@openssh.com starts only after the authentication */
+
+	boolean send_comp_active = false;
+
+	boolean recv_comp_active = false;
+
+	boolean authenticated = false;
+
+	long send_payload_bytes = 0;
+
+	long send_compressed_bytes = 0;
+
+	long recv_payload_bytes = 0;
+
+	long recv_compressed_bytes = 0;
+
 	/* won't change */
 
 	final byte[] send_padding_buffer = new byte[256];
@@ -101,6 +124,63 @@ public class TransportConnection
 			send_padd_blocksize = 8;
 	}
 
+	public void changeSendCompression(Compressor comp)
+	{
+		send_comp = comp;
+		send_comp_active = (comp != null) && (!comp.isDelayed() || authenticated);
+	}
+
+	public void changeRecvCompression(Compressor comp)
+	{
+		recv_comp = comp;
+		recv_comp_active = (comp != null) && (!comp.isDelayed() || authenticated);
+	}
+
+	/**
+	 * Starts the delayed compression, must be called right after the
+	 * SSH_MSG_USERAUTH_SUCCESS message was received.
+	 */
+	public void startDelayedCompression()
+	{
+		authenticated = true;
+		send_comp_active = (send_comp != null);
+		recv_comp_active = (recv_comp != null);
+	}
+
+	/**
+	 * @return the sent payload bytes before the compression, since it started
+	 */
+	public long getSendPayloadBytes()
+	{
+		return send_payload_bytes;
+	}
+
+	/**
+	 * @return the sent payload bytes after the compression, since it started
+	 */
+	public long getSendCompressedBytes()
+	{
+		return send_compressed_bytes;
+	}
+
+	/**
+	 * @return the received payload bytes after the decompression, since it
+	 *         started
+	 */
+	public long getRecvPayloadBytes()
+	{
+		return recv_payload_bytes;
+	}
+
+	/**
+	 * @return the received payload bytes before the decompression, since it
+	 *         started
+	 */
+	public long getRecvCompressedBytes()
+	{
+		return recv_compressed_bytes;
+	}
+
 	public void sendMessage(byte[] message) throws IOException
 	{
 		sendMessage(message, 0, message.length, 0);
@@ -119,6 +199,17 @@ public class TransportConnection
 
 	public void sendMessage(byte[] message, int off, int len, int padd) throws IOException
 	{
+		int type = message[off] & 0xff;
+
+		if (send_comp_active)
+		{
+			send_payload_bytes += len;
+			len = send_comp.compress(message, off, len);
+			message = send_comp.getBuffer();
+			off = 0;
+			send_compressed_bytes += len;
+		}
+
 		if (padd < 4)
 			padd = 4;
 		else if (padd > 64)
@@ -193,7 +284,7 @@ public class TransportConnection
 
 		if (log.isEnabled())
 		{
-			log.log(90, "Sent " + Packets.getMessageName(message[off] & 0xff) + " " + len + " bytes payload");
+			log.log(90, "Sent " + Packets.getMessageName(type) + " " + len + " bytes payload");
 		}
 
 		send_seq_number++;
@@ -272,6 +363,18 @@ public class TransportConnection
 
 		recv_seq_number++;
 
+		if (recv_comp_active)
+		{
+			recv_compressed_bytes += payload_length;
+			payload_length = recv_comp.uncompress(buffer, off, payload_length);
+
+			if (payload_length >= len)
+				throw new IOException("Receive buffer too small (" + len + ", need " + payload_length + ")");
+
+			System.arraycopy(recv_comp.getBuffer(), 0, buffer, off, payload_length);
+			recv_payload_bytes += payload_length;
+		}
+
 		if (log.isEnabled())
 		{
 			log.log(90, "Received " + Packets.getMessageName(buffer[off] & 0xff) + " " + payload_length
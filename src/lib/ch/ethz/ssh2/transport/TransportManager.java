@@ -16,8 +16,11 @@ import ch.ethz.ssh2.ConnectionMonitor;
 import ch.ethz.ssh2.DHGexParameters;
 import ch.ethz.ssh2.HTTPProxyData;
 import ch.ethz.ssh2.HTTPProxyException;
+import ch.ethz.ssh2.JumpHostProxyData;
+import ch.ethz.ssh2.LocalStreamForwarder;
 import ch.ethz.ssh2.ProxyData;
 import ch.ethz.ssh2.ServerHostKeyVerifier;
+import ch.ethz.ssh2.compression.Compressor;
 import ch.ethz.ssh2.crypto.Base64;
 import ch.ethz.ssh2.crypto.CryptoWishList;
 import ch.ethz.ssh2.crypto.cipher.BlockCipher;
@@ -126,6 +129,8 @@ import ch.ethz.ssh2.util.Tokenizer;
 	String hostname;
 	int port;
 	final Socket sock = new Socket();
+	/* Channel on the jump host, that is used instead of the socket */
+	LocalStreamForwarder forwarder = null;
 
 	Object connectionSemaphore = new Object();
 
@@ -218,12 +223,14 @@ import ch.ethz.ssh2.util.Tokenizer;
 
 	public void setTcpNoDelay(boolean state) throws IOException
 	{
-		sock.setTcpNoDelay(state);
+		if (forwarder == null)
+			sock.setTcpNoDelay(state);
 	}
 
 	public void setSoTimeout(int timeout) throws IOException
 	{
-		sock.setSoTimeout(timeout);
+		if (forwarder == null)
+			sock.setSoTimeout(timeout);
 	}
 
 	public ConnectionInfo getConnectionInfo(int kexNumber) throws IOException
@@ -252,13 +259,7 @@ import ch.ethz.ssh2.util.Tokenizer;
 			 * perhaps somebody is inside (and waits until the remote
 			 * side is ready to accept new data). */
 
-			try
-			{
-				sock.close();
-			}
-			catch (IOException ignore)
-			{
-			}
+			closeSocket();
 
 			/* OK, whoever tried to send data, should now agree that
 			 * there is no point in further waiting =)
@@ -283,13 +284,7 @@ import ch.ethz.ssh2.util.Tokenizer;
 					{
 					}
 
-					try
-					{
-						sock.close();
-					}
-					catch (IOException ignore)
-					{
-					}
+					closeSocket();
 				}
 
 				connectionClosed = true;
@@ -332,6 +327,34 @@ import ch.ethz.ssh2.util.Tokenizer;
 		}
 	}
 
+	private void closeSocket()
+	{
+		try
+		{
+			if (forwarder != null)
+				forwarder.close();
+			else
+				sock.close();
+		}
+		catch (IOException ignore)
+		{
+		}
+	}
+
+	private InputStream getInputStream() throws IOException
+	{
+		if (forwarder != null)
+			return forwarder.getInputStream();
+		return sock.getInputStream();
+	}
+
+	private OutputStream getOutputStream() throws IOException
+	{
+		if (forwarder != null)
+			return forwarder.getOutputStream();
+		return sock.getOutputStream();
+	}
+
 	private void establishConnection(ProxyData proxyData, int connectTimeout) throws IOException
 	{
 		/* See the comment for createInetAddress() */
@@ -344,6 +367,16 @@ import ch.ethz.ssh2.util.Tokenizer;
 			return;
 		}
 
+		if (proxyData instanceof JumpHostProxyData)
+		{
+			/* The channel is open, when this returns, there are no
+			 * connect timeouts, the kex timeout still applies. */
+
+			JumpHostProxyData pd = (JumpHostProxyData) proxyData;
+			forwarder = pd.jumpHost.createLocalStreamForwarder(hostname, port);
+			return;
+		}
+
 		if (proxyData instanceof HTTPProxyData)
 		{
 			HTTPProxyData pd = (HTTPProxyData) proxyData;
@@ -454,9 +487,9 @@ import ch.ethz.ssh2.util.Tokenizer;
 		 * for later use.
 		 */
 
-		ClientServerHello csh = new ClientServerHello(sock.getInputStream(), sock.getOutputStream());
+		ClientServerHello csh = new ClientServerHello(getInputStream(), getOutputStream());
 
-		tc = new TransportConnection(sock.getInputStream(), sock.getOutputStream(), rnd);
+		tc = new TransportConnection(getInputStream(), getOutputStream(), rnd);
 
 		km = new KexManager(this, csh, cwl, hostname, port, verifier, rnd);
 		km.initiateKEX(cwl, dhgex);
@@ -587,6 +620,16 @@ import ch.ethz.ssh2.util.Tokenizer;
 		tc.changeSendCipher(bc, mac);
 	}
 
+	public void changeRecvCompression(Compressor comp)
+	{
+		tc.changeRecvCompression(comp);
+	}
+
+	public void changeSendCompression(Compressor comp)
+	{
+		tc.changeSendCompression(comp);
+	}
+
 	public void sendAsynchronousMessage(byte[] msg) throws IOException
 	{
 		synchronized (asynchronousQueue)
@@ -772,6 +815,16 @@ import ch.ethz.ssh2.util.Tokenizer;
 			if (mh == null)
 				throw new IOException("Unexpected SSH message (type " + type + ")");
 
+			if (type == Packets.SSH_MSG_USERAUTH_SUCCESS)
+			{
+				/* The next packets in both directions use the delayed compression */
+
+				synchronized (connectionSemaphore)
+				{
+					tc.startDelayedCompression();
+				}
+			}
+
 			mh.handleMessage(msg, msglen);
 		}
 	}
@@ -83,6 +83,7 @@ public class ArgumentParser {
     private static final String SLOW_OP = "slow";
     private static final String RESTORE_MOUSE_OP = "restore-mouse";
     private static final String KEEP_HELPER_OP = "keep-helper";
+    private static final String VIRTUAL_THREADS_OP = "virtual-threads";
     private static final String SCALE_OP = "scale";
     private static final String ID_DSA_OP = "id-dsa";
     private static final String ID_RSA_OP = "id-rsa";
@@ -119,6 +120,7 @@ public class ArgumentParser {
 
         options.addOption("h", HELP_OP, false, "print this help");
         options.addOption(null, KEEP_HELPER_OP, false, "do not overwrite the lcmc-gui-helper program");
+        options.addOption(null, VIRTUAL_THREADS_OP, false, "run commands in virtual threads (java 21 or later)");
         options.addOption(null, RO_OP, false, "read only mode");
         options.addOption(null, OP_OP, false, "operator mode");
         options.addOption(null, ADMIN_OP, false, "administrator mode");
@@ -210,6 +212,7 @@ public class ArgumentParser {
             application.setStagingPacemaker(cmd.hasOption(STAGING_PACEMAKER_OP));
             application.setHideLRM(cmd.hasOption(NOLRM_OP));
             application.setKeepHelper(cmd.hasOption(KEEP_HELPER_OP));
+            application.setVirtualThreads(cmd.hasOption(VIRTUAL_THREADS_OP));
             application.setOneHostCluster(cmd.hasOption(ONE_HOST_CLUSTER_OP));
             application.setNoPassphrase(cmd.hasOption(NO_PASSPHRASE_OP));
             if (cmd.hasOption(EMBED_OP)) {
@@ -29,6 +29,7 @@ import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Optional;
 import lcmc.Exceptions;
@@ -81,6 +82,8 @@ public class Cluster implements Comparable<Cluster> {
     private BlockDeviceService blockDeviceService;
     @Inject
     private NetworkService networkService;
+    @Inject
+    private HostConnector hostConnector;
 
     public void setName(final String name) {
         this.name = name;
@@ -201,44 +204,74 @@ public class Cluster implements Comparable<Cluster> {
         return null;
     }
 
-    /** Connect all hosts in the cluster. Returns false, if it was canceled. */
+    /**
+     * Connect all hosts in the cluster. Returns false, if it was canceled.
+     * The first host is connected alone and the others are connected at
+     * the same time with its password or key.
+     */
     public boolean connect(final Window rootPane, final boolean progressIndicator, final int index) {
-        boolean first = true;
-        String dsaKey = null;
-        String rsaKey = null;
-        String pwd = null;
+        final HostConnector.Connection connection = new HostConnector.Connection() {
+            @Override
+            public void connect(final Host host, final HostConnector.Permit permit) {
+                connectHost(host, permit, rootPane, progressIndicator, index);
+            }
+        };
+        final List<Host> notConnectedHosts = new ArrayList<Host>();
         for (final Host host : hosts) {
             host.setIsLoading();
             if (host.isConnected()) {
                 host.setLoadingDone();
                 continue;
             }
-            if (!first) {
-                host.getSSH().setPasswords(dsaKey, rsaKey, pwd);
-            }
-            if (rootPane == null) {
-                host.connect(null, progressIndicator, index);
-            } else {
-                host.connect(new SSHGui(rootPane, host, null), progressIndicator, index);
-            }
-            host.getSSH().waitForConnection();
-            if (first) {
-                /* wait till it's connected and try the others with the
-                 * same password/key. */
-                if (host.getSSH().isConnectionCanceled()) {
-                    return false;
-                }
-                if (host.isConnected()) {
-                    dsaKey = host.getSSH().getLastSuccessfulDsaKey();
-                    rsaKey = host.getSSH().getLastSuccessfulRsaKey();
-                    pwd = host.getSSH().getLastSuccessfulPassword();
-                }
-            }
-            first = false;
+            notConnectedHosts.add(host);
+        }
+        if (notConnectedHosts.isEmpty()) {
+            return true;
+        }
+        final long start = System.nanoTime();
+        final Host firstHost = notConnectedHosts.get(0);
+        /* wait till it's connected and try the others with the
+         * same password/key. */
+        hostConnector.connect(firstHost, connection);
+        if (firstHost.getSSH().isConnectionCanceled()) {
+            return false;
+        }
+        String dsaKey = null;
+        String rsaKey = null;
+        String pwd = null;
+        if (firstHost.isConnected()) {
+            dsaKey = firstHost.getSSH().getLastSuccessfulDsaKey();
+            rsaKey = firstHost.getSSH().getLastSuccessfulRsaKey();
+            pwd = firstHost.getSSH().getLastSuccessfulPassword();
+        }
+        final List<Host> otherHosts = notConnectedHosts.subList(1, notConnectedHosts.size());
+        for (final Host host : otherHosts) {
+            host.getSSH().setPasswords(dsaKey, rsaKey, pwd);
         }
+        hostConnector.connectAll(otherHosts, connection);
+        LOG.info("connect: " + name + ": " + notConnectedHosts.size() + " host(s) in "
+                 + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
         return true;
     }
 
+    /**
+     * Connects the host and waits till it is connected or it failed. The
+     * permit is given to the other hosts, while the user is prompted.
+     */
+    private void connectHost(final Host host,
+                             final HostConnector.Permit permit,
+                             final Window rootPane,
+                             final boolean progressIndicator,
+                             final int index) {
+        final long start = System.nanoTime();
+        final SSHGui sshGui = new SSHGui(rootPane == null ? guiData.getMainFrame() : rootPane, host, null);
+        sshGui.setConnectionPermit(permit);
+        host.connect(sshGui, progressIndicator, index);
+        host.getSSH().waitForConnection();
+        LOG.info("connectHost: " + host.getName() + ": " + (host.isConnected() ? "connected" : "not connected")
+                 + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
     /**
      * Get the smallest libvirt version. Returns null, if it is not installed
      * anywhere.
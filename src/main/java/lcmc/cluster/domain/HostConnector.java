@@ -0,0 +1,142 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.cluster.domain;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lcmc.cluster.service.ssh.CommandScheduler;
+import lcmc.common.domain.util.Tools;
+import lcmc.host.domain.Host;
+
+/**
+ * Connects the hosts at the same time on the command scheduler. At most
+ * Cluster.MaxParallelConnections hosts from all clusters are connecting at
+ * the same time. A host, that waits for the user in a dialog, gives its
+ * permit to the other hosts meanwhile.
+ */
+@Named
+@Singleton
+public class HostConnector {
+    private final Semaphore permits;
+    @Inject
+    private CommandScheduler commandScheduler;
+
+    public HostConnector() {
+        permits = new Semaphore(Math.max(1, Tools.getDefaultInt("Cluster.MaxParallelConnections")));
+    }
+
+    HostConnector(final CommandScheduler commandScheduler, final int maxConnections) {
+        this.commandScheduler = commandScheduler;
+        permits = new Semaphore(Math.max(1, maxConnections));
+    }
+
+    /** Connects the host in this thread, when it gets a permit. */
+    void connect(final Host host, final Connection connection) {
+        final Permit permit = new Permit();
+        try {
+            connection.connect(host, permit);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /** Connects the hosts at the same time and waits, till all of them are done. */
+    void connectAll(final Collection<Host> hosts, final Connection connection) {
+        final CountDownLatch done = new CountDownLatch(hosts.size());
+        for (final Host host : hosts) {
+            commandScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        connect(host, connection);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            done.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Connects one host and waits, till it is connected or it failed. */
+    interface Connection {
+        void connect(Host host, Permit permit);
+    }
+
+    /** Permit of one connecting host. */
+    public final class Permit {
+        private boolean held;
+        private boolean released = false;
+
+        private Permit() {
+            permits.acquireUninterruptibly();
+            held = true;
+        }
+
+        /** Gives the permit to the other hosts, while the user is prompted. */
+        public void suspend() {
+            synchronized (this) {
+                if (!held) {
+                    return;
+                }
+                held = false;
+            }
+            permits.release();
+        }
+
+        /** Takes the permit back after the prompt, if the host is still connecting. */
+        public void resume() {
+            synchronized (this) {
+                if (held || released) {
+                    return;
+                }
+            }
+            permits.acquireUninterruptibly();
+            synchronized (this) {
+                if (!released) {
+                    held = true;
+                    return;
+                }
+            }
+            permits.release();
+        }
+
+        private void release() {
+            synchronized (this) {
+                released = true;
+                if (!held) {
+                    return;
+                }
+                held = false;
+            }
+            permits.release();
+        }
+    }
+}
@@ -22,6 +22,9 @@ package lcmc.cluster.service.ssh;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+
+import ch.ethz.ssh2.InteractiveCallback;
 
 import lcmc.common.domain.Application;
 import lcmc.host.domain.Host;
@@ -86,6 +89,57 @@ public class Authentication {
         }
     }
 
+    /**
+     * Authenticates the connection to a further hop with the key or the
+     * password, that worked for the first hop, without asking the user.
+     * Returns false, if it didn't work.
+     */
+    boolean authenticateHop(final SshConnection sshConnection, final String username) throws IOException {
+        final String password = lastSuccessfulPassword.getPassword();
+        if (password != null) {
+            if (sshConnection.isAuthMethodAvailable(username, "password")
+                && sshConnection.authenticateWithPassword(username, password)) {
+                return true;
+            }
+            return sshConnection.isAuthMethodAvailable(username, "keyboard-interactive")
+                   && sshConnection.authenticateWithKeyboardInteractive(username, new InteractiveCallback() {
+                          @Override
+                          public String[] replyToChallenge(final String name,
+                                                           final String instruction,
+                                                           final int numPrompts,
+                                                           final String[] prompt,
+                                                           final boolean[] echo) {
+                              final String[] answers = new String[numPrompts];
+                              Arrays.fill(answers, password);
+                              return answers;
+                          }
+                      });
+        }
+        if (!sshConnection.isAuthMethodAvailable(username, "publickey")) {
+            return false;
+        }
+        String key = "";
+        if (lastSuccessfulPassword.getDsaKey() != null) {
+            key = lastSuccessfulPassword.getDsaKey();
+        } else if (lastSuccessfulPassword.getRsaKey() != null) {
+            key = lastSuccessfulPassword.getRsaKey();
+        }
+        for (final String keyPath : new String[]{application.getIdDSAPath(), application.getIdRSAPath()}) {
+            final File keyFile = new File(keyPath);
+            if (!keyFile.exists()) {
+                continue;
+            }
+            try {
+                if (sshConnection.authenticateWithPublicKey(username, keyFile, key)) {
+                    return true;
+                }
+            } catch (final IOException e) {
+                LOG.debug("authenticateHop: " + keyPath + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
     private void authenticateWithKey(final SshConnection sshConnection, final String username) throws IOException {
         final File dsaKey = new File(application.getIdDSAPath());
         final File rsaKey = new File(application.getIdRSAPath());
@@ -0,0 +1,259 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.cluster.service.ssh;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ch.ethz.ssh2.ChannelCondition;
+import ch.ethz.ssh2.Session;
+import com.google.common.base.Charsets;
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+
+/**
+ * lcmc-gui-helper process in the command-channel mode, that runs commands
+ * sent over one long-lived ssh session, so that a new session doesn't have
+ * to be opened for every command. Requests and responses are length-prefixed
+ * and have ids, so that more commands can run at the same time.
+ */
+final class CommandChannel {
+    private static final Logger LOG = LoggerFactory.getLogger(CommandChannel.class);
+    static final int CANCELED_EXIT_CODE = 130;
+    static final int CLOSED_EXIT_CODE = 255;
+    /** Hello line from the helper, that understands the requests. */
+    private static final String HELLO = "@frames 1";
+    private static final Pattern RESPONSE_PATTERN = Pattern.compile("^@done - (\\d+)$");
+    private static final int START_TIMEOUT = 10000;
+
+    private final String hostName;
+    private final Session session;
+    private final DataInputStream stdout;
+    private final OutputStream stdin;
+    private final AtomicInteger lastId = new AtomicInteger(0);
+    private final ConcurrentMap<String, Request> requests = new ConcurrentHashMap<String, Request>();
+    private volatile boolean running = true;
+
+    private CommandChannel(final String hostName, final Session session) {
+        this.hostName = hostName;
+        this.session = session;
+        this.stdout = new DataInputStream(new BufferedInputStream(session.getStdout()));
+        this.stdin = session.getStdin();
+    }
+
+    /**
+     * Starts the helper with the command and returns the channel or null, if
+     * the helper doesn't answer in time, e.g. because it's an older one, or
+     * sudo needs a password.
+     */
+    static CommandChannel start(final String hostName, final SshConnection connection, final String command) {
+        final CommandChannel channel;
+        final String hello;
+        try {
+            final Session session = connection.openSession();
+            channel = new CommandChannel(hostName, session);
+            session.execCommand(command);
+            hello = channel.readLine(System.currentTimeMillis() + START_TIMEOUT);
+        } catch (final IOException e) {
+            LOG.debug1("start: " + hostName + ": could not start command channel: " + e.getMessage());
+            return null;
+        }
+        if (!HELLO.equals(hello)) {
+            LOG.debug1("start: " + hostName + ": command channel not available: " + hello);
+            channel.close();
+            return null;
+        }
+        LOG.debug1("start: " + hostName + ": command channel started");
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                channel.readResponses();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return channel;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /** Sends the command to the helper. */
+    Request submit(final String command) {
+        final Request request = new Request(Integer.toString(lastId.incrementAndGet()));
+        requests.put(request.getId(), request);
+        if (!running || !send("run", request.getId(), command)) {
+            requests.remove(request.getId());
+            request.done("", CLOSED_EXIT_CODE);
+        }
+        return request;
+    }
+
+    /** Kills the command, if it is still running. */
+    void cancel(final Request request) {
+        if (requests.remove(request.getId()) != null) {
+            send("cancel", request.getId(), "");
+            request.done("", CANCELED_EXIT_CODE);
+        }
+    }
+
+    void close() {
+        running = false;
+        session.close();
+        for (final String id : requests.keySet()) {
+            final Request request = requests.remove(id);
+            if (request != null) {
+                request.done("", CLOSED_EXIT_CODE);
+            }
+        }
+    }
+
+    int getPendingRequests() {
+        return requests.size();
+    }
+
+    private boolean send(final String type, final String id, final String content) {
+        final byte[] bytes = content.getBytes(Charsets.UTF_8);
+        synchronized (stdin) {
+            try {
+                stdin.write(('@' + type + ' ' + id + ' ' + bytes.length + '\n').getBytes(Charsets.UTF_8));
+                stdin.write(bytes);
+                stdin.flush();
+                return true;
+            } catch (final IOException e) {
+                LOG.appWarning("send: " + hostName + ": command channel: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    private void readResponses() {
+        try {
+            while (true) {
+                final String header = readLine(0);
+                if (header == null) {
+                    break;
+                }
+                final Matcher m = RESPONSE_PATTERN.matcher(header);
+                if (!m.matches()) {
+                    LOG.debug1("readResponses: " + hostName + ": skipping: " + header);
+                    continue;
+                }
+                final byte[] content = new byte[Integer.parseInt(m.group(1))];
+                stdout.readFully(content);
+                stdout.readByte();
+                final String response = new String(content, Charsets.UTF_8);
+                final int newLine = response.indexOf('\n');
+                final String[] idAndExitCode = response.substring(0, newLine).split(" ");
+                final Request request = requests.remove(idAndExitCode[0]);
+                if (request != null) {
+                    /* the same new lines as with pty */
+                    request.done(response.substring(newLine + 1).replace("\n", "\r\n"),
+                                 Integer.parseInt(idAndExitCode[1]));
+                }
+            }
+        } catch (final IOException e) {
+            LOG.debug1("readResponses: " + hostName + ": command channel closed: " + e.getMessage());
+        } catch (final RuntimeException e) {
+            LOG.appWarning("readResponses: " + hostName + ": could not parse response: " + e);
+        }
+        close();
+    }
+
+    /**
+     * Returns a line without the new line or null at the end of stream. If
+     * the end time in milliseconds is not 0, it returns null, when the line
+     * doesn't come till then.
+     */
+    private String readLine(final long end) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(40);
+        while (true) {
+            if (end > 0 && stdout.available() == 0) {
+                final long timeout = end - System.currentTimeMillis();
+                if (timeout <= 0) {
+                    return null;
+                }
+                final int conditions = session.waitForCondition(ChannelCondition.STDOUT_DATA | ChannelCondition.EOF,
+                                                                timeout);
+                if ((conditions & ChannelCondition.STDOUT_DATA) == 0) {
+                    return null;
+                }
+            }
+            final int b = stdout.read();
+            if (b < 0) {
+                return null;
+            }
+            if (b == '\n') {
+                return new String(line.toByteArray(), Charsets.UTF_8);
+            }
+            line.write(b);
+        }
+    }
+
+    static final class Request {
+        private final String id;
+        private final CountDownLatch doneLatch = new CountDownLatch(1);
+        private volatile SshOutput output = null;
+
+        Request(final String id) {
+            this.id = id;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        /**
+         * Waits for the output and returns it or null after the timeout in
+         * milliseconds. Timeout 0 means no timeout.
+         */
+        SshOutput waitFor(final int timeout) {
+            try {
+                if (timeout > 0) {
+                    doneLatch.await(timeout, TimeUnit.MILLISECONDS);
+                } else {
+                    doneLatch.await();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return output;
+        }
+
+        private void done(final String out, final int exitCode) {
+            if (output == null) {
+                output = new SshOutput(out, exitCode);
+                doneLatch.countDown();
+            }
+        }
+    }
+}
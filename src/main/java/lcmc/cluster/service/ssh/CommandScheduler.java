@@ -0,0 +1,508 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.cluster.service.ssh;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lcmc.common.domain.Application;
+import lcmc.common.domain.util.Tools;
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+
+/**
+ * Runs the ssh commands and the periodic status checks on shared threads.
+ *
+ * Short commands are queued per host and the hosts take turns, so that one
+ * busy host can't starve the others. At most MaxThreadsPerHost commands run
+ * on one host at the same time, which also keeps the number of ssh sessions
+ * below the sshd's MaxSessions, and at most MaxThreads commands run overall.
+ * Long running commands, that stream their output, run right away.
+ *
+ * With virtual threads (java 21 or later), the overall limit is not needed
+ * and only the per host limit stays.
+ */
+@Named
+@Singleton
+public class CommandScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(CommandScheduler.class);
+    private static final int NO_LIMIT = Integer.MAX_VALUE;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    /** How many last session open times are kept per host. */
+    private static final int SESSION_OPEN_SAMPLES = 1000;
+    /** Task, that runs in the current thread. */
+    private static final ThreadLocal<Task> CURRENT_TASK = new ThreadLocal<Task>();
+
+    private final Object lock = new Object();
+    private final Map<String, HostQueue> hostQueues = new LinkedHashMap<String, HostQueue>();
+    /** Hosts with queued commands, in the order they take turns. */
+    private final Deque<HostQueue> waitingHosts = new ArrayDeque<HostQueue>();
+    private int maxThreads;
+    private int maxThreadsPerHost;
+    private int running = 0;
+    private ExecutorService executor = null;
+    private ScheduledExecutorService timer = null;
+    private boolean virtualThreads = false;
+
+    private final AtomicInteger runningUnlimited = new AtomicInteger(0);
+    private final AtomicLong completed = new AtomicLong(0);
+    private final AtomicLong queueWaitNanos = new AtomicLong(0);
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong(0);
+    private final AtomicLong runNanos = new AtomicLong(0);
+    private final ConcurrentMap<String, LatencyRecorder> sessionOpenTimes =
+                                                        new ConcurrentHashMap<String, LatencyRecorder>();
+
+    @Inject
+    private Application application;
+
+    public CommandScheduler() {
+        this(Tools.getDefaultInt("CommandScheduler.MaxThreads"),
+             Tools.getDefaultInt("CommandScheduler.MaxThreadsPerHost"),
+             null);
+    }
+
+    CommandScheduler(final int maxThreads, final int maxThreadsPerHost, final ExecutorService executor) {
+        this.maxThreads = maxThreads;
+        this.maxThreadsPerHost = maxThreadsPerHost;
+        this.executor = executor;
+    }
+
+    /** Queues the command for the host. It runs, when the host has its turn. */
+    public Task submit(final String hostName, final Runnable command) {
+        final Task task = new Task(command, true);
+        synchronized (lock) {
+            HostQueue hostQueue = hostQueues.get(hostName);
+            if (hostQueue == null) {
+                hostQueue = new HostQueue(hostName);
+                hostQueues.put(hostName, hostQueue);
+            }
+            task.hostQueue = hostQueue;
+            if (hostQueue.queue.isEmpty()) {
+                waitingHosts.add(hostQueue);
+            }
+            hostQueue.queue.add(task);
+        }
+        dispatch();
+        return task;
+    }
+
+    /** Runs the long running command right away, outside of the limits. */
+    public Task execute(final Runnable command) {
+        final Task task = new Task(command, false);
+        task.state = TaskState.RUNNING;
+        startTask(task);
+        return task;
+    }
+
+    /**
+     * Runs the task repeatedly with the delay in milliseconds between the
+     * runs, as long as the task returns true. No thread is used during the
+     * delay.
+     */
+    public void repeat(final Callable<Boolean> task, final long delay) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean again;
+                try {
+                    again = task.call();
+                } catch (final Exception e) {
+                    LOG.appError("repeat: task failed", e);
+                    return;
+                }
+                if (again) {
+                    getTimer().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            repeat(task, delay);
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the command once after the delay in milliseconds, like a timeout.
+     * The timer only starts it on a command thread, so that the timer is
+     * never blocked. The returned future cancels it, if it didn't start yet.
+     */
+    public ScheduledFuture<?> schedule(final Runnable command, final long delay) {
+        return getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                execute(command);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /** Records, how long it took to open an ssh session on the host. */
+    void recordSessionOpen(final String hostName, final long nanos) {
+        LatencyRecorder recorder = sessionOpenTimes.get(hostName);
+        if (recorder == null) {
+            recorder = new LatencyRecorder(SESSION_OPEN_SAMPLES);
+            final LatencyRecorder previous = sessionOpenTimes.putIfAbsent(hostName, recorder);
+            if (previous != null) {
+                recorder = previous;
+            }
+        }
+        recorder.record(nanos);
+    }
+
+    /**
+     * Returns the percentile (0 - 100) of the last ssh session open times on
+     * the host, or 0 if no session was opened yet.
+     */
+    public long getSessionOpenTime(final String hostName, final double percentile, final TimeUnit unit) {
+        final LatencyRecorder recorder = sessionOpenTimes.get(hostName);
+        return recorder == null ? 0 : recorder.getPercentile(percentile, unit);
+    }
+
+    /**
+     * Starts the queued task now, outside of the limits. It is used, when
+     * the task is canceled, or when a command waits for another command,
+     * that could otherwise wait for the first command's slot forever.
+     */
+    void runNow(final Task task) {
+        synchronized (lock) {
+            if (task.state != TaskState.QUEUED) {
+                return;
+            }
+            final HostQueue hostQueue = task.hostQueue;
+            hostQueue.queue.remove(task);
+            if (hostQueue.queue.isEmpty()) {
+                waitingHosts.remove(hostQueue);
+            }
+            task.state = TaskState.RUNNING;
+            task.counted = false;
+        }
+        startTask(task);
+    }
+
+    /** Number of commands, that wait for their turn. */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            int depth = 0;
+            for (final HostQueue hostQueue : hostQueues.values()) {
+                depth += hostQueue.queue.size();
+            }
+            return depth;
+        }
+    }
+
+    /** Number of commands, that wait for their turn on the host. */
+    public int getQueueDepth(final String hostName) {
+        synchronized (lock) {
+            final HostQueue hostQueue = hostQueues.get(hostName);
+            return hostQueue == null ? 0 : hostQueue.queue.size();
+        }
+    }
+
+    /** Number of queued commands, that are running now. */
+    public int getRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /** Number of long running and started waited for commands. */
+    public int getRunningUnlimited() {
+        return runningUnlimited.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /** Average time the queued commands waited for their turn. */
+    public long getAverageQueueWait(final TimeUnit unit) {
+        final long count = completed.get();
+        return count == 0 ? 0 : unit.convert(queueWaitNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxQueueWait(final TimeUnit unit) {
+        return unit.convert(maxQueueWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /** Average time the queued commands ran. */
+    public long getAverageRunTime(final TimeUnit unit) {
+        final long count = completed.get();
+        return count == 0 ? 0 : unit.convert(runNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder s = new StringBuilder(200);
+        s.append("threads: ").append(virtualThreads ? "virtual" : "platform")
+         .append(", max: ").append(maxThreads).append(", per host: ").append(maxThreadsPerHost)
+         .append("\nrunning: ").append(getRunning())
+         .append(", unlimited: ").append(getRunningUnlimited())
+         .append(", queued: ").append(getQueueDepth())
+         .append(", completed: ").append(getCompleted())
+         .append("\nqueue wait avg: ").append(getAverageQueueWait(TimeUnit.MILLISECONDS))
+         .append(" ms, max: ").append(getMaxQueueWait(TimeUnit.MILLISECONDS))
+         .append(" ms, run time avg: ").append(getAverageRunTime(TimeUnit.MILLISECONDS)).append(" ms\n");
+        synchronized (lock) {
+            for (final HostQueue hostQueue : hostQueues.values()) {
+                s.append(hostQueue.hostName)
+                 .append(": running: ").append(hostQueue.running)
+                 .append(", queued: ").append(hostQueue.queue.size())
+                 .append(", completed: ").append(hostQueue.completed)
+                 .append('\n');
+            }
+        }
+        for (final Map.Entry<String, LatencyRecorder> entry : sessionOpenTimes.entrySet()) {
+            final LatencyRecorder recorder = entry.getValue();
+            s.append(entry.getKey())
+             .append(": sessions: ").append(recorder.getCount())
+             .append(", open p50: ").append(recorder.getPercentile(50, TimeUnit.MILLISECONDS))
+             .append(" ms, p90: ").append(recorder.getPercentile(90, TimeUnit.MILLISECONDS))
+             .append(" ms, p99: ").append(recorder.getPercentile(99, TimeUnit.MILLISECONDS))
+             .append(" ms\n");
+        }
+        return s.toString();
+    }
+
+    /** Starts queued commands, the hosts take turns. */
+    private void dispatch() {
+        while (true) {
+            final Task task;
+            synchronized (lock) {
+                task = nextTask();
+                if (task == null) {
+                    return;
+                }
+                task.state = TaskState.RUNNING;
+                task.hostQueue.running++;
+                running++;
+            }
+            startTask(task);
+        }
+    }
+
+    /** Returns the next task from the next host, that is under its limit. */
+    private Task nextTask() {
+        if (running >= maxThreads) {
+            return null;
+        }
+        for (int i = waitingHosts.size(); i > 0; i--) {
+            final HostQueue hostQueue = waitingHosts.poll();
+            if (hostQueue.running < maxThreadsPerHost) {
+                final Task task = hostQueue.queue.poll();
+                if (!hostQueue.queue.isEmpty()) {
+                    waitingHosts.add(hostQueue);
+                }
+                return task;
+            }
+            waitingHosts.add(hostQueue);
+        }
+        return null;
+    }
+
+    private void startTask(final Task task) {
+        if (!task.counted) {
+            runningUnlimited.incrementAndGet();
+        }
+        getExecutor().execute(task);
+    }
+
+    private void taskDone(final Task task, final long queueWait, final long runTime) {
+        if (!task.counted) {
+            runningUnlimited.decrementAndGet();
+            if (task.hostQueue == null) {
+                return;
+            }
+        }
+        synchronized (lock) {
+            task.hostQueue.completed++;
+            if (task.counted) {
+                task.hostQueue.running--;
+                running--;
+            }
+        }
+        queueWaitNanos.addAndGet(queueWait);
+        runNanos.addAndGet(runTime);
+        long max = maxQueueWaitNanos.get();
+        while (queueWait > max && !maxQueueWaitNanos.compareAndSet(max, queueWait)) {
+            max = maxQueueWaitNanos.get();
+        }
+        completed.incrementAndGet();
+        if (task.counted) {
+            dispatch();
+        }
+    }
+
+    private ExecutorService getExecutor() {
+        synchronized (lock) {
+            if (executor == null) {
+                if (application != null && application.isVirtualThreads()) {
+                    executor = newVirtualThreadExecutor();
+                }
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(0,
+                                                      NO_LIMIT,
+                                                      KEEP_ALIVE_SECONDS,
+                                                      TimeUnit.SECONDS,
+                                                      new SynchronousQueue<Runnable>(),
+                                                      new NamedThreadFactory("lcmc-command"));
+                } else {
+                    virtualThreads = true;
+                    maxThreads = NO_LIMIT;
+                }
+            }
+            return executor;
+        }
+    }
+
+    private ScheduledExecutorService getTimer() {
+        synchronized (lock) {
+            if (timer == null) {
+                timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("lcmc-command-timer"));
+            }
+            return timer;
+        }
+    }
+
+    /**
+     * Returns an executor with a virtual thread per task or null, if this
+     * java doesn't have them.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final ExecutorService virtualExecutor =
+                    (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOG.info("newVirtualThreadExecutor: using virtual threads");
+            return virtualExecutor;
+        } catch (final NoSuchMethodException e) {
+            LOG.appWarning("newVirtualThreadExecutor: virtual threads need java 21 or later");
+        } catch (final IllegalAccessException e) {
+            LOG.appWarning("newVirtualThreadExecutor: " + e.getMessage());
+        } catch (final InvocationTargetException e) {
+            LOG.appWarning("newVirtualThreadExecutor: " + e.getCause());
+        }
+        return null;
+    }
+
+    /** Command, that is queued or running. */
+    public final class Task implements Runnable {
+        private final Runnable command;
+        private final long submitted = System.nanoTime();
+        private final CountDownLatch doneLatch = new CountDownLatch(1);
+        /** Whether the task counts in the limits. */
+        private boolean counted;
+        private HostQueue hostQueue = null;
+        private TaskState state = TaskState.QUEUED;
+
+        private Task(final Runnable command, final boolean counted) {
+            this.command = command;
+            this.counted = counted;
+        }
+
+        @Override
+        public void run() {
+            final long started = System.nanoTime();
+            CURRENT_TASK.set(this);
+            try {
+                command.run();
+            } catch (final RuntimeException e) {
+                LOG.appError("run: command failed", e);
+            } finally {
+                CURRENT_TASK.remove();
+                final long finished = System.nanoTime();
+                synchronized (lock) {
+                    state = TaskState.DONE;
+                }
+                doneLatch.countDown();
+                taskDone(this, started - submitted, finished - started);
+            }
+        }
+
+        /**
+         * Waits till the task finishes. If it is called from a command, that
+         * holds a slot, and the task still waits for its turn, it is started
+         * right away.
+         */
+        public void await() {
+            final Task currentTask = CURRENT_TASK.get();
+            if (currentTask != null && currentTask.counted) {
+                runNow(this);
+            }
+            try {
+                doneLatch.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public boolean isDone() {
+            return doneLatch.getCount() == 0;
+        }
+    }
+
+    private enum TaskState { QUEUED, RUNNING, DONE }
+
+    private static final class HostQueue {
+        private final String hostName;
+        private final Deque<Task> queue = new ArrayDeque<Task>();
+        private int running = 0;
+        private long completed = 0;
+
+        HostQueue(final String hostName) {
+            this.hostName = hostName;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        NamedThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + '-' + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -22,6 +22,7 @@ package lcmc.cluster.service.ssh;
 
 import java.io.IOException;
 
+import ch.ethz.ssh2.ConnectionInfo;
 import lcmc.common.domain.Application;
 import lcmc.host.domain.Host;
 import lcmc.common.ui.ProgressBar;
@@ -49,6 +50,11 @@ public class ConnectionThread extends Thread {
     private volatile SshConnection sshConnection = null;
 
     private volatile boolean connectionFailed;
+    /**
+     * Whether the connection goes to the last hop. Otherwise it goes to the
+     * first one and the commands are hopped with nested ssh commands.
+     */
+    private volatile boolean lastHopConnected = true;
     private volatile boolean connectionEstablished = false;
     @Inject
     private Application application;
@@ -82,6 +88,8 @@ public class ConnectionThread extends Thread {
         }
         host.setSudoPassword("");
         final SshConnection newSshConnection = new SshConnection(hostname, host.getSSHPortInt());
+        /* with hops the first connection carries the encrypted tunnel, that does not compress */
+        newSshConnection.setCompression(host.isSshCompression() && host.getHops() <= 1);
         try {
             if (hostname == null) {
                 throw new IOException("hostname is not set");
@@ -134,7 +142,23 @@ public class ConnectionThread extends Thread {
         }
     }
 
+    /** Returns the command, that is hopped, if the connection doesn't go to the last hop. */
+    String getHoppedCommand(final String command) {
+        if (lastHopConnected) {
+            return command;
+        }
+        return host.getHoppedCommand(command);
+    }
+
+    boolean isLastHopConnected() {
+        return lastHopConnected;
+    }
+
     private void connect(final SshConnection newSshConnection) throws IOException {
+        connect(newSshConnection, hostname);
+    }
+
+    private void connect(final SshConnection newSshConnection, final String hostname) throws IOException {
         LOG.debug2("run: verify host keys: " + hostname);
         final String[] hostkeyAlgos = application.getKnownHosts().getPreferredServerHostkeyAlgorithmOrder(hostname);
         if (hostkeyAlgos != null) {
@@ -149,7 +173,8 @@ public class ConnectionThread extends Thread {
         LOG.debug2("run: connect");
         final PopupHostKeyVerifier popupHostKeyVerifier = popupHostKeyVerifierProvider.get();
         popupHostKeyVerifier.init(sshGui);
-        newSshConnection.connect(popupHostKeyVerifier, connectTimeout, kexTimeout);
+        final ConnectionInfo info = newSshConnection.connect(popupHostKeyVerifier, connectTimeout, kexTimeout);
+        LOG.debug1("connect: " + hostname + ": compression: " + info.serverToClientCompressionAlgorithm);
     }
 
     private void handleFailedConnection(final String message) {
@@ -172,8 +197,58 @@ public class ConnectionThread extends Thread {
         if (newSshConnection.isCanceled()) {
             authenticationCanceledOrTimeout(newSshConnection);
         } else {
-            authenticationOk(newSshConnection);
+            authenticationOk(connectThroughJumpHosts(newSshConnection));
+        }
+    }
+
+    /**
+     * Connects the further hops through "direct-tcpip" channels of the
+     * previous ones and returns the connection to the last hop. If a hop
+     * can't be reached this way, e.g. the forwarding is not allowed, or the
+     * key or password of the first hop doesn't work there, it closes the
+     * hops connected so far and returns the connection to the first hop.
+     */
+    private SshConnection connectThroughJumpHosts(final SshConnection firstHop) {
+        final int hops = host.getHops();
+        lastHopConnected = hops <= 1;
+        if (lastHopConnected) {
+            return firstHop;
+        }
+        SshConnection jumpHost = firstHop;
+        for (int hop = 1; hop < hops; hop++) {
+            final String hopHostname = host.getIp(hop);
+            final SshConnection hopConnection = new SshConnection(hopHostname, getHopPort(host, hop), jumpHost);
+            hopConnection.setCompression(host.isSshCompression() && hop == hops - 1);
+            try {
+                connect(hopConnection, hopHostname);
+                if (!authentication.authenticateHop(hopConnection, host.getUsername(hop))) {
+                    throw new IOException("authentication failed");
+                }
+            } catch (final IOException e) {
+                LOG.info("connectThroughJumpHosts: " + host.getName() + ": " + hopHostname
+                         + ": hopping the commands instead: " + e.getMessage());
+                hopConnection.close();
+                hopConnection.closeIntermediateJumpHosts();
+                return firstHop;
+            }
+            jumpHost = hopConnection;
+        }
+        jumpHost.closeJumpHostsOnConnectionLost();
+        lastHopConnected = true;
+        LOG.debug1("connectThroughJumpHosts: " + host.getName() + ": connected through " + (hops - 1) + " hop(s)");
+        return jumpHost;
+    }
+
+    /**
+     * Returns the ssh port of the hop. The port of the host is the port of
+     * the first hop, the further hops use the default port, like the hopped
+     * ssh commands do.
+     */
+    static int getHopPort(final Host host, final int hop) {
+        if (hop == 0) {
+            return host.getSSHPortInt();
         }
+        return Tools.getDefaultInt("SSH.Port");
     }
 
     private void authenticationCanceledOrTimeout(final SshConnection newSshConnection) {
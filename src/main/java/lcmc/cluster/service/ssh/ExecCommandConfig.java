@@ -36,6 +36,8 @@ public class ExecCommandConfig {
 
     private Host host;
     private ConnectionThread connectionThread;
+    private CommandChannel commandChannel;
+    private CommandScheduler commandScheduler;
     private SSHGui sshGui;
     private String command = null;
     private String commandString = null;
@@ -59,6 +61,16 @@ public class ExecCommandConfig {
         return this;
     }
 
+    ExecCommandConfig commandChannel(final CommandChannel commandChannel) {
+        this.commandChannel = commandChannel;
+        return this;
+    }
+
+    ExecCommandConfig commandScheduler(final CommandScheduler commandScheduler) {
+        this.commandScheduler = commandScheduler;
+        return this;
+    }
+
     public ExecCommandConfig sshGui(final SSHGui sshGui) {
         this.sshGui = sshGui;
         return this;
@@ -165,6 +177,14 @@ public class ExecCommandConfig {
         return connectionThread;
     }
 
+    CommandChannel getCommandChannel() {
+        return commandChannel;
+    }
+
+    CommandScheduler getCommandScheduler() {
+        return commandScheduler;
+    }
+
     public SSHGui getSshGui() {
         return sshGui;
     }
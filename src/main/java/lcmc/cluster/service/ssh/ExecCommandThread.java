@@ -25,6 +25,10 @@ import ch.ethz.ssh2.Session;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import lcmc.configs.DistResource;
@@ -35,14 +39,21 @@ import lcmc.common.domain.ExecCallback;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import lcmc.common.domain.NewOutputCallback;
+import lcmc.common.domain.StreamOutputCallback;
 import lcmc.common.domain.util.Tools;
 
-/** This class is a thread that executes commands. */
-public final class ExecCommandThread extends Thread {
+/**
+ * This class executes commands. It runs in the command scheduler, short
+ * commands wait there for their turn.
+ */
+public final class ExecCommandThread implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(ExecCommandThread.class);
 
     private final Host host;
     private final ConnectionThread connectionThread;
+    private final CommandScheduler commandScheduler;
+    /** Channel for silent commands, null if the host doesn't have one. */
+    private final CommandChannel commandChannel;
     private final SSHGui sshGui;
     private final String command;
     private final ExecCallback execCallback;
@@ -54,18 +65,22 @@ public final class ExecCommandThread extends Thread {
     private volatile boolean cancelIt = false;
     private final Lock mSessionLock = new ReentrantLock();
     private Session sess = null;
+    private CommandChannel.Request channelRequest = null;
+    private volatile CommandScheduler.Task task = null;
     private final int sshCommandTimeout;
 
     private static final int ERROR_EXIT_CODE = 255;
     private static final int EXEC_OUTPUT_BUFFER_SIZE = 8192;
     private static final int DEFAULT_EXIT_CODE = 100;
-    private static final String ENCODING = "UTF-8";
+    private static final int CANCELED_EXIT_CODE = 130;
 
     ExecCommandThread(final GUIData guiData, final ExecCommandConfig execCommandConfig) {
         this.guiData = guiData;
                 
         this.host = execCommandConfig.getHost();
         this.connectionThread = execCommandConfig.getConnectionThread();
+        this.commandScheduler = execCommandConfig.getCommandScheduler();
+        this.commandChannel = execCommandConfig.getCommandChannel();
         this.sshGui = execCommandConfig.getSshGui();
 
         this.execCallback = execCommandConfig.getExecCallback();
@@ -88,13 +103,30 @@ public final class ExecCommandThread extends Thread {
         LOG.debug2("ExecCommandThread: command: " + command);
     }
 
+    /**
+     * Queues the command in the scheduler. Commands, that stream their output,
+     * run right away, because they may run for a long time.
+     */
+    void start() {
+        if (newOutputCallback != null) {
+            task = commandScheduler.execute(this);
+        } else {
+            task = commandScheduler.submit(host.getName(), this);
+        }
+    }
+
     /**
      * Reconnects, connects if there is no connection and executes a
      * command.
      */
     @Override
     public void run() {
-        if (!connectionThread.isConnectionEstablished()) {
+        if (cancelIt) {
+            /* canceled, while it was waiting for its turn */
+            if (execCallback != null) {
+                execCallback.doneError("", CANCELED_EXIT_CODE);
+            }
+        } else if (!connectionThread.isConnectionEstablished()) {
             if (execCallback != null) {
                 execCallback.doneError("not connected", 139);
             }
@@ -113,35 +145,56 @@ public final class ExecCommandThread extends Thread {
         cancelIt = true;
         mSessionLock.lock();
         final Session thisSession;
+        final CommandChannel.Request thisRequest;
         try {
             thisSession = sess;
             sess = null;
+            thisRequest = channelRequest;
+            channelRequest = null;
         } finally {
             mSessionLock.unlock();
         }
         if (thisSession != null) {
             thisSession.close();
         }
+        if (thisRequest != null) {
+            commandChannel.cancel(thisRequest);
+        }
+        final CommandScheduler.Task thisTask = task;
+        if (thisTask != null) {
+            /* don't let it wait for its turn */
+            commandScheduler.runNow(thisTask);
+        }
     }
 
+    /**
+     * Timeout for opening of the session. Either the timeout or the opened
+     * session comes first, not both.
+     */
     static private class ConnectionTimeout {
-        private boolean timeout = false;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private ScheduledFuture<?> future = null;
 
-        private void setTimeout() {
-            timeout = true;
+        /** Returns whether it wasn't finished before. */
+        private boolean finish() {
+            return finished.compareAndSet(false, true);
         }
 
-        private boolean wasTimeout() {
-            return timeout;
+        /** Stops the timeout, if it didn't start yet. */
+        private void stop() {
+            if (future != null) {
+                future.cancel(false);
+            }
         }
     }
 
+    /**
+     * Waits for the command to finish. If it is called from another command
+     * and this one still waits for its turn, it starts right away, so that
+     * they can't wait for each other forever.
+     */
     public ExecCommandThread block() {
-        try {
-            join();
-        } catch (final InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        task.await();
         return this;
     }
 
@@ -149,38 +202,55 @@ public final class ExecCommandThread extends Thread {
         // ;;; separates commands, that are to be executed one after one,
         // if previous command has finished successfully.
         final String[] commands = command.split(";;;");
-        final StringBuilder ans = new StringBuilder("");
+        final List<String> outputs = new ArrayList<String>(commands.length);
         for (final String command1 : commands) {
-            final ConnectionTimeout connectionTimeout = setupConnectionTimeout();
-            try {
-                openSshSession(connectionTimeout);
-            } catch (final IOException e) {
-                handleSshSessionFailure();
-                break;
-            }
             final String cmd = command1.trim();
-            writeCommandToTerminal(cmd);
-            final SshOutput ret = execOneCommand(cmd);
-            ans.append(ret.getOutput());
+            final SshOutput ret;
+            if (isForCommandChannel()) {
+                writeCommandToTerminal(cmd);
+                ret = execOneCommandInChannel(cmd);
+            } else {
+                try {
+                    openSshSession();
+                } catch (final IOException e) {
+                    handleSshSessionFailure();
+                    break;
+                }
+                writeCommandToTerminal(cmd);
+                ret = execOneCommand(cmd);
+            }
+            outputs.add(ret.getOutput());
             final int exitCode = ret.getExitCode();
             if (exitCode != 0) {
-                handleCommandFailure(ans, exitCode);
+                handleCommandFailure(joinOutputs(outputs), exitCode);
                 // skip the reset
                 return;
             }
         }
         if (execCallback != null) {
-            execCallback.done(ans.toString());
+            execCallback.done(joinOutputs(outputs));
         }
     }
 
-    private void handleCommandFailure(final StringBuilder ans,
+    /** Joins outputs of the commands, a single output is not copied. */
+    private static String joinOutputs(final List<String> outputs) {
+        if (outputs.size() == 1) {
+            return outputs.get(0);
+        }
+        final StringBuilder ans = new StringBuilder("");
+        for (final String output : outputs) {
+            ans.append(output);
+        }
+        return ans.toString();
+    }
+
+    private void handleCommandFailure(final String ans,
             final int exitCode) {
         if (execCallback != null) {
             if (commandVisible || outputVisible) {
                 guiData.expandTerminalSplitPane(GUIData.TerminalSize.EXPAND);
             }
-            execCallback.doneError(ans.toString(), exitCode);
+            execCallback.doneError(ans, exitCode);
         }
     }
 
@@ -198,32 +268,40 @@ public final class ExecCommandThread extends Thread {
         }
     }
 
-    private void openSshSession(final ConnectionTimeout connectionTimeout)
-            throws IOException {
+    private void openSshSession() throws IOException {
+        final long started = System.nanoTime();
         /* it may hang here if we lost connection, so it will be
          * interrupted after a timeout. */
-        final Session newSession = connectionThread.getConnection().openSession();
+        final ConnectionTimeout connectionTimeout = setupConnectionTimeout();
+        final Session newSession;
+        try {
+            newSession = connectionThread.getConnection().openSession();
+        } finally {
+            connectionTimeout.stop();
+        }
         mSessionLock.lock();
         try {
             sess = newSession;
         } finally {
             mSessionLock.unlock();
         }
-        if (connectionTimeout.wasTimeout()) {
+        if (!connectionTimeout.finish()) {
             throw new IOException("open session failed");
         }
-        connectionTimeout.setTimeout();
+        commandScheduler.recordSessionOpen(host.getName(), System.nanoTime() - started);
     }
 
+    /**
+     * Cancels the connection, if the session doesn't open in time. No
+     * thread waits for the timeout, it is on the scheduler's timer.
+     */
     private ConnectionTimeout setupConnectionTimeout() {
         final ConnectionTimeout connectionTimeout = new ConnectionTimeout();
-        final Thread thread = new Thread(new Runnable() {
+        connectionTimeout.future = commandScheduler.schedule(new Runnable() {
             @Override
             public void run() {
-                Tools.sleep(Tools.getDefaultInt("SSH.ConnectTimeout"));
-                if (!connectionTimeout.wasTimeout()) {
+                if (connectionTimeout.finish()) {
                     LOG.debug1("run: " + host.getName() + ": open ssh session: timeout");
-                    connectionTimeout.setTimeout();
                     try {
                         final SshConnection sshConnection = connectionThread.getConnection();
                         if (sshConnection != null) {
@@ -234,11 +312,65 @@ public final class ExecCommandThread extends Thread {
                     }
                 }
             }
-        });
-        thread.start();
+        }, Tools.getDefaultInt("SSH.ConnectTimeout"));
         return connectionTimeout;
     }
 
+    /**
+     * Commands, that don't stream their output anywhere, can be sent over
+     * the command channel.
+     */
+    private boolean isForCommandChannel() {
+        return commandChannel != null && commandChannel.isRunning() && newOutputCallback == null && !outputVisible;
+    }
+
+    /**
+     * Executes the command in the helper's command channel, instead of
+     * opening a new ssh session. Unlike with a session, the timeout is for
+     * the whole command, since the output comes at the end.
+     */
+    private SshOutput execOneCommandInChannel(final String oneCommand) {
+        if (!connectionThread.isConnectionEstablished()) {
+            return new SshOutput("SSH.NotConnected", 1);
+        }
+        LOG.debug2("execOneCommandInChannel: command: " + host.getName() + ": " + oneCommand);
+        /* the helper runs as the login user, the command gets sudo, if it needs it */
+        final CommandChannel.Request request =
+                commandChannel.submit("export LC_ALL=C;" + host.getSudoCommand(oneCommand, true));
+        mSessionLock.lock();
+        try {
+            channelRequest = request;
+        } finally {
+            mSessionLock.unlock();
+        }
+        if (cancelIt) {
+            commandChannel.cancel(request);
+        }
+        final SshOutput output = request.waitFor(sshCommandTimeout);
+        mSessionLock.lock();
+        try {
+            channelRequest = null;
+        } finally {
+            mSessionLock.unlock();
+        }
+        if (output == null) {
+            LOG.appWarning("execOneCommandInChannel: SSH timeout: " + oneCommand);
+            guiData.progressIndicatorFailed(host.getName(),
+                                            "SSH timeout: " + oneCommand.replaceAll(DistResource.SUDO, ""));
+            commandChannel.cancel(request);
+            return new SshOutput("", ERROR_EXIT_CODE);
+        }
+        if (cancelIt) {
+            return new SshOutput("", CommandChannel.CANCELED_EXIT_CODE);
+        }
+        if (commandVisible) {
+            host.getTerminalPanel().nextCommand();
+        }
+        LOG.debug2("execOneCommandInChannel: output: "
+                   + output.getExitCode() + ": " + host.getName() + ": " + output.getOutput());
+        return output;
+    }
+
     private SshOutput execOneCommand(final String oneCommand) {
         if (sshCommandTimeout > 0 && sshCommandTimeout < 2000) {
             LOG.appWarning("execOneCommand: timeout: " + sshCommandTimeout + " to small for timeout? " + command);
@@ -269,10 +401,10 @@ public final class ExecCommandThread extends Thread {
             LOG.debug2("execOneCommand: command: "
                        + host.getName()
                        + ": "
-                       + host.getSudoCommand(host.getHoppedCommand(oneCommand), true));
+                       + host.getSudoCommand(connectionThread.getHoppedCommand(oneCommand), true));
             thisSession.execCommand("bash -c '"
                                     + Tools.escapeSingleQuotes("export LC_ALL=C;"
-                                                               + host.getSudoCommand(host.getHoppedCommand(oneCommand),
+                                                               + host.getSudoCommand(connectionThread.getHoppedCommand(oneCommand),
                                                                                      false), 1) + '\'');
             outputString = execCommandAndCaptureOutput(oneCommand, thisSession);
             if (cancelIt) {
@@ -297,11 +429,20 @@ public final class ExecCommandThread extends Thread {
         return new SshOutput(outputString, exitCode);
     }
 
+    /**
+     * Reads the output of the command, until the command ends. The bytes are
+     * decoded as they come, the sudo prompt is found in the decoded stream
+     * and the output is copied only once into the result, or not at all, if
+     * it goes to the new output callback.
+     */
     private String execCommandAndCaptureOutput(final String oneCommand, final Session thisSession) throws IOException {
         final InputStream stdout = thisSession.getStdout();
         final OutputStream stdin = thisSession.getStdin();
         final InputStream stderr = thisSession.getStderr();
-        final byte[] buff = new byte[EXEC_OUTPUT_BUFFER_SIZE];
+        final OutputDecoder stdoutDecoder = new OutputDecoder(EXEC_OUTPUT_BUFFER_SIZE);
+        final OutputDecoder stderrDecoder = new OutputDecoder(EXEC_OUTPUT_BUFFER_SIZE);
+        final PromptDetector sudoPrompt = new PromptDetector(Ssh.SUDO_PROMPT);
+        final PromptDetector sudoFail = new PromptDetector(Ssh.SUDO_FAIL);
         boolean skipNextLine = false;
         final StringBuilder res = new StringBuilder("");
         while (true) {
@@ -344,8 +485,11 @@ public final class ExecCommandThread extends Thread {
                 /* OK, either STDOUT_DATA or STDERR_DATA (or both) */
                 /* ... is set. */
             }
-            final StringBuilder output = readStdout(stdout, buff);
-            if (output.indexOf(Ssh.SUDO_PROMPT) >= 0) {
+            stdoutDecoder.clear();
+            readStdout(stdout, stdoutDecoder);
+            final boolean prompt = sudoPrompt.find(stdoutDecoder.getOutput());
+            final boolean fail = sudoFail.find(stdoutDecoder.getOutput());
+            if (prompt) {
                 if (sudoPwd == null) {
                     enterSudoPassword();
                 }
@@ -353,38 +497,60 @@ public final class ExecCommandThread extends Thread {
                 stdin.write(pwd.getBytes());
                 skipNextLine = true;
                 continue;
-            } else if (output.indexOf(Ssh.SUDO_FAIL) >= 0) {
+            } else if (fail) {
                 host.setSudoPassword(null);
             } else {
                 if (skipNextLine) {
                     /* this is the "enter" after pwd */
                     skipNextLine = false;
-                    if (output.charAt(0) == 13 && output.charAt(1) == 10) {
-                        output.delete(0, 2);
-                        if (output.length() == 0) {
+                    final CharSequence output = stdoutDecoder.getOutput();
+                    if (output.length() >= 2 && output.charAt(0) == 13 && output.charAt(1) == 10) {
+                        stdoutDecoder.deleteStart(2);
+                        if (stdoutDecoder.length() == 0) {
                             continue;
                         }
                     }
                 }
             }
-            final StringBuilder errOutput = readStderr(stderr, buff);
-            res.append(errOutput);
-            if (newOutputCallback != null && !cancelIt) {
+            stderrDecoder.clear();
+            readStderr(stderr, stderrDecoder);
+            stderrDecoder.appendTo(res);
+            handleOutput(stdoutDecoder, res);
+            if (cancelIt) {
+                return res.toString();
+            }
+        }
+        stderrDecoder.clear();
+        stderrDecoder.finish();
+        stderrDecoder.appendTo(res);
+        stdoutDecoder.clear();
+        stdoutDecoder.finish();
+        handleOutput(stdoutDecoder, res);
+        return res.toString();
+    }
+
+    /** Passes the output to the new output callback, or adds it to the result. */
+    private void handleOutput(final OutputDecoder outputDecoder, final StringBuilder res) {
+        if (outputDecoder.length() == 0) {
+            return;
+        }
+        if (newOutputCallback != null && !cancelIt) {
+            if (LoggerFactory.getDebugLevel() > 0) {
                 LOG.debug2("execOneCommand: output: "
                            + ": "
                            + host.getName()
                            + ": "
-                           + output.toString());
-                newOutputCallback.output(output.toString());
+                           + outputDecoder.getOutput());
             }
-            if (cancelIt) {
-                return res.toString();
-            }
-            if (newOutputCallback == null) {
-                res.append(output);
+            if (newOutputCallback instanceof StreamOutputCallback) {
+                ((StreamOutputCallback) newOutputCallback).output(outputDecoder.getOutput());
+            } else {
+                newOutputCallback.output(outputDecoder.getOutput().toString());
             }
         }
-        return res.toString();
+        if (newOutputCallback == null && !cancelIt) {
+            outputDecoder.appendTo(res);
+        }
     }
 
     /** If you below replace "while" with "if", then the way
@@ -394,37 +560,25 @@ public final class ExecCommandThread extends Thread {
      * slightly suffer. OKOK, that all matters only if you get
      * HUGE amounts of stdout and stderr data =)
      */
-    private StringBuilder readStdout(final InputStream stdout, final byte[] buff) throws IOException {
-        final StringBuilder output = new StringBuilder();
+    private void readStdout(final InputStream stdout, final OutputDecoder outputDecoder) throws IOException {
         while (stdout.available() > 0 && !cancelIt) {
-            final int len = stdout.read(buff);
-            if (len > 0) {
-                final String buffString = new String(buff, 0, len, ENCODING);
-                output.append(buffString);
-                if (outputVisible) {
-                    host.getTerminalPanel().addContent(buffString);
-                }
+            final int len = outputDecoder.read(stdout);
+            if (len > 0 && outputVisible) {
+                host.getTerminalPanel().addContent(outputDecoder.getChunk().toString());
             }
         }
-        return output;
     }
 
-    private StringBuilder readStderr(final InputStream stderr, final byte[] buff) throws IOException {
-        final StringBuilder output = new StringBuilder();
+    private void readStderr(final InputStream stderr, final OutputDecoder outputDecoder) throws IOException {
         while (stderr.available() > 0 && !cancelIt) {
             // this is unreachable.
             // stdout and stderr are mixed in the stdout
             // if pty is requested.
-            final int len = stderr.read(buff);
-            if (len > 0) {
-                final String buffString = new String(buff, 0, len, ENCODING);
-                output.append(buffString);
-                if (outputVisible) {
-                    host.getTerminalPanel().addContentErr(buffString);
-                }
+            final int len = outputDecoder.read(stderr);
+            if (len > 0 && outputVisible) {
+                host.getTerminalPanel().addContentErr(outputDecoder.getChunk().toString());
             }
         }
-        return output;
     }
 
     /**
@@ -0,0 +1,73 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package lcmc.cluster.service.ssh;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last samples of a latency, like how long it took to open an ssh
+ * session, so that their percentiles can be shown. Older samples are
+ * overwritten, so the memory doesn't grow.
+ */
+final class LatencyRecorder {
+    private final long[] samples;
+    private int next = 0;
+    private int size = 0;
+    private long count = 0;
+
+    LatencyRecorder(final int maxSamples) {
+        samples = new long[maxSamples];
+    }
+
+    synchronized void record(final long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+        count++;
+    }
+
+    /** Number of all recorded samples, also the overwritten ones. */
+    synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the percentile (0 - 100) of the kept samples, or 0, if there
+     * are none.
+     */
+    long getPercentile(final double percentile, final TimeUnit unit) {
+        final long[] sorted;
+        synchronized (this) {
+            if (size == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(samples, size);
+        }
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        final int index = Math.min(sorted.length - 1, Math.max(0, rank - 1));
+        return unit.convert(sorted[index], TimeUnit.NANOSECONDS);
+    }
+}
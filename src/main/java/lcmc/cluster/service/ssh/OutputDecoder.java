@@ -0,0 +1,122 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.cluster.service.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Decodes UTF-8 output of a command, as it is read from the stream. The
+ * bytes are read right into the decoder's buffer and an incomplete
+ * character at the end of a read is kept for the next one. The decoded
+ * characters are collected until clear() and are returned as views, that
+ * are valid until the next read or clear().
+ */
+final class OutputDecoder {
+    private final CharsetDecoder decoder = Charsets.UTF_8.newDecoder()
+                                                         .onMalformedInput(CodingErrorAction.REPLACE)
+                                                         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /** Bytes in the write mode, with the carried over bytes at the start. */
+    private final ByteBuffer bytes;
+    private char[] chars;
+    private int length = 0;
+    private int chunkStart = 0;
+
+    OutputDecoder(final int bufferSize) {
+        bytes = ByteBuffer.allocate(bufferSize);
+        chars = new char[bufferSize];
+    }
+
+    /** Reads once from the stream and returns the number of bytes, or -1 at the end of the stream. */
+    int read(final InputStream stream) throws IOException {
+        final int len = stream.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        if (len <= 0) {
+            return len;
+        }
+        bytes.position(bytes.position() + len);
+        decode(false);
+        return len;
+    }
+
+    /** Decodes the carried over bytes, at the end of the output. */
+    void finish() {
+        final int start = length;
+        decode(true);
+        final CharBuffer out = CharBuffer.wrap(chars, length, chars.length - length);
+        decoder.flush(out);
+        length = out.position();
+        chunkStart = start;
+        decoder.reset();
+    }
+
+    /** Returns characters decoded by the last read. */
+    CharSequence getChunk() {
+        return CharBuffer.wrap(chars, chunkStart, length - chunkStart);
+    }
+
+    /** Returns all characters decoded since clear(). */
+    CharSequence getOutput() {
+        return CharBuffer.wrap(chars, 0, length);
+    }
+
+    int length() {
+        return length;
+    }
+
+    void appendTo(final StringBuilder sb) {
+        sb.append(chars, 0, length);
+    }
+
+    /** Removes characters from the start of the output. */
+    void deleteStart(final int count) {
+        System.arraycopy(chars, count, chars, 0, length - count);
+        length -= count;
+        chunkStart = Math.max(0, chunkStart - count);
+    }
+
+    /** Forgets the decoded characters, but not the carried over bytes. */
+    void clear() {
+        length = 0;
+        chunkStart = 0;
+    }
+
+    private void decode(final boolean endOfInput) {
+        bytes.flip();
+        /* UTF-8 never has more characters than bytes */
+        final int needed = length + bytes.remaining() + 1;
+        if (needed > chars.length) {
+            final char[] newChars = new char[Math.max(needed, chars.length * 2)];
+            System.arraycopy(chars, 0, newChars, 0, length);
+            chars = newChars;
+        }
+        final CharBuffer out = CharBuffer.wrap(chars, length, chars.length - length);
+        decoder.decode(bytes, out, endOfInput);
+        chunkStart = length;
+        length = out.position();
+        bytes.compact();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.cluster.service.ssh;
+
+/**
+ * Finds a prompt like the sudo password prompt in the output, as it comes,
+ * also if it is split between two reads. It remembers how much of the
+ * prompt was matched at the end of the last output (Knuth-Morris-Pratt).
+ */
+final class PromptDetector {
+    private final String prompt;
+    /** Length of the longest proper prefix, that is also a suffix. */
+    private final int[] fallback;
+    private int matched = 0;
+
+    PromptDetector(final String prompt) {
+        this.prompt = prompt;
+        fallback = new int[prompt.length()];
+        int k = 0;
+        for (int i = 1; i < prompt.length(); i++) {
+            while (k > 0 && prompt.charAt(i) != prompt.charAt(k)) {
+                k = fallback[k - 1];
+            }
+            if (prompt.charAt(i) == prompt.charAt(k)) {
+                k++;
+            }
+            fallback[i] = k;
+        }
+    }
+
+    /**
+     * Returns whether the prompt ends in this output. After that the
+     * detector starts again.
+     */
+    boolean find(final CharSequence output) {
+        final int length = output.length();
+        boolean found = false;
+        for (int i = 0; i < length; i++) {
+            final char c = output.charAt(i);
+            while (matched > 0 && c != prompt.charAt(matched)) {
+                matched = fallback[matched - 1];
+            }
+            if (c == prompt.charAt(matched)) {
+                matched++;
+            }
+            if (matched == prompt.length()) {
+                found = true;
+                matched = 0;
+            }
+        }
+        return found;
+    }
+
+    void reset() {
+        matched = 0;
+    }
+}
@@ -25,9 +25,13 @@ package lcmc.cluster.service.ssh;
 import ch.ethz.ssh2.LocalPortForwarder;
 import ch.ethz.ssh2.SCPClient;
 import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
 import lcmc.configs.DistResource;
 import lcmc.common.ui.GUIData;
 import lcmc.common.domain.Application;
@@ -72,12 +76,17 @@ public final class Ssh {
     private final Lock mConnectionLock = new ReentrantLock();
     private final Lock mConnectionThreadLock = new ReentrantLock();
     private LocalPortForwarder localPortForwarder = null;
+    /** Helper process, that runs silent commands without new ssh sessions. */
+    private volatile CommandChannel commandChannel = null;
+    private final AtomicBoolean commandChannelStarting = new AtomicBoolean(false);
     @Inject
     private GUIData guiData;
     @Inject
     private Application application;
     @Inject
     private Provider<Authentication> authenticationProvider;
+    @Inject
+    private CommandScheduler commandScheduler;
 
     boolean reconnect() {
         application.isNotSwingThread();
@@ -221,6 +230,7 @@ public final class Ssh {
         } finally {
             mConnectionLock.unlock();
         }
+        closeCommandChannel();
         LOG.debug("disconnect: host: " + host.getName());
         host.getTerminalPanel().addCommand(LOGOUT_COMMAND);
         host.getTerminalPanel().nextCommand();
@@ -263,6 +273,7 @@ public final class Ssh {
         } finally {
             mConnectionLock.unlock();
         }
+        closeCommandChannel();
         LOG.debug("forceDisconnect: host: " + host.getName());
         host.getTerminalPanel().addCommand("logout");
         host.getTerminalPanel().nextCommand();
@@ -318,6 +329,8 @@ public final class Ssh {
 
         execCommandConfig.host(host)
                          .connectionThread(connectionThread)
+                         .commandChannel(getCommandChannel())
+                         .commandScheduler(commandScheduler)
                          .sshGui(sshGui)
                          .execCallback(execCallback)
                          .execute(guiData).block();
@@ -333,6 +346,8 @@ public final class Ssh {
         reconnect();
         return execCommandConfig.host(host)
                                 .connectionThread(connectionThread)
+                                .commandChannel(getCommandChannel())
+                                .commandScheduler(commandScheduler)
                                 .sshGui(sshGui)
                                 .execute(guiData);
     }
@@ -341,6 +356,8 @@ public final class Ssh {
         reconnect();
         return execCommandConfig.host(host)
                                 .connectionThread(connectionThread)
+                                .commandChannel(getCommandChannel())
+                                .commandScheduler(commandScheduler)
                                 .sshGui(sshGui)
                                 .capture(guiData);
     }
@@ -354,6 +371,66 @@ public final class Ssh {
                 scp(file, "@GUI-HELPER-PROG@", "0700", false, null, null, null);
             }
         }
+        startCommandChannel();
+    }
+
+    /**
+     * Starts the helper's command channel, if it's possible. Commands are
+     * executed in new ssh sessions otherwise. The helper runs as the login
+     * user and only the commands, that need it, run with sudo. It is used
+     * only, if the login user is root, since the installed helper can't be
+     * run by other users and the sudo password can't be entered without a
+     * terminal. It doesn't work with hops, that are not connected directly.
+     */
+    private void startCommandChannel() {
+        closeCommandChannel();
+        if (!isConnected() || !connectionThread.isLastHopConnected()
+            || !Host.ROOT_USER.equals(host.getUsername(host.getHops() - 1))) {
+            return;
+        }
+        final String command = new ExecCommandConfig().host(host).commandString("CommandChannel").getCommand();
+        try {
+            commandChannel = CommandChannel.start(host.getName(),
+                                                  connectionThread.getConnection(),
+                                                  "bash -c '" + Tools.escapeSingleQuotes("export LC_ALL=C;" + command, 1)
+                                                  + '\'');
+        } catch (final IOException e) {
+            LOG.appWarning("startCommandChannel: " + host.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the command channel or null, if it's not running. The channel
+     * is started again, if it was closed, e.g. after reconnect.
+     */
+    private CommandChannel getCommandChannel() {
+        final CommandChannel channel = commandChannel;
+        if (channel == null || channel.isRunning()) {
+            return channel;
+        }
+        if (isConnected() && commandChannelStarting.compareAndSet(false, true)) {
+            commandScheduler.submit(host.getName(), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (commandChannel == channel) {
+                            startCommandChannel();
+                        }
+                    } finally {
+                        commandChannelStarting.set(false);
+                    }
+                }
+            });
+        }
+        return null;
+    }
+
+    private void closeCommandChannel() {
+        final CommandChannel channel = commandChannel;
+        commandChannel = null;
+        if (channel != null) {
+            channel.close();
+        }
     }
 
     /** Installs test suite on the remote host. */
@@ -406,7 +483,28 @@ public final class Ssh {
     }
 
     /**
-     * Copies file to the /tmp/ dir on the remote host.
+     * Creates config like createConfig, in a command, that is queued for the
+     * host on the command scheduler.
+     */
+    public CommandScheduler.Task submitCreateConfig(final String config,
+                                                    final String fileName,
+                                                    final String dir,
+                                                    final String mode,
+                                                    final boolean makeBackup) {
+        return commandScheduler.submit(host.getName(), new Runnable() {
+            @Override
+            public void run() {
+                createConfig(config, fileName, dir, mode, makeBackup, null, null);
+            }
+        });
+    }
+
+    /**
+     * Copies file to the remote host. The content is sent over scp as it is,
+     * with a new line at the end, and is moved in place with sudo. If the
+     * file is a plain copy, without any commands, and the host already has
+     * it with the same content and mode, nothing is sent. With hopped
+     * commands or if scp fails, the content goes in an escaped echo command.
      *
      * @param remoteFilename
      *          new file name on the other host
@@ -421,6 +519,13 @@ public final class Ssh {
         if  (!isConnected()) {
             return;
         }
+        /* echo added the new line */
+        final byte[] data = (fileContent + '\n').getBytes(Charsets.UTF_8);
+        final boolean plainCopy = installCommand == null && preCommand == null && postCommand == null;
+        if (plainCopy && isSameOnHost(data, remoteFilename, mode)) {
+            LOG.debug1("scp: " + host.getName() + ": " + remoteFilename + ": not changed");
+            return;
+        }
         final String commands = buildScpCommand(remoteFilename, makeBackup, preCommand);
         String modeString = "";
         if (mode != null) {
@@ -434,21 +539,25 @@ public final class Ssh {
         if (installCommand == null) {
             installCommand = "mv " + remoteFilename + ".new " + remoteFilename;
         }
-        final String commandTail = "\">" + remoteFilename + ".new"
-                                   + modeString
+        final String commandTail = modeString
 
                                    + "&& "
                                    + installCommand
 
                                    + postCommandString
                                    + backupString;
-        LOG.debug1("scp: " + commands + "echo \"..." + commandTail);
+        final String tempFile = copyToTempFile(data);
+        final String writeCommand;
+        if (tempFile == null) {
+            LOG.debug1("scp: " + commands + "echo \"...\">" + remoteFilename + ".new" + commandTail);
+            writeCommand = "echo \"" + Tools.escapeQuotes(fileContent, 1) + "\">" + remoteFilename + ".new";
+        } else {
+            writeCommand = "cat " + tempFile + ">" + remoteFilename + ".new;R=$?;rm -f " + tempFile + ";[ $R -eq 0 ]";
+            LOG.debug1("scp: " + commands + writeCommand + commandTail);
+        }
         final String escapedBashCommand = DistResource.SUDO
                                           + "bash -c \""
-                                          + Tools.escapeQuotes(commands
-                                                               + "echo \""
-                                                               + Tools.escapeQuotes(fileContent, 1)
-                                                               + commandTail, 1)
+                                          + Tools.escapeQuotes(commands + writeCommand + commandTail, 1)
                                           + '"';
         execCommand(new ExecCommandConfig()
                         .command(escapedBashCommand)
@@ -471,6 +580,62 @@ public final class Ssh {
                         .silentOutput()).block();
     }
 
+    /**
+     * Returns whether the remote file has the same md5 sum as the data and
+     * the same mode.
+     */
+    private boolean isSameOnHost(final byte[] data, final String remoteFilename, final String mode) {
+        final SshOutput output = execCommandAndWait(new ExecCommandConfig()
+                                     .command(DistResource.SUDO + "bash -c \"md5sum < " + remoteFilename
+                                              + " && stat -c %a " + remoteFilename + "\" 2>/dev/null")
+                                     .sshCommandTimeout(10000)
+                                     .silentCommand()
+                                     .silentOutput());
+        return output.isSuccess() && isSameContent(data, mode, output.getOutput());
+    }
+
+    /**
+     * Returns whether the output of the md5sum and stat commands on the host
+     * matches the data and the mode. Null mode matches any mode.
+     */
+    static boolean isSameContent(final byte[] data, final String mode, final String md5sumAndStatOutput) {
+        if (md5sumAndStatOutput == null) {
+            return false;
+        }
+        final String[] lines = md5sumAndStatOutput.trim().split("\\s*\n");
+        if (lines.length != 2) {
+            return false;
+        }
+        final String remoteMd5 = lines[0].split("\\s+")[0];
+        if (!Hashing.md5().hashBytes(data).toString().equals(remoteMd5)) {
+            return false;
+        }
+        try {
+            return mode == null || Integer.parseInt(mode, 8) == Integer.parseInt(lines[1].trim(), 8);
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the data over scp to a new file in /tmp, that only the user can
+     * read, and returns its name. Returns null, if the connection goes to
+     * the first hop, or if scp failed.
+     */
+    private String copyToTempFile(final byte[] data) {
+        if (!connectionThread.isLastHopConnected()) {
+            return null;
+        }
+        final String fileName = "lcmc-" + UUID.randomUUID() + ".tmp";
+        try {
+            new SCPClient(connectionThread.getConnection()).put(data, fileName, "/tmp", "0600");
+        } catch (final IOException e) {
+            LOG.appWarning("copyToTempFile: " + host.getName() + ": scp failed: " + e.getMessage());
+            return null;
+        }
+        return "/tmp/" + fileName;
+    }
+
     public void startVncPortForwarding(final String remoteHost, final int remotePort) throws IOException {
         final int localPort = remotePort + application.getVncPortOffset();
         try {
@@ -19,16 +19,43 @@
  */
 package lcmc.cluster.service.ssh;
 
+import ch.ethz.ssh2.ChannelWindowParameters;
 import ch.ethz.ssh2.Connection;
+import ch.ethz.ssh2.ConnectionMonitor;
+import ch.ethz.ssh2.JumpHostProxyData;
 import ch.ethz.ssh2.channel.ChannelManager;
+import lcmc.common.domain.util.Tools;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /** Connection class that can cancel it's connection during openSession. */
 public class SshConnection extends Connection {
     private boolean canceled = false;
     private boolean disconnectForGood = false;
+    /** Connections this one goes through, the first hop first. */
+    private final List<SshConnection> jumpHosts = new ArrayList<SshConnection>();
 
     SshConnection(final String hostname, final int port) {
         super(hostname, port);
+        setChannelWindowParameters(createChannelWindowParameters());
+    }
+
+    /** Connection, that goes through a channel of the jump host connection. */
+    SshConnection(final String hostname, final int port, final SshConnection jumpHost) {
+        super(hostname, port);
+        setChannelWindowParameters(createChannelWindowParameters());
+        setProxyData(new JumpHostProxyData(jumpHost));
+        jumpHosts.addAll(jumpHost.jumpHosts);
+        jumpHosts.add(jumpHost);
+    }
+
+    /** The window starts small and grows with the bandwidth-delay product. */
+    private static ChannelWindowParameters createChannelWindowParameters() {
+        final int initial = Tools.getDefaultInt("SSH.ChannelWindow.Initial");
+        return new ChannelWindowParameters(initial,
+                                           Math.max(initial, Tools.getDefaultInt("SSH.ChannelWindow.Max")),
+                                           Tools.getDefaultInt("SSH.ChannelMaxPacketSize"));
     }
 
     void cancel() {
@@ -48,6 +75,36 @@ public class SshConnection extends Connection {
 
     void disconnectForGood() {
         disconnectForGood = true;
+        closeJumpHosts();
+    }
+
+    /** Closes the jump host connections, once this connection goes away. */
+    void closeJumpHostsOnConnectionLost() {
+        if (jumpHosts.isEmpty()) {
+            return;
+        }
+        addConnectionMonitor(new ConnectionMonitor() {
+            @Override
+            public void connectionLost(final Throwable reason) {
+                closeJumpHosts();
+            }
+        });
+    }
+
+    /** Closes the jump host connections, the nearest hop first. */
+    void closeJumpHosts() {
+        closeJumpHosts(0);
+    }
+
+    /** Closes the jump host connections, but leaves the first hop open. */
+    void closeIntermediateJumpHosts() {
+        closeJumpHosts(1);
+    }
+
+    private void closeJumpHosts(final int firstIndex) {
+        for (int i = jumpHosts.size() - 1; i >= firstIndex; i--) {
+            jumpHosts.get(i).close();
+        }
     }
 
     boolean isDisconnectedForGood() {
@@ -34,6 +34,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -53,6 +54,7 @@ import javax.swing.tree.TreeNode;
 import com.google.common.collect.Table;
 import com.google.common.eventbus.Subscribe;
 import lcmc.ClusterEventBus;
+import lcmc.cluster.service.ssh.CommandScheduler;
 import lcmc.cluster.service.storage.FileSystemService;
 import lcmc.cluster.ui.network.NetworkFactory;
 import lcmc.cluster.ui.network.NetworkPresenter;
@@ -65,6 +67,7 @@ import lcmc.common.ui.treemenu.TreeMenuController;
 import lcmc.crm.domain.CrmXml;
 import lcmc.cluster.domain.Cluster;
 import lcmc.crm.domain.ClusterStatus;
+import lcmc.crm.service.CibTransaction;
 import lcmc.crm.ui.CrmGraph;
 import lcmc.drbd.domain.DRBDtestData;
 import lcmc.drbd.domain.DrbdXml;
@@ -104,14 +107,15 @@ import lcmc.vm.ui.resource.DomainInfo;
 import lcmc.vm.ui.resource.HardwareInfo;
 import lcmc.vm.ui.resource.VMListInfo;
 import lcmc.common.ui.utils.ButtonCallback;
-import lcmc.crm.service.CRM;
 import lcmc.common.ui.utils.ComponentWithTest;
 import lcmc.drbd.service.DRBD;
 import lcmc.common.domain.ExecCallback;
+import lcmc.common.domain.HelperFrameDecoder;
 import lcmc.crm.service.Heartbeat;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import lcmc.common.domain.NewOutputCallback;
+import lcmc.common.domain.StreamOutputCallback;
 import lcmc.common.domain.util.Tools;
 import org.apache.commons.collections15.keyvalue.MultiKey;
 import org.apache.commons.collections15.map.LinkedMap;
@@ -177,6 +181,12 @@ public class ClusterBrowser extends Browser {
                                                             CRM_ON_FAIL_PARAMETER};
     public static final String STARTING_PTEST_TOOLTIP = Tools.getString("ClusterBrowser.StartingPtest");
     private static final String CLUSTER_STATUS_ERROR = "---start---\r\nerror\r\n\r\n---done---\r\n";
+    private static final String CLUSTER_STATUS_FRAME = "cluster";
+    private static final String CLUSTER_STATUS_FRAME_ERROR = "error";
+    /** Milliseconds between the server status and ping checks. */
+    private static final long SERVER_STATUS_INTERVAL = 10000;
+    /** Milliseconds before the crm status is started again. */
+    private static final long CRM_STATUS_INTERVAL = 5000;
     public static final ImageIcon CLUSTER_ICON_SMALL = Tools.createImageIcon(
                                                               Tools.getDefault("ClusterBrowser.ClusterIconSmall"));
     /** String that appears as a tooltip in menu items if status was disabled.*/
@@ -287,6 +297,8 @@ public class ClusterBrowser extends Browser {
     private final Lock mVmsReadLock = mVmsLock.readLock();
     private final Lock mVmsWriteLock = mVmsLock.writeLock();
     private final Lock mVmsUpdateLock = new ReentrantLock();
+    /** Updates of the vms xml objects one at a time, so that none is lost. */
+    private final Lock mVmsXmlUpdateLock = new ReentrantLock();
     private final Map<Host, VmsXml> vmsXML = new HashMap<Host, VmsXml>();
     private DRBDtestData drbdtestData;
     private boolean drbdStatusCanceledByUser = false;
@@ -322,6 +334,8 @@ public class ClusterBrowser extends Browser {
     private GUIData guiData;
     @Inject
     private GlobalInfo globalInfo;
+    @Inject
+    private CommandScheduler commandScheduler;
 
     @Inject
     private VMListInfo vmListInfo;
@@ -667,45 +681,39 @@ public class ClusterBrowser extends Browser {
     void startServerStatus() {
         final Host[] hosts = cluster.getHostsArray();
         for (final Host host : hosts) {
-            final Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    startServerStatus(host);
-                }
-            });
-            thread.start();
+            startServerStatus(host);
         }
     }
 
     private void startPing(final Host host) {
-        while (true) {
-            host.startPing();
-            Tools.sleep(10000);
-            if (serverStatusCanceled) {
-                break;
+        commandScheduler.repeat(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                host.startPing();
+                return !serverStatusCanceled;
             }
-        }
+        }, SERVER_STATUS_INTERVAL);
     }
 
     /** Start polling of the server status on one host. */
     void startServerStatus(final Host host) {
         final String hostName = host.getName();
         final CategoryInfo[] infosToUpdate = new CategoryInfo[]{clusterHostsInfo};
-        while (true) {
-            if (host.getWaitForServerStatusLatch()) {
-                guiData.startProgressIndicator(hostName, Tools.getString("ClusterBrowser.UpdatingServerInfo"));
-            }
+        commandScheduler.repeat(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (serverStatusCanceled) {
+                    return false;
+                }
+                if (host.getWaitForServerStatusLatch()) {
+                    guiData.startProgressIndicator(hostName, Tools.getString("ClusterBrowser.UpdatingServerInfo"));
+                }
 
-            host.setIsLoading();
-            host.startHWInfoDaemon(infosToUpdate, new ResourceGraph[]{drbdGraph, crmGraph});
-            if (serverStatusCanceled) {
-                break;
+                host.setIsLoading();
+                host.startHWInfoDaemon(infosToUpdate, new ResourceGraph[]{drbdGraph, crmGraph});
+                return !serverStatusCanceled;
             }
-            Tools.sleep(10000);
-            if (serverStatusCanceled) {
-                break;
-            }
-        }
+        }, SERVER_STATUS_INTERVAL);
     }
 
     public void updateServerStatus(final Host host) {
@@ -736,13 +744,70 @@ public class ClusterBrowser extends Browser {
 
     /** Updates VMs info. */
     public void periodicalVmsUpdate(final Host host) {
-        final VmsXml newVmsXml = new VmsXml(host);
-        if (newVmsXml.update()) {
-            vmsXmlPut(host, newVmsXml);
+        if (updateVmsXml(host, null)) {
             updateVms();
         }
     }
 
+    /**
+     * Updates VMs info from the outputs of the hw info daemon in the order
+     * they came. If a delta can't be applied, e.g. there is no vm info yet,
+     * the whole vm info is fetched again.
+     */
+    public void updateVms(final Host host, final Iterable<String> vmInfos) {
+        boolean updated = false;
+        boolean deltaFailed = false;
+        for (final String vmInfo : vmInfos) {
+            if (updateVmsXml(host, vmInfo)) {
+                updated = true;
+            } else if (VmsXml.isDelta(vmInfo)) {
+                deltaFailed = true;
+            }
+        }
+        if (updated) {
+            updateVms();
+        }
+        if (deltaFailed) {
+            LOG.debug1("updateVms: " + host.getName() + ": delta not applied, fetching the whole vm info");
+            commandScheduler.submit(host.getName(), new Runnable() {
+                @Override
+                public void run() {
+                    periodicalVmsUpdate(host);
+                }
+            });
+        }
+    }
+
+    /**
+     * Updates the vms xml object of the host, so that the domains, that
+     * didn't change, don't have to be parsed again. The update goes to a
+     * copy of the old object, that replaces it, so that the old one doesn't
+     * change while it is used. If the output is null, it is fetched from
+     * the host.
+     */
+    private boolean updateVmsXml(final Host host, final String vmInfo) {
+        mVmsXmlUpdateLock.lock();
+        try {
+            /* fetched under the lock, so that no later delta is overwritten */
+            final String output = vmInfo == null ? VmsXml.getVmInfo(host) : vmInfo;
+            if (output == null) {
+                return false;
+            }
+            if (VmsXml.isUnchanged(host, output)) {
+                return false;
+            }
+            final VmsXml oldVmsXml = getVmsXml(host);
+            final VmsXml vmsXml = oldVmsXml == null ? new VmsXml(host) : new VmsXml(oldVmsXml);
+            if (!vmsXml.update(output)) {
+                return false;
+            }
+            vmsXmlPut(host, vmsXml);
+            return true;
+        } finally {
+            mVmsXmlUpdateLock.unlock();
+        }
+    }
+
     /** Updates VMs info. */
     public void periodicalVmsUpdate(final Host[] hosts) {
         periodicalVmsUpdate(Arrays.asList(hosts));
@@ -752,9 +817,7 @@ public class ClusterBrowser extends Browser {
     public void periodicalVmsUpdate(final Iterable<Host> hosts) {
         boolean updated = false;
         for (final Host host : hosts) {
-            final VmsXml newVmsXml = new VmsXml(host);
-            if (newVmsXml.update()) {
-                vmsXmlPut(host, newVmsXml);
+            if (updateVmsXml(host, null)) {
                 updated = true;
             }
         }
@@ -780,13 +843,7 @@ public class ClusterBrowser extends Browser {
     void startConnectionStatusOnAllHosts() {
         final Host[] hosts = cluster.getHostsArray();
         for (final Host host : hosts) {
-            final Thread pingThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    startPing(host);
-                }
-            });
-            pingThread.start();
+            startPing(host);
             host.startConnectionStatus();
         }
     }
@@ -794,13 +851,7 @@ public class ClusterBrowser extends Browser {
     void startDrbdStatusOnAllHosts() {
         final Host[] hosts = cluster.getHostsArray();
         for (final Host host : hosts) {
-            final Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    startDrbdStatus(host);
-                }
-            });
-            thread.start();
+            startDrbdStatus(host);
         }
     }
 
@@ -821,7 +872,7 @@ public class ClusterBrowser extends Browser {
         final String hostName = host.getName();
         /* now what we do if the status finished for the first time. */
         guiData.startProgressIndicator( hostName, Tools.getString("ClusterBrowser.UpdatingDrbdStatus"));
-        final Thread thread = new Thread(new Runnable() {
+        commandScheduler.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -838,136 +889,136 @@ public class ClusterBrowser extends Browser {
                 guiData.stopProgressIndicator(hostName, Tools.getString("ClusterBrowser.UpdatingDrbdStatus"));
             }
         });
-        thread.start();
 
         drbdStatusCanceledByUser = false;
-        while (true) {
-            host.execDrbdStatusCommand(
-                  new ExecCallback() {
-                       @Override
-                       public void done(final String ans) {
-                           firstTime.countDown();
-                           if (!host.isDrbdStatusOk()) {
-                               host.setDrbdStatusOk(true);
-                               drbdGraph.repaint();
-                               LOG.debug1("startDrbdStatus: host: " + host.getName());
-                               clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
-                           }
-                       }
-
-                       @Override
-                       public void doneError(final String answer, final int exitCode) {
-                           firstTime.countDown();
-                           LOG.debug1("startDrbdStatus: failed: " + host.getName() + " exit code: " + exitCode);
-                           if (exitCode != 143 && exitCode != 100) {
-                               // TODO: exit code is null -> 100 all of the
-                               // sudden
-                               /* was killed intentionally */
-                               if (host.isDrbdStatusOk()) {
-                                   host.setDrbdStatusOk(false);
-                                   LOG.debug1("startDrbdStatus: host: " + host.getName());
+        commandScheduler.repeat(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                host.execDrbdStatusCommand(
+                      new ExecCallback() {
+                           @Override
+                           public void done(final String ans) {
+                               firstTime.countDown();
+                               if (!host.isDrbdStatusOk()) {
+                                   host.setDrbdStatusOk(true);
                                    drbdGraph.repaint();
+                                   LOG.debug1("startDrbdStatus: host: " + host.getName());
                                    clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
                                }
-                               if (exitCode == 255) {
-                                   /* looks like connection was lost */
-                                   //host.getSSH().forceReconnect();
-                                   //host.setConnected();
+                           }
+
+                           @Override
+                           public void doneError(final String answer, final int exitCode) {
+                               firstTime.countDown();
+                               LOG.debug1("startDrbdStatus: failed: " + host.getName() + " exit code: " + exitCode);
+                               if (exitCode != 143 && exitCode != 100) {
+                                   // TODO: exit code is null -> 100 all of the
+                                   // sudden
+                                   /* was killed intentionally */
+                                   if (host.isDrbdStatusOk()) {
+                                       host.setDrbdStatusOk(false);
+                                       LOG.debug1("startDrbdStatus: host: " + host.getName());
+                                       drbdGraph.repaint();
+                                       clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
+                                   }
+                                   if (exitCode == 255) {
+                                       /* looks like connection was lost */
+                                       //host.getSSH().forceReconnect();
+                                       //host.setConnected();
+                                   }
                                }
+                               //TODO: repaint ok?
+                               //repaintSplitPane();
+                               //drbdGraph.updatePopupMenus();
+                               //drbdGraph.repaint();
                            }
-                           //TODO: repaint ok?
-                           //repaintSplitPane();
-                           //drbdGraph.updatePopupMenus();
-                           //drbdGraph.repaint();
-                       }
-                   },
-
-                   new NewOutputCallback() {
-                       private final StringBuffer outputBuffer = new StringBuffer(300);
-                       @Override
-                       public void output(final String output) {
-                           if ("--nm--".equals(output.trim())) {
-                               if (host.isDrbdStatusOk()) {
+                       },
+
+                       new NewOutputCallback() {
+                           private final StringBuffer outputBuffer = new StringBuffer(300);
+                           @Override
+                           public void output(final String output) {
+                               if ("--nm--".equals(output.trim())) {
+                                   if (host.isDrbdStatusOk()) {
+                                       LOG.debug1("startDrbdStatus: host: " + host.getName());
+                                       host.setDrbdStatusOk(false);
+                                       drbdGraph.repaint();
+                                       clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
+                                   }
+                                   firstTime.countDown();
+                                   return;
+                               }
+                               firstTime.countDown();
+                               if (!host.isDrbdStatusOk()) {
                                    LOG.debug1("startDrbdStatus: host: " + host.getName());
-                                   host.setDrbdStatusOk(false);
+                                   host.setDrbdStatusOk(true);
                                    drbdGraph.repaint();
                                    clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
                                }
-                               firstTime.countDown();
-                               return;
-                           }
-                           firstTime.countDown();
-                           if (!host.isDrbdStatusOk()) {
-                               LOG.debug1("startDrbdStatus: host: " + host.getName());
-                               host.setDrbdStatusOk(true);
-                               drbdGraph.repaint();
-                               clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
-                           }
-                           outputBuffer.append(output);
-                           String drbdConfig, event;
-                           boolean drbdUpdate = false;
-                           boolean eventUpdate = false;
-                           do {
-                               host.drbdStatusLock();
-                               drbdConfig = host.getOutput("drbd", outputBuffer);
-                               if (drbdConfig != null) {
-                                   final DrbdXml newDrbdXml = drbdXmlProvider.get();
-                                   newDrbdXml.init(cluster.getHostsArray(), hostDrbdParameters);
-                                   newDrbdXml.update(drbdConfig);
-                                   drbdXml = newDrbdXml;
-                                   drbdUpdate = true;
-                                   firstTime.countDown();
-                               }
-                               host.drbdStatusUnlock();
-                               event = host.getOutput("event", outputBuffer);
-                               if (event != null) {
-                                   if (drbdXml.parseDrbdEvent(host.getName(), drbdGraph, event)) {
-                                       host.setDrbdStatusOk(true);
-                                       eventUpdate = true;
+                               outputBuffer.append(output);
+                               String drbdConfig, event;
+                               boolean drbdUpdate = false;
+                               boolean eventUpdate = false;
+                               do {
+                                   host.drbdStatusLock();
+                                   drbdConfig = host.getOutput("drbd", outputBuffer);
+                                   if (drbdConfig != null) {
+                                       final DrbdXml newDrbdXml = drbdXmlProvider.get();
+                                       newDrbdXml.init(cluster.getHostsArray(), hostDrbdParameters);
+                                       newDrbdXml.update(drbdConfig);
+                                       drbdXml = newDrbdXml;
+                                       drbdUpdate = true;
+                                       firstTime.countDown();
                                    }
-                               }
-                           } while (event != null || drbdConfig != null);
-                           Tools.chomp(outputBuffer);
-                           if (drbdUpdate) {
-                               application.invokeLater(new Runnable() {
-                                   @Override
-                                   public void run() {
-                                       globalInfo.setParameters();
-                                       updateDrbdResources();
+                                   host.drbdStatusUnlock();
+                                   event = host.getOutput("event", outputBuffer);
+                                   if (event != null) {
+                                       if (drbdXml.parseDrbdEvent(host.getName(), drbdGraph, event)) {
+                                           host.setDrbdStatusOk(true);
+                                           eventUpdate = true;
+                                       }
                                    }
-                               });
-                           }
-                           if (eventUpdate) {
-                               drbdGraph.repaint();
-                               LOG.debug1("drbd status update: " + host.getName());
-                               clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
-                               firstTime.countDown();
-                               final Thread thread = new Thread(
-                                   new Runnable() {
+                               } while (event != null || drbdConfig != null);
+                               Tools.chomp(outputBuffer);
+                               if (drbdUpdate) {
+                                   application.invokeLater(new Runnable() {
                                        @Override
                                        public void run() {
-                                           repaintSplitPane();
-                                           drbdGraph.updatePopupMenus();
-                                           application.invokeInEdt(
-                                               new Runnable() {
-                                                   @Override
-                                                   public void run() {
-                                                       treeMenuController.repaintMenuTree();
-                                                   }
-                                               }
-                                           );
+                                           globalInfo.setParameters();
+                                           updateDrbdResources();
                                        }
                                    });
-                               thread.start();
+                               }
+                               if (eventUpdate) {
+                                   drbdGraph.repaint();
+                                   LOG.debug1("drbd status update: " + host.getName());
+                                   clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
+                                   firstTime.countDown();
+                                   final Thread thread = new Thread(
+                                       new Runnable() {
+                                           @Override
+                                           public void run() {
+                                               repaintSplitPane();
+                                               drbdGraph.updatePopupMenus();
+                                               application.invokeInEdt(
+                                                   new Runnable() {
+                                                       @Override
+                                                       public void run() {
+                                                           treeMenuController.repaintMenuTree();
+                                                       }
+                                                   }
+                                               );
+                                           }
+                                       });
+                                   thread.start();
+                               }
                            }
-                       }
-                   });
-            host.waitForHostAndDrbd();
-            host.waitForDrbdStatusFinish();
-            if (drbdStatusCanceledByUser) {
-                break;
+                       });
+                host.waitForHostAndDrbd();
+                host.waitForDrbdStatusFinish();
+                return !drbdStatusCanceledByUser;
             }
-        }
+        }, 0);
     }
 
     public void stopCrmStatus() {
@@ -1063,33 +1114,9 @@ public class ClusterBrowser extends Browser {
                             final String status = clusterStatusOutput.substring(i);
                             clusterStatusOutput.delete(0, clusterStatusOutput.length());
                             if (CLUSTER_STATUS_ERROR.equals(status)) {
-                                final boolean oldStatus = host.isCrmStatusOk();
-                                clusterStatus0.setOnlineNode(host.getName(), "no");
-                                setCrmStatus(host, false);
-                                if (oldStatus) {
-                                   crmGraph.repaint();
-                                }
+                                setClusterStatusError(clusterStatus0, host);
                             } else {
-                                if (clusterStatus0.parseStatus(status)) {
-                                    LOG.debug1("processClusterOutput: host: " + host.getName());
-                                    final ServicesInfo ssi = servicesInfo;
-                                    rscDefaultsInfo.setParameters(clusterStatus0.getRscDefaultsValuePairs());
-                                    ssi.setGlobalConfig(clusterStatus0);
-                                    ssi.setAllResources(clusterStatus0, runMode);
-                                    if (firstTime.getCount() == 1) {
-                                        /* one more time so that id-refs work.*/
-                                        ssi.setAllResources(clusterStatus0, runMode);
-                                    }
-                                    treeMenuController.repaintMenuTree();
-                                    clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
-                                }
-                                final String online = clusterStatus0.isOnlineNode(host.getName());
-                                if ("yes".equals(online)) {
-                                    setCrmStatus(host, true);
-                                    setCrmStatus();
-                                } else {
-                                    setCrmStatus(host, false);
-                                }
+                                parseClusterStatus(clusterStatus0, status, host, firstTime, runMode);
                             }
                         }
                         firstTime.countDown();
@@ -1101,11 +1128,128 @@ public class ClusterBrowser extends Browser {
         clStatusUnlock();
     }
 
+    /**
+     * Parses cluster status from the helper, that sends its output in
+     * frames, so that the output doesn't have to be searched for the
+     * ---start--- and ---done--- markers.
+     */
+    public void parseClusterFrames(final HelperFrameDecoder frameDecoder,
+                                   final Host host,
+                                   final CountDownLatch firstTime,
+                                   final Application.RunMode runMode) {
+        final ClusterStatus clusterStatus0 = this.clusterStatus;
+        clStatusLock();
+        if (crmStatusCanceledByUser || clusterStatus0 == null) {
+            clStatusUnlock();
+            firstTime.countDown();
+            return;
+        }
+        HelperFrameDecoder.Frame frame;
+        while ((frame = frameDecoder.nextFrame()) != null) {
+            if (CLUSTER_STATUS_FRAME.equals(frame.getType())) {
+                final String status = frame.getContent();
+                if (CLUSTER_STATUS_FRAME_ERROR.equals(status.trim())) {
+                    setClusterStatusError(clusterStatus0, host);
+                } else {
+                    parseClusterStatus(clusterStatus0, status, host, firstTime, runMode);
+                }
+                firstTime.countDown();
+            } else if (HelperFrameDecoder.ERROR_FRAME.equals(frame.getType())) {
+                LOG.appWarning("parseClusterFrames: " + host.getName() + ": " + frame.getContent());
+            }
+        }
+        clStatusUnlock();
+    }
+
+    private void setClusterStatusError(final ClusterStatus clusterStatus0, final Host host) {
+        final boolean oldStatus = host.isCrmStatusOk();
+        clusterStatus0.setOnlineNode(host.getName(), "no");
+        setCrmStatus(host, false);
+        if (oldStatus) {
+           crmGraph.repaint();
+        }
+    }
+
+    private void parseClusterStatus(final ClusterStatus clusterStatus0,
+                                    final String status,
+                                    final Host host,
+                                    final CountDownLatch firstTime,
+                                    final Application.RunMode runMode) {
+        if (clusterStatus0.parseStatus(status)) {
+            LOG.debug1("processClusterOutput: host: " + host.getName());
+            final ServicesInfo ssi = servicesInfo;
+            rscDefaultsInfo.setParameters(clusterStatus0.getRscDefaultsValuePairs());
+            ssi.setGlobalConfig(clusterStatus0);
+            ssi.setAllResources(clusterStatus0, clusterStatus0.takeCibChanges(), runMode);
+            if (firstTime.getCount() == 1) {
+                /* one more time so that id-refs work.*/
+                ssi.setAllResources(clusterStatus0, runMode);
+            }
+            treeMenuController.repaintMenuTree();
+            clusterHostsInfo.updateTable(ClusterHostsInfo.MAIN_TABLE);
+        }
+        if (clusterStatus0.takeCibResync()) {
+            resyncCib(clusterStatus0, host, firstTime, runMode);
+        }
+        final String online = clusterStatus0.isOnlineNode(host.getName());
+        if ("yes".equals(online)) {
+            setCrmStatus(host, true);
+            setCrmStatus();
+        } else {
+            setCrmStatus(host, false);
+        }
+    }
+
+    /**
+     * Fetches the whole cib after a cib patch didn't apply. It runs on the
+     * scheduler, so that the status output callback doesn't wait for it.
+     */
+    private void resyncCib(final ClusterStatus clusterStatus0,
+                           final Host host,
+                           final CountDownLatch firstTime,
+                           final Application.RunMode runMode) {
+        commandScheduler.submit(host.getName(), new Runnable() {
+            @Override
+            public void run() {
+                final String status = clusterStatus0.fetchCib();
+                if (status == null) {
+                    return;
+                }
+                clStatusLock();
+                if (!crmStatusCanceledByUser) {
+                    parseClusterStatus(clusterStatus0, status, host, firstTime, runMode);
+                }
+                clStatusUnlock();
+            }
+        });
+    }
+
+    /**
+     * Commits the cib transaction. If the changes were not applied, it is
+     * reported and all resources are set from the last cluster status
+     * again, so that the gui doesn't show the changes, that the cluster
+     * doesn't have. Returns whether the changes were applied.
+     */
+    public boolean commitCibTransaction(final CibTransaction transaction,
+                                        final Host dcHost,
+                                        final Application.RunMode runMode) {
+        if (CibTransaction.isApplied(transaction.commit())) {
+            return true;
+        }
+        if (Application.isLive(runMode)) {
+            guiData.progressIndicatorFailed(dcHost.getName(), Tools.getString("ClusterBrowser.CibChangesFailed"));
+            clStatusLock();
+            servicesInfo.setAllResources(clusterStatus, runMode);
+            clStatusUnlock();
+        }
+        return false;
+    }
+
     void startCrmStatus() {
         final CountDownLatch firstTime = new CountDownLatch(1);
         final String clusterName = getCluster().getName();
         startClStatusProgressIndicator(clusterName);
-        final Thread thread = new Thread(new Runnable() {
+        commandScheduler.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1126,68 +1270,68 @@ public class ClusterBrowser extends Browser {
                 stopClStatusProgressIndicator(clusterName);
             }
         });
-        thread.start();
         crmStatusCanceledByUser = false;
         final Application.RunMode runMode = Application.RunMode.LIVE;
-        while (true) {
-            final Host host = getDCHost();
-            if (host == null) {
-                try {
-                    Thread.sleep(5000);
-                } catch (final InterruptedException ex) {
-                    Thread.currentThread().interrupt();
+        commandScheduler.repeat(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                final Host host = getDCHost();
+                if (host == null) {
+                    return true;
                 }
-                continue;
-            }
-            //clStatusCanceled = false;
-            host.execCrmStatusCommand(
-                    new ExecCallback() {
-                        @Override
-                        public void done(final String answer) {
-                            final String online = clusterStatus.isOnlineNode(host.getName());
-                            setCrmStatus(host, "yes".equals(online));
-                            firstTime.countDown();
-                        }
+                //clStatusCanceled = false;
+                host.execCrmStatusCommand(
+                        new ExecCallback() {
+                            @Override
+                            public void done(final String answer) {
+                                final String online = clusterStatus.isOnlineNode(host.getName());
+                                setCrmStatus(host, "yes".equals(online));
+                                firstTime.countDown();
+                            }
 
-                        @Override
-                        public void doneError(final String answer, final int exitCode) {
-                            if (firstTime.getCount() == 1) {
-                                LOG.debug2("startClStatus: status failed: " + host.getName() + ", ec: " + exitCode);
+                            @Override
+                            public void doneError(final String answer, final int exitCode) {
+                                if (firstTime.getCount() == 1) {
+                                    LOG.debug2("startClStatus: status failed: " + host.getName() + ", ec: " + exitCode);
+                                }
+                                clStatusLock();
+                                clusterStatus.setOnlineNode(host.getName(), "no");
+                                setCrmStatus(host, false);
+                                clusterStatus.setDC(null);
+                                clStatusUnlock();
+                                if (exitCode == 255) {
+                                 /* looks like connection was lost */
+                                    //crmGraph.repaint();
+                                    //host.getSSH().forceReconnect();
+                                    //host.setConnected();
+                                }
+                                firstTime.countDown();
                             }
-                            clStatusLock();
-                            clusterStatus.setOnlineNode(host.getName(), "no");
-                            setCrmStatus(host, false);
-                            clusterStatus.setDC(null);
-                            clStatusUnlock();
-                            if (exitCode == 255) {
-                             /* looks like connection was lost */
-                                //crmGraph.repaint();
-                                //host.getSSH().forceReconnect();
-                                //host.setConnected();
+                        },
+
+                        new StreamOutputCallback() {
+                            //TODO: check this buffer's size
+                            private final StringBuffer clusterStatusOutput = new StringBuffer(300);
+                            private final HelperFrameDecoder frameDecoder = new HelperFrameDecoder();
+
+                            @Override
+                            public void output(final CharSequence output) {
+                                frameDecoder.append(output);
+                                if (frameDecoder.isFramed()) {
+                                    parseClusterFrames(frameDecoder, host, firstTime, runMode);
+                                } else if (frameDecoder.isText()) {
+                                    parseClusterOutput(frameDecoder.takeText(),
+                                                       clusterStatusOutput,
+                                                       host,
+                                                       firstTime,
+                                                       runMode);
+                                }
                             }
-                            firstTime.countDown();
-                        }
-                    },
-
-                    new NewOutputCallback() {
-                        //TODO: check this buffer's size
-                        private final StringBuffer clusterStatusOutput = new StringBuffer(300);
-
-                        @Override
-                        public void output(final String output) {
-                            parseClusterOutput(output, clusterStatusOutput, host, firstTime, runMode);
-                        }
-                    });
-            host.waitForCrmStatusFinish();
-            if (crmStatusCanceledByUser) {
-                break;
+                        });
+                host.waitForCrmStatusFinish();
+                return !crmStatusCanceledByUser;
             }
-            try {
-                Thread.sleep(5000);
-            } catch (final InterruptedException ex) {
-                Thread.currentThread().interrupt();
-            }
-        }
+        }, CRM_STATUS_INTERVAL);
     }
 
     /** Returns 'add service' list for menus. */
@@ -2178,9 +2322,8 @@ public class ClusterBrowser extends Browser {
                         h = menuHost;
                     }
                     action.run(h);
-                    final PtestData ptestData = new PtestData(CRM.getPtest(h));
+                    final PtestData ptestData = clusterStatus.runPtest(h);
                     component.setToolTipText(ptestData.getToolTip());
-                    clusterStatus.setPtestResult(ptestData);
                 } finally {
                     ptestLockRelease();
                 }
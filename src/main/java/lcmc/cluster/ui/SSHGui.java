@@ -31,6 +31,8 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.BoxLayout;
 import javax.swing.JApplet;
 import javax.swing.JDialog;
@@ -42,6 +44,7 @@ import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
 import javax.swing.border.LineBorder;
 
+import lcmc.cluster.domain.HostConnector;
 import lcmc.common.ui.ProgressBar;
 import lcmc.host.domain.Host;
 import lcmc.logger.Logger;
@@ -55,10 +58,14 @@ import lcmc.common.domain.util.Tools;
 public final class SSHGui {
     private static final Logger LOG = LoggerFactory.getLogger(SSHGui.class);
     private static final int DEFAULT_FIELD_LENGTH = 20;
+    /** Hosts that connect at the same time, prompt the user one by one. */
+    private static final Lock PROMPT_LOCK = new ReentrantLock(true);
     /** Root pane on which the dialogs are comming to. */
     private final Container rootPane;
     private final Host host;
     private final ProgressBar progressBar;
+    /** Permit of the connecting host, that is given away while prompting. */
+    private volatile HostConnector.Permit connectionPermit = null;
 
     public SSHGui(final Container rootPane, final Host host, final ProgressBar progressBar) {
         super();
@@ -67,10 +74,19 @@ public final class SSHGui {
         this.progressBar = progressBar;
     }
 
+    public void setConnectionPermit(final HostConnector.Permit connectionPermit) {
+        this.connectionPermit = connectionPermit;
+    }
+
     /** Displays Confirm Dialog whith Yes, No, Cancel options. */
     public int getConfirmDialogChoice(final String message) {
         LOG.debug("getConfirmDialogChoice: start");
-        return JOptionPane.showConfirmDialog(rootPane, message);
+        startPrompt();
+        try {
+            return JOptionPane.showConfirmDialog(rootPane, message);
+        } finally {
+            endPrompt();
+        }
     }
 
     /** Checks if choice is yes option. */
@@ -98,11 +114,36 @@ public final class SSHGui {
             esd = new EnterSomethingDialog((Frame) rootPane, title, content, underText, defaultValue, isPassword);
         }
 
-        esd.setVisible(true);
+        startPrompt();
+        try {
+            esd.setVisible(true);
+        } finally {
+            endPrompt();
+        }
 
         return esd.answer;
     }
 
+    /**
+     * Waits till no other host prompts the user. The connection permit is
+     * given to the other hosts meanwhile.
+     */
+    private void startPrompt() {
+        final HostConnector.Permit permit = connectionPermit;
+        if (permit != null) {
+            permit.suspend();
+        }
+        PROMPT_LOCK.lock();
+    }
+
+    private void endPrompt() {
+        PROMPT_LOCK.unlock();
+        final HostConnector.Permit permit = connectionPermit;
+        if (permit != null) {
+            permit.resume();
+        }
+    }
+
     /**
      * This dialog displays a number of text lines and a text field.
      * The text field can either be plain text or a password field.
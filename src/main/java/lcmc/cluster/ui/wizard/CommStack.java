@@ -128,11 +128,7 @@ final class CommStack extends DialogCluster {
         }
         for (final ExecCommandThread t : infoThreads) {
             /* wait for all of them */
-            try {
-                t.join();
-            } catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            t.block();
         }
         progressBarDone();
         boolean aisIsPossible = true;
@@ -380,11 +380,7 @@ final class CoroConfig extends DialogCluster {
         }
         for (final ExecCommandThread t : ts) {
             /* wait for all of them */
-            try {
-                t.join();
-            } catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            t.block();
         }
 
         boolean noConfigs = true;
@@ -471,11 +471,7 @@ final class HbConfig extends DialogCluster {
         }
         for (final ExecCommandThread t : ts) {
             /* wait for all of them */
-            try {
-                t.join();
-            } catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            t.block();
         }
 
         boolean configOk = false;
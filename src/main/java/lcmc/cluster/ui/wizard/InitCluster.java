@@ -231,11 +231,7 @@ public class InitCluster extends DialogCluster {
         }
         for (final ExecCommandThread t : infoThreads) {
             /* wait for all of them */
-            try {
-                t.join();
-            } catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            t.block();
         }
 
         /* DRBD */
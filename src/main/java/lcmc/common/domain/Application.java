@@ -101,6 +101,8 @@ public class Application {
     private String lastEnteredSSHPort = null;
     /** Whether drbd gui helper should be overwritten. */
     private boolean keepHelper = false;
+    /** Whether the commands should run in virtual threads. */
+    private boolean virtualThreads = false;
     private final List<String> autoHosts = new ArrayList<String>();
     private final List<String> autoClusters = new ArrayList<String>();
     /** Auto options, that make automatic actions in the gui. */
@@ -385,6 +387,19 @@ public class Application {
         return keepHelper;
     }
 
+    /** Sets whether the commands should run in virtual threads. */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Returns whether the commands should run in virtual threads, if java
+     * has them.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
     /** Adds auto option that starts automatic actions in the gui. */
     public void addAutoOption(final String hostOrCluster, final String option, final String value) {
         autoOptions.put(hostOrCluster, option, value);
@@ -0,0 +1,303 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.common.domain;
+
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+
+/**
+ * Decodes output of the lcmc-gui-helper daemons, that was started with the
+ * --frames option. The helper answers with "@frames <version>" and then sends
+ * length-prefixed frames: "@<type> <timestamp> <length>\n<content>\n", where
+ * the length is in UTF-8 bytes without "\r" characters. Older helpers don't
+ * know the option and their output is passed through as text.
+ *
+ * The frames are kept in a ring buffer and every character is looked at only
+ * once, so decoding a frame doesn't depend on how much output is buffered.
+ */
+public final class HelperFrameDecoder {
+    private static final Logger LOG = LoggerFactory.getLogger(HelperFrameDecoder.class);
+    /** Frames version that the gui understands. */
+    public static final int FRAMES_VERSION = 1;
+    /** Frame that only resets the ssh timeout. */
+    public static final String RESET_FRAME = "reset";
+    /** Frame with an error message. */
+    public static final String ERROR_FRAME = "error";
+    private static final String HELLO = "@frames ";
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_HEADER_LENGTH = 200;
+
+    private enum Mode { UNKNOWN, TEXT, FRAMES }
+
+    private Mode mode = Mode.UNKNOWN;
+    /** Output before it's clear, whether the helper sends frames. */
+    private final StringBuilder undecided = new StringBuilder();
+    private final StringBuilder text = new StringBuilder();
+
+    private char[] ring = new char[INITIAL_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+    /** Characters from the head, that were already looked at. */
+    private int scanned = 0;
+
+    private String frameType = null;
+    private Double frameTimestamp = null;
+    private int frameLength = -1;
+    private int payloadBytes = 0;
+
+    public void append(final CharSequence output) {
+        switch (mode) {
+            case FRAMES:
+                appendToRing(output);
+                break;
+            case TEXT:
+                text.append(output);
+                break;
+            default:
+                undecided.append(output);
+                decideMode();
+                break;
+        }
+    }
+
+    /** Returns whether the helper sends frames. */
+    public boolean isFramed() {
+        return mode == Mode.FRAMES;
+    }
+
+    /** Returns whether the helper sends text, because it's an older one. */
+    public boolean isText() {
+        return mode == Mode.TEXT;
+    }
+
+    /** Returns and removes the output, if the helper doesn't send frames. */
+    public String takeText() {
+        final String out = text.toString();
+        text.setLength(0);
+        return out;
+    }
+
+    /**
+     * Returns the next complete frame or null, if there is none yet. Reset
+     * frames are skipped.
+     */
+    public Frame nextFrame() {
+        if (mode != Mode.FRAMES) {
+            return null;
+        }
+        while (true) {
+            if (frameLength < 0) {
+                while (scanned < size && charAt(scanned) != '\n') {
+                    scanned++;
+                }
+                if (scanned == size) {
+                    if (size > MAX_HEADER_LENGTH) {
+                        LOG.appWarning("nextFrame: header too long, skipping: " + substring(MAX_HEADER_LENGTH));
+                        skip(size);
+                    }
+                    return null;
+                }
+                final String header = substring(scanned);
+                skip(scanned + 1);
+                if (!parseHeader(header)) {
+                    if (!header.isEmpty()) {
+                        LOG.debug1("nextFrame: skipping: " + header);
+                    }
+                    continue;
+                }
+            }
+            while (payloadBytes < frameLength && scanned < size) {
+                payloadBytes += utf8Length(charAt(scanned));
+                scanned++;
+            }
+            if (scanned == size) {
+                /* content or the final new line is not there yet */
+                return null;
+            }
+            final String content = substring(scanned);
+            final boolean complete = payloadBytes == frameLength && charAt(scanned) == '\n';
+            if (complete) {
+                skip(scanned + 1);
+            } else {
+                LOG.appWarning("nextFrame: wrong length of the " + frameType + " frame, skipping");
+                skip(scanned);
+            }
+            final Frame frame = new Frame(frameType, frameTimestamp, content);
+            frameLength = -1;
+            frameType = null;
+            frameTimestamp = null;
+            if (complete && !RESET_FRAME.equals(frame.getType())) {
+                return frame;
+            }
+        }
+    }
+
+    /** Returns number of characters, that wait for decoding. */
+    int getBufferedSize() {
+        return size + undecided.length() + text.length();
+    }
+
+    private void decideMode() {
+        int start = 0;
+        while (start < undecided.length()
+               && (undecided.charAt(start) == '\r' || undecided.charAt(start) == '\n')) {
+            start++;
+        }
+        final int len = Math.min(undecided.length() - start, HELLO.length());
+        if (!HELLO.regionMatches(0, undecided.substring(start, start + len), 0, len)) {
+            mode = Mode.TEXT;
+            text.append(undecided);
+            undecided.setLength(0);
+            return;
+        }
+        final int end = undecided.indexOf("\n", start);
+        if (end < 0) {
+            return;
+        }
+        final String version = undecided.substring(start + HELLO.length(), end).trim();
+        int frames = 0;
+        try {
+            frames = Integer.parseInt(version);
+        } catch (final NumberFormatException nfe) {
+            LOG.appWarning("decideMode: could not parse frames version: " + version);
+        }
+        if (frames > 0 && frames <= FRAMES_VERSION) {
+            LOG.debug1("decideMode: frames version: " + frames);
+            mode = Mode.FRAMES;
+            appendToRing(undecided.subSequence(end + 1, undecided.length()));
+        } else {
+            mode = Mode.TEXT;
+            text.append(undecided);
+        }
+        undecided.setLength(0);
+    }
+
+    private boolean parseHeader(final String header) {
+        if (header.isEmpty() || header.charAt(0) != '@') {
+            return false;
+        }
+        final String[] parts = header.substring(1).split(" ");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            frameLength = Integer.parseInt(parts[2]);
+            frameTimestamp = "-".equals(parts[1]) ? null : Double.parseDouble(parts[1]);
+        } catch (final NumberFormatException nfe) {
+            frameLength = -1;
+            return false;
+        }
+        if (frameLength < 0) {
+            return false;
+        }
+        frameType = parts[0];
+        payloadBytes = 0;
+        return true;
+    }
+
+    private void appendToRing(final CharSequence output) {
+        final int len = output.length();
+        for (int i = 0; i < len; i++) {
+            final char c = output.charAt(i);
+            if (c == '\r') {
+                continue;
+            }
+            if (size == ring.length) {
+                grow();
+            }
+            ring[(head + size) & (ring.length - 1)] = c;
+            size++;
+        }
+    }
+
+    private void grow() {
+        final char[] newRing = new char[ring.length * 2];
+        final int tail = ring.length - head;
+        System.arraycopy(ring, head, newRing, 0, Math.min(tail, size));
+        if (size > tail) {
+            System.arraycopy(ring, 0, newRing, tail, size - tail);
+        }
+        ring = newRing;
+        head = 0;
+    }
+
+    private char charAt(final int index) {
+        return ring[(head + index) & (ring.length - 1)];
+    }
+
+    /** Returns first len characters from the head. */
+    private String substring(final int len) {
+        final int tail = ring.length - head;
+        if (len <= tail) {
+            return new String(ring, head, len);
+        }
+        final StringBuilder s = new StringBuilder(len);
+        s.append(ring, head, tail);
+        s.append(ring, 0, len - tail);
+        return s.toString();
+    }
+
+    private void skip(final int len) {
+        head = (head + len) & (ring.length - 1);
+        size -= len;
+        scanned = 0;
+        if (size == 0) {
+            head = 0;
+        }
+    }
+
+    /** Returns how many bytes the character takes in UTF-8. */
+    private static int utf8Length(final char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800 || (c >= '\uD800' && c <= '\uDFFF')) {
+            /* surrogate pair takes 4 bytes together */
+            return 2;
+        } else {
+            return 3;
+        }
+    }
+
+    public static final class Frame {
+        private final String type;
+        private final Double timestamp;
+        private final String content;
+
+        Frame(final String type, final Double timestamp, final String content) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.content = content;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /** Returns timestamp of the output or null, if it has none. */
+        public Double getTimestamp() {
+            return timestamp;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.common.domain;
+
+/**
+ * New output callback, that gets a view of the decoded output, instead of
+ * a string copy. The view is valid only during the call, so it must be
+ * copied or parsed right away.
+ */
+public abstract class StreamOutputCallback implements NewOutputCallback {
+    @Override
+    public final void output(final String output) {
+        output((CharSequence) output);
+    }
+
+    public abstract void output(CharSequence output);
+}
@@ -50,6 +50,7 @@ import javax.xml.transform.stream.StreamResult;
 
 import lcmc.cluster.domain.Cluster;
 import lcmc.cluster.domain.Clusters;
+import lcmc.cluster.service.ssh.CommandScheduler;
 import lcmc.cluster.ui.ClusterTab;
 import lcmc.host.domain.Host;
 import lcmc.host.domain.HostFactory;
@@ -75,6 +76,7 @@ public final class UserConfig extends XML {
     private static final String HOST_SSHPORT_ATTR = "ssh";
     private static final String HOST_COLOR_ATTR = "color";
     private static final String HOST_USESUDO_ATTR = "sudo";
+    private static final String HOST_COMPRESSION_ATTR = "compression";
     private static final String CLUSTER_NAME_ATTR = "name";
     private static final String HOST_NODE_STRING = "host";
     private static final String PROXY_HOST_NODE_STRING = "proxy-host";
@@ -97,6 +99,8 @@ public final class UserConfig extends XML {
     private Hosts allHosts;
     @Inject
     private Clusters allClusters;
+    @Inject
+    private CommandScheduler commandScheduler;
 
     /** Saves data about clusters and hosts to the supplied output stream. */
     public String saveXML(final OutputStream outputStream, final boolean saveAll) throws IOException {
@@ -178,10 +182,13 @@ public final class UserConfig extends XML {
 
     /**
      * Starts specified clusters and connects to the hosts of this clusters.
+     * The clusters are connected at the same time, it returns, when all of
+     * them are connected or failed.
      */
     public void startClusters(final Collection<Cluster> selectedClusters) {
         final Set<Cluster> clusters = allClusters.getClusterSet();
         if (clusters != null) {
+            final List<CommandScheduler.Task> tasks = new ArrayList<CommandScheduler.Task>();
             /* clusters */
             for (final Cluster cluster : clusters) {
                 if (selectedClusters != null && !selectedClusters.contains(cluster)) {
@@ -196,38 +203,48 @@ public final class UserConfig extends XML {
                 if (cluster.getHosts().isEmpty()) {
                     continue;
                 }
-                final boolean ok = cluster.connect(null, true, 1);
-                if (!ok) {
-                    application.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            clustersPanel.removeTabWithCluster(cluster);
-                        }
-                    });
-                    continue;
+                tasks.add(commandScheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        startCluster(cluster);
+                    }
+                }));
+            }
+            for (final CommandScheduler.Task task : tasks) {
+                task.await();
+            }
+        }
+    }
+
+    private void startCluster(final Cluster cluster) {
+        final boolean ok = cluster.connect(null, true, 1);
+        if (!ok) {
+            application.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    clustersPanel.removeTabWithCluster(cluster);
                 }
-                final Runnable runnable = new Runnable() {
+            });
+            return;
+        }
+        commandScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (final Host host : cluster.getHosts()) {
+                    host.waitOnLoading();
+                }
+                application.invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        for (final Host host : cluster.getHosts()) {
-                            host.waitOnLoading();
+                        final ClusterTab clusterTab = cluster.getClusterTab();
+                        if (clusterTab != null) {
+                            clusterTab.addClusterView();
+                            clusterTab.requestFocus();
                         }
-                        application.invokeLater(new Runnable() {
-                            @Override
-                            public void run() {
-                                final ClusterTab clusterTab = cluster.getClusterTab();
-                                if (clusterTab != null) {
-                                    clusterTab.addClusterView();
-                                    clusterTab.requestFocus();
-                                }
-                            }
-                        });
                     }
-                };
-                final Thread thread = new Thread(runnable);
-                thread.start();
+                });
             }
-        }
+        });
     }
 
     /**
@@ -261,6 +278,7 @@ public final class UserConfig extends XML {
                             final String sshPort = getAttribute(hostNode, HOST_SSHPORT_ATTR);
                             final String color = getAttribute(hostNode, HOST_COLOR_ATTR);
                             final String useSudo = getAttribute(hostNode, HOST_USESUDO_ATTR);
+                            final String compression = getAttribute(hostNode, HOST_COMPRESSION_ATTR);
                             final Node ipNode = getChildNode(hostNode, "ip");
                             String ip = null;
                             if (ipNode != null) {
@@ -268,7 +286,17 @@ public final class UserConfig extends XML {
                             }
                             final Node usernameNode = getChildNode(hostNode, "user");
                             final String username = getText(usernameNode);
-                            setHost(hostMap, username, nodeName, ip, sshPort, color, "true".equals(useSudo), true);
+                            final Host host = setHost(hostMap,
+                                                      username,
+                                                      nodeName,
+                                                      ip,
+                                                      sshPort,
+                                                      color,
+                                                      "true".equals(useSudo),
+                                                      true);
+                            if (compression != null) {
+                                host.setSshCompression("true".equals(compression));
+                            }
                         }
                     }
                 }
@@ -295,7 +323,7 @@ public final class UserConfig extends XML {
     }
 
     /** Create host object and initialize it from user config. */
-    public void setHost(final Map<String, List<Host>> hostMap,
+    public Host setHost(final Map<String, List<Host>> hostMap,
                         String username,
                         final String nodeName,
                         final String ip,
@@ -333,6 +361,7 @@ public final class UserConfig extends XML {
             hostMap.put(nodeName, hostList);
         }
         hostList.add(host);
+        return host;
     }
 
     public void setHostCluster(final Map<String, List<Host>> hostMap,
@@ -393,6 +422,10 @@ public final class UserConfig extends XML {
         if (useSudo != null && useSudo) {
             hostNode.setAttribute(HOST_USESUDO_ATTR, "true");
         }
+        final Boolean compression = host.getSshCompression();
+        if (compression != null) {
+            hostNode.setAttribute(HOST_COMPRESSION_ATTR, compression.toString());
+        }
         if (ip != null) {
             final Node ipNode = hostNode.appendChild(doc.createElement("ip"));
 
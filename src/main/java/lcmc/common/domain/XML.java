@@ -22,16 +22,20 @@
 
 package lcmc.common.domain;
 
-import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.Reader;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+
+import com.google.common.io.CharSource;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
@@ -39,6 +43,26 @@ import org.xml.sax.SAXException;
  */
 public abstract class XML {
     private static final Logger LOG = LoggerFactory.getLogger(XML.class);
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    /** Document builders are not thread-safe, but can be reused. */
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            synchronized (DOCUMENT_BUILDER_FACTORY) {
+                try {
+                    return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+                } catch (final ParserConfigurationException pce) {
+                    throw new RuntimeException("getXMLException: parser configuration", pce);
+                }
+            }
+        }
+    };
+    private static final XmlParseStats PARSE_STATS = new XmlParseStats();
+
+    /** Returns parse count, size and time per document type. */
+    public static XmlParseStats getParseStats() {
+        return PARSE_STATS;
+    }
 
     protected final Node getChildNode(final Node node, final String tag) {
         final NodeList nodeList = node.getChildNodes();
@@ -87,22 +111,91 @@ public abstract class XML {
             return null;
         }
         final String xml = xmlraw.trim();
-        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        if (factory == null || xml.isEmpty() || "no resources defined!".equals(xml)) {
+        if (xml.isEmpty() || "no resources defined!".equals(xml)) {
             return null;
         }
-        final Document document;
+        return getXMLDocument((CharSequence) xml);
+    }
+
+    /** Parses the xml without copying it. */
+    protected final Document getXMLDocument(final CharSequence xml) {
+        final long start = System.nanoTime();
+        Document document = null;
         try {
-            final DocumentBuilder builder = factory.newDocumentBuilder();
-            document = builder.parse(new ByteArrayInputStream(xml.getBytes()));
+            document = parse(new InputSource(CharSource.wrap(xml).openStream()));
         } catch (final SAXException sxe) {
             LOG.appError("getXMLDocument: could not parse: " + xml, sxe);
-            return null;
-        } catch (final ParserConfigurationException pce) {
-            throw new RuntimeException("getXMLException: parser configuration", pce);
         } catch (final IOException ioe) {
             throw new RuntimeException("getXMLException: io error", ioe);
         }
+        PARSE_STATS.add(getDocumentType(document), xml.length(), System.nanoTime() - start);
         return document;
     }
+
+    /** Parses the xml from the reader, e.g. while it is being read. */
+    protected final Document getXMLDocument(final Reader reader) {
+        final long start = System.nanoTime();
+        final CountingReader countingReader = new CountingReader(reader);
+        Document document = null;
+        try {
+            document = parse(new InputSource(countingReader));
+        } catch (final SAXException sxe) {
+            LOG.appError("getXMLDocument: could not parse xml", sxe);
+        } catch (final IOException ioe) {
+            throw new RuntimeException("getXMLException: io error", ioe);
+        }
+        PARSE_STATS.add(getDocumentType(document), countingReader.getCount(), System.nanoTime() - start);
+        return document;
+    }
+
+    /**
+     * Parses the characters, so that there is no encoding round trip through
+     * the platform charset.
+     */
+    private Document parse(final InputSource inputSource) throws SAXException, IOException {
+        final DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        builder.reset();
+        return builder.parse(inputSource);
+    }
+
+    /** Returns e.g. CrmXml/pcmk. */
+    private String getDocumentType(final Document document) {
+        final String root;
+        if (document == null || document.getDocumentElement() == null) {
+            root = "error";
+        } else {
+            root = document.getDocumentElement().getNodeName();
+        }
+        return getClass().getSimpleName() + '/' + root;
+    }
+
+    private static final class CountingReader extends FilterReader {
+        private long count = 0;
+
+        CountingReader(final Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int c = super.read();
+            if (c >= 0) {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            final int n = super.read(cbuf, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.common.domain;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts parsed xml documents, their size in characters and the time it took
+ * to parse them per document type.
+ */
+public final class XmlParseStats {
+    private final ConcurrentMap<String, TypeStats> stats = new ConcurrentHashMap<String, TypeStats>();
+
+    void add(final String type, final long size, final long nanos) {
+        TypeStats typeStats = stats.get(type);
+        if (typeStats == null) {
+            final TypeStats newTypeStats = new TypeStats();
+            typeStats = stats.putIfAbsent(type, newTypeStats);
+            if (typeStats == null) {
+                typeStats = newTypeStats;
+            }
+        }
+        typeStats.count.incrementAndGet();
+        typeStats.size.addAndGet(size);
+        typeStats.nanos.addAndGet(nanos);
+    }
+
+    public Set<String> getTypes() {
+        return new TreeSet<String>(stats.keySet());
+    }
+
+    public long getCount(final String type) {
+        final TypeStats typeStats = stats.get(type);
+        return typeStats == null ? 0 : typeStats.count.get();
+    }
+
+    /** Returns number of parsed characters. */
+    public long getSize(final String type) {
+        final TypeStats typeStats = stats.get(type);
+        return typeStats == null ? 0 : typeStats.size.get();
+    }
+
+    public long getTime(final String type, final TimeUnit unit) {
+        final TypeStats typeStats = stats.get(type);
+        return typeStats == null ? 0 : unit.convert(typeStats.nanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public void clear() {
+        stats.clear();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder s = new StringBuilder(100);
+        for (final String type : getTypes()) {
+            s.append(type)
+             .append(": ")
+             .append(getCount(type))
+             .append(" parsed, ")
+             .append(getSize(type))
+             .append(" chars, ")
+             .append(getTime(type, TimeUnit.MILLISECONDS))
+             .append(" ms\n");
+        }
+        return s.toString();
+    }
+
+    private static final class TypeStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.common.domain.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command split into the literal parts and the placeholders like \@USER\@ or
+ * \@GUI-HELPER\@, so that the values can be filled in without regular
+ * expressions. The values are inserted as they are and are not searched for
+ * the placeholders again. Unknown placeholders and '@' characters, that are
+ * not a part of a placeholder, stay in the command.
+ */
+public final class CommandTemplate {
+    private static final char MARK = '@';
+    private final String command;
+    /** Literal parts at the even and placeholders at the odd positions. */
+    private final String[] parts;
+
+    private CommandTemplate(final String command, final String[] parts) {
+        this.command = command;
+        this.parts = parts;
+    }
+
+    public static CommandTemplate compile(final String command) {
+        List<String> parts = null;
+        int literalStart = 0;
+        int start = command.indexOf(MARK);
+        while (start >= 0) {
+            final int end = command.indexOf(MARK, start + 1);
+            if (end < 0) {
+                break;
+            }
+            if (end > start + 1 && isPlaceholderName(command, start + 1, end)) {
+                if (parts == null) {
+                    parts = new ArrayList<String>();
+                }
+                parts.add(command.substring(literalStart, start));
+                parts.add(command.substring(start, end + 1));
+                literalStart = end + 1;
+                start = command.indexOf(MARK, literalStart);
+            } else {
+                /* the second '@' can start a placeholder */
+                start = end;
+            }
+        }
+        if (parts == null) {
+            return new CommandTemplate(command, null);
+        }
+        parts.add(command.substring(literalStart));
+        return new CommandTemplate(command, parts.toArray(new String[parts.size()]));
+    }
+
+    public boolean hasPlaceholders() {
+        return parts != null;
+    }
+
+    /**
+     * Fills in the placeholders, that are keys in the map, null values are
+     * replaced with an empty string.
+     */
+    public String render(final Map<String, String> values) {
+        return render(new Variables() {
+            @Override
+            public String get(final String placeholder) {
+                if (!values.containsKey(placeholder)) {
+                    return null;
+                }
+                final String value = values.get(placeholder);
+                return value == null ? "" : value;
+            }
+        });
+    }
+
+    /** Fills in the placeholders, for which the variables have a value. */
+    public String render(final Variables variables) {
+        if (parts == null) {
+            return command;
+        }
+        final StringBuilder result = new StringBuilder(command.length() + 64);
+        for (int i = 0; i < parts.length; i++) {
+            if (i % 2 == 0) {
+                result.append(parts[i]);
+            } else {
+                final String value = variables.get(parts[i]);
+                result.append(value == null ? parts[i] : value);
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return command;
+    }
+
+    /** [A-Z0-9_-]+ */
+    private static boolean isPlaceholderName(final String command, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char c = command.charAt(i);
+            if ((c < 'A' || c > 'Z') && (c < '0' || c > '9') && c != '_' && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Values of the placeholders. */
+    public interface Variables {
+        /** Returns the value of the placeholder like "@USER@" or null. */
+        String get(String placeholder);
+    }
+}
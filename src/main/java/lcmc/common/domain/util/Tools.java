@@ -57,6 +57,8 @@ import java.util.Random;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -85,6 +87,7 @@ import lcmc.common.domain.ConvertCmdCallback;
 import lcmc.common.domain.StringValue;
 import lcmc.configs.DistResource;
 import lcmc.cluster.domain.Cluster;
+import lcmc.cluster.service.ssh.CommandScheduler;
 import lcmc.host.domain.Host;
 import lcmc.common.domain.Value;
 import lcmc.common.ui.GUIData;
@@ -105,6 +108,17 @@ public final class Tools {
 
     /** Config data object. */
     private static final Pattern UNIT_PATTERN = Pattern.compile("(\\d*)(\\D*)");
+    /** Margin on both sides of the table cells. */
+    private static final int TABLE_CELL_MARGIN = 3;
+    /** Dist strings by dist, version, arch and text, that stay the same for a host. */
+    private static final ConcurrentMap<String, String> DIST_STRINGS = new ConcurrentHashMap<String, String>();
+    /** Dist commands by dist, version, arch, text, in bash and in sudo. */
+    private static final ConcurrentMap<String, CommandTemplate> DIST_COMMAND_TEMPLATES =
+                                                                new ConcurrentHashMap<String, CommandTemplate>();
+    /** Marks a dist string, that is not in the resource bundles. */
+    private static final String NO_DIST_STRING = new String("");
+    /** Limit for the caches, the texts are not always constant. */
+    private static final int MAX_DIST_CACHE_SIZE = 10000;
 
     public static void init() {
         setDefaults();
@@ -353,7 +367,10 @@ public final class Tools {
         }
     }
 
-    /** Returns string that is specific to a distribution and version. */
+    /**
+     * Returns string that is specific to a distribution and version. The
+     * result is cached, so that the resource bundles are searched only once.
+     */
     public static String getDistString(final String text, String dist, String version, final String arch) {
         if (dist == null) {
             dist = "";
@@ -361,6 +378,23 @@ public final class Tools {
         if (version == null) {
             version = "";
         }
+        final String key = getDistKey(dist, version, arch, text);
+        final String cached = DIST_STRINGS.get(key);
+        if (cached != null) {
+            return cached == NO_DIST_STRING ? null : cached;
+        }
+        final String ret = getDistStringFromBundle(text, dist, version, arch);
+        if (DIST_STRINGS.size() > MAX_DIST_CACHE_SIZE) {
+            DIST_STRINGS.clear();
+        }
+        DIST_STRINGS.put(key, ret == null ? NO_DIST_STRING : ret);
+        return ret;
+    }
+
+    private static String getDistStringFromBundle(final String text,
+                                                  final String dist,
+                                                  final String version,
+                                                  final String arch) {
         final Locale locale = new Locale(dist, version);
         LOG.debug2("getDistString: text: " + text + " dist: " + dist + " version: " + version);
         final ResourceBundle resourceString = ResourceBundle.getBundle("lcmc.configs.DistResource", locale);
@@ -419,6 +453,42 @@ public final class Tools {
         if (text == null) {
             return null;
         }
+        String ret = getDistCommandTemplate(text, dist, version, arch, inBash, inSudo).toString();
+        if (convertCmdCallback != null && ret != null) {
+            ret = convertCmdCallback.convert(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns command from DistResource resource bundle for specific
+     * distribution and version, compiled, so that the placeholders can be
+     * filled in. The templates are cached.
+     */
+    public static CommandTemplate getDistCommandTemplate(final String text,
+                                                         final String dist,
+                                                         final String version,
+                                                         final String arch,
+                                                         final boolean inBash,
+                                                         final boolean inSudo) {
+        final String key = getDistKey(dist, version, arch, text) + '\n' + inBash + '\n' + inSudo;
+        CommandTemplate template = DIST_COMMAND_TEMPLATES.get(key);
+        if (template == null) {
+            template = CommandTemplate.compile(getDistCommandFromBundle(text, dist, version, arch, inBash, inSudo));
+            if (DIST_COMMAND_TEMPLATES.size() > MAX_DIST_CACHE_SIZE) {
+                DIST_COMMAND_TEMPLATES.clear();
+            }
+            DIST_COMMAND_TEMPLATES.put(key, template);
+        }
+        return template;
+    }
+
+    private static String getDistCommandFromBundle(final String text,
+                                                   final String dist,
+                                                   final String version,
+                                                   final String arch,
+                                                   final boolean inBash,
+                                                   final boolean inSudo) {
         final String[] texts = text.split(";;;");
         final List<String> results =  new ArrayList<String>();
         int i = 0;
@@ -439,16 +509,14 @@ public final class Tools {
             }
             i++;
         }
-        String ret;
         if (results.isEmpty()) {
-            ret = text;
-        } else {
-            ret = Tools.join(";;;", results.toArray(new String[results.size()]));
-        }
-        if (convertCmdCallback != null && ret != null) {
-            ret = convertCmdCallback.convert(ret);
+            return text;
         }
-        return ret;
+        return Tools.join(";;;", results.toArray(new String[results.size()]));
+    }
+
+    private static String getDistKey(final String dist, final String version, final String arch, final String text) {
+        return dist + '\n' + version + '\n' + arch + '\n' + text;
     }
 
     /**
@@ -766,7 +834,8 @@ public final class Tools {
 
     /**
      * Creates config on all hosts with specified name in the specified
-     * directory.
+     * directory. The hosts get it at the same time, it returns, when all of
+     * them are done.
      */
     public static void createConfigOnAllHosts(final Host[] hosts,
                                               final String config,
@@ -774,8 +843,12 @@ public final class Tools {
                                               final String dir,
                                               final String mode,
                                               final boolean makeBackup) {
+        final List<CommandScheduler.Task> tasks = new ArrayList<CommandScheduler.Task>(hosts.length);
         for (final Host host : hosts) {
-            host.getSSH().createConfig(config, fileName, dir, mode, makeBackup, null, null);
+            tasks.add(host.getSSH().submitCreateConfig(config, fileName, dir, mode, makeBackup));
+        }
+        for (final CommandScheduler.Task task : tasks) {
+            task.await();
         }
     }
 
@@ -1040,11 +1113,8 @@ public final class Tools {
             return;
         }
         
-        final int margin = 3;
         for (int i = 0; i < table.getColumnCount(); i++) {
-            final int vColIndex = i;
-            final TableColumnModel colModel = table.getColumnModel();
-            final TableColumn col = colModel.getColumn(vColIndex);
+            final TableColumn col = table.getColumnModel().getColumn(i);
             TableCellRenderer renderer = col.getHeaderRenderer();
             
             if (renderer == null) {
@@ -1053,12 +1123,12 @@ public final class Tools {
             if (renderer == null) {
                 continue;
             }
-            Component comp = renderer.getTableCellRendererComponent(table,
-                                                                    col.getHeaderValue(),
-                                                                    false,
-                                                                    false,
-                                                                    0,
-                                                                    0);
+            final Component comp = renderer.getTableCellRendererComponent(table,
+                                                                          col.getHeaderValue(),
+                                                                          false,
+                                                                          false,
+                                                                          0,
+                                                                          0);
             Integer dw = null;
             if (defaultWidths != null) {
                 dw = defaultWidths.get(i);
@@ -1067,29 +1137,68 @@ public final class Tools {
             if (dw == null) {
                 width = comp.getPreferredSize().width;
                 for (int r = 0; r < table.getRowCount(); r++) {
-                    renderer = table.getCellRenderer(r, vColIndex);
-                    if (renderer == null) {
-                        continue;
-                    }
-                    comp = renderer.getTableCellRendererComponent(table,
-                                                                  table.getValueAt(r, vColIndex),
-                                                                  false,
-                                                                  false,
-                                                                  r,
-                                                                  vColIndex);
-                    width = Math.max(width, comp.getPreferredSize().width);
+                    width = Math.max(width, getCellWidth(table, r, i));
                 }
             } else {
                 width = dw;
-                col.setMaxWidth(width);
+                if (col.getMaxWidth() != width) {
+                    col.setMaxWidth(width);
+                }
             }
-            width += 2 * margin;
-            col.setPreferredWidth(width);
+            setColumnWidth(col, width);
         }
         ((JLabel) table.getTableHeader().getDefaultRenderer())
             .setHorizontalAlignment(SwingConstants.CENTER);
     }
 
+    /**
+     * Widens the columns, if the changed rows need more space. It doesn't
+     * go through the other rows.
+     */
+    public static void resizeTableRows(final JTable table,
+                                       final Map<Integer, Integer> defaultWidths,
+                                       final Iterable<Integer> modelRows) {
+        if (table == null) {
+            return;
+        }
+        for (int i = 0; i < table.getColumnCount(); i++) {
+            if (defaultWidths != null && defaultWidths.get(i) != null) {
+                continue;
+            }
+            final TableColumn col = table.getColumnModel().getColumn(i);
+            int width = col.getPreferredWidth() - 2 * TABLE_CELL_MARGIN;
+            for (final int modelRow : modelRows) {
+                final int r = table.convertRowIndexToView(modelRow);
+                if (r >= 0) {
+                    width = Math.max(width, getCellWidth(table, r, i));
+                }
+            }
+            setColumnWidth(col, width);
+        }
+    }
+
+    private static int getCellWidth(final JTable table, final int row, final int column) {
+        final TableCellRenderer renderer = table.getCellRenderer(row, column);
+        if (renderer == null) {
+            return 0;
+        }
+        final Component comp = renderer.getTableCellRendererComponent(table,
+                                                                      table.getValueAt(row, column),
+                                                                      false,
+                                                                      false,
+                                                                      row,
+                                                                      column);
+        return comp.getPreferredSize().width;
+    }
+
+    /** Sets the preferred width with the margins, if it changed. */
+    private static void setColumnWidth(final TableColumn col, final int width) {
+        final int preferredWidth = width + 2 * TABLE_CELL_MARGIN;
+        if (col.getPreferredWidth() != preferredWidth) {
+            col.setPreferredWidth(preferredWidth);
+        }
+    }
+
     /** Sets the menu and all its parents visible, not visible. */
     public static void setMenuVisible(final JComponent menu, final boolean visible) {
         JComponent parent = (JComponent) menu.getParent();
@@ -49,7 +49,9 @@ import lcmc.drbd.domain.DrbdXml;
 import lcmc.host.domain.Host;
 import lcmc.vm.domain.VmsXml;
 import lcmc.cluster.ui.ClusterBrowser;
+import lcmc.cluster.service.ssh.CommandScheduler;
 import lcmc.common.domain.Http;
+import lcmc.common.domain.XML;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import lcmc.common.domain.util.Tools;
@@ -80,6 +82,8 @@ public final class BugReport extends ConfigDialog {
     private Application application;
     @Inject
     private Clusters allClusters;
+    @Inject
+    private CommandScheduler commandScheduler;
 
     public void init(final Cluster selectedCluster, final String errorText) {
         this.selectedCluster = selectedCluster;
@@ -208,6 +212,8 @@ public final class BugReport extends ConfigDialog {
                 appendLibvirtText(text, cluster);
             }
         }
+        appendXmlParseStats(text);
+        appendCommandSchedulerStats(text);
         appendLogText(text);
         application.invokeLater(new Runnable() {
             @Override
@@ -311,6 +317,14 @@ public final class BugReport extends ConfigDialog {
         }
     }
 
+    private void appendXmlParseStats(StringBuffer text) {
+        text.append("\n\n= xml parser =\n").append(XML.getParseStats());
+    }
+
+    private void appendCommandSchedulerStats(StringBuffer text) {
+        text.append("\n= command scheduler =\n").append(commandScheduler);
+    }
+
     private void appendLogText(StringBuffer text) {
         text.append('\n').append(LOG_BUFFER_DELIM).append('\n').append(logBuffer);
     }
@@ -36,8 +36,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.inject.Inject;
@@ -59,7 +61,6 @@ import javax.swing.SwingUtilities;
 import javax.swing.border.TitledBorder;
 import javax.swing.event.PopupMenuEvent;
 import javax.swing.event.PopupMenuListener;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableRowSorter;
 import javax.swing.text.JTextComponent;
@@ -77,6 +78,7 @@ import lcmc.common.ui.utils.ComponentWithTest;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import lcmc.common.ui.utils.MyButton;
+import lcmc.common.ui.utils.KeyedTableModel;
 import lcmc.common.ui.utils.MyButtonCellRenderer;
 import lcmc.common.ui.utils.MyCellRenderer;
 import lcmc.common.ui.utils.MyMenu;
@@ -119,7 +121,9 @@ public class Info implements Comparable<Info>, Value, InfoPresenter {
     private String infoCache = "";
     private Browser browser;
     private final Map<String, JTable> tables = new HashMap<String, JTable>();
-    private final Map<String, DefaultTableModel> tableModels = new HashMap<String, DefaultTableModel>();
+    private final Map<String, KeyedTableModel> tableModels = new HashMap<String, KeyedTableModel>();
+    /** Tables with an update waiting in the event queue. */
+    private final Set<String> pendingTableUpdates = Collections.synchronizedSet(new HashSet<String>());
     /** Hash from component to the edit access mode. */
     private final Map<JTextComponent, AccessMode> componentToEditAccessMode =
                                                                 new HashMap<JTextComponent, AccessMode>();
@@ -734,12 +738,7 @@ public class Info implements Comparable<Info>, Value, InfoPresenter {
         final String[] colNames = getColumnNames(tableName);
         if (colNames != null && colNames.length > 0) {
             final Object[][] data = getTableData(tableName);
-            final DefaultTableModel tableModel = new DefaultTableModel(data, colNames) {
-                @Override
-                    public boolean isCellEditable(final int row, final int column) {
-                        return false;
-                    }
-                };
+            final KeyedTableModel tableModel = new KeyedTableModel(data, colNames);
             tableModels.put(tableName, tableModel);
             final TableCellRenderer bcr = new MyButtonCellRenderer() {
                          @Override
@@ -787,7 +786,7 @@ public class Info implements Comparable<Info>, Value, InfoPresenter {
 
             };
             tables.put(tableName, table);
-            final TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<DefaultTableModel>(tableModel);
+            final TableRowSorter<KeyedTableModel> sorter = new TableRowSorter<KeyedTableModel>(tableModel);
             for (int i = 0; i < colNames.length; i++) {
                 final Comparator<Object> c = getColComparator(tableName, i);
                 if (c != null) {
@@ -967,21 +966,34 @@ public class Info implements Comparable<Info>, Value, InfoPresenter {
         return new Object[][]{};
     }
 
+    /**
+     * Updates the table from the table data. The requests, that come before
+     * the update runs in the event queue, are coalesced into one. Only the
+     * rows, that changed, are updated and the column widths are computed
+     * again only for them.
+     */
     public final void updateTable(final String tableName) {
         LOG.debug2("updateTable: " + tableName);
         final JTable table = tables.get(tableName);
-        final DefaultTableModel tableModel = tableModels.get(tableName);
+        final KeyedTableModel tableModel = tableModels.get(tableName);
         if (tableModel != null) {
             final String[] colNames = getColumnNames(tableName);
             if (colNames != null && colNames.length > 0) {
+                if (!pendingTableUpdates.add(tableName)) {
+                    return;
+                }
                 application.invokeLater(new Runnable() {
                     @Override
                     public void run() {
+                        pendingTableUpdates.remove(tableName);
                         final Object[][] data = getTableData(tableName);
                         LOG.debug2("updateTable: in: " + getName());
-                        tableModel.setDataVector(data, colNames);
-                        tableModel.fireTableDataChanged();
-                        Tools.resizeTable(table, getDefaultWidths(tableName));
+                        final List<Integer> changedRows = tableModel.update(data, getColumnNames(tableName));
+                        if (changedRows == null) {
+                            Tools.resizeTable(table, getDefaultWidths(tableName));
+                        } else {
+                            Tools.resizeTableRows(table, getDefaultWidths(tableName), changedRows);
+                        }
                     }
                 });
             }
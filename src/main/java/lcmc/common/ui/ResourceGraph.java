@@ -100,6 +100,7 @@ import lcmc.host.domain.Host;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import lcmc.common.ui.utils.MyMenuItem;
+import lcmc.common.ui.utils.FrameUpdateScheduler;
 import lcmc.common.domain.util.Tools;
 
 import org.apache.commons.collections15.Transformer;
@@ -174,6 +175,8 @@ public abstract class ResourceGraph {
     private ClusterBrowser clusterBrowser;
     @Inject
     private GUIData guiData;
+    @Inject
+    private FrameUpdateScheduler frameUpdateScheduler;
 
     /** Starts the animation if vertex is being updated. */
     public final void startAnimation(final Info info) {
@@ -440,9 +443,14 @@ public abstract class ResourceGraph {
                         EDGE_PICKED_PAINT));
     }
 
-    /** Repaints the graph. */
+    /** Repaints the graph in the next frame. */
     public final void repaint() {
-        visualizationViewer.repaint();
+        frameUpdateScheduler.schedule(this, new Runnable() {
+            @Override
+            public void run() {
+                visualizationViewer.repaint();
+            }
+        });
     }
 
     protected final Graph<Vertex, Edge> getGraph() {
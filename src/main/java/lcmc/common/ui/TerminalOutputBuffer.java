@@ -0,0 +1,130 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.common.ui;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import javax.swing.text.MutableAttributeSet;
+
+/**
+ * Output of the commands, that waits to be appended to the terminal area in
+ * the next frame. Consecutive chunks with the same color are joined, so that
+ * they are appended at once. If there is more than maxChars characters, the
+ * oldest lines are dropped, the terminal would drop them anyway.
+ */
+final class TerminalOutputBuffer {
+    private final int maxChars;
+    private final Deque<Chunk> chunks = new LinkedList<Chunk>();
+    private int length = 0;
+
+    TerminalOutputBuffer(final int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    synchronized void add(final String text, final MutableAttributeSet color) {
+        if (text.isEmpty()) {
+            return;
+        }
+        final Chunk last = chunks.peekLast();
+        if (last != null && last.getColor() == color) {
+            last.append(text);
+        } else {
+            chunks.addLast(new Chunk(text, color));
+        }
+        length += text.length();
+        if (length > maxChars) {
+            dropOldest(length - maxChars);
+        }
+    }
+
+    /** Returns the waiting chunks in order and empties the buffer. */
+    synchronized List<Chunk> takeAll() {
+        final List<Chunk> all = new ArrayList<Chunk>(chunks);
+        chunks.clear();
+        length = 0;
+        return all;
+    }
+
+    synchronized void clear() {
+        chunks.clear();
+        length = 0;
+    }
+
+    /**
+     * Drops at least the number of characters up to the end of the line, or
+     * just the number of characters, if the newest chunk has no new line.
+     */
+    private void dropOldest(final int count) {
+        int toDrop = count;
+        while (toDrop > 0 && !chunks.isEmpty()) {
+            final Chunk first = chunks.peekFirst();
+            final int firstLength = first.length();
+            int dropEnd = first.indexOfNewLine(toDrop - 1) + 1;
+            if (dropEnd == 0) {
+                dropEnd = chunks.size() > 1 ? firstLength : toDrop;
+            }
+            if (dropEnd == firstLength) {
+                chunks.removeFirst();
+            } else {
+                first.deleteStart(dropEnd);
+            }
+            toDrop -= dropEnd;
+            length -= dropEnd;
+        }
+    }
+
+    /** Text in one color. */
+    static final class Chunk {
+        private final StringBuilder text;
+        private final MutableAttributeSet color;
+
+        Chunk(final String text, final MutableAttributeSet color) {
+            this.text = new StringBuilder(text);
+            this.color = color;
+        }
+
+        String getText() {
+            return text.toString();
+        }
+
+        MutableAttributeSet getColor() {
+            return color;
+        }
+
+        private void append(final String moreText) {
+            text.append(moreText);
+        }
+
+        private int length() {
+            return text.length();
+        }
+
+        private int indexOfNewLine(final int from) {
+            return text.indexOf("\n", from);
+        }
+
+        private void deleteStart(final int end) {
+            text.delete(0, end);
+        }
+    }
+}
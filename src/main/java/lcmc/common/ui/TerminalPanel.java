@@ -47,6 +47,7 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.Caret;
 import javax.swing.text.DefaultCaret;
 import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
 import javax.swing.text.MutableAttributeSet;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
@@ -60,6 +61,7 @@ import lcmc.common.domain.ExecCallback;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import lcmc.common.domain.util.Tools;
+import lcmc.common.ui.utils.FrameUpdateScheduler;
 import lcmc.cluster.service.ssh.ExecCommandConfig;
 
 /**
@@ -169,15 +171,37 @@ public class TerminalPanel extends JScrollPane {
     /** Terminal output colors. */
     private final Map<String, Color> terminalColor = new HashMap<String, Color>();
     private Color defaultOutputColor;
+    /** Lines, that are kept in the terminal area, older lines are removed. */
+    private int scrollbackLines;
+    /** Whether an escape sequence was not finished by the last append. */
+    private boolean insideEscape = false;
+    /** The unfinished escape sequence. */
+    private final StringBuilder escapeSequence = new StringBuilder(10);
+    /** Whether the last append ended with CR, that may be followed by LF. */
+    private boolean pendingCarriageReturn = false;
+    /** Output, that will be appended in the next frame. */
+    private final TerminalOutputBuffer pendingOutput =
+                                    new TerminalOutputBuffer(Tools.getDefaultInt("TerminalPanel.MaxPendingChars"));
+    private final Runnable appendPendingOutput = new Runnable() {
+        @Override
+        public void run() {
+            for (final TerminalOutputBuffer.Chunk chunk : pendingOutput.takeAll()) {
+                append(chunk.getText(), chunk.getColor());
+            }
+        }
+    };
     @Inject
     private GUIData guiData;
     @Inject
     private Application application;
     @Inject
     private StartTests srartTests;
+    @Inject
+    private FrameUpdateScheduler frameUpdateScheduler;
 
     public void initWithHost(final Host host0) {
         host = host0;
+        scrollbackLines = Math.max(1, Tools.getDefaultInt("TerminalPanel.ScrollbackLines"));
         /* Sets terminal some of the output colors. This is in no way complete
          * or correct and probably doesn't have to be. */
         terminalColor.put("0", Tools.getDefaultColor("TerminalPanel.TerminalWhite"));
@@ -301,50 +325,66 @@ public class TerminalPanel extends JScrollPane {
     }
 
 
-    /** Appends a text whith specified color to the terminal area. */
-    private void append(final String text, final MutableAttributeSet colorAS) {
+    /**
+     * Appends a text whith specified color to the terminal area. The
+     * printable characters between the control characters are inserted at
+     * once. An escape sequence or a CR/LF pair, that is split between two
+     * appends, is handled as a whole.
+     */
+    private void append(final String newText, final MutableAttributeSet colorAS) {
         userCommand = false;
         final MyDocument doc = (MyDocument) terminalArea.getStyledDocument();
         mPosLock.lock();
         final int end = terminalArea.getDocument().getLength();
         pos = end + pos - maxPos;
         maxPos = end;
-        final char[] chars = text.toCharArray();
-        StringBuilder colorString = new StringBuilder(10);
-        boolean inside = false;
-        for (int i = 0; i < chars.length; i++) {
-            final char c = chars[i];
-            final String s = Character.toString(c);
+        final String text;
+        if (pendingCarriageReturn) {
+            pendingCarriageReturn = false;
+            text = '\r' + newText;
+        } else {
+            text = newText;
+        }
+        final StringBuilder printable = new StringBuilder(text.length());
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
             boolean printit = true;
+            if (c == 8 || c == 13 || c == 27) {
+                insertPrintable(doc, printable, colorAS);
+            }
             if (c == 8) { /* one position to the left */
                 printit = false;
                 pos--;
-            } else if (i < chars.length - 1 && c == 13 && chars[i + 1] == 10) { /* new line */
+            } else if (i < length - 1 && c == 13 && text.charAt(i + 1) == 10) { /* new line */
                 prevLine = maxPos + 2;
                 pos = maxPos;
+            } else if (c == 13 && i == length - 1) { /* LF may come in the next append */
+                pendingCarriageReturn = true;
+                printit = false;
             } else if (c == 13) { /* beginning of the same line */
                 pos = prevLine;
                 printit = false;
             } else if (c == 27) {
                 /* funny colors, e.g. in sles */
-                inside = true;
+                insideEscape = true;
                 printit = false;
-                colorString = new StringBuilder(10);
+                escapeSequence.setLength(0);
             }
-            if (inside) {
+            if (insideEscape) {
                 if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
                     /* we are done */
-                    inside = false;
+                    insideEscape = false;
                     if (c == 'm') {
-                        Color newColor = getColorFromString(colorString.toString());
+                        Color newColor = getColorFromString(escapeSequence.toString());
 
                         if (newColor == null) {
                             newColor = defaultOutputColor;
                         }
                         StyleConstants.setForeground(colorAS, newColor);
-                        colorString = new StringBuilder(10);
+                        escapeSequence.setLength(0);
                     } else if (c == 'G') {
-                        final int g = getCharCount(colorString.toString());
+                        final int g = getCharCount(escapeSequence.toString());
                         pos = prevLine + g;
                         while (pos > maxPos) {
                             try {
@@ -356,37 +396,78 @@ public class TerminalPanel extends JScrollPane {
                         }
                     }
                 } else if (printit) {
-                    colorString.append(s);
+                    escapeSequence.append(c);
                 }
                 printit = false;
             }
 
             if (printit) {
-                if (pos < maxPos) {
-                    try {
-                        commandOffset = pos - 1;
-                        doc.removeForced(pos, 1);
-                    } catch (final BadLocationException e) {
-                        LOG.appError("append: terminalPanel pos: " + pos, e);
-                    }
-                }
-                try {
-                    doc.insertString(pos, s, colorAS);
-                } catch (final BadLocationException e1) {
-                    LOG.appError("append: terminalPanel pos: " + pos, e1);
-                }
-                pos++;
-                if (maxPos < pos) {
-                    maxPos = pos;
-                }
+                printable.append(c);
             }
         }
+        insertPrintable(doc, printable, colorAS);
         commandOffset = terminalArea.getDocument().getLength();
+        removeOldLines(doc);
         terminalArea.setCaretPosition(terminalArea.getDocument().getLength());
         mPosLock.unlock();
         userCommand = true;
     }
 
+    /**
+     * Inserts the characters at the current position, overwriting the
+     * characters up to the end of the text, and empties the builder.
+     */
+    private void insertPrintable(final MyDocument doc,
+                                 final StringBuilder printable,
+                                 final MutableAttributeSet colorAS) {
+        if (printable.length() == 0) {
+            return;
+        }
+        final String s = printable.toString();
+        printable.setLength(0);
+        if (pos < maxPos) {
+            try {
+                commandOffset = pos - 1;
+                doc.removeForced(pos, Math.min(s.length(), maxPos - pos));
+            } catch (final BadLocationException e) {
+                LOG.appError("append: terminalPanel pos: " + pos, e);
+            }
+        }
+        try {
+            doc.insertString(pos, s, colorAS);
+        } catch (final BadLocationException e1) {
+            LOG.appError("append: terminalPanel pos: " + pos, e1);
+        }
+        pos += s.length();
+        if (maxPos < pos) {
+            maxPos = pos;
+        }
+    }
+
+    /**
+     * Removes the oldest lines, if there are more than the scrollback lines.
+     * A tenth of the lines more is allowed, so that it's not done after every
+     * line.
+     */
+    private void removeOldLines(final MyDocument doc) {
+        final Element root = doc.getDefaultRootElement();
+        final int lines = root.getElementCount();
+        if (lines <= scrollbackLines + scrollbackLines / 10) {
+            return;
+        }
+        final int removed = root.getElement(lines - scrollbackLines - 1).getEndOffset();
+        try {
+            doc.removeForced(0, removed);
+        } catch (final BadLocationException e) {
+            LOG.appError("removeOldLines: terminalPanel lines: " + lines, e);
+            return;
+        }
+        pos -= removed;
+        maxPos -= removed;
+        prevLine = Math.max(0, prevLine - removed);
+        commandOffset = Math.max(0, commandOffset - removed);
+    }
+
     /** Sets the terminal area editable. */
     void setEditable(final boolean editable) {
         terminalArea.setEditable(editable);
@@ -444,76 +525,54 @@ public class TerminalPanel extends JScrollPane {
      * and scrolls the text up.
      */
     public void nextCommand() {
-        application.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                append(prompt(), promptColor);
-            }
-        });
+        addPendingOutput(prompt(), promptColor);
     }
 
     /** Adds command to the terminal textarea and scrolls up. */
     public void addCommand(final String command) {
         final String[] lines = command.split("\\r?\\n");
-
-        application.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                append(lines[0], commandColor);
-                for (int i = 1; i < lines.length; i++) {
-                    append(" \\\n> " + lines[i], commandColor);
-                }
-                append("\n", commandColor);
-            }
-        });
+        addPendingOutput(lines[0], commandColor);
+        for (int i = 1; i < lines.length; i++) {
+            addPendingOutput(" \\\n> " + lines[i], commandColor);
+        }
+        addPendingOutput("\n", commandColor);
     }
 
     /** Adds command output to the terminal textarea and scrolls up. */
     public void addCommandOutput(final String output) {
-        application.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                append(output, outputColor);
-            }
-        });
+        addPendingOutput(output, outputColor);
     }
 
     /** Adds array of command output to the terminal textarea and scrolls up. */
     public void addCommandOutput(final String[] output) {
-        application.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                for (int i = 0; i < output.length; i++) {
-                    if (output[i] != null) {
-                        String newLine = "";
-                        if (i != output.length - 1) {
-                            newLine = "\n";
-                        }
-                        append(output[i] + newLine, outputColor);
-                    }
+        for (int i = 0; i < output.length; i++) {
+            if (output[i] != null) {
+                String newLine = "";
+                if (i != output.length - 1) {
+                    newLine = "\n";
                 }
+                addPendingOutput(output[i] + newLine, outputColor);
             }
-        });
+        }
     }
 
     /** Adds content string (output of a command) to the terminal area. */
     public void addContent(final String c) {
-        application.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                append(c, outputColor);
-            }
-        });
+        addPendingOutput(c, outputColor);
     }
 
     /** Adds content to the terminal textarea and scrolls up. */
     public void addContentErr(final String c) {
-        application.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                append(c, errorColor);
-            }
-        });
+        addPendingOutput(c, errorColor);
+    }
+
+    /**
+     * Adds the text to the output, that will be appended in the next frame.
+     * Texts from many calls are appended at once.
+     */
+    private void addPendingOutput(final String text, final MutableAttributeSet color) {
+        pendingOutput.add(text, color);
+        frameUpdateScheduler.schedule(this, appendPendingOutput);
     }
 
     /** Starts action after cheat was entered. */
@@ -596,6 +655,8 @@ public class TerminalPanel extends JScrollPane {
                     commandOffset = 0;
                     pos = 0;
                     maxPos = 0;
+                    prevLine = 0;
+                    pendingOutput.clear();
                     doc.removeForced(0, doc.getLength());
                 } finally {
                     mPosLock.unlock();
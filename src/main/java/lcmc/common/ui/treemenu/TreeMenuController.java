@@ -25,6 +25,7 @@ import lcmc.common.domain.Application;
 import lcmc.common.domain.util.Tools;
 import lcmc.common.ui.CategoryInfo;
 import lcmc.common.ui.Info;
+import lcmc.common.ui.utils.FrameUpdateScheduler;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 
@@ -51,10 +52,13 @@ import java.util.List;
 @Singleton
 public class TreeMenuController {
     private static final Logger LOG = LoggerFactory.getLogger(TreeMenuController.class);
+    private static final Object REPAINT_TREE_KEY = "repaintMenuTree";
     private DefaultTreeModel treeModel;
     private JTree tree;
     @Inject
     private Application application;
+    @Inject
+    private FrameUpdateScheduler frameUpdateScheduler;
     @Resource(name="categoryInfo")
     private CategoryInfo resourcesCategory;
 
@@ -102,7 +106,7 @@ public class TreeMenuController {
     }
 
     public final void repaintMenuTree() {
-        application.invokeInEdt(new Runnable() {
+        frameUpdateScheduler.schedule(REPAINT_TREE_KEY, new Runnable() {
             @Override
             public void run() {
                 final JTree t = tree;
@@ -114,7 +118,8 @@ public class TreeMenuController {
     }
 
     public final void reloadNode(final TreeNode node, final boolean select) {
-        application.invokeInEdt(new Runnable() {
+        frameUpdateScheduler.schedule(new NodeUpdateKey(select ? "reloadNode" : "reloadNodeKeepSelection", node),
+                                      new Runnable() {
             @Override
             public void run() {
                 final DefaultMutableTreeNode oldNode = (DefaultMutableTreeNode) tree.getLastSelectedPathComponent();
@@ -129,9 +134,13 @@ public class TreeMenuController {
         });
     }
 
+    /**
+     * Repaints the node in the next frame. The stack trace for the error
+     * message is captured only in the debug mode.
+     */
     public final void nodeChanged(final DefaultMutableTreeNode node) {
-        final String stacktrace = Tools.getStackTrace();
-        application.invokeInEdt(new Runnable() {
+        final String stacktrace = LoggerFactory.getDebugLevel() > 0 ? Tools.getStackTrace() : null;
+        frameUpdateScheduler.schedule(new NodeUpdateKey("nodeChanged", node), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -139,7 +148,7 @@ public class TreeMenuController {
                 } catch (final RuntimeException e) {
                     LOG.appError("nodeChangedAndWait: " + node.getUserObject()
                             + " node changed error:\n"
-                            + stacktrace + "\n\n", e);
+                            + (stacktrace == null ? "" : stacktrace) + "\n\n", e);
                 }
             }
         });
@@ -159,6 +168,8 @@ public class TreeMenuController {
         application.invokeInEdt(new Runnable() {
             @Override
             public void run() {
+                /* a waiting reload would collapse the new path */
+                frameUpdateScheduler.flush();
                 final TreePath tp = new TreePath(path);
                 tree.expandPath(tp);
                 tree.setSelectionPath(tp);
@@ -368,6 +379,36 @@ public class TreeMenuController {
         });
     }
 
+    /** Key of a waiting tree update, the nodes are compared by identity. */
+    private static final class NodeUpdateKey {
+        private final String update;
+        private final TreeNode node;
+
+        NodeUpdateKey(final String update, final TreeNode node) {
+            this.update = update;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof NodeUpdateKey)) {
+                return false;
+            }
+            final NodeUpdateKey other = (NodeUpdateKey) o;
+            return update.equals(other.update) && node == other.node;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * update.hashCode() + System.identityHashCode(node);
+        }
+
+        @Override
+        public String toString() {
+            return update + ": " + node;
+        }
+    }
+
     private class IntResult {
         volatile int result = 0;
 
@@ -0,0 +1,125 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.common.ui.utils;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.swing.Timer;
+
+import lcmc.common.domain.Application;
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+
+/**
+ * Collects the updates of the tree menu and of the graphs, that come from
+ * the status threads, and runs them in the event dispatch thread once per
+ * animation frame. An update with the same key, that is still waiting, is
+ * run only once.
+ */
+@Named
+@Singleton
+public class FrameUpdateScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(FrameUpdateScheduler.class);
+    @Inject
+    private Application application;
+    /** Waiting updates by key, in the order, in which they were requested. */
+    private Map<Object, Runnable> pendingUpdates = new LinkedHashMap<Object, Runnable>();
+    private final Object pendingLock = new Object();
+    private Timer frameTimer = null;
+    private final AtomicLong requestedCount = new AtomicLong(0);
+    private final AtomicLong executedCount = new AtomicLong(0);
+
+    /**
+     * Schedules the update for the next frame, unless an update with the
+     * same key is already waiting.
+     */
+    public void schedule(final Object key, final Runnable update) {
+        requestedCount.incrementAndGet();
+        final Timer timer;
+        synchronized (pendingLock) {
+            if (pendingUpdates.containsKey(key)) {
+                return;
+            }
+            pendingUpdates.put(key, update);
+            if (pendingUpdates.size() > 1) {
+                return;
+            }
+            timer = getFrameTimer();
+        }
+        timer.restart();
+    }
+
+    /**
+     * Runs the waiting updates now. It is called in the event dispatch
+     * thread, by the timer, or before a change, that the waiting updates
+     * could undo.
+     */
+    public void flush() {
+        final Map<Object, Runnable> updates;
+        synchronized (pendingLock) {
+            if (pendingUpdates.isEmpty()) {
+                return;
+            }
+            updates = pendingUpdates;
+            pendingUpdates = new LinkedHashMap<Object, Runnable>();
+        }
+        for (final Map.Entry<Object, Runnable> keyAndUpdate : updates.entrySet()) {
+            executedCount.incrementAndGet();
+            try {
+                keyAndUpdate.getValue().run();
+            } catch (final RuntimeException e) {
+                LOG.appError("flush: update of " + keyAndUpdate.getKey() + " failed", e);
+            }
+        }
+    }
+
+    /** Returns how many updates were requested. */
+    public long getRequestedCount() {
+        return requestedCount.get();
+    }
+
+    /** Returns how many updates were run, the rest was merged. */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /** Returns the timer with the frame interval from the current FPS. */
+    private Timer getFrameTimer() {
+        final int frameInterval = (int) (1000 / application.getAnimFPS());
+        if (frameTimer == null) {
+            frameTimer = new Timer(frameInterval, new ActionListener() {
+                @Override
+                public void actionPerformed(final ActionEvent e) {
+                    flush();
+                }
+            });
+            frameTimer.setRepeats(false);
+        }
+        frameTimer.setInitialDelay(frameInterval);
+        return frameTimer;
+    }
+}
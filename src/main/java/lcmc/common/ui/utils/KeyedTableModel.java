@@ -0,0 +1,156 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.common.ui.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
+import javax.swing.AbstractButton;
+import javax.swing.JLabel;
+import javax.swing.table.DefaultTableModel;
+
+import lcmc.common.domain.util.Tools;
+
+/**
+ * Table model, that updates only the rows, that changed. The rows are
+ * identified by the key in the first column, that is the text of the button,
+ * and the buttons and labels are compared by what they show, since they are
+ * created again for every update.
+ */
+public final class KeyedTableModel extends DefaultTableModel {
+    private String[] columnNames;
+
+    public KeyedTableModel(final Object[][] data, final String[] columnNames) {
+        super(data, columnNames);
+        this.columnNames = columnNames;
+    }
+
+    @Override
+    public boolean isCellEditable(final int row, final int column) {
+        return false;
+    }
+
+    /**
+     * Updates the data and fires events only for the rows, that were removed,
+     * inserted, moved or changed. Returns the model rows, that were inserted
+     * or changed, or null, if all data was replaced or some rows were
+     * removed.
+     */
+    public List<Integer> update(final Object[][] data, final String[] newColumnNames) {
+        if (!Arrays.equals(columnNames, newColumnNames) || !hasUniqueKeys(data)) {
+            columnNames = newColumnNames;
+            setDataVector(data, newColumnNames);
+            return null;
+        }
+        final Collection<String> newKeys = new HashSet<String>();
+        for (final Object[] row : data) {
+            newKeys.add(getKey(row[0]));
+        }
+        boolean removed = false;
+        for (int i = getRowCount() - 1; i >= 0; i--) {
+            if (!newKeys.contains(getKey(getValueAt(i, 0)))) {
+                removeRow(i);
+                removed = true;
+            }
+        }
+        final List<Integer> changedRows = new ArrayList<Integer>();
+        for (int i = 0; i < data.length; i++) {
+            final String key = getKey(data[i][0]);
+            final int oldRow = findRow(key, i);
+            if (oldRow < 0) {
+                insertRow(i, data[i]);
+                changedRows.add(i);
+                continue;
+            }
+            if (oldRow != i) {
+                moveRow(oldRow, oldRow, i);
+            }
+            if (updateRow(i, data[i])) {
+                changedRows.add(i);
+            }
+        }
+        return removed ? null : changedRows;
+    }
+
+    /** Replaces the cells of the row, if some of them changed. */
+    private boolean updateRow(final int row, final Object[] newRow) {
+        @SuppressWarnings("unchecked")
+        final Vector<Object> oldRow = (Vector<Object>) getDataVector().elementAt(row);
+        boolean changed = oldRow.size() != newRow.length;
+        for (int c = 0; !changed && c < newRow.length; c++) {
+            changed = !isSameCell(oldRow.get(c), newRow[c]);
+        }
+        if (changed) {
+            oldRow.clear();
+            oldRow.addAll(Arrays.asList(newRow));
+            fireTableRowsUpdated(row, row);
+        }
+        return changed;
+    }
+
+    private int findRow(final String key, final int from) {
+        for (int i = from; i < getRowCount(); i++) {
+            if (key.equals(getKey(getValueAt(i, 0)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasUniqueKeys(final Object[][] data) {
+        final Collection<String> keys = new HashSet<String>();
+        for (final Object[] row : data) {
+            if (row.length == 0 || !keys.add(getKey(row[0]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getKey(final Object cell) {
+        if (cell instanceof AbstractButton) {
+            return ((AbstractButton) cell).getText();
+        }
+        return String.valueOf(cell);
+    }
+
+    /** Whether the cells show the same thing. */
+    static boolean isSameCell(final Object oldCell, final Object newCell) {
+        if (oldCell instanceof AbstractButton && newCell instanceof AbstractButton) {
+            final AbstractButton oldButton = (AbstractButton) oldCell;
+            final AbstractButton newButton = (AbstractButton) newCell;
+            return Tools.areEqual(oldButton.getText(), newButton.getText())
+                   && oldButton.getIcon() == newButton.getIcon()
+                   && oldButton.isEnabled() == newButton.isEnabled()
+                   && Tools.areEqual(oldButton.getToolTipText(), newButton.getToolTipText());
+        } else if (oldCell instanceof JLabel && newCell instanceof JLabel) {
+            final JLabel oldLabel = (JLabel) oldCell;
+            final JLabel newLabel = (JLabel) newCell;
+            return Tools.areEqual(oldLabel.getText(), newLabel.getText())
+                   && oldLabel.getIcon() == newLabel.getIcon()
+                   && Tools.areEqual(oldLabel.getBackground(), newLabel.getBackground());
+        }
+        return Tools.areEqual(oldCell, newCell);
+    }
+}
@@ -61,6 +61,10 @@ public final class AppDefaults extends ListResourceBundle {
         {"DrbdMC.height",                        768},
 
         {"MainPanel.TerminalPanelHeight",        150},
+        /* lines, that are kept in the terminal panel */
+        {"TerminalPanel.ScrollbackLines",        10000},
+        /* characters waiting for the next frame, the oldest are dropped */
+        {"TerminalPanel.MaxPendingChars",        1048576},
 
         {"ConfigDialog.width",                   880},
         {"ConfigDialog.height",                  400},
@@ -100,6 +104,7 @@ public final class AppDefaults extends ListResourceBundle {
         {"MainMenu.DrbdGuiFiles.Extension",     "lcmc"},
         {"MainMenu.DrbdGuiFiles.Default",       System.getProperty("user.home") + '/' + "lcmc-conf.lcmc"},
         {"MainMenu.DrbdGuiFiles.Old",       System.getProperty("user.home") + '/' + "drbd-gui.drbdg"},
+        {"CrmXml.MetaDataCacheDir",         System.getProperty("user.home") + '/' + ".lcmc/ra-metadata"},
 
         /* Colors */
         {"DrbdMC.TableHeader",               BACKGROUND},
@@ -339,6 +344,13 @@ public final class AppDefaults extends ListResourceBundle {
         {"SSH.KexTimeout",           0}, /* milliseconds, 0 no timeout */
         {"SSH.Command.Timeout.Long", 0},     /* milliseconds, 0 no timeout */
         {"SSH.Command.Timeout",      180000}, /* milliseconds */
+        {"CommandScheduler.MaxThreads",        64},
+        {"CommandScheduler.MaxThreadsPerHost", 6}, /* below sshd MaxSessions */
+        {"Cluster.MaxParallelConnections",     8},
+        {"SSH.ChannelWindow.Initial",  30000},   /* bytes */
+        {"SSH.ChannelWindow.Max",      8388608}, /* bytes, grows on fast links */
+        {"SSH.ChannelMaxPacketSize",   33976},   /* bytes */
+        {"SSH.Compression",            "n"},     /* zlib, if the server allows it, set per host */
         {"ProgressBar.Sleep",        100},   /* milliseconds */
         {"ProgressBar.Delay",        50},    /* milliseconds */
 
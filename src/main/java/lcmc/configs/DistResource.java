@@ -88,7 +88,8 @@ public final class DistResource extends ListResourceBundle {
         {"TestCommand", "uptime"},
 
         {"GetHostAllInfo", SUDO + "@GUI-HELPER@ all"},
-        {"HostHWInfoDaemon", SUDO + "@GUI-HELPER@ hw-info-daemon"},
+        {"HostHWInfoDaemon", SUDO + "@GUI-HELPER@ --frames=1 hw-info-daemon"},
+        {"CommandChannel", "@GUI-HELPER@ command-channel"},
         {"GetHostHWInfo", SUDO + "@GUI-HELPER@ hw-info"},
         {"GetHostHWInfoLVM", SUDO + "@GUI-HELPER@ hw-info-lvm"},
         {"GetHostHWInfoLazy", "nice -n 19 " + SUDO + "@GUI-HELPER@ hw-info-lazy"},
@@ -142,12 +143,21 @@ public final class DistResource extends ListResourceBundle {
         {"Heartbeat.getOCFParameters",
          SUDO + "@GUI-HELPER@ get-resource-agents;"},
 
+        {"Heartbeat.getOCFParametersSelected",
+         SUDO + "@GUI-HELPER@ get-resource-agents selected @AGENTS@;"},
+
+        {"Heartbeat.getOCFChecksums",
+         SUDO + "@GUI-HELPER@ get-resource-agent-checksums"},
+
         /* vmxpath env is needed so that vmware meta-data does not hang */
         {"Heartbeat.getClusterMetadata",
          SUDO + "@GUI-HELPER@ get-cluster-metadata"},
 
         {"Heartbeat.getClStatus",
-         SUDO + "@GUI-HELPER@ get-cluster-events"},
+         SUDO + "@GUI-HELPER@ --cib-patch --frames=1 get-cluster-events"},
+
+        {"Heartbeat.getClusterInfo",
+         SUDO + "@GUI-HELPER@ get-cluster-info"},
 
         {"Heartbeat.startHeartbeat",
          SUDO + "/etc/init.d/heartbeat start"},
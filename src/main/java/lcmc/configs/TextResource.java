@@ -224,6 +224,9 @@ public final class TextResource extends ListResourceBundle {
         {"Dialog.Host.NewHost.UseSudo",
          "Use sudo:"},
 
+        {"Dialog.Host.NewHost.Compression",
+         "Compression:"},
+
         {"Dialog.Host.NewHost.EnterPassword",
          "Password:"},
 
@@ -1540,6 +1543,9 @@ public final class TextResource extends ListResourceBundle {
         {"ClusterBrowser.ClusterStatusFailed",
          "Pacemaker status not available"},
 
+        {"ClusterBrowser.CibChangesFailed",
+         "applying the changes failed"},
+
         {"ServicesInfo.AddConstraintPlaceholderAnd",
           "Add Constraint Placeholder (AND)"},
 
@@ -0,0 +1,275 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.crm.domain;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Table;
+import lcmc.common.domain.Value;
+import lcmc.common.domain.util.Tools;
+import org.apache.commons.collections15.keyvalue.MultiKey;
+import org.apache.commons.collections15.map.MultiKeyMap;
+
+/**
+ * Crm ids of resources, groups and clones, that were added, removed or
+ * changed between two cib queries, so that only these have to be updated
+ * in the gui.
+ */
+public final class CibChanges {
+    /** No changes. */
+    static final CibChanges NONE = new CibChanges(Collections.<String>emptySet(),
+                                                  Collections.<String>emptySet(),
+                                                  Collections.<String>emptySet(),
+                                                  false,
+                                                  false);
+
+    private final Set<String> added;
+    private final Set<String> removed;
+    private final Set<String> changed;
+    /** Group or clone members, orphans or masters changed. */
+    private final boolean structureChanged;
+    private final boolean constraintsChanged;
+
+    private CibChanges(final Set<String> added,
+                       final Set<String> removed,
+                       final Set<String> changed,
+                       final boolean structureChanged,
+                       final boolean constraintsChanged) {
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+        this.structureChanged = structureChanged;
+        this.constraintsChanged = constraintsChanged;
+    }
+
+    /**
+     * Returns changes between the old and the new cib query or null if
+     * something changed, that affects all resources, like rsc_defaults.
+     */
+    static CibChanges compute(final CibQuery oldQuery, final CibQuery newQuery) {
+        if (!nullToEmpty(oldQuery.getRscDefaultsParams()).equals(nullToEmpty(newQuery.getRscDefaultsParams()))
+            || !nullToEmpty(oldQuery.getOpDefaultsParams()).equals(nullToEmpty(newQuery.getOpDefaultsParams()))
+            || !Tools.areEqual(oldQuery.getRscDefaultsId(), newQuery.getRscDefaultsId())) {
+            return null;
+        }
+        final Map<String, List<Object>> oldResources = getResources(oldQuery);
+        final Map<String, List<Object>> newResources = getResources(newQuery);
+        final Set<String> added = new HashSet<String>();
+        final Set<String> changed = new HashSet<String>();
+        for (final Map.Entry<String, List<Object>> newEntry : newResources.entrySet()) {
+            final List<Object> oldResource = oldResources.get(newEntry.getKey());
+            if (oldResource == null) {
+                added.add(newEntry.getKey());
+            } else if (!oldResource.equals(newEntry.getValue())) {
+                changed.add(newEntry.getKey());
+            }
+        }
+        final Set<String> removed = new HashSet<String>(oldResources.keySet());
+        removed.removeAll(newResources.keySet());
+        /* resources that take meta attributes or operations from the
+           changed resources */
+        for (final String id : newResources.keySet()) {
+            if (refersTo(newQuery.getMetaAttrsRefs().get(id), added, changed)
+                || refersTo(newQuery.getOperationsRefs().get(id), added, changed)) {
+                changed.add(id);
+            }
+        }
+        final boolean structureChanged =
+                    !added.isEmpty()
+                    || !removed.isEmpty()
+                    || !nullToEmpty(oldQuery.getGroupsToResources()).equals(
+                                                                   nullToEmpty(newQuery.getGroupsToResources()))
+                    || !nullToEmpty(oldQuery.getCloneToResource()).equals(nullToEmpty(newQuery.getCloneToResource()))
+                    || !asSet(oldQuery.getOrphaned()).equals(asSet(newQuery.getOrphaned()))
+                    || !asSet(oldQuery.getMasterList()).equals(asSet(newQuery.getMasterList()));
+        final boolean constraintsChanged = !getConstraints(oldQuery).equals(getConstraints(newQuery));
+        return new CibChanges(added, removed, changed, structureChanged, constraintsChanged);
+    }
+
+    /** Returns changes that contain changes from both. Null means all. */
+    static CibChanges merge(final CibChanges changes1, final CibChanges changes2) {
+        if (changes1 == null || changes2 == null) {
+            return null;
+        }
+        if (changes1 == NONE) {
+            return changes2;
+        }
+        if (changes2 == NONE) {
+            return changes1;
+        }
+        final Set<String> added = new HashSet<String>(changes1.added);
+        added.addAll(changes2.added);
+        final Set<String> removed = new HashSet<String>(changes1.removed);
+        removed.addAll(changes2.removed);
+        final Set<String> changed = new HashSet<String>(changes1.changed);
+        changed.addAll(changes2.changed);
+        return new CibChanges(added,
+                              removed,
+                              changed,
+                              changes1.structureChanged || changes2.structureChanged,
+                              changes1.constraintsChanged || changes2.constraintsChanged);
+    }
+
+    public Set<String> getAdded() {
+        return Collections.unmodifiableSet(added);
+    }
+
+    public Set<String> getRemoved() {
+        return Collections.unmodifiableSet(removed);
+    }
+
+    public Set<String> getChanged() {
+        return Collections.unmodifiableSet(changed);
+    }
+
+    /** Returns whether the resource with this crm id was added or changed. */
+    public boolean isChanged(final String crmId) {
+        return added.contains(crmId) || changed.contains(crmId);
+    }
+
+    /**
+     * Returns whether resources were added or removed, or group or clone
+     * members, orphaned resources or masters changed.
+     */
+    public boolean isStructureChanged() {
+        return structureChanged;
+    }
+
+    public boolean isConstraintsChanged() {
+        return constraintsChanged;
+    }
+
+    private static boolean refersTo(final String refId, final Set<String> added, final Set<String> changed) {
+        return refId != null && (added.contains(refId) || changed.contains(refId));
+    }
+
+    /** Returns everything that the resource's parameters are set from. */
+    private static Map<String, List<Object>> getResources(final CibQuery query) {
+        final Set<String> ids = new HashSet<String>();
+        ids.addAll(nullToEmpty(query.getResourceParameters()).keySet());
+        ids.addAll(nullToEmpty(query.getResourceType()).keySet());
+        ids.addAll(nullToEmpty(query.getGroupsToResources()).keySet());
+        ids.addAll(nullToEmpty(query.getCloneToResource()).keySet());
+        final Map<String, Map<String, Value>> operations = getOperations(query.getOperations());
+        final Table<String, String, String> resHostToLocId = query.getResHostToLocId();
+        final Map<String, List<Object>> resources = new HashMap<String, List<Object>>();
+        for (final String id : ids) {
+            resources.put(id, Arrays.<Object>asList(
+                    nullToEmpty(query.getResourceParameters()).get(id),
+                    nullToEmpty(query.getResourceParametersNvpairsIds()).get(id),
+                    nullToEmpty(query.getResourceType()).get(id),
+                    nullToEmpty(query.getResourceInstanceAttrId()).get(id),
+                    query.getLocations().get(id),
+                    query.getPingLocations().get(id),
+                    query.getLocationsId().get(id),
+                    resHostToLocId.containsRow(id) ? resHostToLocId.row(id) : null,
+                    query.getResPingToLocId().get(id),
+                    operations.get(id),
+                    query.getOperationsRefs().get(id),
+                    query.getOperationsId().get(id),
+                    query.getResOpIds().get(id),
+                    query.getMetaAttrsId().get(id),
+                    query.getMetaAttrsRefs().get(id)));
+        }
+        return resources;
+    }
+
+    private static Map<String, Map<String, Value>> getOperations(final MultiKeyMap<String, Value> operations) {
+        final Map<String, Map<String, Value>> operationsById = new HashMap<String, Map<String, Value>>();
+        @SuppressWarnings("unchecked")
+        final Set<Map.Entry<MultiKey<String>, Value>> entries = operations.entrySet();
+        for (final Map.Entry<MultiKey<String>, Value> entry : entries) {
+            final MultiKey<String> key = entry.getKey();
+            final String id = key.getKey(0);
+            Map<String, Value> idOperations = operationsById.get(id);
+            if (idOperations == null) {
+                idOperations = new HashMap<String, Value>();
+                operationsById.put(id, idOperations);
+            }
+            idOperations.put(key.getKey(1) + '\0' + key.getKey(2), entry.getValue());
+        }
+        return operationsById;
+    }
+
+    /** Returns colocations, orders and resource sets as a string. */
+    private static String getConstraints(final CibQuery query) {
+        final StringBuilder constraints = new StringBuilder(1000);
+        for (final CrmXml.ColocationData data : query.getColocationId().values()) {
+            constraints.append("col:").append(data.getId())
+                       .append(' ').append(data.getRsc())
+                       .append(' ').append(data.getWithRsc())
+                       .append(' ').append(data.getRscRole())
+                       .append(' ').append(data.getWithRscRole())
+                       .append(' ').append(data.getScore()).append('\n');
+        }
+        for (final CrmXml.OrderData data : query.getOrderId().values()) {
+            constraints.append("ord:").append(data.getId())
+                       .append(' ').append(data.getRscFirst())
+                       .append(' ').append(data.getRscThen())
+                       .append(' ').append(data.getScore())
+                       .append(' ').append(data.getSymmetrical())
+                       .append(' ').append(data.getFirstAction())
+                       .append(' ').append(data.getThenAction()).append('\n');
+        }
+        for (final CrmXml.RscSetConnectionData data : query.getRscSetConnections()) {
+            constraints.append("set:").append(data.getConstraintId())
+                       .append(' ').append(data.isColocation());
+            appendRscSet(constraints, data.getRscSet1());
+            appendRscSet(constraints, data.getRscSet2());
+            constraints.append('\n');
+        }
+        return constraints.toString();
+    }
+
+    private static void appendRscSet(final StringBuilder constraints, final CrmXml.RscSet rscSet) {
+        if (rscSet == null) {
+            constraints.append(" null");
+            return;
+        }
+        constraints.append(" [").append(rscSet.getId())
+                   .append(' ').append(rscSet.getRscIds())
+                   .append(' ').append(rscSet.getSequential())
+                   .append(' ').append(rscSet.getRequireAll())
+                   .append(' ').append(rscSet.getOrderAction())
+                   .append(' ').append(rscSet.getColocationRole()).append(']');
+    }
+
+    private static <K, V> Map<K, V> nullToEmpty(final Map<K, V> map) {
+        if (map == null) {
+            return Collections.emptyMap();
+        }
+        return map;
+    }
+
+    private static Set<String> asSet(final Collection<String> collection) {
+        if (collection == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<String>(collection);
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.crm.domain;
+
+import java.io.StringWriter;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import lcmc.common.domain.XML;
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Keeps the last cib from the cluster events and applies the pacemaker v2
+ * patchsets (crm_diff) to it, so that the host doesn't have to send the
+ * whole cib on every change.
+ *
+ * The cib looks like &lt;pcmk&gt;&lt;fenced/&gt;&lt;cib/&gt;&lt;/pcmk&gt;
+ * and the patch like &lt;pcmk&gt;&lt;fenced/&gt;&lt;diff/&gt;&lt;/pcmk&gt;.
+ */
+final class CibPatch extends XML {
+    private static final Logger LOG = LoggerFactory.getLogger(CibPatch.class);
+    private static final String CIB_TAG = "cib";
+    private static final String FENCED_TAG = "fenced";
+    private static final String[] VERSION_ATTRS = {"admin_epoch", "epoch", "num_updates"};
+
+    private Document document;
+    private Element cib;
+
+    /** Returns false if the cib can't be parsed. */
+    boolean setCib(final String cibXml) {
+        document = getXMLDocument(cibXml);
+        cib = null;
+        if (document == null) {
+            return false;
+        }
+        final Node cibNode = getChildNode(document.getDocumentElement(), CIB_TAG);
+        if (cibNode == null) {
+            document = null;
+            return false;
+        }
+        cib = (Element) cibNode;
+        return true;
+    }
+
+    /**
+     * Applies the patch. Returns false if the patch doesn't follow the
+     * current cib, so that the whole cib must be fetched again. The patch
+     * that was already applied is ignored.
+     */
+    boolean apply(final String patchXml) {
+        if (document == null) {
+            return false;
+        }
+        final Document patchDocument = getXMLDocument(patchXml);
+        if (patchDocument == null) {
+            return false;
+        }
+        final Element pcmk = document.getDocumentElement();
+        final Node patchPcmk = patchDocument.getDocumentElement();
+        final Node oldFenced = getChildNode(pcmk, FENCED_TAG);
+        if (oldFenced != null) {
+            pcmk.removeChild(oldFenced);
+        }
+        final Node fenced = getChildNode(patchPcmk, FENCED_TAG);
+        if (fenced != null) {
+            pcmk.insertBefore(document.importNode(fenced, true), cib);
+        }
+        final Node diff = getChildNode(patchPcmk, "diff");
+        if (diff == null) {
+            return true;
+        }
+        if (!"2".equals(getAttribute(diff, "format"))) {
+            LOG.appWarning("apply: unsupported cib diff format: " + getAttribute(diff, "format"));
+            return false;
+        }
+        final Node version = getChildNode(diff, "version");
+        if (version == null) {
+            return false;
+        }
+        final Node source = getChildNode(version, "source");
+        final Node target = getChildNode(version, "target");
+        if (source == null || target == null) {
+            return false;
+        }
+        if (!isCurrentVersion(source)) {
+            if (isCurrentVersion(target)) {
+                return true;
+            }
+            LOG.debug1("apply: cib version gap: " + getVersion(cib) + " -> " + getVersion(source));
+            return false;
+        }
+        final NodeList changes = diff.getChildNodes();
+        for (int i = 0; i < changes.getLength(); i++) {
+            final Node change = changes.item(i);
+            if ("change".equals(change.getNodeName()) && !applyChange(change)) {
+                return false;
+            }
+        }
+        for (final String attr : VERSION_ATTRS) {
+            final String value = getAttribute(target, attr);
+            if (value != null) {
+                cib.setAttribute(attr, value);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current cib document, that is changed by the next
+     * {@link #apply(String)}.
+     */
+    Document getDocument() {
+        return document;
+    }
+
+    /** Returns the current cib serialized. */
+    String getCib() {
+        if (document == null) {
+            return null;
+        }
+        final StringWriter writer = new StringWriter();
+        try {
+            final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            transformer.transform(new DOMSource(document), new StreamResult(writer));
+        } catch (final TransformerException e) {
+            LOG.appError("getCib: could not serialize cib", e);
+            return null;
+        }
+        return writer.toString();
+    }
+
+    private boolean applyChange(final Node change) {
+        final String operation = getAttribute(change, "operation");
+        final String path = getAttribute(change, "path");
+        final Element element = findElement(path);
+        if (element == null) {
+            LOG.debug1("applyChange: path not found: " + operation + " " + path);
+            return false;
+        }
+        if ("create".equals(operation)) {
+            final Element child = getFirstElement(change);
+            if (child == null) {
+                return false;
+            }
+            insertAt(element, (Element) document.importNode(child, true), getPosition(change));
+        } else if ("delete".equals(operation)) {
+            if (element == cib) {
+                return false;
+            }
+            element.getParentNode().removeChild(element);
+        } else if ("modify".equals(operation)) {
+            final Node changeList = getChildNode(change, "change-list");
+            if (changeList == null) {
+                return true;
+            }
+            final NodeList attrs = changeList.getChildNodes();
+            for (int i = 0; i < attrs.getLength(); i++) {
+                final Node attr = attrs.item(i);
+                if (!"change-attr".equals(attr.getNodeName())) {
+                    continue;
+                }
+                final String name = getAttribute(attr, "name");
+                if ("unset".equals(getAttribute(attr, "operation"))) {
+                    element.removeAttribute(name);
+                } else {
+                    element.setAttribute(name, getAttribute(attr, "value"));
+                }
+            }
+        } else if ("move".equals(operation)) {
+            if (element == cib) {
+                return false;
+            }
+            final Element parent = (Element) element.getParentNode();
+            parent.removeChild(element);
+            insertAt(parent, element, getPosition(change));
+        } else {
+            LOG.appWarning("applyChange: unknown operation: " + operation);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the element from the pacemaker path, e.g.
+     * /cib/configuration/resources/primitive[@id='res_Dummy_1'].
+     */
+    private Element findElement(final String path) {
+        if (path == null) {
+            return null;
+        }
+        Element element = null;
+        int pos = 0;
+        final int length = path.length();
+        while (pos < length) {
+            if (path.charAt(pos) != '/') {
+                return null;
+            }
+            int end = pos + 1;
+            while (end < length && path.charAt(end) != '/' && path.charAt(end) != '[') {
+                end++;
+            }
+            final String tag = path.substring(pos + 1, end);
+            String id = null;
+            if (end < length && path.charAt(end) == '[') {
+                if (!path.startsWith("[@id=", end) || end + 6 >= length) {
+                    return null;
+                }
+                final char quote = path.charAt(end + 5);
+                final int idEnd = path.indexOf(quote + "]", end + 6);
+                if (idEnd < 0) {
+                    return null;
+                }
+                id = path.substring(end + 6, idEnd);
+                end = idEnd + 2;
+            }
+            if (element == null) {
+                if (!CIB_TAG.equals(tag)) {
+                    return null;
+                }
+                element = cib;
+            } else {
+                element = getChildElement(element, tag, id);
+                if (element == null) {
+                    return null;
+                }
+            }
+            pos = end;
+        }
+        return element;
+    }
+
+    private Element getChildElement(final Node parent, final String tag, final String id) {
+        final NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE
+                && tag.equals(child.getNodeName())
+                && (id == null || id.equals(getAttribute(child, "id")))) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    private Element getFirstElement(final Node parent) {
+        final NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    /** Inserts the element at the position among the element children. */
+    private void insertAt(final Element parent, final Element element, final int position) {
+        final NodeList children = parent.getChildNodes();
+        int elementPos = 0;
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if (elementPos == position) {
+                parent.insertBefore(element, child);
+                return;
+            }
+            elementPos++;
+        }
+        parent.appendChild(element);
+    }
+
+    private int getPosition(final Node change) {
+        final String position = getAttribute(change, "position");
+        if (position == null) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            return Integer.parseInt(position);
+        } catch (final NumberFormatException e) {
+            LOG.appWarning("getPosition: could not parse position: " + position);
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private boolean isCurrentVersion(final Node version) {
+        for (final String attr : VERSION_ATTRS) {
+            final String value = getAttribute(version, attr);
+            final String current = cib.getAttribute(attr);
+            if (value == null ? !current.isEmpty() : !value.equals(current)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getVersion(final Node node) {
+        final StringBuilder version = new StringBuilder();
+        for (final String attr : VERSION_ATTRS) {
+            if (version.length() > 0) {
+                version.append('.');
+            }
+            version.append(getAttribute(node, attr));
+        }
+        return version.toString();
+    }
+}
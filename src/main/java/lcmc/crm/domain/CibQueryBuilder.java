@@ -0,0 +1,754 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.crm.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import lcmc.common.domain.StringValue;
+import lcmc.common.domain.Value;
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+import org.apache.commons.collections15.map.MultiKeyMap;
+
+/**
+ * Maps the elements of the cib query to the CibQuery object. The DOM parser
+ * and the streaming parser only walk the xml and pass the attributes of the
+ * elements here, in the order they come in the cib.
+ *
+ * An instance is used for one query only.
+ */
+final class CibQueryBuilder {
+    private static final Logger LOG = LoggerFactory.getLogger(CibQueryBuilder.class);
+    private static final Pattern CLONE_INSTANCE_PATTERN = Pattern.compile("(.*):(\\d+)$");
+    private static final String GROUP_NONE = "none";
+
+    private final CrmXml crmXml;
+    private final ConstraintAttrs constraintAttrs;
+
+    private String dcUuid = null;
+    private String dc = null;
+    private final Set<String> fencedNodes = new HashSet<String>();
+    private Map<String, String> crmConfMap = null;
+    private String rscDefaultsId = null;
+    private final Map<String, String> rscDefaultsParams = new HashMap<String, String>();
+    private final Map<String, String> rscDefaultsParamsNvpairIds = new HashMap<String, String>();
+    private final Map<String, Value> opDefaultsParams = new HashMap<String, Value>();
+    private final Table<String, String, String> nodeParametersMap = HashBasedTable.create();
+    private final Map<String, String> nodeOnline = new HashMap<String, String>();
+    private final Map<String, String> nodeID = new HashMap<String, String>();
+    private final Set<String> nodePending = new HashSet<String>();
+
+    private final Map<String, Map<String, String>> parametersMap = new HashMap<String, Map<String, String>>();
+    private final Map<String, Map<String, String>> parametersNvpairsIdsMap =
+                                                                        new HashMap<String, Map<String, String>>();
+    private final Map<String, ResourceAgent> resourceTypeMap = new HashMap<String, ResourceAgent>();
+    private final Set<String> orphanedList = new HashSet<String>();
+    /* host -> inLRMList list */
+    private final Map<String, Set<String>> inLRMList = new HashMap<String, Set<String>>();
+    private final Map<String, String> resourceInstanceAttrIdMap = new HashMap<String, String>();
+    private final MultiKeyMap<String, Value> operationsMap = new MultiKeyMap<String, Value>();
+    private final Map<String, String> metaAttrsIdMap = new HashMap<String, String>();
+    private final Map<String, String> operationsIdMap = new HashMap<String, String>();
+    private final Map<String, Map<String, String>> resOpIdsMap = new HashMap<String, Map<String, String>>();
+    /* must be linked, so that clone from group is before the group itself. */
+    private final Map<String, List<String>> groupsToResourcesMap = new LinkedHashMap<String, List<String>>();
+    private final Map<String, String> cloneToResourceMap = new HashMap<String, String>();
+    private final List<String> masterList = new ArrayList<String>();
+    private final Table<String, String, String> failedMap = HashBasedTable.create();
+    private final Table<String, String, Set<String>> failedClonesMap = HashBasedTable.create();
+    private final Map<String, String> pingCountMap = new HashMap<String, String>();
+    private final Map<String, String> operationsIdRefs = new HashMap<String, String>();
+    private final Map<String, String> operationsIdtoCRMId = new HashMap<String, String>();
+    private final Map<String, String> metaAttrsIdRefs = new HashMap<String, String>();
+    private final Map<String, String> metaAttrsIdToCRMId = new HashMap<String, String>();
+
+    private final Map<String, CrmXml.ColocationData> colocationIdMap =
+                                                                new LinkedHashMap<String, CrmXml.ColocationData>();
+    private final Map<String, List<CrmXml.ColocationData>> colocationRscMap =
+                                                                new HashMap<String, List<CrmXml.ColocationData>>();
+    private final Map<String, CrmXml.OrderData> orderIdMap = new LinkedHashMap<String, CrmXml.OrderData>();
+    private final Map<String, List<CrmXml.RscSet>> orderIdRscSetsMap = new HashMap<String, List<CrmXml.RscSet>>();
+    private final Map<String, List<CrmXml.RscSet>> colocationIdRscSetsMap =
+                                                                        new HashMap<String, List<CrmXml.RscSet>>();
+    private final List<CrmXml.RscSetConnectionData> rscSetConnections = new ArrayList<CrmXml.RscSetConnectionData>();
+    private final Map<String, List<CrmXml.OrderData>> orderRscMap = new HashMap<String, List<CrmXml.OrderData>>();
+    private final Map<String, Map<String, HostLocation>> locationMap = new HashMap<String, Map<String, HostLocation>>();
+    private final Map<String, HostLocation> pingLocationMap = new HashMap<String, HostLocation>();
+    private final Map<String, List<String>> locationsIdMap = new HashMap<String, List<String>>();
+    private final Table<String, String, String> resHostToLocIdMap = HashBasedTable.create();
+    private final Map<String, String> resPingToLocIdMap = new HashMap<String, String>();
+
+    CibQueryBuilder(final CrmXml crmXml, final boolean beforePacemaker) {
+        this.crmXml = crmXml;
+        constraintAttrs = new ConstraintAttrs(beforePacemaker);
+        groupsToResourcesMap.put(GROUP_NONE, new ArrayList<String>());
+    }
+
+    /** Returns the names of the constraint attributes for this pacemaker. */
+    ConstraintAttrs getConstraintAttrs() {
+        return constraintAttrs;
+    }
+
+    /** Returns the CibQuery with the cluster properties only. */
+    CibQuery buildCrmConfig() {
+        final CibQuery cibQueryData = new CibQuery();
+        if (crmConfMap == null) {
+            LOG.appWarning("buildCrmConfig: there is no cluster_property_set node");
+        } else {
+            cibQueryData.setCrmConfig(crmConfMap);
+        }
+        return cibQueryData;
+    }
+
+    /** Returns the CibQuery with everything that was added. */
+    CibQuery build() {
+        final CibQuery cibQueryData = buildCrmConfig();
+        /* operationsRefs crm id -> crm id */
+        final Map<String, String> operationsRefs = new HashMap<String, String>();
+        for (final Map.Entry<String, String> idRefEntry : operationsIdRefs.entrySet()) {
+            operationsRefs.put(idRefEntry.getKey(), operationsIdtoCRMId.get(idRefEntry.getValue()));
+        }
+
+        /* mettaAttrsRefs crm id -> crm id */
+        final Map<String, String> metaAttrsRefs = new HashMap<String, String>();
+        for (final Map.Entry<String, String> idRefEntry : metaAttrsIdRefs.entrySet()) {
+            metaAttrsRefs.put(idRefEntry.getKey(), metaAttrsIdToCRMId.get(idRefEntry.getValue()));
+        }
+
+        cibQueryData.setDC(dc);
+        cibQueryData.setNodeParameters(nodeParametersMap);
+        cibQueryData.setResourceParameters(parametersMap);
+        cibQueryData.setResourceParametersNvpairsIds(parametersNvpairsIdsMap);
+        cibQueryData.setResourceType(resourceTypeMap);
+        cibQueryData.setInLRM(inLRMList);
+        cibQueryData.setOrphaned(orphanedList);
+        cibQueryData.setResourceInstanceAttrId(resourceInstanceAttrIdMap);
+
+        cibQueryData.setColocationRsc(colocationRscMap);
+        cibQueryData.setColocationId(colocationIdMap);
+
+        cibQueryData.setOrderId(orderIdMap);
+        cibQueryData.setOrderIdRscSets(orderIdRscSetsMap);
+        cibQueryData.setColocationIdRscSets(colocationIdRscSetsMap);
+        cibQueryData.setRscSetConnections(rscSetConnections);
+        cibQueryData.setOrderRsc(orderRscMap);
+
+        cibQueryData.setLocations(locationMap);
+        cibQueryData.setPingLocations(pingLocationMap);
+        cibQueryData.setLocationsId(locationsIdMap);
+        cibQueryData.setResHostToLocId(resHostToLocIdMap);
+        cibQueryData.setResPingToLocId(resPingToLocIdMap);
+        cibQueryData.setOperations(operationsMap);
+        cibQueryData.setOperationsId(operationsIdMap);
+        cibQueryData.setOperationsRefs(operationsRefs);
+        cibQueryData.setMetaAttrsId(metaAttrsIdMap);
+        cibQueryData.setMetaAttrsRefs(metaAttrsRefs);
+        cibQueryData.setResOpIds(resOpIdsMap);
+        cibQueryData.setNodeOnline(nodeOnline);
+        cibQueryData.setNodePending(nodePending);
+        cibQueryData.setGroupsToResources(groupsToResourcesMap);
+        cibQueryData.setCloneToResource(cloneToResourceMap);
+        cibQueryData.setMasterList(masterList);
+        cibQueryData.setNodeFailedCount(failedMap);
+        cibQueryData.setResourceFailedCloneIds(failedClonesMap);
+        cibQueryData.setNodePingCount(pingCountMap);
+        cibQueryData.setRscDefaultsId(rscDefaultsId);
+        cibQueryData.setRscDefaultsParams(rscDefaultsParams);
+        cibQueryData.setRscDefaultsParamsNvpairIds(rscDefaultsParamsNvpairIds);
+        cibQueryData.setOpDefaultsParams(opDefaultsParams);
+        cibQueryData.setFencedNodes(fencedNodes);
+        return cibQueryData;
+    }
+
+    /** <node> in <fenced>. */
+    void addFencedNode(final String node) {
+        if (node != null) {
+            fencedNodes.add(node.toLowerCase(Locale.US));
+        }
+    }
+
+    /** Designated Co-ordinator from the <cib> node. */
+    void setDcUuid(final String dcUuid) {
+        this.dcUuid = dcUuid;
+    }
+
+    /** <meta_attributes> in <rsc_defaults>. */
+    void setRscDefaults(final String metaAttrsId, final Iterable<Nvpair> nvpairs) {
+        rscDefaultsId = metaAttrsId;
+        /* target-role and is-managed */
+        for (final Nvpair nvpair : nvpairs) {
+            rscDefaultsParams.put(nvpair.getName(), metaAttrValue(nvpair));
+            rscDefaultsParamsNvpairIds.put(nvpair.getName(), nvpair.getId());
+        }
+    }
+
+    /** <meta_attributes> in <op_defaults>. */
+    void setOpDefaults(final Iterable<Nvpair> nvpairs) {
+        for (final Nvpair nvpair : nvpairs) {
+            opDefaultsParams.put(nvpair.getName(), crmXml.parseValue(nvpair.getName(), nvpair.getValue()));
+        }
+    }
+
+    /** <cluster_property_set> in <crm_config>. */
+    void setCrmConfig(final Iterable<Nvpair> nvpairs) {
+        crmConfMap = new HashMap<String, String>();
+        for (final Nvpair nvpair : nvpairs) {
+            crmConfMap.put(nvpair.getName(), nvpair.getValue());
+        }
+    }
+
+    /** <node> in <nodes> with its instance attributes, like if it is in stand by. */
+    void addNode(final String id, final String uname, final Iterable<Nvpair> instanceAttrs) {
+        if (!nodeID.containsKey(uname)) {
+            nodeID.put(uname, id);
+        }
+        if (dcUuid != null && dcUuid.equals(id)) {
+            dc = uname;
+        }
+        final String unameLowerCase = uname.toLowerCase(Locale.US);
+        for (final Nvpair nvpair : instanceAttrs) {
+            nodeParametersMap.put(unameLowerCase, nvpair.getName(), nvpair.getValue());
+        }
+        if (!nodeOnline.containsKey(unameLowerCase)) {
+            nodeOnline.put(unameLowerCase, "no");
+        }
+    }
+
+    /** Returns the list of the resources, that are not in a group or clone. */
+    List<String> getUngroupedResources() {
+        return groupsToResourcesMap.get(GROUP_NONE);
+    }
+
+    /**
+     * Adds the primitive to the resource list of its group, clone or to the
+     * ungrouped resources. Returns null, if the primitive uses a template,
+     * that is not implemented.
+     */
+    Resource addPrimitive(final String crmId,
+                          final String templateId,
+                          final String raClass,
+                          final String raProvider,
+                          final String type,
+                          final Collection<String> resList) {
+        if (templateId != null) {
+            LOG.info("addPrimitive: templates not implemented, ignoring: " + crmId + '/' + templateId);
+            return null;
+        }
+        String provider = raProvider;
+        if (provider == null) {
+            provider = ResourceAgent.HEARTBEAT_PROVIDER;
+        }
+        resourceTypeMap.put(crmId, crmXml.getResourceAgent(type, provider, raClass));
+        resList.add(crmId);
+        return new Resource(crmId, ResourceAgent.STONITH_CLASS_NAME.equals(raClass), false);
+    }
+
+    /** Adds the group, to the clone, if the resource list of the clone is set. */
+    Resource addGroup(final String groupId, final Collection<String> cloneResList) {
+        final Resource group = new Resource(groupId, false, true);
+        if (cloneResList != null) {
+            cloneResList.add(groupId);
+        }
+        group.getResources();
+        return group;
+    }
+
+    /** Adds the clone or master/slave resource. */
+    Resource addClone(final String cloneId) {
+        final Resource clone = new Resource(cloneId, false, false);
+        clone.getResources();
+        return clone;
+    }
+
+    /** Sets the first resource of the clone, after all its resources were added. */
+    void finishClone(final Resource clone, final boolean master) {
+        final List<String> resList = clone.getResources();
+        if (!resList.isEmpty()) {
+            cloneToResourceMap.put(clone.crmId, resList.get(0));
+            if (master) {
+                masterList.add(clone.crmId);
+            }
+        }
+    }
+
+    /** Starts the resource sets of the colocation or order. */
+    ResourceSets startResourceSets(final String colId, final String ordId) {
+        return new ResourceSets(colId, ordId);
+    }
+
+    /**
+     * <rsc_colocation>. The resource sets are null, if it is between two
+     * resources.
+     */
+    void addColocation(final String colId,
+                       final String rsc,
+                       final String withRsc,
+                       final String rscRole,
+                       final String withRscRole,
+                       final String score,
+                       final List<CrmXml.RscSet> rscSets) {
+        if (rscSets != null) {
+            colocationIdRscSetsMap.put(colId, rscSets);
+        }
+        final CrmXml.ColocationData colocationData =
+                                        new CrmXml.ColocationData(colId, rsc, withRsc, rscRole, withRscRole, score);
+        colocationIdMap.put(colId, colocationData);
+        List<CrmXml.ColocationData> withs = colocationRscMap.get(rsc);
+        if (withs == null) {
+            withs = new ArrayList<CrmXml.ColocationData>();
+        }
+        withs.add(colocationData);
+        colocationRscMap.put(rsc, withs);
+    }
+
+    /**
+     * <rsc_order>. The resource sets are null, if it is between two
+     * resources.
+     */
+    void addOrder(final String ordId,
+                  final String first,
+                  final String then,
+                  final String score,
+                  final String symmetrical,
+                  final String firstAct,
+                  final String thenAct,
+                  final String type,
+                  final List<CrmXml.RscSet> rscSets) {
+        if (rscSets != null) {
+            orderIdRscSetsMap.put(ordId, rscSets);
+        }
+        String rscFirst = first;
+        String rscThen = then;
+        String firstAction = firstAct;
+        String thenAction = thenAct;
+        if ("before".equals(type)) {
+            /* exchange resoruces */
+            rscFirst = then;
+            rscThen = first;
+            firstAction = thenAct;
+            thenAction = firstAct;
+        }
+        final CrmXml.OrderData orderData = new CrmXml.OrderData(ordId,
+                                                                rscFirst,
+                                                                rscThen,
+                                                                score,
+                                                                symmetrical,
+                                                                firstAction,
+                                                                thenAction);
+        orderIdMap.put(ordId, orderData);
+        List<CrmXml.OrderData> thens = orderRscMap.get(rscFirst);
+        if (thens == null) {
+            thens = new ArrayList<CrmXml.OrderData>();
+        }
+        thens.add(orderData);
+        orderRscMap.put(rscFirst, thens);
+    }
+
+    /** <rsc_location> with the node attribute. */
+    void addLocation(final String locId, final String node, final String rsc, final String score) {
+        List<String> locs = locationsIdMap.get(rsc);
+        if (locs == null) {
+            locs = new ArrayList<String>();
+            locationsIdMap.put(rsc, locs);
+        }
+        final Map<String, HostLocation> hostScoreMap = getHostScoreMap(rsc);
+        final String role = null; // TODO
+        if (node != null) {
+            resHostToLocIdMap.put(rsc, node.toLowerCase(Locale.US), locId);
+            if (score != null) {
+                hostScoreMap.put(node.toLowerCase(Locale.US), new HostLocation(score, "eq", null, role));
+            }
+        }
+        locs.add(locId);
+    }
+
+    /** The first <expression> of the first <rule> in the <rsc_location>. */
+    void addLocationRule(final String locId,
+                         final String rsc,
+                         final String score,
+                         final String booleanOp,
+                         final String attr,
+                         final String op,
+                         final String value) {
+        final String role = null; // TODO
+        // TODO: I know only "and", ignoring everything we
+        // don't know.
+        if ((booleanOp == null || "and".equals(booleanOp)) && "#uname".equals(attr) && value != null) {
+            getHostScoreMap(rsc).put(value.toLowerCase(Locale.US), new HostLocation(score, op, null, role));
+            resHostToLocIdMap.put(rsc, value.toLowerCase(Locale.US), locId);
+        } else if ((booleanOp == null || "and".equals(booleanOp)) && "pingd".equals(attr)) {
+            pingLocationMap.put(rsc, new HostLocation(score, op, value, null));
+            resPingToLocIdMap.put(rsc, locId);
+        } else {
+            LOG.appWarning("addLocationRule: could not parse rsc_location: " + locId);
+        }
+    }
+
+    /**
+     * <node_state>. Returns false, if the node is not in the <nodes> and is
+     * skipped.
+     */
+    boolean addNodeState(final String uname,
+                         final String id,
+                         final String join,
+                         final String inCCM,
+                         final String crmd) {
+        if (uname == null || !id.equals(nodeID.get(uname))) {
+            LOG.appWarning("addNodeState: skipping " + uname + ' ' + id);
+            return false;
+        }
+        final String unameLowerCase = uname.toLowerCase(Locale.US);
+        if ("member".equals(join) && "true".equals(inCCM) && !"offline".equals(crmd)) {
+            nodeOnline.put(unameLowerCase, "yes");
+        } else {
+            nodeOnline.put(unameLowerCase, "no");
+        }
+        if ("pending".equals(join)) {
+            nodePending.add(unameLowerCase);
+        }
+        return true;
+    }
+
+    /**
+     * <instance_attributes> in <transient_attributes> of the node state. They
+     * must be added before the lrm resources of the node, so that the failed
+     * clone ids keep their order.
+     */
+    void setTransientAttributes(final String uname, final Iterable<Nvpair> nvpairs) {
+        for (final Nvpair nvpair : nvpairs) {
+            final String name = nvpair.getName();
+            final String value = nvpair.getValue();
+            /* TODO: last-failure-" */
+            if ("pingd".equals(name)) {
+                pingCountMap.put(uname, value);
+            } else if (name.indexOf(CrmXml.FAIL_COUNT_PREFIX) == 0) {
+                final String resId = name.substring(CrmXml.FAIL_COUNT_PREFIX.length());
+                final String unameLowerCase = uname.toLowerCase(Locale.US);
+                failedMap.put(unameLowerCase, resId, value);
+                final Matcher m = CLONE_INSTANCE_PATTERN.matcher(resId);
+                if (m.matches()) {
+                    final String crmId = m.group(1);
+                    addFailedClone(unameLowerCase, crmId, m.group(2));
+                    failedMap.put(unameLowerCase, crmId, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * <lrm_resource> of the node state. The resources, that are not in the
+     * configuration, are orphaned.
+     */
+    void addLrmResource(final String uname,
+                        final String resId,
+                        final String raClass,
+                        final String raProvider,
+                        final String type) {
+        final String unameLowerCase = uname.toLowerCase(Locale.US);
+        final Matcher m = CLONE_INSTANCE_PATTERN.matcher(resId);
+        final String crmId;
+        if (m.matches()) {
+            crmId = m.group(1);
+            addFailedClone(unameLowerCase, crmId, m.group(2));
+        } else {
+            crmId = resId;
+        }
+        if (!resourceTypeMap.containsKey(crmId)) {
+            String provider = raProvider;
+            if (provider == null) {
+                provider = ResourceAgent.HEARTBEAT_PROVIDER;
+            }
+            resourceTypeMap.put(crmId, crmXml.getResourceAgent(type, provider, raClass));
+            getUngroupedResources().add(crmId);
+            parametersMap.put(crmId, new HashMap<String, String>());
+            orphanedList.add(crmId);
+        }
+        /* it is in LRM */
+        Set<String> inLRMOnHost = inLRMList.get(unameLowerCase);
+        if (inLRMOnHost == null) {
+            inLRMOnHost = new HashSet<String>();
+            inLRMList.put(unameLowerCase, inLRMOnHost);
+        }
+        inLRMOnHost.add(crmId);
+    }
+
+    private Map<String, HostLocation> getHostScoreMap(final String rsc) {
+        Map<String, HostLocation> hostScoreMap = locationMap.get(rsc);
+        if (hostScoreMap == null) {
+            hostScoreMap = new HashMap<String, HostLocation>();
+            locationMap.put(rsc, hostScoreMap);
+        }
+        return hostScoreMap;
+    }
+
+    private void addFailedClone(final String unameLowerCase, final String crmId, final String cloneNumber) {
+        Set<String> clones = failedClonesMap.get(unameLowerCase, crmId);
+        if (clones == null) {
+            clones = new LinkedHashSet<String>();
+            failedClonesMap.put(unameLowerCase, crmId, clones);
+        }
+        clones.add(cloneNumber);
+    }
+
+    /** Returns meta attribute value, target-role is always in lower case. */
+    private static String metaAttrValue(final Nvpair nvpair) {
+        if (CrmXml.TARGET_ROLE_META_ATTR.equals(nvpair.getName())) {
+            return nvpair.getValue().toLowerCase(Locale.US);
+        }
+        return nvpair.getValue();
+    }
+
+    /**
+     * Instance attributes, operations and meta attributes of a primitive,
+     * group or clone.
+     */
+    final class Resource {
+        private final String crmId;
+        private final boolean stonith;
+        private final boolean group;
+        private final Map<String, String> params = new HashMap<String, String>();
+        private final Map<String, String> nvpairIds = new HashMap<String, String>();
+        private Map<String, String> opIds = null;
+
+        private Resource(final String crmId, final boolean stonith, final boolean group) {
+            this.crmId = crmId;
+            this.stonith = stonith;
+            this.group = group;
+            parametersMap.put(crmId, params);
+            parametersNvpairsIdsMap.put(crmId, nvpairIds);
+        }
+
+        /** Returns the resources of the group or clone. */
+        List<String> getResources() {
+            List<String> resList = groupsToResourcesMap.get(crmId);
+            if (resList == null) {
+                resList = new ArrayList<String>();
+                groupsToResourcesMap.put(crmId, resList);
+            }
+            return resList;
+        }
+
+        /** <instance_attributes>, the groups don't have them. */
+        void setInstanceAttributes(final String instanceAttrsId, final Iterable<Nvpair> nvpairs) {
+            resourceInstanceAttrIdMap.put(crmId, instanceAttrsId);
+            for (final Nvpair nvpair : nvpairs) {
+                String name = nvpair.getName();
+                if (stonith && "priority".equals(name)) {
+                    /* so it does not clash with meta attr priority */
+                    name = CrmXml.STONITH_PRIORITY_INSTANCE_ATTR;
+                }
+                params.put(name, nvpair.getValue());
+                nvpairIds.put(name, nvpair.getId());
+            }
+        }
+
+        /** <operations id-ref="..."/> */
+        void setOperationsIdRef(final String operationsIdRef) {
+            operationsIdRefs.put(crmId, operationsIdRef);
+        }
+
+        /** <operations id="...">, the <op>s are added after it. */
+        void setOperationsId(final String operationsId) {
+            operationsIdMap.put(crmId, operationsId);
+            operationsIdtoCRMId.put(operationsId, crmId);
+            opIds = new HashMap<String, String>();
+            resOpIdsMap.put(crmId, opIds);
+        }
+
+        /** <op> */
+        void addOperation(final String opId,
+                          final String name,
+                          final String timeout,
+                          final String interval,
+                          final String startDelay) {
+            operationsMap.put(crmId, name, "interval", crmXml.parseValue("interval", interval));
+            operationsMap.put(crmId, name, "timeout", crmXml.parseValue("timeout", timeout));
+            operationsMap.put(crmId, name, "start-delay", crmXml.parseValue("startDelay", startDelay));
+            opIds.put(name, opId);
+        }
+
+        /**
+         * OCF_CHECK_LEVEL from the first nvpair in the instance attributes of
+         * the monitor op. The nvpair is null, if there is none.
+         */
+        void setCheckLevel(final String opName, final Nvpair nvpair) {
+            String checkLevel = "";
+            if (nvpair != null) {
+                if (CrmXml.PARAM_OCF_CHECK_LEVEL.equals(nvpair.getName())) {
+                    checkLevel = nvpair.getValue();
+                } else {
+                    LOG.appWarning("setCheckLevel: unexpected instance attribute: "
+                                   + nvpair.getName() + ' ' + nvpair.getValue());
+                }
+            }
+            operationsMap.put(crmId, opName, CrmXml.PARAM_OCF_CHECK_LEVEL, new StringValue(checkLevel));
+        }
+
+        /** <meta_attributes id-ref="..."/> */
+        void setMetaAttrsIdRef(final String metaAttrsIdRef) {
+            metaAttrsIdRefs.put(crmId, metaAttrsIdRef);
+        }
+
+        /** <meta_attributes id="...">, target-role, is-managed etc. */
+        void setMetaAttributes(final String metaAttrsId, final Iterable<Nvpair> nvpairs) {
+            metaAttrsIdMap.put(crmId, metaAttrsId);
+            metaAttrsIdToCRMId.put(metaAttrsId, crmId);
+            for (final Nvpair nvpair : nvpairs) {
+                String name = nvpair.getName();
+                if (group && "ordered".equals(name)) {
+                    name = CrmXml.GROUP_ORDERED_META_ATTR;
+                }
+                params.put(name, metaAttrValue(nvpair));
+                nvpairIds.put(name, nvpair.getId());
+            }
+        }
+    }
+
+    /** <resource_set>s of one colocation or order. */
+    final class ResourceSets {
+        private final String colId;
+        private final String ordId;
+        private final List<CrmXml.RscSet> rscSets = new ArrayList<CrmXml.RscSet>();
+        private CrmXml.RscSet prevRscSet = null;
+        private int ordPos = 0;
+        private int colPos = 0;
+
+        private ResourceSets(final String colId, final String ordId) {
+            this.colId = colId;
+            this.ordId = ordId;
+        }
+
+        void add(final String id,
+                 final List<String> rscIds,
+                 final String sequential,
+                 final String requireAll,
+                 final String orderAction,
+                 final String colocationRole) {
+            final CrmXml.RscSet rscSet =
+                                 new CrmXml.RscSet(id, rscIds, sequential, requireAll, orderAction, colocationRole);
+            rscSets.add(rscSet);
+            if (prevRscSet != null) {
+                final CrmXml.RscSetConnectionData rscSetConnectionData;
+                if (colId == null) {
+                    /* order */
+                    rscSetConnectionData = new CrmXml.RscSetConnectionData(prevRscSet, rscSet, ordId, ordPos, false);
+                    ordPos++;
+                    rscSetConnections.add(0, rscSetConnectionData);
+                } else {
+                    /* colocation */
+                    rscSetConnectionData = new CrmXml.RscSetConnectionData(rscSet, prevRscSet, colId, colPos, true);
+                    colPos++;
+                    rscSetConnections.add(rscSetConnectionData);
+                }
+            }
+            prevRscSet = rscSet;
+        }
+
+        /** Returns the resource sets, after all of them were added. */
+        List<CrmXml.RscSet> finish() {
+            if (rscSets.size() == 1) {
+                /* just one, dangling */
+                final CrmXml.RscSetConnectionData rscSetConnectionData;
+                if (colId == null) {
+                    /* order */
+                    rscSetConnectionData = new CrmXml.RscSetConnectionData(prevRscSet, null, ordId, ordPos, false);
+                } else {
+                    /* colocation */
+                    rscSetConnectionData = new CrmXml.RscSetConnectionData(prevRscSet, null, colId, colPos, true);
+                }
+                rscSetConnections.add(rscSetConnectionData);
+            }
+            return rscSets;
+        }
+    }
+
+    /** Names of the colocation and order attributes, they were different til 2.1.4. */
+    static final class ConstraintAttrs {
+        final String rsc;
+        final String rscRole;
+        final String withRsc;
+        final String withRscRole;
+        final String first;
+        final String then;
+        final String firstAction;
+        final String thenAction;
+
+        private ConstraintAttrs(final boolean beforePacemaker) {
+            if (beforePacemaker) {
+                rsc         = "from";
+                rscRole     = "from_role";
+                withRsc     = "to";
+                withRscRole = "to_role";
+                first       = "to";
+                then        = "from";
+                firstAction = "to_action";
+                thenAction  = "action";
+            } else {
+                rsc         = "rsc";
+                rscRole     = "rsc-role";
+                withRsc     = "with-rsc";
+                withRscRole = "with-rsc-role";
+                first       = "first";
+                then        = "then";
+                firstAction = "first-action";
+                thenAction  = "then-action";
+            }
+        }
+    }
+
+    /** <nvpair id="..." name="..." value="..."/> */
+    static final class Nvpair {
+        private final String id;
+        private final String name;
+        private final String value;
+
+        Nvpair(final String id, final String name, final String value) {
+            this.id = id;
+            this.name = name;
+            this.value = value;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.crm.domain;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+
+/**
+ * Parses the cib query in one pass with a StAX reader and fills the CibQuery
+ * object without building the DOM document first. The elements are mapped
+ * to the CibQuery in the CibQueryBuilder, the same way as in the DOM parser.
+ *
+ * Every parse method is called with the reader on the start tag of its
+ * element and returns with the reader on the matching end tag. Where the DOM
+ * parser takes only the first child with the given name, the first one is
+ * taken here too. The cib must have the configuration before the status
+ * section, as cibadmin always prints it.
+ *
+ * An instance is used for one query only.
+ */
+final class CibStreamParser {
+    private static final Logger LOG = LoggerFactory.getLogger(CibStreamParser.class);
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            return factory;
+        }
+    };
+
+    private final CibQueryBuilder builder;
+    /** <attributes> inside of the attribute sets, only til 2.1.4. */
+    private final boolean beforePacemaker;
+    private XMLStreamReader reader;
+
+    private boolean cibFound = false;
+    private boolean configurationFound = false;
+    private boolean crmConfigFound = false;
+    private boolean resourcesFound = false;
+
+    CibStreamParser(final CrmXml crmXml, final boolean beforePacemaker) {
+        this.beforePacemaker = beforePacemaker;
+        builder = new CibQueryBuilder(crmXml, beforePacemaker);
+    }
+
+    /** Returns CibQuery object with information from the cib node. */
+    CibQuery parse(final String query) {
+        final String xml = query == null ? "" : query.trim();
+        if (xml.isEmpty() || "no resources defined!".equals(xml)) {
+            LOG.appWarning("parse: cib error: " + query);
+            return new CibQuery();
+        }
+        try {
+            reader = INPUT_FACTORY.get().createXMLStreamReader(new StringReader(xml));
+            try {
+                /* get root <pacemaker> */
+                if (!nextRoot() || !"pcmk".equals(reader.getLocalName())) {
+                    LOG.appWarning("parse: there is no pcmk node");
+                    return new CibQuery();
+                }
+                parsePcmk();
+            } finally {
+                reader.close();
+            }
+        } catch (final XMLStreamException e) {
+            LOG.appError("parse: could not parse: " + xml, e);
+            return new CibQuery();
+        }
+
+        if (!cibFound) {
+            LOG.appWarning("parse: there is no cib node");
+            return new CibQuery();
+        }
+        if (!configurationFound) {
+            LOG.appWarning("parse: there is no configuration node");
+            return new CibQuery();
+        }
+        if (!crmConfigFound) {
+            LOG.appWarning("parse: there is no crm_config node");
+            return new CibQuery();
+        }
+        if (!resourcesFound) {
+            LOG.appWarning("parse: there is no resources node");
+            return builder.buildCrmConfig();
+        }
+        return builder.build();
+    }
+
+    /** <pcmk> with <fenced> nodes and the <cib>. */
+    private void parsePcmk() throws XMLStreamException {
+        boolean fencedFound = false;
+        while (nextChild()) {
+            final String name = reader.getLocalName();
+            if (!fencedFound && "fenced".equals(name)) {
+                fencedFound = true;
+                while (nextChild()) {
+                    if ("node".equals(reader.getLocalName())) {
+                        builder.addFencedNode(reader.getElementText());
+                    } else {
+                        skipElement();
+                    }
+                }
+            } else if (!cibFound && "cib".equals(name)) {
+                cibFound = true;
+                parseCib();
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseCib() throws XMLStreamException {
+        /* Designated Co-ordinator */
+        builder.setDcUuid(attribute("dc-uuid"));
+        boolean statusFound = false;
+        while (nextChild()) {
+            final String name = reader.getLocalName();
+            if (!configurationFound && "configuration".equals(name)) {
+                configurationFound = true;
+                parseConfiguration();
+            } else if (!statusFound && "status".equals(name)) {
+                statusFound = true;
+                parseStatus();
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseConfiguration() throws XMLStreamException {
+        boolean rscDefaultsFound = false;
+        boolean opDefaultsFound = false;
+        boolean nodesFound = false;
+        boolean constraintsFound = false;
+        while (nextChild()) {
+            final String name = reader.getLocalName();
+            if (!rscDefaultsFound && "rsc_defaults".equals(name)) {
+                rscDefaultsFound = true;
+                parseResourceDefaults();
+            } else if (!opDefaultsFound && "op_defaults".equals(name)) {
+                opDefaultsFound = true;
+                parseOpDefaults();
+            } else if (!crmConfigFound && "crm_config".equals(name)) {
+                crmConfigFound = true;
+                parseCrmConfig();
+            } else if (!nodesFound && "nodes".equals(name)) {
+                nodesFound = true;
+                parseNodes();
+            } else if (!resourcesFound && "resources".equals(name)) {
+                resourcesFound = true;
+                parseResources();
+            } else if (!constraintsFound && "constraints".equals(name)) {
+                constraintsFound = true;
+                parseConstraints();
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseResourceDefaults() throws XMLStreamException {
+        boolean metaAttrsFound = false;
+        while (nextChild()) {
+            if (!metaAttrsFound && "meta_attributes".equals(reader.getLocalName())) {
+                metaAttrsFound = true;
+                final String metaAttrsId = attribute("id");
+                builder.setRscDefaults(metaAttrsId, readNvpairs());
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseOpDefaults() throws XMLStreamException {
+        boolean metaAttrsFound = false;
+        while (nextChild()) {
+            if (!metaAttrsFound && "meta_attributes".equals(reader.getLocalName())) {
+                metaAttrsFound = true;
+                builder.setOpDefaults(readNvpairs());
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseCrmConfig() throws XMLStreamException {
+        boolean clusterPropertySetFound = false;
+        while (nextChild()) {
+            if (!clusterPropertySetFound && "cluster_property_set".equals(reader.getLocalName())) {
+                clusterPropertySetFound = true;
+                builder.setCrmConfig(readNvpairs());
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseNodes() throws XMLStreamException {
+        while (nextChild()) {
+            if ("node".equals(reader.getLocalName())) {
+                final String id = attribute("id");
+                final String uname = attribute("uname");
+                builder.addNode(id, uname, readNodeInstanceAttributes());
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    /** Reads the instance attributes of the node, like if it is in stand by. */
+    private List<CibQueryBuilder.Nvpair> readNodeInstanceAttributes() throws XMLStreamException {
+        List<CibQueryBuilder.Nvpair> nvpairs = Collections.emptyList();
+        boolean instanceAttrsFound = false;
+        while (nextChild()) {
+            if (!instanceAttrsFound && "instance_attributes".equals(reader.getLocalName())) {
+                instanceAttrsFound = true;
+                nvpairs = readNvpairs();
+            } else {
+                skipElement();
+            }
+        }
+        return nvpairs;
+    }
+
+    private void parseResources() throws XMLStreamException {
+        while (nextChild()) {
+            final String name = reader.getLocalName();
+            if ("primitive".equals(name)) {
+                parsePrimitive(builder.getUngroupedResources());
+            } else if ("group".equals(name)) {
+                parseGroup(null);
+            } else if ("master".equals(name) || "master_slave".equals(name) || "clone".equals(name)) {
+                parseClone(name);
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseClone(final String nodeName) throws XMLStreamException {
+        final CibQueryBuilder.Resource clone = builder.addClone(attribute("id"));
+        final ResourceChildren children = new ResourceChildren(clone, false);
+        while (nextChild()) {
+            final String name = reader.getLocalName();
+            if ("primitive".equals(name)) {
+                parsePrimitive(clone.getResources());
+            } else if ("group".equals(name)) {
+                parseGroup(clone.getResources());
+            } else {
+                children.parseChild(name);
+            }
+        }
+        builder.finishClone(clone, "master".equals(nodeName) || "master_slave".equals(nodeName));
+    }
+
+    private void parseGroup(final Collection<String> cloneResList) throws XMLStreamException {
+        final CibQueryBuilder.Resource group = builder.addGroup(attribute("id"), cloneResList);
+        final ResourceChildren children = new ResourceChildren(group, true);
+        while (nextChild()) {
+            final String name = reader.getLocalName();
+            if ("primitive".equals(name)) {
+                parsePrimitive(group.getResources());
+            } else if ("meta_attributes".equals(name)) {
+                children.parseChild(name);
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parsePrimitive(final Collection<String> resList) throws XMLStreamException {
+        final CibQueryBuilder.Resource primitive = builder.addPrimitive(attribute("id"),
+                                                                        attribute("template"),
+                                                                        attribute("class"),
+                                                                        attribute("provider"),
+                                                                        attribute("type"),
+                                                                        resList);
+        if (primitive == null) {
+            skipElement();
+            return;
+        }
+        final ResourceChildren children = new ResourceChildren(primitive, false);
+        while (nextChild()) {
+            children.parseChild(reader.getLocalName());
+        }
+    }
+
+    private void parseConstraints() throws XMLStreamException {
+        final CibQueryBuilder.ConstraintAttrs attrs = builder.getConstraintAttrs();
+        while (nextChild()) {
+            final String name = reader.getLocalName();
+            if ("rsc_colocation".equals(name)) {
+                final String colId = attribute("id");
+                final String rsc = attribute(attrs.rsc);
+                final String withRsc = attribute(attrs.withRsc);
+                final String rscRole = attribute(attrs.rscRole);
+                final String withRscRole = attribute(attrs.withRscRole);
+                final String score = attribute(CrmXml.SCORE_CONSTRAINT_PARAM);
+                List<CrmXml.RscSet> rscSets = null;
+                if (rsc == null || withRsc == null) {
+                    rscSets = parseResourceSets(builder.startResourceSets(colId, null));
+                } else {
+                    skipElement();
+                }
+                builder.addColocation(colId, rsc, withRsc, rscRole, withRscRole, score, rscSets);
+            } else if ("rsc_order".equals(name)) {
+                final String ordId = attribute("id");
+                final String rscFirst = attribute(attrs.first);
+                final String rscThen = attribute(attrs.then);
+                final String score = attribute(CrmXml.SCORE_CONSTRAINT_PARAM);
+                final String symmetrical = attribute("symmetrical");
+                final String firstAction = attribute(attrs.firstAction);
+                final String thenAction = attribute(attrs.thenAction);
+                final String type = attribute("type");
+                List<CrmXml.RscSet> rscSets = null;
+                if (rscFirst == null || rscThen == null) {
+                    rscSets = parseResourceSets(builder.startResourceSets(null, ordId));
+                } else {
+                    skipElement();
+                }
+                builder.addOrder(ordId,
+                                 rscFirst,
+                                 rscThen,
+                                 score,
+                                 symmetrical,
+                                 firstAction,
+                                 thenAction,
+                                 type,
+                                 rscSets);
+            } else if ("rsc_location".equals(name)) {
+                parseLocation();
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseLocation() throws XMLStreamException {
+        final String locId = attribute("id");
+        final String rsc = attribute("rsc");
+        builder.addLocation(locId, attribute("node"), rsc, attribute(CrmXml.SCORE_CONSTRAINT_PARAM));
+        boolean ruleFound = false;
+        while (nextChild()) {
+            if (ruleFound || !"rule".equals(reader.getLocalName())) {
+                skipElement();
+                continue;
+            }
+            ruleFound = true;
+            final String score = attribute(CrmXml.SCORE_CONSTRAINT_PARAM);
+            final String booleanOp = attribute("boolean-op");
+            boolean expressionFound = false;
+            while (nextChild()) {
+                if (!expressionFound && "expression".equals(reader.getLocalName())) {
+                    expressionFound = true;
+                    builder.addLocationRule(locId,
+                                            rsc,
+                                            score,
+                                            booleanOp,
+                                            attribute("attribute"),
+                                            attribute("operation"),
+                                            attribute("value"));
+                }
+                skipElement();
+            }
+        }
+    }
+
+    private List<CrmXml.RscSet> parseResourceSets(final CibQueryBuilder.ResourceSets rscSets)
+        throws XMLStreamException {
+        while (nextChild()) {
+            if (!"resource_set".equals(reader.getLocalName())) {
+                skipElement();
+                continue;
+            }
+            final String id = attribute("id");
+            final String sequential = attribute("sequential");
+            final String requireAll = attribute(CrmXml.REQUIRE_ALL_ATTR);
+            final String orderAction = attribute("action");
+            final String colocationRole = attribute("role");
+            final List<String> rscIds = new ArrayList<String>();
+            while (nextChild()) {
+                if ("resource_ref".equals(reader.getLocalName())) {
+                    rscIds.add(attribute("id"));
+                }
+                skipElement();
+            }
+            rscSets.add(id, rscIds, sequential, requireAll, orderAction, colocationRole);
+        }
+        return rscSets.finish();
+    }
+
+    private void parseStatus() throws XMLStreamException {
+        while (nextChild()) {
+            if ("node_state".equals(reader.getLocalName())) {
+                parseNodeState();
+            } else {
+                skipElement();
+            }
+        }
+    }
+
+    private void parseNodeState() throws XMLStreamException {
+        final String uname = attribute("uname");
+        if (!builder.addNodeState(uname, attribute("id"), attribute("join"), attribute("in_ccm"), attribute("crmd"))) {
+            skipElement();
+            return;
+        }
+        /* lrm resources are added after all the transient attributes, like in
+         * the DOM parser, so that the failed clone ids keep their order. */
+        final List<String[]> lrmResources = new ArrayList<String[]>();
+        while (nextChild()) {
+            final String name = reader.getLocalName();
+            if ("transient_attributes".equals(name)) {
+                parseTransientAttributes(uname);
+            } else if ("lrm".equals(name)) {
+                readLrmResources(lrmResources);
+            } else {
+                skipElement();
+            }
+        }
+        for (final String[] lrmResource : lrmResources) {
+            builder.addLrmResource(uname, lrmResource[0], lrmResource[1], lrmResource[2], lrmResource[3]);
+        }
+    }
+
+    private void parseTransientAttributes(final String uname) throws XMLStreamException {
+        boolean instanceAttrsFound = false;
+        while (nextChild()) {
+            if (instanceAttrsFound || !"instance_attributes".equals(reader.getLocalName())) {
+                skipElement();
+                continue;
+            }
+            instanceAttrsFound = true;
+            builder.setTransientAttributes(uname, readNvpairs());
+        }
+    }
+
+    /** Collects id, class, provider and type of the <lrm_resource>s. */
+    private void readLrmResources(final Collection<String[]> lrmResources) throws XMLStreamException {
+        boolean lrmResourcesFound = false;
+        while (nextChild()) {
+            if (lrmResourcesFound || !"lrm_resources".equals(reader.getLocalName())) {
+                skipElement();
+                continue;
+            }
+            lrmResourcesFound = true;
+            while (nextChild()) {
+                if ("lrm_resource".equals(reader.getLocalName())) {
+                    lrmResources.add(new String[]{attribute("id"),
+                                                  attribute("class"),
+                                                  attribute("provider"),
+                                                  attribute("type")});
+                }
+                skipElement();
+            }
+        }
+    }
+
+    /**
+     * Reads the <nvpair>s of the current attribute set, that is left on its
+     * end tag.
+     */
+    private List<CibQueryBuilder.Nvpair> readNvpairs() throws XMLStreamException {
+        final List<CibQueryBuilder.Nvpair> nvpairs = new ArrayList<CibQueryBuilder.Nvpair>();
+        boolean attributesFound = false;
+        while (nextChild()) {
+            if (!beforePacemaker) {
+                addNvpair(nvpairs);
+            } else if (!attributesFound && "attributes".equals(reader.getLocalName())) {
+                attributesFound = true;
+                while (nextChild()) {
+                    addNvpair(nvpairs);
+                }
+            } else {
+                skipElement();
+            }
+        }
+        return nvpairs;
+    }
+
+    private void addNvpair(final Collection<CibQueryBuilder.Nvpair> nvpairs) throws XMLStreamException {
+        if ("nvpair".equals(reader.getLocalName())) {
+            nvpairs.add(readNvpair());
+        }
+        skipElement();
+    }
+
+    private CibQueryBuilder.Nvpair readNvpair() {
+        return new CibQueryBuilder.Nvpair(attribute("id"), attribute("name"), attribute("value"));
+    }
+
+    private String attribute(final String name) {
+        return reader.getAttributeValue(null, name);
+    }
+
+    /** Moves to the root element. */
+    private boolean nextRoot() throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the start tag of the next child element, or to the end tag of
+     * the current element, in which case it returns false.
+     */
+    private boolean nextChild() throws XMLStreamException {
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Moves to the end tag of the current element. */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Reads the instance attributes, operations and meta attributes of a
+     * primitive, group or clone. Only the first of each is taken.
+     */
+    private final class ResourceChildren {
+        private final CibQueryBuilder.Resource resource;
+        /** Groups have meta attributes only. */
+        private final boolean group;
+        private boolean instanceAttrsFound = false;
+        private boolean operationsFound = false;
+        private boolean metaAttrsFound = false;
+
+        ResourceChildren(final CibQueryBuilder.Resource resource, final boolean group) {
+            this.resource = resource;
+            this.group = group;
+        }
+
+        /** Parses the child element of the resource with the given name. */
+        void parseChild(final String name) throws XMLStreamException {
+            if (!instanceAttrsFound && !group && "instance_attributes".equals(name)) {
+                instanceAttrsFound = true;
+                final String instanceAttrsId = attribute("id");
+                resource.setInstanceAttributes(instanceAttrsId, readNvpairs());
+            } else if (!operationsFound && !group && "operations".equals(name)) {
+                operationsFound = true;
+                parseOperations();
+            } else if (!metaAttrsFound && "meta_attributes".equals(name)) {
+                metaAttrsFound = true;
+                parseMetaAttributes();
+            } else {
+                skipElement();
+            }
+        }
+
+        private void parseOperations() throws XMLStreamException {
+            final String operationsIdRef = attribute("id-ref");
+            if (operationsIdRef != null) {
+                resource.setOperationsIdRef(operationsIdRef);
+                skipElement();
+                return;
+            }
+            resource.setOperationsId(attribute("id"));
+            /* <op> */
+            while (nextChild()) {
+                if (!"op".equals(reader.getLocalName())) {
+                    skipElement();
+                    continue;
+                }
+                final String name = attribute("name");
+                resource.addOperation(attribute("id"),
+                                      name,
+                                      attribute("timeout"),
+                                      attribute("interval"),
+                                      attribute("start-delay"));
+                if ("monitor".equals(name)) {
+                    resource.setCheckLevel(name, readCheckLevelNvpair());
+                } else {
+                    skipElement();
+                }
+            }
+        }
+
+        /** Returns the first nvpair in the instance attributes of the op or null. */
+        private CibQueryBuilder.Nvpair readCheckLevelNvpair() throws XMLStreamException {
+            CibQueryBuilder.Nvpair nvpair = null;
+            boolean instanceAttrsOfOpFound = false;
+            while (nextChild()) {
+                if (instanceAttrsOfOpFound || !"instance_attributes".equals(reader.getLocalName())) {
+                    skipElement();
+                    continue;
+                }
+                instanceAttrsOfOpFound = true;
+                while (nextChild()) {
+                    if (nvpair == null && "nvpair".equals(reader.getLocalName())) {
+                        nvpair = readNvpair();
+                    }
+                    skipElement();
+                }
+            }
+            return nvpair;
+        }
+
+        private void parseMetaAttributes() throws XMLStreamException {
+            final String metaAttrsIdRef = attribute("id-ref");
+            if (metaAttrsIdRef != null) {
+                resource.setMetaAttrsIdRef(metaAttrsIdRef);
+                skipElement();
+                return;
+            }
+            final String metaAttrsId = attribute("id");
+            resource.setMetaAttributes(metaAttrsId, readNvpairs());
+        }
+    }
+}
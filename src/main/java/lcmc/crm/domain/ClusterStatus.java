@@ -25,12 +25,16 @@ package lcmc.crm.domain;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Table;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import lcmc.common.domain.Application;
 import lcmc.host.domain.Host;
 import lcmc.common.domain.Value;
@@ -40,6 +44,7 @@ import lcmc.logger.LoggerFactory;
 import lcmc.common.domain.util.Tools;
 import lcmc.cluster.service.ssh.ExecCommandConfig;
 import lcmc.cluster.service.ssh.SshOutput;
+import lcmc.crm.service.CRM;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -51,6 +56,8 @@ import javax.inject.Named;
 @Named
 public final class ClusterStatus {
     private static final Logger LOG = LoggerFactory.getLogger(ClusterStatus.class);
+    /** How many ptest results are kept. */
+    private static final int PTEST_CACHE_SIZE = 20;
     private volatile CibQuery cibQuery = new CibQuery();
     private volatile CibQuery shadowCibQuery = new CibQuery();
     private CrmXml crmXML;
@@ -58,8 +65,24 @@ public final class ClusterStatus {
     private volatile Map<String, CrmXml.ResourceStatus> resStateMap = null;
     private volatile PtestData ptestResult = null;
     private String oldStatus = null;
+    /** Last cib, null if it is only in the patched cib document. */
     private String oldCib = null;
+    /** Last cib as a document, that the cib patches are applied to. */
+    private CibPatch cibPatch = null;
+    /** A cib patch didn't apply, the whole cib must be fetched. */
+    private boolean cibResyncNeeded = false;
+    /** The whole cib is being fetched, the cib patches are ignored. */
+    private boolean cibResyncPending = false;
+    /** Changes since the last {@link #takeCibChanges()}, null if all. */
+    private CibChanges cibChanges = null;
     private boolean oldAdvancedMode = false;
+    /** Ptest results by the digest of the cib and the test changes. */
+    private final Map<String, PtestResult> ptestCache = new LinkedHashMap<String, PtestResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, PtestResult> eldest) {
+            return size() > PTEST_CACHE_SIZE;
+        }
+    };
     private Host host;
     @Inject
     private Application application;
@@ -458,15 +481,9 @@ public final class ClusterStatus {
                     return true;
                 }
             } else if ("cibadmin".equals(cmd)) {
-                final String cib = Tools.join("\n", data.toArray(new String[data.size()]));
-                final boolean advancedMode = application.isAdvancedMode();
-                if (!cib.equals(oldCib) || oldAdvancedMode != advancedMode) {
-                    LOG.debug1("parseCommand: cib update: " + host.getName());
-                    oldCib = cib;
-                    oldAdvancedMode = advancedMode;
-                    parseCibQuery(cib);
-                    return true;
-                }
+                return updateCib(Tools.join("\n", data.toArray(new String[data.size()])));
+            } else if ("cibpatch".equals(cmd)) {
+                return applyCibPatch(Tools.join("\n", data.toArray(new String[data.size()])));
             }
         } else {
             LOG.appError("parseCommand: unknown command: " + command);
@@ -522,26 +539,184 @@ public final class ClusterStatus {
         return updated;
     }
 
+    private synchronized boolean updateCib(final String cib) {
+        cibPatch = null;
+        cibResyncPending = false;
+        final boolean advancedMode = application.isAdvancedMode();
+        if (!cib.equals(oldCib) || oldAdvancedMode != advancedMode) {
+            LOG.debug1("updateCib: cib update: " + host.getName());
+            oldCib = cib;
+            setCibQuery(crmXML.parseCibQuery(cib), oldAdvancedMode != advancedMode);
+            oldAdvancedMode = advancedMode;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Applies the patch to the last cib document and maps the document to
+     * the cib query, without serializing and parsing the cib again. If the
+     * patch doesn't follow the last cib, the patches are ignored, till the
+     * whole cib is fetched again, see {@link #takeCibResync()}.
+     */
+    private synchronized boolean applyCibPatch(final String patch) {
+        if (cibResyncPending) {
+            return false;
+        }
+        if (cibPatch == null && oldCib != null) {
+            cibPatch = new CibPatch();
+            if (!cibPatch.setCib(oldCib)) {
+                cibPatch = null;
+            }
+        }
+        if (cibPatch == null || !cibPatch.apply(patch)) {
+            LOG.debug1("applyCibPatch: cib out of sync, the whole cib must be fetched: " + host.getName());
+            cibPatch = null;
+            cibResyncNeeded = true;
+            cibResyncPending = true;
+            return false;
+        }
+        oldCib = null;
+        final boolean advancedMode = application.isAdvancedMode();
+        setCibQuery(crmXML.parseCibQuery(cibPatch.getDocument()), oldAdvancedMode != advancedMode);
+        oldAdvancedMode = advancedMode;
+        return true;
+    }
+
+    /**
+     * Returns true once after a cib patch didn't apply. The whole cib must
+     * be then fetched with {@link #fetchCib()}.
+     */
+    public synchronized boolean takeCibResync() {
+        final boolean resync = cibResyncNeeded;
+        cibResyncNeeded = false;
+        return resync;
+    }
+
+    /**
+     * Fetches the whole cib and returns it as a status for
+     * {@link #parseStatus(String)}, or null if it failed. It waits for the
+     * command, so it must not run in the status output callback.
+     */
+    public String fetchCib() {
+        final String command = host.getDistCommand("Heartbeat.getClusterInfo", (ConvertCmdCallback) null);
+        final SshOutput ret = host.captureCommand(new ExecCommandConfig().command(command)
+                                                                         .silentCommand()
+                                                                         .silentOutput());
+        synchronized (this) {
+            cibResyncPending = false;
+        }
+        if (ret.getExitCode() != 0) {
+            LOG.appWarning("fetchCib: could not get the cib from " + host.getName());
+            return null;
+        }
+        return ret.getOutput();
+    }
+
+    /** Returns the last cib, serialized from the cib document if it was patched. */
+    private synchronized String getCib() {
+        if (oldCib == null && cibPatch != null) {
+            oldCib = cibPatch.getCib();
+        }
+        return oldCib;
+    }
+
     private void parseResStatus(final String resStatus) {
         resStateMap = crmXML.parseResStatus(resStatus);
     }
 
-    private void parseCibQuery(final String query) {
-        cibQuery = crmXML.parseCibQuery(query);
+    /**
+     * Sets the new cib query and remembers, what changed. If allChanged is
+     * true, all resources must be updated.
+     */
+    private synchronized void setCibQuery(final CibQuery newCibQuery, final boolean allChanged) {
+        if (allChanged) {
+            cibChanges = null;
+        } else {
+            cibChanges = CibChanges.merge(cibChanges, CibChanges.compute(cibQuery, newCibQuery));
+        }
+        cibQuery = newCibQuery;
+    }
+
+    /**
+     * Returns the cib changes since the last call, or null if all resources
+     * must be updated.
+     */
+    public synchronized CibChanges takeCibChanges() {
+        final CibChanges changes = cibChanges;
+        cibChanges = CibChanges.NONE;
+        return changes;
     }
 
     public void setPtestResult(final PtestData ptestResult) {
-        this.ptestResult = ptestResult;
         if (ptestResult == null) {
             shadowCibQuery = new CibQuery();
         } else {
-            shadowCibQuery = crmXML.parseCibQuery(
-                "<pcmk>" + ptestResult.getShadowCib() + "</pcmk>");
+            shadowCibQuery = parseShadowCib(ptestResult);
+        }
+        this.ptestResult = ptestResult;
+    }
+
+    /**
+     * Runs the ptest with the test changes, that were made since the last
+     * ptest, and sets its result. The same changes on the same cib don't
+     * run again, their result and the parsed shadow cib come from the cache.
+     */
+    public PtestData runPtest(final Host dcHost) {
+        final List<String> changes = CRM.getTestChanges(dcHost);
+        final String key = getPtestKey(getCib(), dcHost.getName(), changes);
+        PtestResult result;
+        synchronized (ptestCache) {
+            result = ptestCache.get(key);
+        }
+        if (result == null) {
+            final PtestData ptestData = new PtestData(CRM.getPtest(dcHost));
+            result = new PtestResult(ptestData, parseShadowCib(ptestData));
+            if (ptestData.getShadowCib() != null) {
+                synchronized (ptestCache) {
+                    ptestCache.put(key, result);
+                }
+            }
+        } else {
+            LOG.debug1("runPtest: cached result: " + dcHost.getName() + ", changes: " + changes.size());
+            CRM.discardTestChanges(dcHost);
         }
+        shadowCibQuery = result.shadowCibQuery;
+        ptestResult = result.ptestData;
+        return result.ptestData;
+    }
+
+    /** Returns digest of the cib and of the test changes on the host. */
+    static String getPtestKey(final String cib, final String hostName, final List<String> changes) {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(cib == null ? "" : cib, Charsets.UTF_8).putChar('\0');
+        hasher.putString(hostName, Charsets.UTF_8).putChar('\0');
+        for (final String change : changes) {
+            hasher.putString(change, Charsets.UTF_8).putChar('\0');
+        }
+        return hasher.hash().toString();
+    }
+
+    private CibQuery parseShadowCib(final PtestData ptestData) {
+        if (ptestData.getShadowCib() == null) {
+            return new CibQuery();
+        }
+        return crmXML.parseCibQuery("<pcmk>" + ptestData.getShadowCib() + "</pcmk>");
     }
 
     /** Return last known raw cib. */
     public String getCibXml() {
-        return oldCib;
+        return getCib();
+    }
+
+    /** Ptest result with its parsed shadow cib. */
+    private static final class PtestResult {
+        private final PtestData ptestData;
+        private final CibQuery shadowCibQuery;
+
+        PtestResult(final PtestData ptestData, final CibQuery shadowCibQuery) {
+            this.ptestData = ptestData;
+            this.shadowCibQuery = shadowCibQuery;
+        }
     }
 }
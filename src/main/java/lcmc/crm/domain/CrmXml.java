@@ -22,18 +22,15 @@
 
 package lcmc.crm.domain;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -96,7 +93,9 @@ public final class CrmXml extends XML {
     private static final String PARAM_TYPE_LABEL = "label";
     private static final String PARAM_TYPE_STRING = "string";
     private static final String PARAM_TYPE_TIME = "time";
-    private static final String FAIL_COUNT_PREFIX = "fail-count-";
+    /** More changed agents than this are fetched all at once. */
+    private static final int MAX_SELECTED_AGENTS = 50;
+    static final String FAIL_COUNT_PREFIX = "fail-count-";
     private static final Value[] ATTRIBUTE_ROLES = {new StringValue(),
                                                     new StringValue("Stopped"),
                                                     new StringValue("Started")};
@@ -142,7 +141,7 @@ public final class CrmXml extends XML {
     private static final String MIGRATION_THRESHOLD_META_ATTR = "migration-threshold";
     private static final String FAILURE_TIMEOUT_META_ATTR = "failure-timeout";
     private static final String MULTIPLE_ACTIVE_META_ATTR = "multiple-active";
-    private static final String TARGET_ROLE_META_ATTR = "target-role";
+    static final String TARGET_ROLE_META_ATTR = "target-role";
     private static final String IS_MANAGED_META_ATTR = "is-managed";
     private static final String ALLOW_MIGRATE_META_ATTR = "allow-migrate";
     private static final String MASTER_MAX_META_ATTR = "master-max";
@@ -425,6 +424,9 @@ public final class CrmXml extends XML {
     private final List<Value> stonithHostlistChoices = new ArrayList<Value>();
     private Map<String, String> metaAttrParams = null;
     private Map<String, String> resourceDefaultsMetaAttrs = null;
+    private ResourceAgentMetaDataCache metaDataCache = null;
+    /** Checksums of the agents on the host, by "class:provider:name". */
+    private Map<String, String> agentChecksums = Collections.emptyMap();
 
     public void init(final Host host, final ServicesInfo allServicesInfo) {
         this.host = host;
@@ -725,12 +727,20 @@ public final class CrmXml extends XML {
         groupResourceAgent.setMetaDataLoaded(true);
 
         initResourceAgentsWithoutMetaData();
-        initOCFMetaDataConfigured();
+        final Collection<String> agentsToLoad = initOCFMetaDataFromCache();
+        if (agentsToLoad == null) {
+            initOCFMetaDataConfigured();
+        } else if (!agentsToLoad.isEmpty()) {
+            initOCFMetaDataSelected(agentsToLoad);
+        }
         LOG.debug("CRMXML: cluster loaded");
         final Thread t = new Thread(new Runnable() {
             @Override
             public void run() {
-                initOCFMetaDataAll();
+                if (agentsToLoad == null) {
+                    initOCFMetaDataAll();
+                }
+                saveMetaDataCache();
                 final String hn = host.getName();
                 final String text = Tools.getString("CRMXML.GetRAMetaData.Done");
                 guiData.startProgressIndicator(hn, text);
@@ -851,6 +861,106 @@ public final class CrmXml extends XML {
                                           (ConvertCmdCallback) null));
     }
 
+    /**
+     * Initialize resource agents with the meta data from the cache, if they
+     * didn't change on the host. Returns agents, that must be loaded from
+     * the host, or null, if all of them must be loaded.
+     */
+    private Collection<String> initOCFMetaDataFromCache() {
+        final SshOutput ret = host.captureCommand(
+                                 new ExecCommandConfig().command(host.getDistCommand("Heartbeat.getOCFChecksums",
+                                                                                     (ConvertCmdCallback) null))
+                                                        .silentCommand()
+                                                        .silentOutput()
+                                                        .sshCommandTimeout(60000));
+        if (ret.getExitCode() != 0 || ret.getOutput() == null) {
+            LOG.debug1("initOCFMetaDataFromCache: agent checksums not available");
+            return null;
+        }
+        final Map<String, String> checksums = new HashMap<String, String>();
+        String versions = null;
+        String resourceClass = null;
+        String provider = null;
+        for (final String line : ret.getOutput().split("\\r?\\n")) {
+            if (line.startsWith("versions:")) {
+                versions = line.substring(9).trim();
+            } else if (line.startsWith("class:")) {
+                resourceClass = line.substring(6).trim();
+            } else if (line.startsWith("provider:")) {
+                provider = line.substring(9).trim();
+            } else if (line.startsWith("ra-sum:")) {
+                final String[] nameAndChecksum = line.substring(7).trim().split(" ");
+                if (nameAndChecksum.length == 2) {
+                    checksums.put(ResourceAgentMetaDataCache.getKey(resourceClass, provider, nameAndChecksum[0]),
+                                  nameAndChecksum[1]);
+                }
+            }
+        }
+        if (versions == null) {
+            return null;
+        }
+        agentChecksums = checksums;
+        metaDataCache = new ResourceAgentMetaDataCache(
+                new File(Tools.getDefault("CrmXml.MetaDataCacheDir"),
+                         host.getName().replaceAll("[^\\w.-]", "_") + ".cache"));
+        metaDataCache.load();
+        if (!versions.equals(metaDataCache.getVersions())) {
+            LOG.debug1("initOCFMetaDataFromCache: agent packages changed");
+            metaDataCache.setVersions(versions);
+            return null;
+        }
+        final Collection<String> agentsToLoad = new ArrayList<String>();
+        int cached = 0;
+        for (final String raClass : new String[]{ResourceAgent.OCF_CLASS_NAME, ResourceAgent.STONITH_CLASS_NAME}) {
+            final List<ResourceAgent> resourceAgents = classToServicesMap.get(raClass);
+            if (resourceAgents == null) {
+                continue;
+            }
+            for (final ResourceAgent ra : resourceAgents) {
+                if (ra.isMetaDataLoaded()) {
+                    continue;
+                }
+                final String key = ResourceAgentMetaDataCache.getKey(raClass,
+                                                                     ra.getProvider(),
+                                                                     ra.getServiceName());
+                final ResourceAgentMetaDataCache.Entry entry = metaDataCache.get(key, checksums.get(key));
+                if (entry == null) {
+                    agentsToLoad.add(key);
+                } else {
+                    parseMetaDataAndFillHashes(ra.getServiceName(),
+                                               ra.getProvider(),
+                                               entry.getXml(),
+                                               entry.isMasterSlave());
+                    cached++;
+                }
+            }
+        }
+        LOG.debug1("initOCFMetaDataFromCache: cached: " + cached + ", to load: " + agentsToLoad.size());
+        if (agentsToLoad.size() > MAX_SELECTED_AGENTS) {
+            return null;
+        }
+        return agentsToLoad;
+    }
+
+    /** Initialize resource agents with their meta data, only the passed ones. */
+    private void initOCFMetaDataSelected(final Collection<String> agents) {
+        final String agentList = Tools.join(" ", agents.toArray(new String[agents.size()]));
+        initOCFResourceAgentsWithMetaData(host.getDistCommand("Heartbeat.getOCFParametersSelected",
+                                                              new ConvertCmdCallback() {
+                                                                  @Override
+                                                                  public String convert(final String command) {
+                                                                      return command.replace("@AGENTS@", agentList);
+                                                                  }
+                                                              }));
+    }
+
+    private void saveMetaDataCache() {
+        if (metaDataCache != null) {
+            metaDataCache.retainAll(agentChecksums.keySet());
+            metaDataCache.save();
+        }
+    }
+
     private void initOCFResourceAgentsWithMetaData(final String command) {
         final SshOutput ret = host.captureCommand(new ExecCommandConfig().command(command)
                                                                          .silentCommand()
@@ -864,12 +974,14 @@ public final class CrmXml extends XML {
             return;
         }
         final String[] lines = output.split("\\r?\\n");
+        final Pattern cp = Pattern.compile("^class:\\s*(.*?)\\s*$");
         final Pattern pp = Pattern.compile("^provider:\\s*(.*?)\\s*$");
         final Pattern mp = Pattern.compile("^master:\\s*(.*?)\\s*$");
         final Pattern bp = Pattern.compile("<resource-agent.*\\s+name=\"(.*?)\".*");
         final Pattern sp = Pattern.compile("^ra-name:\\s*(.*?)\\s*$");
         final Pattern ep = Pattern.compile("</resource-agent>");
         final StringBuilder xml = new StringBuilder("");
+        String resourceClass = null;
         String provider = null;
         String serviceName = null;
         boolean nextRA = false;
@@ -880,6 +992,11 @@ public final class CrmXml extends XML {
             ...
             </resource-agent>
             */
+            final Matcher cm = cp.matcher(line);
+            if (cm.matches()) {
+                resourceClass = cm.group(1);
+                continue;
+            }
             final Matcher pm = pp.matcher(line);
             if (pm.matches()) {
                 provider = pm.group(1);
@@ -905,6 +1022,7 @@ public final class CrmXml extends XML {
                 final Matcher m2 = ep.matcher(line);
                 if (m2.matches()) {
                     parseMetaDataAndFillHashes(serviceName, provider, xml.toString(), masterSlave);
+                    cacheMetaData(resourceClass, provider, serviceName, xml.toString(), masterSlave);
                     serviceName = null;
                     nextRA = false;
                     xml.delete(0, xml.length());
@@ -916,6 +1034,21 @@ public final class CrmXml extends XML {
         }
     }
 
+    private void cacheMetaData(final String resourceClass,
+                               final String provider,
+                               final String serviceName,
+                               final String xml,
+                               final boolean masterSlave) {
+        if (metaDataCache == null) {
+            return;
+        }
+        final String key = ResourceAgentMetaDataCache.getKey(resourceClass, provider, serviceName);
+        final String checksum = agentChecksums.get(key);
+        if (checksum != null) {
+            metaDataCache.put(key, checksum, masterSlave, xml);
+        }
+    }
+
     /** Returns choices for check box. (True, False). */
     public Value[] getCheckBoxChoices(final ResourceAgent resourceAgent, final String param) {
         final String paramDefault = getDefaultValue(resourceAgent, param);
@@ -1885,114 +2018,56 @@ public final class CrmXml extends XML {
         return cloneResourceAgent;
     }
 
-    String parseResourceDefaults(final Node rscDefaultsNode,
-                                 final Map<String, String> rscDefaultsParams,
-                                 final Map<String, String> rscDefaultsParamsNvpairIds) {
-        
-        /* <meta_attributtes> */
-        final Node metaAttrsNode = getChildNode(rscDefaultsNode, "meta_attributes");
-        String rscDefaultsId = null;
-        if (metaAttrsNode != null) {
-            rscDefaultsId = getAttribute(metaAttrsNode, "id");
-            final NodeList nvpairsMA;
-            if (Tools.versionBeforePacemaker(host)) {
-                /* <attributtes> only til 2.1.4 */
-                final Node attrsNode = getChildNode(metaAttrsNode, "attributes");
-                nvpairsMA = attrsNode.getChildNodes();
-            } else {
-                nvpairsMA = metaAttrsNode.getChildNodes();
-            }
-            /* <nvpair...> */
-            /* target-role and is-managed */
-            for (int l = 0; l < nvpairsMA.getLength(); l++) {
-                final Node maNode = nvpairsMA.item(l);
-                if (maNode.getNodeName().equals("nvpair")) {
-                    final String nvpairId = getAttribute(maNode, "id");
-                    final String name = getAttribute(maNode, "name");
-                    String value = getAttribute(maNode, "value");
-                    if (TARGET_ROLE_META_ATTR.equals(name)) {
-                        value = value.toLowerCase(Locale.US);
-                    }
-                    rscDefaultsParams.put(name, value);
-                    rscDefaultsParamsNvpairIds.put(name, nvpairId);
-                }
+    /** Parses the clone or master/slave resource with its primitive or group. */
+    private void parseCloneNode(final CibQueryBuilder builder, final Node cloneNode, final boolean master) {
+        final CibQueryBuilder.Resource clone = builder.addClone(getAttribute(cloneNode, "id"));
+        parseResourceAttributes(clone, cloneNode);
+        final NodeList primitives = cloneNode.getChildNodes();
+        for (int j = 0; j < primitives.getLength(); j++) {
+            final Node primitiveNode = primitives.item(j);
+            if (primitiveNode.getNodeName().equals("primitive")) {
+                parsePrimitiveNode(builder, primitiveNode, clone.getResources());
+            } else if (primitiveNode.getNodeName().equals("group")) {
+                parseGroupNode(builder, primitiveNode, clone.getResources());
             }
         }
-        return rscDefaultsId;
+        builder.finishClone(clone, master);
     }
 
-    void parseOpDefaults(final Node opDefaultsNode, final Map<String, Value> opDefaultsParams) {
-        
-        /* <meta_attributtes> */
-        final Node metaAttrsNode = getChildNode(opDefaultsNode, "meta_attributes");
-        if (metaAttrsNode != null) {
-            /* <attributtes> only til 2.1.4 */
-            final NodeList nvpairsMA;
-            if (Tools.versionBeforePacemaker(host)) {
-                final Node attrsNode = getChildNode(metaAttrsNode, "attributes");
-                nvpairsMA = attrsNode.getChildNodes();
-            } else {
-                nvpairsMA = metaAttrsNode.getChildNodes();
-            }
-            /* <nvpair...> */
-            for (int l = 0; l < nvpairsMA.getLength(); l++) {
-                final Node maNode = nvpairsMA.item(l);
-                if (maNode.getNodeName().equals("nvpair")) {
-                    final String name = getAttribute(maNode, "name");
-                    final String value = getAttribute(maNode, "value");
-                    opDefaultsParams.put(name, parseValue(name, value));
-                }
+    private void parseGroupNode(final CibQueryBuilder builder,
+                                final Node groupNode,
+                                final Collection<String> cloneResList) {
+        final CibQueryBuilder.Resource group = builder.addGroup(getAttribute(groupNode, "id"), cloneResList);
+        final NodeList primitives = groupNode.getChildNodes();
+        for (int j = 0; j < primitives.getLength(); j++) {
+            final Node primitiveNode = primitives.item(j);
+            if (primitiveNode.getNodeName().equals("primitive")) {
+                parsePrimitiveNode(builder, primitiveNode, group.getResources());
             }
         }
+        parseMetaAttributes(group, groupNode);
+    }
+
+    private void parsePrimitiveNode(final CibQueryBuilder builder,
+                                    final Node primitiveNode,
+                                    final Collection<String> resList) {
+        final CibQueryBuilder.Resource primitive = builder.addPrimitive(getAttribute(primitiveNode, "id"),
+                                                                        getAttribute(primitiveNode, "template"),
+                                                                        getAttribute(primitiveNode, "class"),
+                                                                        getAttribute(primitiveNode, "provider"),
+                                                                        getAttribute(primitiveNode, "type"),
+                                                                        resList);
+        if (primitive != null) {
+            parseResourceAttributes(primitive, primitiveNode);
+        }
     }
 
     /** Parses attributes, operations etc. from primitives and clones. */
-    private void parseAttributes(final Node resourceNode,
-                                 final String crmId,
-                                 final Map<String, Map<String, String>> parametersMap,
-                                 final Map<String, Map<String, String>> parametersNvpairsIdsMap,
-                                 final Map<String, String> resourceInstanceAttrIdMap,
-                                 final MultiKeyMap<String, Value> operationsMap,
-                                 final Map<String, String> metaAttrsIdMap,
-                                 final Map<String, String> operationsIdMap,
-                                 final Map<String, Map<String, String>> resOpIdsMap,
-                                 final Map<String, String> operationsIdRefs,
-                                 final Map<String, String> operationsIdtoCRMId,
-                                 final Map<String, String> metaAttrsIdRefs,
-                                 final Map<String, String> metaAttrsIdToCRMId,
-                                 final boolean stonith) {
-        final Map<String, String> params = new HashMap<String, String>();
-        parametersMap.put(crmId, params);
-        final Map<String, String> nvpairIds = new HashMap<String, String>();
-        parametersNvpairsIdsMap.put(crmId, nvpairIds);
+    private void parseResourceAttributes(final CibQueryBuilder.Resource resource, final Node resourceNode) {
         /* <instance_attributes> */
         final Node instanceAttrNode = getChildNode(resourceNode, "instance_attributes");
-        /* <nvpair...> */
         if (instanceAttrNode != null) {
-            final String iAId = getAttribute(instanceAttrNode, "id");
-            resourceInstanceAttrIdMap.put(crmId, iAId);
-            final NodeList nvpairsRes;
-            if (Tools.versionBeforePacemaker(host)) {
-                /* <attributtes> only til 2.1.4 */
-                final Node attrNode = getChildNode(instanceAttrNode, "attributes");
-                nvpairsRes = attrNode.getChildNodes();
-            } else {
-                nvpairsRes = instanceAttrNode.getChildNodes();
-            }
-            for (int j = 0; j < nvpairsRes.getLength(); j++) {
-                final Node optionNode = nvpairsRes.item(j);
-                if (optionNode.getNodeName().equals("nvpair")) {
-                    final String nvpairId = getAttribute(optionNode, "id");
-                    String name = getAttribute(optionNode, "name");
-                    final String value = getAttribute(optionNode, "value");
-                    if (stonith && "priority".equals(name)) {
-                        /* so it does not clash with meta attr priority */
-                        name = STONITH_PRIORITY_INSTANCE_ATTR;
-                    }
-                    params.put(name, value);
-                    nvpairIds.put(name, nvpairId);
-                }
-            }
+            resource.setInstanceAttributes(getAttribute(instanceAttrNode, "id"), getNvpairs(instanceAttrNode));
         }
 
         /* <operations> */
@@ -2000,227 +2075,54 @@ public final class CrmXml extends XML {
         if (operationsNode != null) {
             final String operationsIdRef = getAttribute(operationsNode, "id-ref");
             if (operationsIdRef == null) {
-                final String operationsId = getAttribute(operationsNode, "id");
-                operationsIdMap.put(crmId, operationsId);
-                operationsIdtoCRMId.put(operationsId, crmId);
-                final Map<String, String> opIds = new HashMap<String, String>();
-                resOpIdsMap.put(crmId, opIds);
+                resource.setOperationsId(getAttribute(operationsNode, "id"));
                 /* <op> */
                 final NodeList ops = operationsNode.getChildNodes();
                 for (int k = 0; k < ops.getLength(); k++) {
                     final Node opNode = ops.item(k);
                     if (opNode.getNodeName().equals("op")) {
-                        final String opId = getAttribute(opNode, "id");
                         final String name = getAttribute(opNode, "name");
-                        final String timeout = getAttribute(opNode, "timeout");
-                        final String interval = getAttribute(opNode, "interval");
-                        final String startDelay = getAttribute(opNode, "start-delay");
-
-                        operationsMap.put(crmId, name, "interval", parseValue("interval", interval));
-                        operationsMap.put(crmId, name, "timeout", parseValue("timeout", timeout));
-                        operationsMap.put(crmId, name, "start-delay", parseValue("startDelay", startDelay));
-
-                        opIds.put(name, opId);
+                        resource.addOperation(getAttribute(opNode, "id"),
+                                              name,
+                                              getAttribute(opNode, "timeout"),
+                                              getAttribute(opNode, "interval"),
+                                              getAttribute(opNode, "start-delay"));
                         if ("monitor".equals(name)) {
-                            final String checkLevel = parseCheckLevelMonitorAttribute(opNode);
-                            operationsMap.put(crmId, name, PARAM_OCF_CHECK_LEVEL, new StringValue(checkLevel));
+                            resource.setCheckLevel(name, getCheckLevelNvpair(opNode));
                         }
                     }
                 }
             } else {
-                operationsIdRefs.put(crmId, operationsIdRef);
+                resource.setOperationsIdRef(operationsIdRef);
             }
         }
+        parseMetaAttributes(resource, resourceNode);
+    }
 
-        /* <meta_attributtes> */
+    /** <meta_attributtes> */
+    private void parseMetaAttributes(final CibQueryBuilder.Resource resource, final Node resourceNode) {
         final Node metaAttrsNode = getChildNode(resourceNode, "meta_attributes");
         if (metaAttrsNode != null) {
             final String metaAttrsIdRef = getAttribute(metaAttrsNode, "id-ref");
             if (metaAttrsIdRef == null) {
-                final String metaAttrsId = getAttribute(metaAttrsNode, "id");
-                metaAttrsIdMap.put(crmId, metaAttrsId);
-                metaAttrsIdToCRMId.put(metaAttrsId, crmId);
-                /* <attributtes> only til 2.1.4 */
-                final NodeList nvpairsMA;
-                if (Tools.versionBeforePacemaker(host)) {
-                    final Node attrsNode = getChildNode(metaAttrsNode, "attributes");
-                    nvpairsMA = attrsNode.getChildNodes();
-                } else {
-                    nvpairsMA = metaAttrsNode.getChildNodes();
-                }
-                /* <nvpair...> */
-                /* target-role and is-managed */
-                for (int l = 0; l < nvpairsMA.getLength(); l++) {
-                    final Node maNode = nvpairsMA.item(l);
-                    if (maNode.getNodeName().equals("nvpair")) {
-                        final String nvpairId = getAttribute(maNode, "id");
-                        final String name = getAttribute(maNode, "name");
-                        String value = getAttribute(maNode, "value");
-                        if (TARGET_ROLE_META_ATTR.equals(name)) {
-                            value = value.toLowerCase(Locale.US);
-                        }
-                        params.put(name, value);
-                        nvpairIds.put(name, nvpairId);
-                    }
-                }
+                resource.setMetaAttributes(getAttribute(metaAttrsNode, "id"), getNvpairs(metaAttrsNode));
             } else {
-                metaAttrsIdRefs.put(crmId, metaAttrsIdRef);
+                resource.setMetaAttrsIdRef(metaAttrsIdRef);
             }
         }
     }
 
-    /** OCF_CHECK_LEVEL */
-    private String parseCheckLevelMonitorAttribute(final Node opNode) {
+    /** Returns the OCF_CHECK_LEVEL nvpair of the monitor op or null. */
+    private CibQueryBuilder.Nvpair getCheckLevelNvpair(final Node opNode) {
         final Node iaNode = getChildNode(opNode, "instance_attributes");
         if (iaNode == null) {
-            return "";
+            return null;
         }
         final Node nvpairNode = getChildNode(iaNode, "nvpair");
         if (nvpairNode == null) {
-            return "";
-        }
-        final String name = getAttribute(nvpairNode, "name");
-        final String value = getAttribute(nvpairNode, "value");
-        if (PARAM_OCF_CHECK_LEVEL.equals(name)) {
-            return value;
-        } else {
-            LOG.appWarning("parseCheckLevel: unexpected instance attribute: " + name + ' ' + value);
-            return "";
-        }
-    }
-
-    private void parseGroupNode(final Node groupNode,
-                                final Collection<String> resList,
-                                final Map<String, List<String>> groupsToResourcesMap,
-                                final Map<String, Map<String, String>> parametersMap,
-                                final Map<String, ResourceAgent> resourceTypeMap,
-                                final Map<String, Map<String, String>> parametersNvpairsIdsMap,
-                                final Map<String, String> resourceInstanceAttrIdMap,
-                                final MultiKeyMap<String, Value> operationsMap,
-                                final Map<String, String> metaAttrsIdMap,
-                                final Map<String, String> operationsIdMap,
-                                final Map<String, Map<String, String>> resOpIdsMap,
-                                final Map<String, String> operationsIdRefs,
-                                final Map<String, String> operationsIdtoCRMId,
-                                final Map<String, String> metaAttrsIdRefs,
-                                final Map<String, String> metaAttrsIdToCRMId) {
-        final NodeList primitives = groupNode.getChildNodes();
-        final String groupId = getAttribute(groupNode, "id");
-        final Map<String, String> params = new HashMap<String, String>();
-        parametersMap.put(groupId, params);
-        final Map<String, String> nvpairIds = new HashMap<String, String>();
-        parametersNvpairsIdsMap.put(groupId, nvpairIds);
-        if (resList != null) {
-            resList.add(groupId);
-        }
-        List<String> groupResList = groupsToResourcesMap.get(groupId);
-        if (groupResList == null) {
-            groupResList = new ArrayList<String>();
-            groupsToResourcesMap.put(groupId, groupResList);
-        }
-
-        for (int j = 0; j < primitives.getLength(); j++) {
-            final Node primitiveNode = primitives.item(j);
-            if (primitiveNode.getNodeName().equals("primitive")) {
-                parsePrimitiveNode(primitiveNode,
-                        groupResList,
-                        resourceTypeMap,
-                        parametersMap,
-                        parametersNvpairsIdsMap,
-                        resourceInstanceAttrIdMap,
-                        operationsMap,
-                        metaAttrsIdMap,
-                        operationsIdMap,
-                        resOpIdsMap,
-                        operationsIdRefs,
-                        operationsIdtoCRMId,
-                        metaAttrsIdRefs,
-                        metaAttrsIdToCRMId);
-            }
-        }
-
-        /* <meta_attributtes> */
-        final Node metaAttrsNode = getChildNode(groupNode, "meta_attributes");
-        if (metaAttrsNode != null) {
-            final String metaAttrsIdRef = getAttribute(metaAttrsNode, "id-ref");
-            if (metaAttrsIdRef == null) {
-                final String metaAttrsId = getAttribute(metaAttrsNode, "id");
-                metaAttrsIdMap.put(groupId, metaAttrsId);
-                metaAttrsIdToCRMId.put(metaAttrsId, groupId);
-                /* <attributtes> only til 2.1.4 */
-                final NodeList nvpairsMA;
-                if (Tools.versionBeforePacemaker(host)) {
-                    final Node attrsNode = getChildNode(metaAttrsNode, "attributes");
-                    nvpairsMA = attrsNode.getChildNodes();
-                } else {
-                    nvpairsMA = metaAttrsNode.getChildNodes();
-                }
-                /* <nvpair...> */
-                /* target-role and is-managed */
-                for (int l = 0; l < nvpairsMA.getLength(); l++) {
-                    final Node maNode = nvpairsMA.item(l);
-                    if (maNode.getNodeName().equals("nvpair")) {
-                        final String nvpairId = getAttribute(maNode, "id");
-                        String name = getAttribute(maNode, "name");
-                        String value = getAttribute(maNode, "value");
-                        if (TARGET_ROLE_META_ATTR.equals(name)) {
-                            value = value.toLowerCase(Locale.US);
-                        }
-                        if ("ordered".equals(name)) {
-                            name = GROUP_ORDERED_META_ATTR;
-                        }
-                        params.put(name, value);
-                        nvpairIds.put(name, nvpairId);
-                    }
-                }
-            } else {
-                metaAttrsIdRefs.put(groupId, metaAttrsIdRef);
-            }
-        }
-    }
-
-    private void parsePrimitiveNode(final Node primitiveNode,
-                                    final Collection<String> groupResList,
-                                    final Map<String, ResourceAgent> resourceTypeMap,
-                                    final Map<String, Map<String, String>> parametersMap,
-                                    final Map<String, Map<String, String>> parametersNvpairsIdsMap,
-                                    final Map<String, String> resourceInstanceAttrIdMap,
-                                    final MultiKeyMap<String, Value> operationsMap,
-                                    final Map<String, String> metaAttrsIdMap,
-                                    final Map<String, String> operationsIdMap,
-                                    final Map<String, Map<String, String>> resOpIdsMap,
-                                    final Map<String, String> operationsIdRefs,
-                                    final Map<String, String> operationsIdtoCRMId,
-                                    final Map<String, String> metaAttrsIdRefs,
-                                    final Map<String, String> metaAttrsIdToCRMId) {
-        final String templateId = getAttribute(primitiveNode, "template");
-        final String crmId = getAttribute(primitiveNode, "id");
-        if (templateId != null) {
-            LOG.info("parsePrimitive: templates not implemented, ignoring: " + crmId + '/' + templateId);
-            return;
+            return null;
         }
-        final String raClass = getAttribute(primitiveNode, "class");
-        String provider = getAttribute(primitiveNode, "provider");
-        if (provider == null) {
-            provider = ResourceAgent.HEARTBEAT_PROVIDER;
-        }
-        final String type = getAttribute(primitiveNode, "type");
-        resourceTypeMap.put(crmId, getResourceAgent(type, provider, raClass));
-        groupResList.add(crmId);
-        parseAttributes(primitiveNode,
-                        crmId,
-                        parametersMap,
-                        parametersNvpairsIdsMap,
-                        resourceInstanceAttrIdMap,
-                        operationsMap,
-                        metaAttrsIdMap,
-                        operationsIdMap,
-                        resOpIdsMap,
-                        operationsIdRefs,
-                        operationsIdtoCRMId,
-                        metaAttrsIdRefs,
-                        metaAttrsIdToCRMId,
-                        ResourceAgent.STONITH_CLASS_NAME.equals(raClass));
+        return getNvpair(nvpairNode);
     }
 
     private Map<String, String> parseAllocationScores(final NodeList scores) {
@@ -2302,166 +2204,99 @@ public final class CrmXml extends XML {
         return resStatusMap;
     }
 
-    private void parseTransientAttributes(final String uname,
-                                          final Node transientAttrNode,
-                                          final Table<String, String, String> failedMap,
-                                          final Table<String, String, Set<String>> failedClonesMap,
-                                          final Map<String, String> pingCountMap) {
-        /* <instance_attributes> */
-        final Node instanceAttrNode = getChildNode(transientAttrNode, "instance_attributes");
-        /* <nvpair...> */
-        if (instanceAttrNode != null) {
-            final NodeList nvpairsRes;
-            if (Tools.versionBeforePacemaker(host)) {
-                /* <attributtes> only til 2.1.4 */
-                final Node attrNode = getChildNode(instanceAttrNode, "attributes");
-                nvpairsRes = attrNode.getChildNodes();
-            } else {
-                nvpairsRes = instanceAttrNode.getChildNodes();
-            }
-            for (int j = 0; j < nvpairsRes.getLength(); j++) {
-                final Node optionNode = nvpairsRes.item(j);
-                if (optionNode.getNodeName().equals("nvpair")) {
-                    final String name = getAttribute(optionNode, "name");
-                    final String value = getAttribute(optionNode, "value");
-                    /* TODO: last-failure-" */
-                    if ("pingd".equals(name)) {
-                        pingCountMap.put(uname, value);
-                    } else if (name.indexOf(FAIL_COUNT_PREFIX) == 0) {
-                        final String resId = name.substring(FAIL_COUNT_PREFIX.length());
-                        final String unameLowerCase = uname.toLowerCase(Locale.US);
-                        failedMap.put(unameLowerCase, resId, value);
-                        final Pattern p = Pattern.compile("(.*):(\\d+)$");
-                        final Matcher m = p.matcher(resId);
-                        if (m.matches()) {
-                            final String crmId = m.group(1);
-                            Set<String> clones = failedClonesMap.get(unameLowerCase, crmId);
-                            if (clones == null) {
-                                clones = new LinkedHashSet<String>();
-                                failedClonesMap.put(unameLowerCase, crmId, clones);
-                            }
-                            clones.add(m.group(2));
-                            failedMap.put(uname.toLowerCase(Locale.US), crmId, value);
-                        }
-                    }
-                }
+    /**
+     * Returns the nvpairs of the attribute set, they are in <attributes> only
+     * til 2.1.4. The attribute set can be null.
+     */
+    private List<CibQueryBuilder.Nvpair> getNvpairs(final Node attrSetNode) {
+        final List<CibQueryBuilder.Nvpair> nvpairs = new ArrayList<CibQueryBuilder.Nvpair>();
+        Node nvpairsParentNode = attrSetNode;
+        if (nvpairsParentNode != null && Tools.versionBeforePacemaker(host)) {
+            nvpairsParentNode = getChildNode(attrSetNode, "attributes");
+        }
+        if (nvpairsParentNode == null) {
+            return nvpairs;
+        }
+        final NodeList nvpairNodes = nvpairsParentNode.getChildNodes();
+        for (int i = 0; i < nvpairNodes.getLength(); i++) {
+            final Node nvpairNode = nvpairNodes.item(i);
+            if (nvpairNode.getNodeName().equals("nvpair")) {
+                nvpairs.add(getNvpair(nvpairNode));
             }
         }
+        return nvpairs;
     }
 
-    /** Parses node, to get info like if it is in stand by. */
-    void parseNode(final String node, final Node nodeNode, final Table<String ,String, String> nodeParametersMap) {
-        /* <instance_attributes> */
-        final Node instanceAttrNode = getChildNode(nodeNode, "instance_attributes");
-        /* <nvpair...> */
-        if (instanceAttrNode != null) {
-            final NodeList nvpairsRes;
-            if (Tools.versionBeforePacemaker(host)) {
-                /* <attributtes> only til 2.1.4 */
-                final Node attrNode = getChildNode(instanceAttrNode, "attributes");
-                nvpairsRes = attrNode.getChildNodes();
-            } else {
-                nvpairsRes = instanceAttrNode.getChildNodes();
-            }
-            for (int j = 0; j < nvpairsRes.getLength(); j++) {
-                final Node optionNode = nvpairsRes.item(j);
-                if (optionNode.getNodeName().equals("nvpair")) {
-                    final String name = getAttribute(optionNode, "name");
-                    final String value = getAttribute(optionNode, "value");
-                    nodeParametersMap.put(node.toLowerCase(Locale.US), name, value);
-                }
-            }
-        }
+    private CibQueryBuilder.Nvpair getNvpair(final Node nvpairNode) {
+        return new CibQueryBuilder.Nvpair(getAttribute(nvpairNode, "id"),
+                                          getAttribute(nvpairNode, "name"),
+                                          getAttribute(nvpairNode, "value"));
     }
 
-    private void parseResourceSets(final Node node,
-                                   final String colId,
-                                   final String ordId,
-                                   final Collection<RscSet> rscSets,
-                                   final List<RscSetConnectionData> rscSetConnections) {
+    private List<RscSet> parseResourceSets(final CibQueryBuilder.ResourceSets rscSets, final Node node) {
         final NodeList nodes = node.getChildNodes();
-        RscSet prevRscSet = null;
-        int rscSetCount = 0;
-        int ordPos = 0;
-        int colPos = 0;
         for (int i = 0; i < nodes.getLength(); i++) {
             final Node rscSetNode = nodes.item(i);
             if (rscSetNode.getNodeName().equals("resource_set")) {
-                final String id = getAttribute(rscSetNode, "id");
-                final String sequential = getAttribute(rscSetNode, "sequential");
-                final String requireAll = getAttribute(rscSetNode, REQUIRE_ALL_ATTR);
-                final String orderAction = getAttribute(rscSetNode, "action");
-                final String colocationRole = getAttribute(rscSetNode, "role");
                 final NodeList rscNodes = rscSetNode.getChildNodes();
                 final List<String> rscIds = new ArrayList<String>();
                 for (int j = 0; j < rscNodes.getLength(); j++) {
                     final Node rscRefNode = rscNodes.item(j);
                     if (rscRefNode.getNodeName().equals("resource_ref")) {
-                        final String rscId = getAttribute(rscRefNode, "id");
-                        rscIds.add(rscId);
+                        rscIds.add(getAttribute(rscRefNode, "id"));
                     }
                 }
-                final RscSet rscSet = new RscSet(id, rscIds, sequential, requireAll, orderAction, colocationRole);
-                rscSets.add(rscSet);
-                if (prevRscSet != null) {
-                    final RscSetConnectionData rscSetConnectionData;
-                    if (colId == null) {
-                        /* order */
-                        rscSetConnectionData = new RscSetConnectionData(prevRscSet, rscSet, ordId, ordPos, false);
-                        ordPos++;
-                        rscSetConnections.add(0, rscSetConnectionData);
-                    } else {
-                        /* colocation */
-                        rscSetConnectionData = new RscSetConnectionData(rscSet, prevRscSet, colId, colPos, true);
-                        colPos++;
-                        rscSetConnections.add(rscSetConnectionData);
-                    }
-                }
-                prevRscSet = rscSet;
-                rscSetCount++;
+                rscSets.add(getAttribute(rscSetNode, "id"),
+                            rscIds,
+                            getAttribute(rscSetNode, "sequential"),
+                            getAttribute(rscSetNode, REQUIRE_ALL_ATTR),
+                            getAttribute(rscSetNode, "action"),
+                            getAttribute(rscSetNode, "role"));
             }
         }
-        if (rscSetCount == 1) {
-            /* just one, dangling */
-            final RscSetConnectionData rscSetConnectionData;
-            if (colId == null) {
-                /* order */
-                rscSetConnectionData = new RscSetConnectionData(prevRscSet, null, ordId, ordPos, false);
-            } else {
-                /* colocation */
-                rscSetConnectionData = new RscSetConnectionData(prevRscSet, null, colId, colPos, true);
-            }
-            rscSetConnections.add(rscSetConnectionData);
-        }
+        return rscSets.finish();
     }
 
     /** Returns CibQuery object with information from the cib node. */
     CibQuery parseCibQuery(final String query) {
+        return new CibStreamParser(this, Tools.versionBeforePacemaker(host)).parse(query);
+    }
+
+    /**
+     * Returns CibQuery object with information from the cib node, parsed via
+     * the DOM document. The streaming parser is checked and measured against
+     * this one.
+     */
+    CibQuery parseCibQueryDom(final String query) {
         final Document document = getXMLDocument(query);
-        final CibQuery cibQueryData = new CibQuery();
         if (document == null) {
             LOG.appWarning("parseCibQuery: cib error: " + query);
-            return cibQueryData;
+            return new CibQuery();
         }
+        return parseCibQuery(document);
+    }
+
+    /**
+     * Returns CibQuery object with information from the cib document, that
+     * the cib patches were applied to.
+     */
+    CibQuery parseCibQuery(final Document document) {
+        final CibQueryBuilder builder = new CibQueryBuilder(this, Tools.versionBeforePacemaker(host));
         /* get root <pacemaker> */
         final Node pcmkNode = getChildNode(document, "pcmk");
         if (pcmkNode == null) {
             LOG.appWarning("parseCibQuery: there is no pcmk node");
-            return cibQueryData;
+            return new CibQuery();
         }
 
         /* get fenced nodes */
-        final Set<String> fencedNodes = new HashSet<String>();
         final Node fencedNode = getChildNode(pcmkNode, "fenced");
         if (fencedNode != null) {
             final NodeList nodes = fencedNode.getChildNodes();
             for (int i = 0; i < nodes.getLength(); i++) {
                 final Node hostNode = nodes.item(i);
                 if (hostNode.getNodeName().equals("node")) {
-                    final String h = getText(hostNode);
-                    if (h != null) {
-                        fencedNodes.add(h.toLowerCase(Locale.US));
-                    }
+                    builder.addFencedNode(getText(hostNode));
                 }
             }
         }
@@ -2470,98 +2305,62 @@ public final class CrmXml extends XML {
         final Node cibNode = getChildNode(pcmkNode, "cib");
         if (cibNode == null) {
             LOG.appWarning("parseCibQuery: there is no cib node");
-            return cibQueryData;
+            return new CibQuery();
         }
         /* Designated Co-ordinator */
-        final String dcUuid = getAttribute(cibNode, "dc-uuid");
+        builder.setDcUuid(getAttribute(cibNode, "dc-uuid"));
         //TODO: more attributes are here
 
         /* <configuration> */
         final Node confNode = getChildNode(cibNode, "configuration");
         if (confNode == null) {
             LOG.appWarning("parseCibQuery: there is no configuration node");
-            return cibQueryData;
+            return new CibQuery();
         }
 
         /* <rsc_defaults> */
         final Node rscDefaultsNode = getChildNode(confNode, "rsc_defaults");
-        String rscDefaultsId = null;
-        final Map<String, String> rscDefaultsParams = new HashMap<String, String>();
-        final Map<String, String> rscDefaultsParamsNvpairIds = new HashMap<String, String>();
         if (rscDefaultsNode != null) {
-            rscDefaultsId = parseResourceDefaults(rscDefaultsNode, rscDefaultsParams, rscDefaultsParamsNvpairIds);
+            final Node metaAttrsNode = getChildNode(rscDefaultsNode, "meta_attributes");
+            if (metaAttrsNode != null) {
+                builder.setRscDefaults(getAttribute(metaAttrsNode, "id"), getNvpairs(metaAttrsNode));
+            }
         }
 
         /* <op_defaults> */
         final Node opDefaultsNode = getChildNode(confNode, "op_defaults");
-        final Map<String, Value> opDefaultsParams = new HashMap<String, Value>();
         if (opDefaultsNode != null) {
-            parseOpDefaults(opDefaultsNode, opDefaultsParams);
+            final Node metaAttrsNode = getChildNode(opDefaultsNode, "meta_attributes");
+            if (metaAttrsNode != null) {
+                builder.setOpDefaults(getNvpairs(metaAttrsNode));
+            }
         }
-        
-        
+
         /* <crm_config> */
         final Node crmConfNode = getChildNode(confNode, "crm_config");
         if (crmConfNode == null) {
             LOG.appWarning("parseCibQuery: there is no crm_config node");
-            return cibQueryData;
+            return new CibQuery();
         }
 
         /*      <cluster_property_set> */
         final Node cpsNode = getChildNode(crmConfNode, "cluster_property_set");
-        if (cpsNode == null) {
-            LOG.appWarning("parseCibQuery: there is no cluster_property_set node");
-        } else {
-            final NodeList nvpairs;
-            if (Tools.versionBeforePacemaker(host)) {
-                /* <attributtes> only til 2.1.4 */
-                final Node attrNode = getChildNode(cpsNode, "attributes");
-                nvpairs = attrNode.getChildNodes();
-            } else {
-                nvpairs = cpsNode.getChildNodes();
-            }
-            final Map<String, String> crmConfMap =
-                new HashMap<String, String>();
-            /*              <nvpair...> */
-            for (int i = 0; i < nvpairs.getLength(); i++) {
-                final Node optionNode = nvpairs.item(i);
-                if (optionNode.getNodeName().equals("nvpair")) {
-                    final String name = getAttribute(optionNode, "name");
-                    final String value = getAttribute(optionNode, "value");
-                    crmConfMap.put(name, value);
-                }
-            }
-            cibQueryData.setCrmConfig(crmConfMap);
+        if (cpsNode != null) {
+            builder.setCrmConfig(getNvpairs(cpsNode));
         }
 
         /* <nodes> */
         /* xml node with cluster node make stupid variable names, but let's
         * keep the convention. */
-        String dc = null;
-        final Table<String, String, String> nodeParametersMap = HashBasedTable.create();
         final Node nodesNode = getChildNode(confNode, "nodes");
-        final Map<String, String> nodeOnline = new HashMap<String, String>();
-        final Map<String, String> nodeID = new HashMap<String, String>();
         if (nodesNode != null) {
             final NodeList nodes = nodesNode.getChildNodes();
             for (int i = 0; i < nodes.getLength(); i++) {
                 final Node nodeNode = nodes.item(i);
                 if (nodeNode.getNodeName().equals("node")) {
-                    /* TODO: doing nothing with the info, just getting the dc,
-                    * for now.
-                    */
-                    final String id = getAttribute(nodeNode, "id");
-                    final String uname = getAttribute(nodeNode, "uname");
-                    if (!nodeID.containsKey(uname)) {
-                        nodeID.put(uname, id);
-                    }
-                    if (dcUuid != null && dcUuid.equals(id)) {
-                        dc = uname;
-                    }
-                    parseNode(uname, nodeNode, nodeParametersMap);
-                    if (!nodeOnline.containsKey(uname.toLowerCase(Locale.US))) {
-                        nodeOnline.put(uname.toLowerCase(Locale.US), "no");
-                    }
+                    builder.addNode(getAttribute(nodeNode, "id"),
+                                    getAttribute(nodeNode, "uname"),
+                                    getNvpairs(getChildNode(nodeNode, "instance_attributes")));
                 }
             }
         }
@@ -2570,293 +2369,80 @@ public final class CrmXml extends XML {
         final Node resourcesNode = getChildNode(confNode, "resources");
         if (resourcesNode == null) {
             LOG.appWarning("parseCibQuery: there is no resources node");
-            return cibQueryData;
-        }
-        /*      <primitive> */
-        final Map<String, Map<String, String>> parametersMap = new HashMap<String, Map<String, String>>();
-        final Map<String, Map<String, String>> parametersNvpairsIdsMap = new HashMap<String, Map<String, String>>();
-        final Map<String, ResourceAgent> resourceTypeMap = new HashMap<String, ResourceAgent>();
-        final Set<String> orphanedList = new HashSet<String>();
-        /* host -> inLRMList list */
-        final Map<String, Set<String>> inLRMList = new HashMap<String, Set<String>>();
-        final Map<String, String> resourceInstanceAttrIdMap = new HashMap<String, String>();
-        final MultiKeyMap<String, Value> operationsMap = new MultiKeyMap<String, Value>();
-        final Map<String, String> metaAttrsIdMap = new HashMap<String, String>();
-        final Map<String, String> operationsIdMap = new HashMap<String, String>();
-        final Map<String, Map<String, String>> resOpIdsMap = new HashMap<String, Map<String, String>>();
-        /* must be linked, so that clone from group is before the group itself.
-        */
-        final Map<String, List<String>> groupsToResourcesMap = new LinkedHashMap<String, List<String>>();
-        final Map<String, String> cloneToResourceMap = new HashMap<String, String>();
-        final List<String> masterList = new ArrayList<String>();
-        final Table<String, String, String> failedMap = HashBasedTable.create();
-        final Table<String, String, Set<String>> failedClonesMap = HashBasedTable.create();
-        final Map<String, String> pingCountMap = new HashMap<String, String>();
-        groupsToResourcesMap.put("none", new ArrayList<String>());
-
+            return builder.buildCrmConfig();
+        }
         final NodeList primitivesGroups = resourcesNode.getChildNodes();
-        final Map<String, String> operationsIdRefs = new HashMap<String, String>();
-        final Map<String, String> operationsIdtoCRMId = new HashMap<String, String>();
-        final Map<String, String> metaAttrsIdRefs = new HashMap<String, String>();
-        final Map<String, String> metaAttrsIdToCRMId = new HashMap<String, String>();
         for (int i = 0; i < primitivesGroups.getLength(); i++) {
             final Node primitiveGroupNode = primitivesGroups.item(i);
             final String nodeName = primitiveGroupNode.getNodeName();
             if ("primitive".equals(nodeName)) {
-                final List<String> resList = groupsToResourcesMap.get("none");
-                parsePrimitiveNode(primitiveGroupNode,
-                                   resList,
-                                   resourceTypeMap,
-                                   parametersMap,
-                                   parametersNvpairsIdsMap,
-                                   resourceInstanceAttrIdMap,
-                                   operationsMap,
-                                   metaAttrsIdMap,
-                                   operationsIdMap,
-                                   resOpIdsMap,
-                                   operationsIdRefs,
-                                   operationsIdtoCRMId,
-                                   metaAttrsIdRefs,
-                                   metaAttrsIdToCRMId);
+                parsePrimitiveNode(builder, primitiveGroupNode, builder.getUngroupedResources());
             } else if ("group".equals(nodeName)) {
-                parseGroupNode(primitiveGroupNode,
-                               null,
-                               groupsToResourcesMap,
-                               parametersMap,
-                               resourceTypeMap,
-                               parametersNvpairsIdsMap,
-                               resourceInstanceAttrIdMap,
-                               operationsMap,
-                               metaAttrsIdMap,
-                               operationsIdMap,
-                               resOpIdsMap,
-                               operationsIdRefs,
-                               operationsIdtoCRMId,
-                               metaAttrsIdRefs,
-                               metaAttrsIdToCRMId);
+                parseGroupNode(builder, primitiveGroupNode, null);
             } else if ("master".equals(nodeName) || "master_slave".equals(nodeName) || "clone".equals(nodeName)) {
-                final NodeList primitives = primitiveGroupNode.getChildNodes();
-                final String cloneId = getAttribute(primitiveGroupNode, "id");
-                List<String> resList = groupsToResourcesMap.get(cloneId);
-                if (resList == null) {
-                    resList = new ArrayList<String>();
-                    groupsToResourcesMap.put(cloneId, resList);
-                }
-                parseAttributes(primitiveGroupNode,
-                                cloneId,
-                                parametersMap,
-                                parametersNvpairsIdsMap,
-                                resourceInstanceAttrIdMap,
-                                operationsMap,
-                                metaAttrsIdMap,
-                                operationsIdMap,
-                                resOpIdsMap,
-                                operationsIdRefs,
-                                operationsIdtoCRMId,
-                                metaAttrsIdRefs,
-                                metaAttrsIdToCRMId,
-                                false);
-                for (int j = 0; j < primitives.getLength(); j++) {
-                    final Node primitiveNode = primitives.item(j);
-                    if (primitiveNode.getNodeName().equals("primitive")) {
-                        parsePrimitiveNode(primitiveNode,
-                                           resList,
-                                           resourceTypeMap,
-                                           parametersMap,
-                                           parametersNvpairsIdsMap,
-                                           resourceInstanceAttrIdMap,
-                                           operationsMap,
-                                           metaAttrsIdMap,
-                                           operationsIdMap,
-                                           resOpIdsMap,
-                                           operationsIdRefs,
-                                           operationsIdtoCRMId,
-                                           metaAttrsIdRefs,
-                                           metaAttrsIdToCRMId);
-                    } else if (primitiveNode.getNodeName().equals("group")) {
-                        parseGroupNode(primitiveNode,
-                                       resList,
-                                       groupsToResourcesMap,
-                                       parametersMap,
-                                       resourceTypeMap,
-                                       parametersNvpairsIdsMap,
-                                       resourceInstanceAttrIdMap,
-                                       operationsMap,
-                                       metaAttrsIdMap,
-                                       operationsIdMap,
-                                       resOpIdsMap,
-                                       operationsIdRefs,
-                                       operationsIdtoCRMId,
-                                       metaAttrsIdRefs,
-                                       metaAttrsIdToCRMId);
-                    }
-                }
-                if (!resList.isEmpty()) {
-                    cloneToResourceMap.put(cloneId, resList.get(0));
-                    if ("master".equals(nodeName) || "master_slave".equals(nodeName)) {
-                        masterList.add(cloneId);
-                    }
-                }
+                parseCloneNode(builder,
+                               primitiveGroupNode,
+                               "master".equals(nodeName) || "master_slave".equals(nodeName));
             }
         }
 
-        /* operationsRefs crm id -> crm id */
-        final Map<String, String> operationsRefs = new HashMap<String, String>();
-        for (final String crmId : operationsIdRefs.keySet()) {
-            final String idRef = operationsIdRefs.get(crmId);
-            operationsRefs.put(crmId, operationsIdtoCRMId.get(idRef));
-        }
-
-        /* mettaAttrsRefs crm id -> crm id */
-        final Map<String, String> metaAttrsRefs = new HashMap<String, String>();
-        for (final String crmId : metaAttrsIdRefs.keySet()) {
-            final String idRef = metaAttrsIdRefs.get(crmId);
-            metaAttrsRefs.put(crmId, metaAttrsIdToCRMId.get(idRef));
-        }
-
         /* <constraints> */
-        final Map<String, ColocationData> colocationIdMap = new LinkedHashMap<String, ColocationData>();
-        final Map<String, List<ColocationData>> colocationRscMap = new HashMap<String, List<ColocationData>>();
-        final Map<String, OrderData> orderIdMap = new LinkedHashMap<String, OrderData>();
-        final Map<String, List<RscSet>> orderIdRscSetsMap = new HashMap<String, List<RscSet>>();
-        final Map<String, List<RscSet>> colocationIdRscSetsMap = new HashMap<String, List<RscSet>>();
-        final List<RscSetConnectionData> rscSetConnections = new ArrayList<RscSetConnectionData>();
-        final Map<String, List<OrderData>> orderRscMap = new HashMap<String, List<OrderData>>();
-        final Map<String, Map<String, HostLocation>> locationMap = new HashMap<String, Map<String, HostLocation>>();
-        final Map<String, HostLocation> pingLocationMap = new HashMap<String, HostLocation>();
-        final Map<String, List<String>> locationsIdMap = new HashMap<String, List<String>>();
-        final Table<String, String, String> resHostToLocIdMap = HashBasedTable.create();
-        
-        final Map<String, String> resPingToLocIdMap = new HashMap<String, String>();
         final Node constraintsNode = getChildNode(confNode, "constraints");
         if (constraintsNode != null) {
+            final CibQueryBuilder.ConstraintAttrs attrs = builder.getConstraintAttrs();
             final NodeList constraints = constraintsNode.getChildNodes();
-            String rscString         = "rsc";
-            String rscRoleString     = "rsc-role";
-            String withRscString     = "with-rsc";
-            String withRscRoleString = "with-rsc-role";
-            String firstString       = "first";
-            String thenString        = "then";
-            String firstActionString = "first-action";
-            String thenActionString  = "then-action";
-            if (Tools.versionBeforePacemaker(host)) {
-                rscString         = "from";
-                rscRoleString     = "from_role";
-                withRscString     = "to";
-                withRscRoleString = "to_role";
-                firstString       = "to";
-                thenString        = "from";
-                firstActionString = "to_action";
-                thenActionString  = "action";
-            }
             for (int i = 0; i < constraints.getLength(); i++) {
                 final Node constraintNode = constraints.item(i);
                 if (constraintNode.getNodeName().equals("rsc_colocation")) {
                     final String colId = getAttribute(constraintNode, "id");
-                    final String rsc = getAttribute(constraintNode, rscString);
-                    final String withRsc = getAttribute(constraintNode, withRscString);
+                    final String rsc = getAttribute(constraintNode, attrs.rsc);
+                    final String withRsc = getAttribute(constraintNode, attrs.withRsc);
+                    List<RscSet> rscSets = null;
                     if (rsc == null || withRsc == null) {
-                        final List<RscSet> rscSets = new ArrayList<RscSet>();
-                        parseResourceSets(constraintNode, colId, null, rscSets, rscSetConnections);
-                        colocationIdRscSetsMap.put(colId, rscSets);
-                    }
-                    final String rscRole = getAttribute(constraintNode, rscRoleString);
-                    final String withRscRole = getAttribute(constraintNode, withRscRoleString);
-                    final String score = getAttribute(constraintNode, SCORE_CONSTRAINT_PARAM);
-                    final ColocationData colocationData =
-                                                 new ColocationData(colId, rsc, withRsc, rscRole, withRscRole, score);
-                    colocationIdMap.put(colId, colocationData);
-                    List<ColocationData> withs = colocationRscMap.get(rsc);
-                    if (withs == null) {
-                        withs = new ArrayList<ColocationData>();
+                        rscSets = parseResourceSets(builder.startResourceSets(colId, null), constraintNode);
                     }
-                    withs.add(colocationData);
-                    colocationRscMap.put(rsc, withs);
+                    builder.addColocation(colId,
+                                          rsc,
+                                          withRsc,
+                                          getAttribute(constraintNode, attrs.rscRole),
+                                          getAttribute(constraintNode, attrs.withRscRole),
+                                          getAttribute(constraintNode, SCORE_CONSTRAINT_PARAM),
+                                          rscSets);
                 } else if (constraintNode.getNodeName().equals("rsc_order")) {
-                    String rscFirst = getAttribute(constraintNode, firstString);
-                    String rscThen = getAttribute(constraintNode, thenString);
                     final String ordId = getAttribute(constraintNode, "id");
+                    final String rscFirst = getAttribute(constraintNode, attrs.first);
+                    final String rscThen = getAttribute(constraintNode, attrs.then);
+                    List<RscSet> rscSets = null;
                     if (rscFirst == null || rscThen == null) {
-                        final List<RscSet> rscSets = new ArrayList<RscSet>();
-                        parseResourceSets(constraintNode, null, ordId, rscSets, rscSetConnections);
-                        orderIdRscSetsMap.put(ordId, rscSets);
-                    }
-                    final String score = getAttribute(constraintNode, SCORE_CONSTRAINT_PARAM);
-                    final String symmetrical = getAttribute(constraintNode, "symmetrical");
-                    String firstAction = getAttribute(constraintNode, firstActionString);
-                    String thenAction = getAttribute(constraintNode, thenActionString);
-                    final String type = getAttribute(constraintNode, "type");
-                    if (type != null && "before".equals(type)) {
-                        /* exchange resoruces */
-                        final String rsc = rscFirst;
-                        rscFirst = rscThen;
-                        rscThen = rsc;
-                        final String act = firstAction;
-                        firstAction = thenAction;
-                        thenAction = act;
+                        rscSets = parseResourceSets(builder.startResourceSets(null, ordId), constraintNode);
                     }
-                    final OrderData orderData = new OrderData(ordId,
-                                                              rscFirst,
-                                                              rscThen,
-                                                              score,
-                                                              symmetrical,
-                                                              firstAction,
-                                                              thenAction);
-                    orderIdMap.put(ordId, orderData);
-                    List<OrderData> thens = orderRscMap.get(rscFirst);
-                    if (thens == null) {
-                        thens = new ArrayList<OrderData>();
-                    }
-                    thens.add(orderData);
-                    orderRscMap.put(rscFirst, thens);
+                    builder.addOrder(ordId,
+                                     rscFirst,
+                                     rscThen,
+                                     getAttribute(constraintNode, SCORE_CONSTRAINT_PARAM),
+                                     getAttribute(constraintNode, "symmetrical"),
+                                     getAttribute(constraintNode, attrs.firstAction),
+                                     getAttribute(constraintNode, attrs.thenAction),
+                                     getAttribute(constraintNode, "type"),
+                                     rscSets);
                 } else if ("rsc_location".equals(constraintNode.getNodeName())) {
                     final String locId = getAttribute(constraintNode, "id");
-                    final String node  = getAttribute(constraintNode, "node");
-                    final String rsc   = getAttribute(constraintNode, "rsc");
-                    final String score = getAttribute(constraintNode, SCORE_CONSTRAINT_PARAM);
-
-                    List<String> locs = locationsIdMap.get(rsc);
-                    if (locs == null) {
-                        locs = new ArrayList<String>();
-                        locationsIdMap.put(rsc, locs);
-                    }
-                    Map<String, HostLocation> hostScoreMap = locationMap.get(rsc);
-                    if (hostScoreMap == null) {
-                        hostScoreMap = new HashMap<String, HostLocation>();
-                        locationMap.put(rsc, hostScoreMap);
-                    }
-                    final String role = null; // TODO
-                    if (node != null) {
-                        resHostToLocIdMap.put(rsc, node.toLowerCase(Locale.US), locId);
-                        if (score != null) {
-                            hostScoreMap.put(node.toLowerCase(Locale.US), new HostLocation(score, "eq", null, role));
-                        }
-                    }
-                    locs.add(locId);
+                    final String rsc = getAttribute(constraintNode, "rsc");
+                    builder.addLocation(locId,
+                                        getAttribute(constraintNode, "node"),
+                                        rsc,
+                                        getAttribute(constraintNode, SCORE_CONSTRAINT_PARAM));
                     final Node ruleNode = getChildNode(constraintNode, "rule");
                     if (ruleNode != null) {
-                        final String score2 = getAttribute(ruleNode, SCORE_CONSTRAINT_PARAM);
-                        final String booleanOp = getAttribute(ruleNode, "boolean-op");
-                        // TODO: I know only "and", ignoring everything we
-                        // don't know.
                         final Node expNode = getChildNode(ruleNode, "expression");
-                        if (expNode != null
-                            && "expression".equals(expNode.getNodeName())) {
-                            final String attr = getAttribute(expNode, "attribute");
-                            final String op = getAttribute(expNode, "operation");
-                            final String value = getAttribute(expNode, "value");
-                            if ((booleanOp == null || "and".equals(booleanOp))
-                                && "#uname".equals(attr)
-                                && value != null) {
-                                hostScoreMap.put(value.toLowerCase(Locale.US),
-                                                 new HostLocation(score2, op, null, role));
-                                resHostToLocIdMap.put(rsc, value.toLowerCase(Locale.US), locId);
-                            } else if ((booleanOp == null || "and".equals(booleanOp)) && "pingd".equals(attr)) {
-                                pingLocationMap.put(rsc, new HostLocation(score2, op, value, null));
-                                resPingToLocIdMap.put(rsc, locId);
-                            } else {
-                                LOG.appWarning("parseCibQuery: could not parse rsc_location: " + locId);
-                            }
+                        if (expNode != null) {
+                            builder.addLocationRule(locId,
+                                                    rsc,
+                                                    getAttribute(ruleNode, SCORE_CONSTRAINT_PARAM),
+                                                    getAttribute(ruleNode, "boolean-op"),
+                                                    getAttribute(expNode, "attribute"),
+                                                    getAttribute(expNode, "operation"),
+                                                    getAttribute(expNode, "value"));
                         }
                     }
                 }
@@ -2865,7 +2451,6 @@ public final class CrmXml extends XML {
 
         /* <status> */
         final Node statusNode = getChildNode(cibNode, "status");
-        final Set<String> nodePending = new HashSet<String>();
         if (statusNode != null) {
             /* <node_state ...> */
             final NodeList nodes = statusNode.getChildNodes();
@@ -2873,92 +2458,33 @@ public final class CrmXml extends XML {
                 final Node nodeStateNode = nodes.item(i);
                 if ("node_state".equals(nodeStateNode.getNodeName())) {
                     final String uname = getAttribute(nodeStateNode, "uname");
-                    final String id = getAttribute(nodeStateNode, "id");
-                    if (uname == null || !id.equals(nodeID.get(uname))) {
-                        LOG.appWarning("parseCibQuery: skipping " + uname + ' ' + id);
+                    if (!builder.addNodeState(uname,
+                                              getAttribute(nodeStateNode, "id"),
+                                              getAttribute(nodeStateNode, "join"),
+                                              getAttribute(nodeStateNode, "in_ccm"),
+                                              getAttribute(nodeStateNode, "crmd"))) {
                         continue;
                     }
-                    final String join = getAttribute(nodeStateNode, "join");
-                    final String inCCM = getAttribute(nodeStateNode, "in_ccm");
-                    final String crmd = getAttribute(nodeStateNode, "crmd");
-                    if ("member".equals(join) && "true".equals(inCCM) && !"offline".equals(crmd)) {
-                        nodeOnline.put(uname.toLowerCase(Locale.US), "yes");
-                    } else {
-                        nodeOnline.put(uname.toLowerCase(Locale.US), "no");
-                    }
-                    if ("pending".equals(join)) {
-                        nodePending.add(uname.toLowerCase(Locale.US));
-                    }
                     final NodeList nodeStates = nodeStateNode.getChildNodes();
                     /* transient attributes. */
                     for (int j = 0; j < nodeStates.getLength(); j++) {
                         final Node nodeStateChild = nodeStates.item(j);
-                        if ("transient_attributes".equals(
-                            nodeStateChild.getNodeName())) {
-                            parseTransientAttributes(uname, nodeStateChild, failedMap, failedClonesMap, pingCountMap);
+                        if ("transient_attributes".equals(nodeStateChild.getNodeName())) {
+                            builder.setTransientAttributes(
+                                        uname,
+                                        getNvpairs(getChildNode(nodeStateChild, "instance_attributes")));
                         }
                     }
-                    final List<String> resList =
-                        groupsToResourcesMap.get("none");
                     for (int j = 0; j < nodeStates.getLength(); j++) {
                         final Node nodeStateChild = nodeStates.item(j);
                         if ("lrm".equals(nodeStateChild.getNodeName())) {
-                            parseLrmResources(uname.toLowerCase(Locale.US),
-                                    nodeStateChild,
-                                    resList,
-                                    resourceTypeMap,
-                                    parametersMap,
-                                    inLRMList,
-                                    orphanedList,
-                                    failedClonesMap);
+                            parseLrmResources(builder, uname, nodeStateChild);
                         }
                     }
                 }
             }
         }
-        cibQueryData.setDC(dc);
-        cibQueryData.setNodeParameters(nodeParametersMap);
-        cibQueryData.setResourceParameters(parametersMap);
-        cibQueryData.setResourceParametersNvpairsIds(parametersNvpairsIdsMap);
-        cibQueryData.setResourceType(resourceTypeMap);
-        cibQueryData.setInLRM(inLRMList);
-        cibQueryData.setOrphaned(orphanedList);
-        cibQueryData.setResourceInstanceAttrId(resourceInstanceAttrIdMap);
-
-        cibQueryData.setColocationRsc(colocationRscMap);
-        cibQueryData.setColocationId(colocationIdMap);
-
-        cibQueryData.setOrderId(orderIdMap);
-        cibQueryData.setOrderIdRscSets(orderIdRscSetsMap);
-        cibQueryData.setColocationIdRscSets(colocationIdRscSetsMap);
-        cibQueryData.setRscSetConnections(rscSetConnections);
-        cibQueryData.setOrderRsc(orderRscMap);
-
-        cibQueryData.setLocations(locationMap);
-        cibQueryData.setPingLocations(pingLocationMap);
-        cibQueryData.setLocationsId(locationsIdMap);
-        cibQueryData.setResHostToLocId(resHostToLocIdMap);
-        cibQueryData.setResPingToLocId(resPingToLocIdMap);
-        cibQueryData.setOperations(operationsMap);
-        cibQueryData.setOperationsId(operationsIdMap);
-        cibQueryData.setOperationsRefs(operationsRefs);
-        cibQueryData.setMetaAttrsId(metaAttrsIdMap);
-        cibQueryData.setMetaAttrsRefs(metaAttrsRefs);
-        cibQueryData.setResOpIds(resOpIdsMap);
-        cibQueryData.setNodeOnline(nodeOnline);
-        cibQueryData.setNodePending(nodePending);
-        cibQueryData.setGroupsToResources(groupsToResourcesMap);
-        cibQueryData.setCloneToResource(cloneToResourceMap);
-        cibQueryData.setMasterList(masterList);
-        cibQueryData.setNodeFailedCount(failedMap);
-        cibQueryData.setResourceFailedCloneIds(failedClonesMap);
-        cibQueryData.setNodePingCount(pingCountMap);
-        cibQueryData.setRscDefaultsId(rscDefaultsId);
-        cibQueryData.setRscDefaultsParams(rscDefaultsParams);
-        cibQueryData.setRscDefaultsParamsNvpairIds(rscDefaultsParamsNvpairIds);
-        cibQueryData.setOpDefaultsParams(opDefaultsParams);
-        cibQueryData.setFencedNodes(fencedNodes);
-        return cibQueryData;
+        return builder.build();
     }
 
     public String[] getOrderParameters() {
@@ -3230,53 +2756,20 @@ public final class CrmXml extends XML {
         return linbitDrbdResourceAgentPresent;
     }
 
-    void parseLrmResources(final String unameLowerCase,
-                           final Node lrmNode,
-                           final Collection<String> resList,
-                           final Map<String, ResourceAgent> resourceTypeMap,
-                           final Map<String, Map<String, String>> parametersMap,
-                           final Map<String, Set<String>> inLRMList,
-                           final Collection<String> orphanedList,
-                           final Table<String, String, Set<String>> failedClonesMap) {
+    private void parseLrmResources(final CibQueryBuilder builder, final String uname, final Node lrmNode) {
         final Node lrmResourcesNode = getChildNode(lrmNode, "lrm_resources");
+        if (lrmResourcesNode == null) {
+            return;
+        }
         final NodeList lrmResources = lrmResourcesNode.getChildNodes();
         for (int j = 0; j < lrmResources.getLength(); j++) {
             final Node rscNode = lrmResources.item(j);
             if ("lrm_resource".equals(rscNode.getNodeName())) {
-                final String resId = getAttribute(rscNode, "id");
-                final Pattern p = Pattern.compile("(.*):(\\d+)$");
-                final Matcher m = p.matcher(resId);
-                final String crmId;
-                if (m.matches()) {
-                    crmId = m.group(1);
-                    Set<String> clones = failedClonesMap.get(unameLowerCase, crmId);
-                    if (clones == null) {
-                        clones = new LinkedHashSet<String>();
-                        failedClonesMap.put(unameLowerCase, crmId, clones);
-                    }
-                    clones.add(m.group(2));
-                } else {
-                    crmId = resId;
-                }
-                if (!resourceTypeMap.containsKey(crmId)) {
-                    final String raClass = getAttribute(rscNode, "class");
-                    String provider = getAttribute(rscNode, "provider");
-                    if (provider == null) {
-                        provider = ResourceAgent.HEARTBEAT_PROVIDER;
-                    }
-                    final String type = getAttribute(rscNode, "type");
-                    resourceTypeMap.put(crmId, getResourceAgent(type, provider, raClass));
-                    resList.add(crmId);
-                    parametersMap.put(crmId, new HashMap<String, String>());
-                    orphanedList.add(crmId);
-                }
-                /* it is in LRM */
-                Set<String> inLRMOnHost = inLRMList.get(unameLowerCase);
-                if (inLRMOnHost == null) {
-                    inLRMOnHost = new HashSet<String>();
-                    inLRMList.put(unameLowerCase, inLRMOnHost);
-                }
-                inLRMOnHost.add(crmId);
+                builder.addLrmResource(uname,
+                                       getAttribute(rscNode, "id"),
+                                       getAttribute(rscNode, "class"),
+                                       getAttribute(rscNode, "provider"),
+                                       getAttribute(rscNode, "type"));
             }
         }
     }
@@ -3299,7 +2792,7 @@ public final class CrmXml extends XML {
     }
 
 
-    private Value parseValue(final String param, final CharSequence v) {
+    Value parseValue(final String param, final CharSequence v) {
         if (v == null) {
             return null;
         }
@@ -0,0 +1,254 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.crm.domain;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+
+/**
+ * Keeps the meta-data xml of the resource agents on the disk between the
+ * sessions. An agent is identified by "class:provider:name" and its
+ * meta-data is valid as long as the agent's checksum and the versions of
+ * the agent packages on the host don't change.
+ *
+ * The file has a header and length-prefixed entries:
+ * "@ra class provider name checksum master length\n&lt;xml&gt;\n".
+ */
+final class ResourceAgentMetaDataCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceAgentMetaDataCache.class);
+    private static final String HEADER = "lcmc-ra-metadata 1";
+    private static final String VERSIONS = "versions ";
+    private static final String ENTRY = "@ra ";
+
+    private final File file;
+    private String versions = null;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    ResourceAgentMetaDataCache(final File file) {
+        this.file = file;
+    }
+
+    static String getKey(final String raClass, final String provider, final String serviceName) {
+        return raClass + ':' + provider + ':' + serviceName;
+    }
+
+    /** Loads the cache from the file, if there is one. */
+    void load() {
+        versions = null;
+        entries.clear();
+        if (!file.exists()) {
+            return;
+        }
+        Reader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+            read(reader);
+            LOG.debug1("load: " + file + ": " + entries.size() + " agents");
+        } catch (final IOException e) {
+            LOG.appWarning("load: could not read " + file + ": " + e.getMessage());
+            versions = null;
+            entries.clear();
+        } finally {
+            close(reader);
+        }
+    }
+
+    /** Writes the cache to a temporary file and moves it over the old one. */
+    void save() {
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            LOG.appWarning("save: could not create " + dir);
+            return;
+        }
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), Charsets.UTF_8));
+            write(writer);
+            writer.close();
+            writer = null;
+            if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+                LOG.appWarning("save: could not rename " + tmpFile);
+            }
+        } catch (final IOException e) {
+            LOG.appWarning("save: could not write " + tmpFile + ": " + e.getMessage());
+        } finally {
+            close(writer);
+        }
+    }
+
+    String getVersions() {
+        return versions;
+    }
+
+    /** Sets versions of the agent packages, the old entries are dropped. */
+    void setVersions(final String versions) {
+        if (!versions.equals(this.versions)) {
+            entries.clear();
+            this.versions = versions;
+        }
+    }
+
+    /** Returns the entry, if the agent has still the same checksum. */
+    Entry get(final String key, final String checksum) {
+        final Entry entry = entries.get(key);
+        if (entry == null || checksum == null || !checksum.equals(entry.getChecksum())) {
+            return null;
+        }
+        return entry;
+    }
+
+    void put(final String key, final String checksum, final boolean masterSlave, final String xml) {
+        entries.put(key, new Entry(checksum, masterSlave, xml));
+    }
+
+    /** Removes agents, that are not on the host anymore. */
+    void retainAll(final Collection<String> keys) {
+        entries.keySet().retainAll(keys);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void read(final Reader reader) throws IOException {
+        if (!HEADER.equals(readLine(reader))) {
+            throw new IOException("unknown format");
+        }
+        final String versionsLine = readLine(reader);
+        if (versionsLine == null || !versionsLine.startsWith(VERSIONS)) {
+            throw new IOException("versions are missing");
+        }
+        versions = versionsLine.substring(VERSIONS.length());
+        while (true) {
+            final String header = readLine(reader);
+            if (header == null) {
+                break;
+            }
+            final String[] parts = header.split(" ");
+            if (parts.length != 7 || !header.startsWith(ENTRY)) {
+                throw new IOException("wrong entry: " + header);
+            }
+            final int length;
+            try {
+                length = Integer.parseInt(parts[6]);
+            } catch (final NumberFormatException e) {
+                throw new IOException("wrong length: " + header);
+            }
+            final char[] xml = new char[length];
+            int read = 0;
+            while (read < length) {
+                final int n = reader.read(xml, read, length - read);
+                if (n < 0) {
+                    throw new IOException("unexpected end of file");
+                }
+                read += n;
+            }
+            if (reader.read() != '\n') {
+                throw new IOException("wrong length: " + header);
+            }
+            put(getKey(parts[1], parts[2], parts[3]), parts[4], "1".equals(parts[5]), new String(xml));
+        }
+    }
+
+    private void write(final Writer writer) throws IOException {
+        writer.write(HEADER + '\n');
+        writer.write(VERSIONS + versions + '\n');
+        for (final Map.Entry<String, Entry> keyAndEntry : entries.entrySet()) {
+            final String[] classProviderName = keyAndEntry.getKey().split(":", 3);
+            final Entry entry = keyAndEntry.getValue();
+            writer.write(ENTRY
+                         + classProviderName[0] + ' '
+                         + classProviderName[1] + ' '
+                         + classProviderName[2] + ' '
+                         + entry.getChecksum() + ' '
+                         + (entry.isMasterSlave() ? '1' : '0') + ' '
+                         + entry.getXml().length() + '\n');
+            writer.write(entry.getXml());
+            writer.write('\n');
+        }
+    }
+
+    /** Returns a line without the new line or null at the end of the file. */
+    private static String readLine(final Reader reader) throws IOException {
+        final StringBuilder line = new StringBuilder(80);
+        while (true) {
+            final int c = reader.read();
+            if (c < 0) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            if (c == '\n') {
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+    }
+
+    private static void close(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException e) {
+                LOG.appWarning("close: " + e.getMessage());
+            }
+        }
+    }
+
+    static final class Entry {
+        private final String checksum;
+        private final boolean masterSlave;
+        private final String xml;
+
+        Entry(final String checksum, final boolean masterSlave, final String xml) {
+            this.checksum = checksum;
+            this.masterSlave = masterSlave;
+            this.xml = xml;
+        }
+
+        String getChecksum() {
+            return checksum;
+        }
+
+        boolean isMasterSlave() {
+            return masterSlave;
+        }
+
+        String getXml() {
+            return xml;
+        }
+    }
+}
@@ -22,6 +22,7 @@
 
 package lcmc.crm.service;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -62,6 +63,8 @@ public final class CRM {
     public static final String PTEST_END_DELIM = "--- PTEST END ---";
     /** Location of lcmc-test.xml file. */
     public static final String LCMC_TEST_FILE = "/tmp/lcmc-test-" + UUID.randomUUID() + ".xml";
+    /** Test changes, that wait for the next ptest, per host. */
+    private static final Map<Host, List<String>> TEST_CHANGES = new HashMap<Host, List<String>>();
 
     public static String getCibCommand(final String command, final String objType, final String xml) {
         final StringBuilder cmd = new StringBuilder(300);
@@ -74,41 +77,124 @@ public final class CRM {
         return cmd.toString();
     }
 
-    /** Executes specified command on the host. */
+    /**
+     * Executes specified command on the host. The cib changes collected in
+     * the transaction of this thread are applied before.
+     */
     private static SshOutput execCommand(final Host host, final String command, final Application.RunMode runMode) {
+        flushTransaction();
+        return runCommand(host, command, runMode);
+    }
+
+    /**
+     * Executes the cibadmin command or adds it to the transaction of this
+     * thread. In a transaction it returns true and the result comes from
+     * the commit.
+     */
+    private static boolean execCibCommand(final Host host,
+                                          final String command,
+                                          final Application.RunMode runMode) {
+        final CibTransaction transaction = CibTransaction.current();
+        if (transaction != null) {
+            if (transaction.add(host, command, runMode)) {
+                clearPtestOutput();
+                return true;
+            }
+            transaction.flush();
+        }
+        return runCommand(host, command, runMode).getExitCode() == 0;
+    }
+
+    /** Applies the cib changes collected so far in this thread. */
+    private static void flushTransaction() {
+        final CibTransaction transaction = CibTransaction.current();
+        if (transaction != null) {
+            transaction.flush();
+        }
+    }
+
+    private static void clearPtestOutput() {
         M_PTEST_WRITELOCK.lock();
         try {
             ptestOutput = null;
         } finally {
             M_PTEST_WRITELOCK.unlock();
         }
+    }
+
+    /**
+     * Runs the command on the host. In the test mode the command waits for
+     * the next ptest, that runs it on the test file, or drops it, if the
+     * result of the same changes is known.
+     */
+    static SshOutput runCommand(final Host host, final String command, final Application.RunMode runMode) {
+        clearPtestOutput();
         if (Application.isTest(runMode)) {
-            final String testCmd =
-                "if [ ! -e " + LCMC_TEST_FILE + " ]; "
-             + "then " + DistResource.SUDO + "/usr/sbin/cibadmin -Ql > "
-             + LCMC_TEST_FILE + ";fi;"
-             + "export CIB_file=" + LCMC_TEST_FILE + ';';
-            return host.captureCommand(new ExecCommandConfig().command(testCmd + command)
-                                                              .silentCommand()
-                                                              .silentOutput());
+            synchronized (TEST_CHANGES) {
+                List<String> changes = TEST_CHANGES.get(host);
+                if (changes == null) {
+                    changes = new ArrayList<String>();
+                    TEST_CHANGES.put(host, changes);
+                }
+                changes.add(command);
+            }
+            return new SshOutput("", 0);
         } else {
-            LOG.debug1("execCommand: crm command: " + command);
+            LOG.debug1("runCommand: crm command: " + command);
             return host.captureCommandProgressIndicator(Tools.getString("CIB.ExecutingCommand"),
                                                         new ExecCommandConfig().command(command));
         }
     }
 
-    /** Executes the ptest command and returns results. */
+    /** Returns the test changes, that wait for the next ptest on the host. */
+    public static List<String> getTestChanges(final Host host) {
+        flushTransaction();
+        synchronized (TEST_CHANGES) {
+            final List<String> changes = TEST_CHANGES.get(host);
+            if (changes == null) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<String>(changes);
+        }
+    }
+
+    /** Drops the test changes, if the result of the ptest is already known. */
+    public static void discardTestChanges(final Host host) {
+        synchronized (TEST_CHANGES) {
+            TEST_CHANGES.remove(host);
+        }
+    }
+
+    /**
+     * Executes the test changes on the copy of the cib and the ptest command
+     * in one go and returns results.
+     */
     public static String getPtest(final Host host) {
+        flushTransaction();
+        final List<String> changes;
+        synchronized (TEST_CHANGES) {
+            changes = TEST_CHANGES.remove(host);
+        }
         M_PTEST_READLOCK.lock();
         try {
-            if (ptestOutput != null) {
+            if (ptestOutput != null && changes == null) {
                 return ptestOutput;
             }
         } finally {
             M_PTEST_READLOCK.unlock();
         }
-        final String command = "export PROG=/usr/sbin/crm_simulate;"
+        final StringBuilder command = new StringBuilder(300);
+        command.append("if [ ! -e ").append(LCMC_TEST_FILE).append(" ]; ")
+               .append("then ").append(DistResource.SUDO).append("/usr/sbin/cibadmin -Ql > ")
+               .append(LCMC_TEST_FILE).append(";fi;");
+        if (changes != null) {
+            command.append("(export CIB_file=").append(LCMC_TEST_FILE).append(';');
+            for (final String change : changes) {
+                command.append("{ ").append(change).append("\n} >/dev/null 2>&1;");
+            }
+            command.append(");");
+        }
+        command.append("export PROG=/usr/sbin/crm_simulate;"
                                + "if [ -e /usr/sbin/ptest ];"
                                + " then export PROG=/usr/sbin/ptest; "
                                + "fi;"
@@ -117,16 +203,14 @@ public final class CRM {
                                + " 2>&1;echo '"
                                + PTEST_END_DELIM
                                + "';cat " + LCMC_TEST_FILE + " 2>/dev/null;"
-                               + "mv -f " + LCMC_TEST_FILE + "{,.last} 2>/dev/null";
-        final SshOutput output = host.captureCommand(new ExecCommandConfig().command(command)
+                               + "mv -f " + LCMC_TEST_FILE + "{,.last} 2>/dev/null");
+        final SshOutput output = host.captureCommand(new ExecCommandConfig().command(command.toString())
                                                                             .silentCommand()
                                                                             .silentOutput());
         M_PTEST_WRITELOCK.lock();
         try {
             final String po = output.getOutput();
-            if (ptestOutput == null) {
-                ptestOutput = po;
-            }
+            ptestOutput = po;
             return po;
         } finally {
             M_PTEST_WRITELOCK.unlock();
@@ -342,8 +426,7 @@ public final class CRM {
         }
         xml.append('\'');
 
-        final SshOutput ret = execCommand(host, getCibCommand(command, "resources", xml.toString()), runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, getCibCommand(command, "resources", xml.toString()), runMode);
     }
 
     /** Replaces the whole group. */
@@ -425,8 +508,7 @@ public final class CRM {
             cibadminOpt = CIB_OP_REPLACE;
         }
 
-        final SshOutput ret = execCommand(host, getCibCommand(cibadminOpt, "resources", xml.toString()), runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, getCibCommand(cibadminOpt, "resources", xml.toString()), runMode);
     }
 
     /**
@@ -578,8 +660,7 @@ public final class CRM {
         xml.append(">'");
 
         final String command = getCibCommand(cibadminOpt, "constraints", xml.toString());
-        final SshOutput ret = execCommand(host, command, runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, command, runMode);
     }
 
     private static String getLocationXML(final String resId,
@@ -670,8 +751,7 @@ public final class CRM {
             role = hostLocation.getRole();
         }
         final String xml = getLocationXML(resId, onHost, "#uname", score, null, op, role, locationId);
-        final SshOutput ret = execCommand(host, getCibCommand(command, "constraints", xml), runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, getCibCommand(command, "constraints", xml), runMode);
     }
 
     public static boolean setPingLocation(final Host host,
@@ -701,8 +781,7 @@ public final class CRM {
         }
         final String attribute = "pingd";
         final String xml = getLocationXML(resId, value, attribute, score, scoreAttribute, op, null, locationId);
-        final SshOutput ret = execCommand(host, getCibCommand(command, "constraints", xml), runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, getCibCommand(command, "constraints", xml), runMode);
     }
 
     public static boolean removeLocation(final Host host,
@@ -711,8 +790,7 @@ public final class CRM {
                                          final Application.RunMode runMode) {
         final String xml = getLocationXML(resId, null, null, null, null, null, null, locationId);
         final String command = getCibCommand("-D", "constraints", xml);
-        final SshOutput ret = execCommand(host, command, runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, command, runMode);
     }
 
     /**
@@ -768,8 +846,7 @@ public final class CRM {
         }
         xml.append('\'');
         final String command = getCibCommand("-D", "resources", xml.toString());
-        final SshOutput ret = execCommand(host, command, runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, command, runMode);
     }
 
     public static boolean cleanupResource(final Host host,
@@ -991,8 +1068,7 @@ public final class CRM {
         xml.append(colocationId);
         xml.append("\"/>'");
         final String command = getCibCommand("-D", "constraints", xml.toString());
-        final SshOutput ret = execCommand(host, command, runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, command, runMode);
     }
 
     public static boolean addColocation(final Host host,
@@ -1046,8 +1122,7 @@ public final class CRM {
         }
         xml.append("\"/>'");
         final String command = getCibCommand(cibadminOpt, "constraints", xml.toString());
-        final SshOutput ret = execCommand(host, command, runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, command, runMode);
     }
 
     public static boolean removeOrder(final Host host, final String orderId, final Application.RunMode runMode) {
@@ -1056,8 +1131,7 @@ public final class CRM {
         xml.append(orderId);
         xml.append("\"/>'");
         final String command = getCibCommand("-D", "constraints", xml.toString());
-        final SshOutput ret = execCommand(host, command, runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, command, runMode);
     }
 
     public static boolean addOrder(final Host host,
@@ -1104,8 +1178,7 @@ public final class CRM {
         }
         xml.append("\"/>'");
         final String command = getCibCommand(cibadminOpt, "constraints", xml.toString());
-        final SshOutput ret = execCommand(host, command, runMode);
-        return ret.getExitCode() == 0;
+        return execCibCommand(host, command, runMode);
     }
 
     public static boolean standByOn(final Host host, final Host standByHost, final Application.RunMode runMode) {
@@ -0,0 +1,249 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+
+package lcmc.crm.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lcmc.cluster.service.ssh.SshOutput;
+import lcmc.common.domain.Application;
+import lcmc.configs.DistResource;
+import lcmc.host.domain.Host;
+import lcmc.logger.Logger;
+import lcmc.logger.LoggerFactory;
+
+/**
+ * Collects the cibadmin changes, that CRM makes in this thread, and applies
+ * them in one ssh command. The changes are made one after another on a copy
+ * of the cib and then the difference is applied with one
+ * "cibadmin --patch", so that the cluster sees only one change. If any of
+ * the changes fails, nothing is applied. The patch also fails, if the cib
+ * was changed by someone else in the meantime.
+ *
+ * In the test mode the changes wait for the ptest, like without a
+ * transaction.
+ *
+ * A transaction, that begins in a transaction, joins it and only the
+ * outermost commit applies the changes. A command, that can't be a part of
+ * the transaction, applies the changes collected so far, before it runs.
+ */
+public final class CibTransaction {
+    private static final Logger LOG = LoggerFactory.getLogger(CibTransaction.class);
+    private static final ThreadLocal<CibTransaction> CURRENT = new ThreadLocal<CibTransaction>();
+    static final String OP_START = "--- LCMC CIB OP ---";
+    static final String OP_END = "--- LCMC CIB OP END ";
+    static final String PATCH_START = "--- LCMC CIB PATCH ---";
+    private static final Pattern OP_PATTERN =
+                        Pattern.compile(Pattern.quote(OP_START) + "\n(.*?)" + Pattern.quote(OP_END) + "(\\d+) ---",
+                                        Pattern.DOTALL);
+
+    private final Host host;
+    private final Application.RunMode runMode;
+    private final List<String> commands = new ArrayList<String>();
+    private final List<Result> results = new ArrayList<Result>();
+    private int depth = 0;
+
+    CibTransaction(final Host host, final Application.RunMode runMode) {
+        this.host = host;
+        this.runMode = runMode;
+    }
+
+    /**
+     * Begins the transaction on the host, or joins the one, that was begun
+     * in this thread. It must be committed in a finally block.
+     */
+    public static CibTransaction begin(final Host host, final Application.RunMode runMode) {
+        CibTransaction transaction = CURRENT.get();
+        if (transaction == null) {
+            transaction = new CibTransaction(host, runMode);
+            CURRENT.set(transaction);
+        }
+        transaction.depth++;
+        return transaction;
+    }
+
+    /** Returns the transaction of this thread or null. */
+    static CibTransaction current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Applies the collected changes, if this is the outermost commit, and
+     * returns the results of all the changes in the transaction. A nested
+     * commit returns an empty list.
+     */
+    public List<Result> commit() {
+        depth--;
+        if (depth > 0) {
+            return Collections.emptyList();
+        }
+        CURRENT.remove();
+        flush();
+        for (final Result result : results) {
+            if (!result.isApplied()) {
+                LOG.appWarning("commit: " + host.getName() + ": " + result.getCommand()
+                               + ": exit code: " + result.getExitCode() + ": " + result.getOutput());
+            }
+        }
+        return Collections.unmodifiableList(results);
+    }
+
+    /** Returns whether all the changes in the results were applied. */
+    public static boolean isApplied(final Iterable<Result> results) {
+        for (final Result result : results) {
+            if (!result.isApplied()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the cibadmin command to the transaction. Returns false, if it is
+     * for another host or run mode, and must be run right away.
+     */
+    boolean add(final Host cmdHost, final String command, final Application.RunMode cmdRunMode) {
+        if (cmdHost != host || cmdRunMode != runMode) {
+            return false;
+        }
+        commands.add(command);
+        return true;
+    }
+
+    /** Applies the changes collected so far. */
+    void flush() {
+        if (commands.isEmpty()) {
+            return;
+        }
+        final List<String> flushed = new ArrayList<String>(commands);
+        commands.clear();
+        if (flushed.size() == 1 || Application.isTest(runMode)) {
+            for (final String command : flushed) {
+                final SshOutput output = CRM.runCommand(host, command, runMode);
+                results.add(new Result(command, output.getExitCode(), output.getOutput(), output.isSuccess()));
+            }
+            return;
+        }
+        LOG.debug1("flush: " + host.getName() + ": cib changes: " + flushed.size());
+        final SshOutput output = CRM.runCommand(host, getScript(flushed), runMode);
+        results.addAll(parseResults(flushed, output));
+    }
+
+    /**
+     * Returns the command, that makes the changes on a copy of the cib and
+     * applies the difference. Output of every change is between markers with
+     * its exit code.
+     */
+    static String getScript(final List<String> cibCommands) {
+        final StringBuilder script = new StringBuilder(300 + 200 * cibCommands.size());
+        script.append("T=$(mktemp -d /tmp/lcmc-cib.XXXXXX) || exit 1;")
+              .append(DistResource.SUDO).append("/usr/sbin/cibadmin -Q > $T/old.xml")
+              .append(" && cp $T/old.xml $T/new.xml || { rm -rf $T; exit 1; };")
+              .append("export CIB_file=$T/new.xml;")
+              .append("F=0;");
+        for (final String command : cibCommands) {
+            script.append("echo '").append(OP_START).append("';")
+                  .append(command)
+                  .append(" 2>&1;R=$?;echo \"").append(OP_END).append("$R ---\";[ $R -eq 0 ] || F=$R;");
+        }
+        script.append("unset CIB_file;")
+              .append("if [ $F -eq 0 ]; then echo '").append(PATCH_START).append("';")
+              .append("/usr/sbin/crm_diff -o $T/old.xml -n $T/new.xml > $T/patch.xml 2>&1;D=$?;")
+              .append("if [ $D -eq 1 ]; then ")
+              .append(DistResource.SUDO).append("/usr/sbin/cibadmin --patch --xml-file $T/patch.xml 2>&1;F=$?;")
+              .append("elif [ $D -ne 0 ]; then cat $T/patch.xml;F=$D;fi;")
+              .append("fi;rm -rf $T;(exit $F)");
+        return script.toString();
+    }
+
+    /**
+     * Returns results of the changes from the output of the script. The
+     * changes are applied only if all of them and the patch succeeded.
+     */
+    static List<Result> parseResults(final List<String> cibCommands, final SshOutput output) {
+        final String out = output.getOutput() == null ? "" : output.getOutput();
+        final boolean allApplied = output.isSuccess();
+        String patchOutput = "";
+        final int patchStart = out.indexOf(PATCH_START);
+        if (patchStart >= 0) {
+            patchOutput = out.substring(patchStart + PATCH_START.length()).trim();
+        }
+        final List<Result> parsed = new ArrayList<Result>(cibCommands.size());
+        final Matcher matcher = OP_PATTERN.matcher(out);
+        for (final String command : cibCommands) {
+            if (!matcher.find()) {
+                /* it didn't get this far */
+                parsed.add(new Result(command, failedExitCode(output), out, false));
+                continue;
+            }
+            final String opOutput = matcher.group(1);
+            final int exitCode = Integer.parseInt(matcher.group(2));
+            if (exitCode != 0) {
+                parsed.add(new Result(command, exitCode, opOutput, false));
+            } else if (allApplied) {
+                parsed.add(new Result(command, 0, opOutput, true));
+            } else {
+                parsed.add(new Result(command, failedExitCode(output), opOutput + patchOutput, false));
+            }
+        }
+        return parsed;
+    }
+
+    private static int failedExitCode(final SshOutput output) {
+        return output.isSuccess() ? 1 : output.getExitCode();
+    }
+
+    /** Result of one change in the transaction. */
+    public static final class Result {
+        private final String command;
+        private final int exitCode;
+        private final String output;
+        private final boolean applied;
+
+        Result(final String command, final int exitCode, final String output, final boolean applied) {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.output = output;
+            this.applied = applied;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        /** Exit code of the change, or of the patch, if only the patch failed. */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public boolean isApplied() {
+            return applied;
+        }
+    }
+}
@@ -52,6 +52,7 @@ import lcmc.common.ui.Browser;
 import lcmc.cluster.ui.widget.Check;
 import lcmc.cluster.ui.widget.Widget;
 import lcmc.crm.service.CRM;
+import lcmc.crm.service.CibTransaction;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import lcmc.common.ui.utils.MyButton;
@@ -236,6 +237,16 @@ public class GroupInfo extends ServiceInfo {
     /** Applies the changes to the group parameters. */
     @Override
     public void apply(final Host dcHost, final Application.RunMode runMode) {
+        final CibTransaction transaction = CibTransaction.begin(dcHost, runMode);
+        try {
+            applyInTransaction(dcHost, runMode);
+        } finally {
+            getBrowser().commitCibTransaction(transaction, dcHost, runMode);
+        }
+    }
+
+    /** Applies the group and its changed services. */
+    private void applyInTransaction(final Host dcHost, final Application.RunMode runMode) {
         if (Application.isLive(runMode)) {
             application.invokeAndWait(new Runnable() {
                 @Override
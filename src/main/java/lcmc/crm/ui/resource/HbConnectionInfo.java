@@ -58,7 +58,7 @@ import lcmc.common.ui.EditableInfo;
 import lcmc.common.ui.Info;
 import lcmc.cluster.ui.widget.Check;
 import lcmc.common.ui.utils.ButtonCallback;
-import lcmc.crm.service.CRM;
+import lcmc.crm.service.CibTransaction;
 import lcmc.common.ui.utils.ComponentWithTest;
 import lcmc.common.domain.util.Tools;
 import lcmc.common.ui.utils.UpdatableItem;
@@ -202,6 +202,16 @@ public class HbConnectionInfo extends EditableInfo {
     }
 
     void apply(final Host dcHost, final Application.RunMode runMode) {
+        final CibTransaction transaction = CibTransaction.begin(dcHost, runMode);
+        try {
+            applyInTransaction(dcHost, runMode);
+        } finally {
+            getBrowser().commitCibTransaction(transaction, dcHost, runMode);
+        }
+    }
+
+    /** Applies the colocation and the order together. */
+    private void applyInTransaction(final Host dcHost, final Application.RunMode runMode) {
         if (Application.isLive(runMode)) {
             application.invokeAndWait(new Runnable() {
                 @Override
@@ -325,9 +335,8 @@ public class HbConnectionInfo extends EditableInfo {
                     final ClusterStatus clStatus = getBrowser().getClusterStatus();
                     clStatus.setPtestResult(null);
                     apply(dcHost, Application.RunMode.TEST);
-                    final PtestData ptestData = new PtestData(CRM.getPtest(dcHost));
+                    final PtestData ptestData = clStatus.runPtest(dcHost);
                     component.setToolTipText(ptestData.getToolTip());
-                    clStatus.setPtestResult(ptestData);
                 } finally {
                     getBrowser().ptestLockRelease();
                 }
@@ -293,9 +293,8 @@ public class HostInfo extends Info {
                     final ClusterStatus clStatus = getBrowser().getClusterBrowser().getClusterStatus();
                     clStatus.setPtestResult(null);
                     CRM.crmConfigureCommit(host, ta.getText(), Application.RunMode.TEST);
-                    final PtestData ptestData = new PtestData(CRM.getPtest(dcHost));
+                    final PtestData ptestData = clStatus.runPtest(dcHost);
                     component.setToolTipText(ptestData.getToolTip());
-                    clStatus.setPtestResult(ptestData);
                 } finally {
                     getBrowser().getClusterBrowser().ptestLockRelease();
                 }
@@ -84,6 +84,7 @@ import lcmc.cluster.ui.widget.Widget;
 import lcmc.cluster.ui.widget.WidgetFactory;
 import lcmc.common.ui.utils.ButtonCallback;
 import lcmc.crm.service.CRM;
+import lcmc.crm.service.CibTransaction;
 import lcmc.common.ui.utils.ComponentWithTest;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
@@ -2287,9 +2288,8 @@ public class ServiceInfo extends EditableInfo {
                     final ClusterStatus cs = getBrowser().getClusterStatus();
                     cs.setPtestResult(null);
                     apply(dcHost, Application.RunMode.TEST);
-                    final PtestData ptestData = new PtestData(CRM.getPtest(dcHost));
+                    final PtestData ptestData = cs.runPtest(dcHost);
                     component.setToolTipText(ptestData.getToolTip());
-                    cs.setPtestResult(ptestData);
                 } finally {
                     getBrowser().ptestLockRelease();
                 }
@@ -2904,6 +2904,16 @@ public class ServiceInfo extends EditableInfo {
 
     /** Applies the changes to the service parameters. */
     public void apply(final Host dcHost, final Application.RunMode runMode) {
+        final CibTransaction transaction = CibTransaction.begin(dcHost, runMode);
+        try {
+            applyInTransaction(dcHost, runMode);
+        } finally {
+            getBrowser().commitCibTransaction(transaction, dcHost, runMode);
+        }
+    }
+
+    /** Applies the resource with its constraints and locations, in the cib they change at once. */
+    private void applyInTransaction(final Host dcHost, final Application.RunMode runMode) {
         LOG.debug1("apply: start: test: " + runMode);
         if (Application.isLive(runMode)) {
             application.invokeAndWait(new Runnable() {
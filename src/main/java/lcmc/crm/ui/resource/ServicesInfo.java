@@ -48,6 +48,7 @@ import lcmc.common.ui.GUIData;
 import lcmc.common.domain.Application;
 import lcmc.common.ui.treemenu.TreeMenuController;
 import lcmc.common.ui.utils.Dialogs;
+import lcmc.crm.domain.CibChanges;
 import lcmc.crm.domain.CrmXml;
 import lcmc.crm.domain.ClusterStatus;
 import lcmc.host.domain.Host;
@@ -65,6 +66,7 @@ import lcmc.cluster.ui.widget.Check;
 import lcmc.cluster.ui.widget.Widget;
 import lcmc.common.ui.utils.ButtonCallback;
 import lcmc.crm.service.CRM;
+import lcmc.crm.service.CibTransaction;
 import lcmc.common.ui.utils.ComponentWithTest;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
@@ -222,6 +224,16 @@ public class ServicesInfo extends EditableInfo {
     }
 
     void apply(final Host dcHost, final Application.RunMode runMode) {
+        final CibTransaction transaction = CibTransaction.begin(dcHost, runMode);
+        try {
+            applyInTransaction(dcHost, runMode);
+        } finally {
+            getBrowser().commitCibTransaction(transaction, dcHost, runMode);
+        }
+    }
+
+    /** Applies the global options and all changed services. */
+    private void applyInTransaction(final Host dcHost, final Application.RunMode runMode) {
         LOG.debug1("apply: start: test: " + runMode);
         final String[] params = getParametersFromXML();
         if (Application.isLive(runMode)) {
@@ -324,6 +336,7 @@ public class ServicesInfo extends EditableInfo {
     /** Sets clone info object. */
     private CloneInfo setCreateCloneInfo(final String cloneId,
                                          final ClusterStatus clStatus,
+                                         final CibChanges cibChanges,
                                          final Application.RunMode runMode) {
         CloneInfo newCi = (CloneInfo) getBrowser().getServiceInfoFromCRMId(cloneId);
         final CrmGraph hg = getBrowser().getCrmGraph();
@@ -340,9 +353,12 @@ public class ServicesInfo extends EditableInfo {
             final Map<String, String> resourceNode = clStatus.getParamValuePairs(newCi.getHeartbeatId(runMode));
             newCi.setParameters(resourceNode);
         } else {
-            final Map<String, String> resourceNode = clStatus.getParamValuePairs(newCi.getHeartbeatId(runMode));
-            newCi.setParameters(resourceNode);
+            if (isChanged(cibChanges, cloneId)) {
+                final Map<String, String> resourceNode = clStatus.getParamValuePairs(newCi.getHeartbeatId(runMode));
+                newCi.setParameters(resourceNode);
+            }
             if (Application.isLive(runMode)) {
+                /* also after status only changes, e.g. a cleanup */
                 newCi.setUpdated(false);
                 hg.repaint();
             }
@@ -354,6 +370,7 @@ public class ServicesInfo extends EditableInfo {
     private GroupInfo setCreateGroupInfo(final String group,
                                          final CloneInfo newCi,
                                          final ClusterStatus clStatus,
+                                         final CibChanges cibChanges,
                                          final Application.RunMode runMode) {
         GroupInfo newGi = (GroupInfo) getBrowser().getServiceInfoFromCRMId(group);
         final CrmGraph hg = getBrowser().getCrmGraph();
@@ -372,9 +389,12 @@ public class ServicesInfo extends EditableInfo {
                 newCi.addCloneServicePanel(newGi);
             }
         } else {
-            final Map<String, String> resourceNode = clStatus.getParamValuePairs(newGi.getHeartbeatId(runMode));
-            newGi.setParameters(resourceNode);
+            if (isChanged(cibChanges, group)) {
+                final Map<String, String> resourceNode = clStatus.getParamValuePairs(newGi.getHeartbeatId(runMode));
+                newGi.setParameters(resourceNode);
+            }
             if (Application.isLive(runMode)) {
+                /* also after status only changes, e.g. a cleanup */
                 newGi.setUpdated(false);
                 hg.repaint();
             }
@@ -390,12 +410,16 @@ public class ServicesInfo extends EditableInfo {
                                    final List<ServiceInfo> serviceIsPresent,
                                    final List<ServiceInfo> groupServiceIsPresent,
                                    final ClusterStatus clStatus,
+                                   final CibChanges cibChanges,
                                    final Application.RunMode runMode) {
         final Map<ServiceInfo, Map<String, String>> setParametersHash = new HashMap<ServiceInfo, Map<String, String>>();
-        if (newCi != null) {
-            setParametersHash.put(newCi, clStatus.getParamValuePairs(grpOrCloneId));
-        } else if (newGi != null) {
-            setParametersHash.put(newGi, clStatus.getParamValuePairs(grpOrCloneId));
+        final Collection<ServiceInfo> unchangedServices = new ArrayList<ServiceInfo>();
+        if (isChanged(cibChanges, grpOrCloneId)) {
+            if (newCi != null) {
+                setParametersHash.put(newCi, clStatus.getParamValuePairs(grpOrCloneId));
+            } else if (newGi != null) {
+                setParametersHash.put(newGi, clStatus.getParamValuePairs(grpOrCloneId));
+            }
         }
         final CrmGraph hg = getBrowser().getCrmGraph();
         final List<String> gs = clStatus.getGroupResources(grpOrCloneId, runMode);
@@ -415,7 +439,7 @@ public class ServicesInfo extends EditableInfo {
                     continue;
                 }
                 /* clone group */
-                final GroupInfo gi = setCreateGroupInfo(hbId, newCi, clStatus, runMode);
+                final GroupInfo gi = setCreateGroupInfo(hbId, newCi, clStatus, cibChanges, runMode);
                 setGroupResources(allGroupsAndClones,
                                   hbId,
                                   gi,
@@ -423,6 +447,7 @@ public class ServicesInfo extends EditableInfo {
                                   serviceIsPresent,
                                   groupServiceIsPresent,
                                   clStatus,
+                                  cibChanges,
                                   runMode);
                 newServiceInfo = gi;
             } else {
@@ -458,7 +483,11 @@ public class ServicesInfo extends EditableInfo {
                     }
                 } else {
                     getBrowser().addNameToServiceInfoHash(newServiceInfo);
-                    setParametersHash.put(newServiceInfo, resourceNode);
+                    if (isChanged(cibChanges, hbId)) {
+                        setParametersHash.put(newServiceInfo, resourceNode);
+                    } else {
+                        unchangedServices.add(newServiceInfo);
+                    }
                 }
                 newServiceInfo.getService().setNew(false);
                 serviceIsPresent.add(newServiceInfo);
@@ -467,7 +496,7 @@ public class ServicesInfo extends EditableInfo {
                 }
             }
             final DefaultMutableTreeNode node = newServiceInfo.getNode();
-            if (node != null) {
+            if (node != null && (cibChanges == null || cibChanges.isStructureChanged())) {
                 treeMenuController.moveNodeToPosition(node, pos);
                 pos++;
             }
@@ -479,20 +508,65 @@ public class ServicesInfo extends EditableInfo {
                 setEntry.getKey().setUpdated(false);
             }
         }
+        if (Application.isLive(runMode)) {
+            /* the status might have changed, e.g. after a cleanup */
+            for (final ServiceInfo serviceInfo : unchangedServices) {
+                serviceInfo.setUpdated(false);
+            }
+        }
         if (newService) {
             treeMenuController.reloadNode(getBrowser().getServicesNode(), false);
         }
         hg.repaint();
     }
 
+    /** Stops the animation of the constraint placeholders, that are not new. */
+    private void setConstraintPlaceholdersUpdated() {
+        getBrowser().lockNameToServiceInfo();
+        final Map<String, ServiceInfo> idToInfoHash = getBrowser().getNameToServiceInfoHash(ConstraintPHInfo.NAME);
+        final Collection<ServiceInfo> cphis = new ArrayList<ServiceInfo>();
+        if (idToInfoHash != null) {
+            cphis.addAll(idToInfoHash.values());
+        }
+        getBrowser().unlockNameToServiceInfo();
+        for (final ServiceInfo cphi : cphis) {
+            if (!cphi.getService().isNew()) {
+                cphi.setUpdated(false);
+            }
+        }
+    }
+
+    /** Returns whether the resource must be updated from the cluster status. */
+    private boolean isChanged(final CibChanges cibChanges, final String crmId) {
+        return cibChanges == null || cibChanges.isChanged(crmId);
+    }
+
     /**
      * This functions goes through all services, constrains etc. in
      * clusterStatus and updates the internal structures and graph.
      */
     public void setAllResources(final ClusterStatus clStatus, final Application.RunMode runMode) {
+        setAllResources(clStatus, null, runMode);
+    }
+
+    /**
+     * Updates the internal structures and graph like
+     * {@link #setAllResources(ClusterStatus, Application.RunMode)}, but sets
+     * parameters only of the resources from the cib changes, and leaves the
+     * constraints alone if they didn't change. Null cib changes update all.
+     */
+    public void setAllResources(final ClusterStatus clStatus,
+                                final CibChanges liveCibChanges,
+                                final Application.RunMode runMode) {
         if (clStatus == null) {
             return;
         }
+        final CibChanges cibChanges;
+        if (Application.isLive(runMode)) {
+            cibChanges = liveCibChanges;
+        } else {
+            cibChanges = null;
+        }
         final Set<String> allGroupsAndClones = clStatus.getAllGroups();
         final CrmGraph hg = getBrowser().getCrmGraph();
         final List<ServiceInfo> groupServiceIsPresent = new ArrayList<ServiceInfo>();
@@ -502,7 +576,7 @@ public class ServicesInfo extends EditableInfo {
             GroupInfo newGi = null;
             if (clStatus.isClone(groupOrClone)) {
                 /* clone */
-                newCi = setCreateCloneInfo(groupOrClone, clStatus, runMode);
+                newCi = setCreateCloneInfo(groupOrClone, clStatus, cibChanges, runMode);
                 serviceIsPresent.add(newCi);
             } else if (!"none".equals(groupOrClone)) {
                 /* group */
@@ -512,7 +586,7 @@ public class ServicesInfo extends EditableInfo {
                     groupServiceIsPresent.add(gi);
                     continue;
                 }
-                newGi = setCreateGroupInfo(groupOrClone, newCi, clStatus, runMode);
+                newGi = setCreateGroupInfo(groupOrClone, newCi, clStatus, cibChanges, runMode);
                 serviceIsPresent.add(newGi);
             }
             setGroupResources(allGroupsAndClones,
@@ -522,8 +596,15 @@ public class ServicesInfo extends EditableInfo {
                               serviceIsPresent,
                               groupServiceIsPresent,
                               clStatus,
+                              cibChanges,
                               runMode);
         }
+        if (cibChanges != null && !cibChanges.isStructureChanged() && !cibChanges.isConstraintsChanged()) {
+            /* the same vertices and edges */
+            setConstraintPlaceholdersUpdated();
+            hg.repaint();
+            return;
+        }
 
         hg.clearKeepColocationList();
         hg.clearKeepOrderList();
@@ -832,9 +913,8 @@ public class ServicesInfo extends EditableInfo {
                     final ClusterStatus clStatus = getBrowser().getClusterStatus();
                     clStatus.setPtestResult(null);
                     apply(dcHost, Application.RunMode.TEST);
-                    final PtestData ptestData = new PtestData(CRM.getPtest(dcHost));
+                    final PtestData ptestData = clStatus.runPtest(dcHost);
                     component.setToolTipText(ptestData.getToolTip());
-                    clStatus.setPtestResult(ptestData);
                 } finally {
                     getBrowser().ptestLockRelease();
                 }
@@ -0,0 +1,251 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.drbd.domain;
+
+/**
+ * One line from the drbdsetup .. events command, split into the fields by a
+ * tokenizer, without regular expressions and without copying the line.
+ *
+ * 8.3:  "2 ST 0 { cs:Connected st:Primary/Secondary ds:UpToDate/UpToDate r--- }"
+ * 8.4:  "2 ST 0,r0[0] { cs:Connected ro:Primary/Secondary ds:UpToDate/UpToDate r----- }"
+ *       "19 SP 0 16.9"
+ *       "19 UH 1 split-brain"
+ */
+final class DrbdEvent {
+    static final char STATE = 'T';
+    static final char SYNC_PROGRESS = 'P';
+    static final char HELPER = 'H';
+
+    private final char type;
+    private final String devNr;
+    private final String[] fields;
+
+    private DrbdEvent(final char type, final String devNr, final String... fields) {
+        this.type = type;
+        this.devNr = devNr;
+        this.fields = fields;
+    }
+
+    /** Returns the parsed event or null, if it's not an event, that we know. */
+    static DrbdEvent parse(final String line) {
+        final int end = line.length();
+        int pos = skipSpaces(line, 0, end);
+        /* counter, not used */
+        final int counterEnd = skipDigits(line, pos, end);
+        if (counterEnd == pos) {
+            return null;
+        }
+        pos = skipSpaces(line, counterEnd, end);
+        if (pos == counterEnd || pos + 2 > end) {
+            return null;
+        }
+        final char t1 = line.charAt(pos);
+        final char t2 = line.charAt(pos + 1);
+        pos += 2;
+        final int devStart = skipSpaces(line, pos, end);
+        if (devStart == pos) {
+            return null;
+        }
+        final int devEnd = skipNonSpaces(line, devStart, end);
+        if (devEnd == devStart) {
+            return null;
+        }
+        final String dev = getDevNr(line, devStart, devEnd);
+        if (t1 == 'S' && t2 == 'T') {
+            return parseState(line, dev, devEnd, end);
+        } else if (t1 == 'S' && t2 == 'P') {
+            return parseSyncProgress(line, dev, devEnd, end);
+        } else if (t1 == 'U' && t2 == 'H') {
+            return parseHelper(line, dev, devEnd, end);
+        }
+        return null;
+    }
+
+    char getType() {
+        return type;
+    }
+
+    String getDevNr() {
+        return devNr;
+    }
+
+    String getConnectionState() {
+        return fields[0];
+    }
+
+    String getNodeState() {
+        return fields[1];
+    }
+
+    String getNodeStateOther() {
+        return fields[2];
+    }
+
+    String getDiskState() {
+        return fields[3];
+    }
+
+    String getDiskStateOther() {
+        return fields[4];
+    }
+
+    String getFlags() {
+        return fields[5];
+    }
+
+    String getSyncedProgress() {
+        return fields[0];
+    }
+
+    String getHelper() {
+        return fields[0];
+    }
+
+    /** { cs:(\S+) (?:st|ro):(\S+)/(\S+) ds:(\S+)/(\S+) (\S+) */
+    private static DrbdEvent parseState(final String line, final String dev, final int from, final int end) {
+        int pos = skipSpaces(line, from, end);
+        if (pos == from || pos >= end || line.charAt(pos) != '{') {
+            return null;
+        }
+        pos++;
+        final int csStart = skipSpaces(line, pos, end);
+        if (csStart == pos || !line.startsWith("cs:", csStart)) {
+            return null;
+        }
+        final int csEnd = skipNonSpaces(line, csStart + 3, end);
+        pos = skipSpaces(line, csEnd, end);
+        if (csEnd == csStart + 3 || pos == csEnd || !(line.startsWith("ro:", pos) || line.startsWith("st:", pos))) {
+            return null;
+        }
+        final int roStart = pos + 3;
+        final int roEnd = skipNonSpaces(line, roStart, end);
+        final int roSlash = lastIndexOf(line, '/', roStart, roEnd);
+        pos = skipSpaces(line, roEnd, end);
+        if (roSlash <= roStart || roSlash == roEnd - 1 || pos == roEnd || !line.startsWith("ds:", pos)) {
+            return null;
+        }
+        final int dsStart = pos + 3;
+        final int dsEnd = skipNonSpaces(line, dsStart, end);
+        final int dsSlash = lastIndexOf(line, '/', dsStart, dsEnd);
+        final int flagsStart = skipSpaces(line, dsEnd, end);
+        final int flagsEnd = skipNonSpaces(line, flagsStart, end);
+        if (dsSlash <= dsStart || dsSlash == dsEnd - 1 || flagsStart == dsEnd || flagsEnd == flagsStart) {
+            return null;
+        }
+        return new DrbdEvent(STATE,
+                             dev,
+                             line.substring(csStart + 3, csEnd),
+                             line.substring(roStart, roSlash),
+                             line.substring(roSlash + 1, roEnd),
+                             line.substring(dsStart, dsSlash),
+                             line.substring(dsSlash + 1, dsEnd),
+                             line.substring(flagsStart, flagsEnd));
+    }
+
+    /** One space and (\d+\.\d+) */
+    private static DrbdEvent parseSyncProgress(final String line, final String dev, final int from, final int end) {
+        final int start = from + 1;
+        if (start >= end || !Character.isWhitespace(line.charAt(from))) {
+            return null;
+        }
+        final int dot = skipDigits(line, start, end);
+        if (dot == start || dot >= end || line.charAt(dot) != '.') {
+            return null;
+        }
+        final int numberEnd = skipDigits(line, dot + 1, end);
+        if (numberEnd == dot + 1) {
+            return null;
+        }
+        return new DrbdEvent(SYNC_PROGRESS, dev, line.substring(start, numberEnd));
+    }
+
+    /** One space and ([a-z-]+) */
+    private static DrbdEvent parseHelper(final String line, final String dev, final int from, final int end) {
+        final int start = from + 1;
+        if (start >= end || !Character.isWhitespace(line.charAt(from))) {
+            return null;
+        }
+        int pos = start;
+        while (pos < end) {
+            final char c = line.charAt(pos);
+            if ((c < 'a' || c > 'z') && c != '-') {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            return null;
+        }
+        return new DrbdEvent(HELPER, dev, line.substring(start, pos));
+    }
+
+    /** Returns the minor from "0" or from "0,r0[0]" since 8.4. */
+    private static String getDevNr(final String line, final int start, final int end) {
+        final int digitsEnd = skipDigits(line, start, end);
+        if (digitsEnd > start
+            && digitsEnd < end
+            && line.charAt(digitsEnd) == ','
+            && line.charAt(end - 1) == ']') {
+            final int volumeStart = line.lastIndexOf('[', end - 1);
+            if (volumeStart > digitsEnd + 1 && skipDigits(line, volumeStart + 1, end - 1) == end - 1) {
+                return line.substring(start, digitsEnd);
+            }
+        }
+        return line.substring(start, end);
+    }
+
+    private static int skipSpaces(final String line, final int from, final int end) {
+        int pos = from;
+        while (pos < end && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipNonSpaces(final String line, final int from, final int end) {
+        int pos = from;
+        while (pos < end && !Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipDigits(final String line, final int from, final int end) {
+        int pos = from;
+        while (pos < end) {
+            final char c = line.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int lastIndexOf(final String line, final char c, final int from, final int end) {
+        for (int pos = end - 1; pos >= from; pos--) {
+            if (line.charAt(pos) == c) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+}
@@ -23,6 +23,7 @@
 package lcmc.drbd.domain;
 
 import java.math.BigInteger;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -32,6 +33,8 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -76,6 +79,7 @@ public class DrbdXml extends XML {
     public static final String[] EMPTY_STRING = new String[0];
 
     private static final Pattern UNIT_PATTERN = Pattern.compile("(\\d*)([kmgtsKMGTS]?)");
+    private static final String NO_DRBD_RESPONSE = "No response from the DRBD driver! Is the module loaded?";
     public static final String GLOBAL_SECTION = "global";
     public static final Value PROTOCOL_A = new StringValue("A", "A / Asynchronous");
     public static final Value PROTOCOL_B = new StringValue("B", "B / Semi-Synchronous");
@@ -327,6 +331,9 @@ public class DrbdXml extends XML {
     private final Collection<String> proxyHostNames = new LinkedHashSet<String>();
     /** Map from host to the boolean value if drbd is loaded on this host. */
     private final Map<String, Boolean> hostDrbdLoadedMap = new HashMap<String, Boolean>();
+    /** Map from host and drbd minor to the block device, for the events. */
+    private final ConcurrentMap<String, ConcurrentMap<String, BlockDevInfo>> hostMinorBlockDevInfoMap =
+                                        new ConcurrentHashMap<String, ConcurrentMap<String, BlockDevInfo>>();
     private boolean unknownSections = false;
     private String oldConfig = null;
     @Inject
@@ -1118,7 +1125,7 @@ public class DrbdXml extends XML {
             }
             return;
         }
-        final Document document = getXMLDocument(configXML.substring(start));
+        final Document document = getXMLDocument(CharBuffer.wrap(configXML, start, configXML.length()));
         if (document == null) {
             return;
         }
@@ -1236,6 +1243,36 @@ public class DrbdXml extends XML {
         return null;
     }
 
+    /**
+     * Returns block device object from the host and the minor. The block
+     * devices that were found are kept in the index, as long as they are in
+     * the graph. Can return null.
+     */
+    private BlockDevInfo getIndexedBlockDevInfo(final String devNr,
+                                                final String hostName,
+                                                final DrbdGraph drbdGraph) {
+        ConcurrentMap<String, BlockDevInfo> minorMap = hostMinorBlockDevInfoMap.get(hostName);
+        if (minorMap == null) {
+            minorMap = new ConcurrentHashMap<String, BlockDevInfo>();
+            final ConcurrentMap<String, BlockDevInfo> otherMap =
+                                                        hostMinorBlockDevInfoMap.putIfAbsent(hostName, minorMap);
+            if (otherMap != null) {
+                minorMap = otherMap;
+            }
+        }
+        BlockDevInfo bdi = minorMap.get(devNr);
+        if (bdi != null && drbdGraph.containsBlockDevInfo(bdi)) {
+            return bdi;
+        }
+        bdi = getBlockDevInfo(devNr, hostName, drbdGraph);
+        if (bdi == null) {
+            minorMap.remove(devNr);
+        } else {
+            minorMap.put(devNr, bdi);
+        }
+        return bdi;
+    }
+
     /**
      * Parses events from drbd kernel module obtained via drbdsetup .. events
      * command and stores the values in the BlockDevice object.
@@ -1245,78 +1282,54 @@ public class DrbdXml extends XML {
             return false;
         }
 
-        final String output = rawOutput.trim();
-        if (output != null && output.isEmpty()) {
-            return false;
-        }
-        if ("No response from the DRBD driver! Is the module loaded?".equals(
-                output)) {
-            if (hostDrbdLoadedMap.get(hostName)) {
-                hostDrbdLoadedMap.put(hostName, false);
-                return true;
-            } else {
+        final DrbdEvent event = DrbdEvent.parse(rawOutput);
+        if (event == null) {
+            final String output = rawOutput.trim();
+            if (output.isEmpty()) {
+                return false;
+            }
+            if (NO_DRBD_RESPONSE.equals(output)) {
+                if (hostDrbdLoadedMap.get(hostName)) {
+                    hostDrbdLoadedMap.put(hostName, false);
+                    return true;
+                }
                 return false;
             }
-        } else {
             hostDrbdLoadedMap.put(hostName, true);
+            return false;
         }
+        hostDrbdLoadedMap.put(hostName, true);
         /* since drbd 8.3 there is ro: instead of st: */
         /* since drbd 8.4 there is ro: instead of st: */
-        Pattern p = Pattern.compile("^(\\d+)\\s+ST\\s+(\\S+)\\s+\\{\\s+cs:(\\S+)\\s+"
-                                    + "(?:st|ro):(\\S+)/(\\S+)\\s+ds:(\\S+)/(\\S+)\\s+(\\S+).*?");
-        Matcher m = p.matcher(output);
-        final Pattern pDev = Pattern.compile("^(\\d+),(\\S+)\\[(\\d+)\\]$");
-        if (m.matches()) {
-            /* String counter      = m.group(1); // not used */
-            final String devNrString  = m.group(2);
-            final String cs           = m.group(3);
-            final String ro1          = m.group(4);
-            final String ro2          = m.group(5);
-            final String ds1          = m.group(6);
-            final String ds2          = m.group(7);
-            final String flags        = m.group(8);
-
-            final Matcher mDev = pDev.matcher(devNrString);
-            String devNr = devNrString;
-            if (mDev.matches()) { /* since 8.4 */
-                devNr = mDev.group(1);
-            }
+        final String devNr = event.getDevNr();
+        if (event.getType() == DrbdEvent.STATE) {
+            final String cs = event.getConnectionState();
+            final String ro1 = event.getNodeState();
+            final String ds1 = event.getDiskState();
+            final String flags = event.getFlags();
             /* get blockdevice object from device */
-            final String disk = getBackingDisk(devNr, hostName);
-            if (disk != null) {
-                final BlockDevInfo bdi = drbdGraph.findBlockDevInfo(hostName, disk);
-                if (bdi != null) {
-                    if (bdi.getBlockDevice().isDifferent(cs, ro1, ds1, flags)) {
-                        bdi.getBlockDevice().setDrbdBackingDisk(disk);
-                        bdi.getBlockDevice().setConnectionState(cs);
-                        bdi.getBlockDevice().setNodeState(ro1);
-                        bdi.getBlockDevice().setDiskState(ds1);
-                        bdi.getBlockDevice().setNodeStateOther(ro2);
-                        bdi.getBlockDevice().setDiskStateOther(ds2);
-                        bdi.getBlockDevice().setDrbdFlags(flags);
-                        bdi.updateInfo();
-                        return true;
-                    } else {
-                        return false;
-                    }
+            final BlockDevInfo bdi = getIndexedBlockDevInfo(devNr, hostName, drbdGraph);
+            if (bdi != null) {
+                if (bdi.getBlockDevice().isDifferent(cs, ro1, ds1, flags)) {
+                    bdi.getBlockDevice().setDrbdBackingDisk(getBackingDisk(devNr, hostName));
+                    bdi.getBlockDevice().setConnectionState(cs);
+                    bdi.getBlockDevice().setNodeState(ro1);
+                    bdi.getBlockDevice().setDiskState(ds1);
+                    bdi.getBlockDevice().setNodeStateOther(event.getNodeStateOther());
+                    bdi.getBlockDevice().setDiskStateOther(event.getDiskStateOther());
+                    bdi.getBlockDevice().setDrbdFlags(flags);
+                    bdi.updateInfo();
+                    return true;
+                } else {
+                    return false;
                 }
             }
             return false;
         }
-        /* 19 SP 0 16.9 */
-        p = Pattern.compile("^(\\d+)\\s+SP\\s+(\\S+)\\s(\\d+\\.\\d+).*");
-        m = p.matcher(output);
-        if (m.matches()) {
-            /* String counter      = m.group(1); // not used */
-            final String devNrString = m.group(2);
-            final String synced = m.group(3);
-
-            final Matcher mDev = pDev.matcher(devNrString);
-            String devNr = devNrString;
-            if (mDev.matches()) { /* since 8.4 */
-                devNr = mDev.group(1);
-            }
-            final BlockDevInfo bdi = getBlockDevInfo(devNr, hostName, drbdGraph);
+        if (event.getType() == DrbdEvent.SYNC_PROGRESS) {
+            /* 19 SP 0 16.9 */
+            final String synced = event.getSyncedProgress();
+            final BlockDevInfo bdi = getIndexedBlockDevInfo(devNr, hostName, drbdGraph);
             if (bdi != null && bdi.getBlockDevice().isDrbd()) {
                 if (Tools.areEqual(bdi.getBlockDevice().getSyncedProgress(), synced)) {
                     return false;
@@ -1329,32 +1342,20 @@ public class DrbdXml extends XML {
             return false;
         }
         /* 19 UH 1 split-brain */
-        p = Pattern.compile("^(\\d+)\\s+UH\\s+(\\S+)\\s([a-z-]+).*");
-        m = p.matcher(output);
-        if (m.matches()) {
-            /* String counter      = m.group(1); // not used */
-            final String devNrString = m.group(2);
-            final String what = m.group(3);
-            final Matcher mDev = pDev.matcher(devNrString);
-            String devNr = devNrString;
-            if (mDev.matches()) { /* since 8.4 */
-                devNr = mDev.group(1);
-            }
-            LOG.debug("parseDrbdEvent: event: " + devNr + " - " + what);
-            if ("split-brain".equals(what)) {
-                final BlockDevInfo bdi = getBlockDevInfo(devNr, hostName, drbdGraph);
+        final String what = event.getHelper();
+        LOG.debug("parseDrbdEvent: event: " + devNr + " - " + what);
+        if ("split-brain".equals(what)) {
+            final BlockDevInfo bdi = getIndexedBlockDevInfo(devNr, hostName, drbdGraph);
 
-                if (bdi != null && bdi.getBlockDevice().isDrbd()) {
-                    if (bdi.getBlockDevice().isSplitBrain()) {
-                        return false;
-                    } else {
-                        bdi.getBlockDevice().setSplitBrain(true);
-                        bdi.updateInfo();
-                        return true;
-                    }
+            if (bdi != null && bdi.getBlockDevice().isDrbd()) {
+                if (bdi.getBlockDevice().isSplitBrain()) {
+                    return false;
+                } else {
+                    bdi.getBlockDevice().setSplitBrain(true);
+                    bdi.updateInfo();
+                    return true;
                 }
             }
-            return false;
         }
         return false;
     }
@@ -780,6 +780,11 @@ public class DrbdGraph extends ResourceGraph {
         return bdi.getBlockDevice();
     }
 
+    /** Returns whether the block device is still in the graph. */
+    public boolean containsBlockDevInfo(final BlockDevInfo bdi) {
+        return bdiToVertexMap.containsKey(bdi);
+    }
+
     /**
      * Finds BlockDevInfo object on the specified host for block device
      * represented as a string and returns it.
@@ -47,7 +47,6 @@ import lcmc.cluster.ui.ClusterBrowser;
 import lcmc.common.ui.EditableInfo;
 import lcmc.common.ui.Info;
 import lcmc.common.ui.utils.ButtonCallback;
-import lcmc.crm.service.CRM;
 import lcmc.common.ui.utils.ComponentWithTest;
 import lcmc.common.domain.util.Tools;
 import lcmc.common.ui.utils.UpdatableItem;
@@ -237,9 +236,8 @@ public class MultiSelectionInfo extends EditableInfo {
                     final ClusterStatus cs = getBrowser().getClusterStatus();
                     cs.setPtestResult(null);
                     apply(dcHost, Application.RunMode.TEST);
-                    final PtestData ptestData = new PtestData(CRM.getPtest(dcHost));
+                    final PtestData ptestData = cs.runPtest(dcHost);
                     component.setToolTipText(ptestData.getToolTip());
-                    cs.setPtestResult(ptestData);
                 } finally {
                     getBrowser().ptestLockRelease();
                 }
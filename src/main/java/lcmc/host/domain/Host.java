@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
@@ -72,11 +73,11 @@ import lcmc.common.ui.TerminalPanel;
 import lcmc.drbd.domain.DrbdHost;
 import lcmc.drbd.domain.DrbdXml;
 import lcmc.common.domain.Application;
+import lcmc.common.domain.HelperFrameDecoder;
 import lcmc.common.domain.StringValue;
 import lcmc.common.domain.Value;
 import lcmc.drbd.domain.BlockDevice;
 import lcmc.drbd.domain.NetInterface;
-import lcmc.vm.domain.VmsXml;
 import lcmc.common.ui.CategoryInfo;
 import lcmc.robotest.RoboTest;
 import lcmc.common.domain.ConnectionCallback;
@@ -86,8 +87,11 @@ import lcmc.common.domain.ExecCallback;
 import lcmc.logger.Logger;
 import lcmc.logger.LoggerFactory;
 import lcmc.common.domain.NewOutputCallback;
+import lcmc.common.domain.StreamOutputCallback;
+import lcmc.common.domain.util.CommandTemplate;
 import lcmc.common.domain.util.Tools;
 import lcmc.common.domain.Unit;
+import lcmc.cluster.service.ssh.CommandScheduler;
 import lcmc.cluster.service.ssh.ExecCommandConfig;
 import lcmc.cluster.service.ssh.Ssh;
 import lcmc.cluster.service.ssh.ExecCommandThread;
@@ -134,6 +138,8 @@ public class Host implements Comparable<Host>, Value {
     private static final String GUI_OPTIONS_INFO_DELIM = "gui-options-info";
     private static final String VERSION_INFO_DELIM = "version-info";
     private static final String DRBD_PROXY_INFO_DELIM = "drbd-proxy-info";
+    /** First line of the hw info from the daemon, "hw-info-seq <n>". */
+    private static final String HW_INFO_SEQ = "hw-info-seq ";
 
     private static final Collection<String> INFO_TYPES =
              new HashSet<String>(Arrays.asList(new String[]{NET_INFO_DELIM,
@@ -230,6 +236,8 @@ public class Host implements Comparable<Host>, Value {
     private boolean crmStatusOk = false;
     private String sshPort = null;
     private Boolean useSudo = null;
+    /** Ssh transport compression, null means the SSH.Compression default. */
+    private Boolean sshCompression = null;
     private String sudoPassword = "";
     /** A gate that is used to synchronize the loading sequence. */
     private CountDownLatch isLoadingGate;
@@ -246,6 +254,12 @@ public class Host implements Comparable<Host>, Value {
     private List<BlockDevice> physicalVolumes = new ArrayList<BlockDevice>();
     private Map<String, Long> volumeGroups = new LinkedHashMap<String, Long>();
     private Map<String, Set<String>> volumeGroupsWithLvs = new HashMap<String, Set<String>>();
+    /** Block devices from the last disk-info, if only vg-info changes. */
+    private Collection<BlockDevice> lastBlockDevices = new ArrayList<BlockDevice>();
+    /** Sequence number of the last hw info from the hw info daemon. */
+    private int hwInfoSeq = 0;
+    /** Content hashes of the hw info sections from the hw info daemon. */
+    private final Map<String, String> hwInfoSectionHashes = new HashMap<String, String>();
     private boolean savable = true;
     /** Ping is set every 10s. */
     private volatile AtomicBoolean ping = new AtomicBoolean(true);
@@ -269,6 +283,8 @@ public class Host implements Comparable<Host>, Value {
     @Inject
     private Ssh ssh;
     @Inject
+    private CommandScheduler commandScheduler;
+    @Inject
     private HostBrowser hostBrowser;
     @Inject
     private Provider<DrbdXml> drbdXmlProvider;
@@ -702,28 +718,16 @@ public class Host implements Comparable<Host>, Value {
      * what-with-what hash.
      */
     public String getDistCommand(final String commandString, final Map<String, String> replaceHash) {
-        return Tools.getDistCommand(
-                    commandString,
-                    distributionName,
-                    distributionVersionString,
-                    arch,
-                    new ConvertCmdCallback() {
-                        @Override
-                        public String convert(String command) {
-                            for (final String tag : replaceHash.keySet()) {
-                                if (tag != null && command.contains(tag)) {
-                                    String s = replaceHash.get(tag);
-                                    if (s == null) {
-                                        s = "";
-                                    }
-                                    command = command.replaceAll(tag, s);
-                                }
-                            }
-                            return command;
-                        }
-                    },
-                    false,  /* in bash */
-                    false); /* sudo */
+        if (commandString == null) {
+            return null;
+        }
+        return Tools.getDistCommandTemplate(commandString,
+                                            distributionName,
+                                            distributionVersionString,
+                                            arch,
+                                            false,  /* in bash */
+                                            false)  /* sudo */
+                    .render(replaceHash);
     }
 
     /**
@@ -815,13 +819,9 @@ public class Host implements Comparable<Host>, Value {
     public void waitForDrbdStatusFinish() {
         final ExecCommandThread dst = drbdStatusThread;
         if (dst != null) {
-            try {
-                /* it probably hangs after this timeout, so it will be
-                 * killed. */
-                dst.join();
-            } catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            /* it probably hangs after this timeout, so it will be
+             * killed. */
+            dst.block();
             stopDrbdStatus();
         }
     }
@@ -848,11 +848,7 @@ public class Host implements Comparable<Host>, Value {
         if (cst == null) {
             return;
         }
-        try {
-            cst.join();
-        } catch (final InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        cst.block();
         crmStatusThread = null;
     }
 
@@ -895,6 +891,23 @@ public class Host implements Comparable<Host>, Value {
         return username;
     }
 
+    /** Returns the username for the hop, root if it is not specified. */
+    public String getUsername(final int hop) {
+        final String[] usernames = username.split(",");
+        if (usernames.length < hop + 1) {
+            return ROOT_USER;
+        }
+        return usernames[hop];
+    }
+
+    /** Returns number of hops, that are needed to get to this host. */
+    public int getHops() {
+        if (ipAddress == null) {
+            return 1;
+        }
+        return Tools.charCount(ipAddress, ',') + 1;
+    }
+
     /** Returns first username in a hop. */
     public String getFirstUsername() {
         final String[] usernames = username.split(",");
@@ -1245,20 +1258,36 @@ public class Host implements Comparable<Host>, Value {
             }  catch (final NumberFormatException nfe) {
                 LOG.debug("getOutput: could not parse: " + ts + ' ' + nfe);
             }
-            mInfoTimestampLock.lock();
-            if (timestamp != null
-                && (!infoTimestamp.containsKey(type) || timestamp >= infoTimestamp.get(type))) {
-                infoTimestamp.put(type, timestamp);
-                mInfoTimestampLock.unlock();
+            if (isNewerInfo(type, timestamp)) {
                 out = buffer.substring(s2 + 2, e);
-            } else {
-                mInfoTimestampLock.unlock();
             }
             buffer.delete(0, e + infoEndLength + 2);
         }
         return out;
     }
 
+    /** Returns the content of the frame, unless newer info was already seen. */
+    public String getOutput(final HelperFrameDecoder.Frame frame) {
+        if (isNewerInfo(frame.getType(), frame.getTimestamp())) {
+            return frame.getContent();
+        }
+        return null;
+    }
+
+    private boolean isNewerInfo(final String type, final Double timestamp) {
+        mInfoTimestampLock.lock();
+        try {
+            if (timestamp != null
+                && (!infoTimestamp.containsKey(type) || timestamp >= infoTimestamp.get(type))) {
+                infoTimestamp.put(type, timestamp);
+                return true;
+            }
+            return false;
+        } finally {
+            mInfoTimestampLock.unlock();
+        }
+    }
+
     public void startPing() {
         ssh.execCommand(new ExecCommandConfig()
                          .commandString("PingCommand")
@@ -1273,9 +1302,9 @@ public class Host implements Comparable<Host>, Value {
                              public void doneError(final String ans, final int exitCode) {
                              }
                          })
-                         .newOutputCallback(new NewOutputCallback() {
+                         .newOutputCallback(new StreamOutputCallback() {
                              @Override
-                             public void output(final String output) {
+                             public void output(final CharSequence output) {
                                  ping.set(true);
                              }
                          })
@@ -1320,51 +1349,39 @@ public class Host implements Comparable<Host>, Value {
                                  setLoadingError();
                              }
                          })
-                         .newOutputCallback(new NewOutputCallback() {
+                         .newOutputCallback(new StreamOutputCallback() {
                              private final StringBuffer outputBuffer = new StringBuffer(300);
+                             private final HelperFrameDecoder frameDecoder = new HelperFrameDecoder();
+                             private List<String> hwUpdates;
+                             private List<String> vmUpdates;
+                             private String drbdUpdate;
+
                              @Override
-                             public void output(final String output) {
-                                 outputBuffer.append(output);
+                             public void output(final CharSequence output) {
+                                 frameDecoder.append(output);
+                                 hwUpdates = new ArrayList<String>();
+                                 vmUpdates = new ArrayList<String>();
+                                 drbdUpdate = null;
+                                 if (frameDecoder.isFramed()) {
+                                     parseFrames();
+                                 } else if (frameDecoder.isText()) {
+                                     parseTextOutput(frameDecoder.takeText());
+                                 } else {
+                                     return;
+                                 }
                                  final ClusterBrowser cb = getBrowser().getClusterBrowser();
-                                 String hw, vm, drbdConfig;
-                                 String hwUpdate = null;
-                                 String vmUpdate = null;
-                                 String drbdUpdate = null;
-                                 do {
-                                     hw = getOutput("hw", outputBuffer);
-                                     if (hw != null) {
-                                         hwUpdate = hw;
-                                     }
-                                     vm = getOutput("vm", outputBuffer);
-                                     if (vmStatusTryLock()) {
-                                         if (vm != null) {
-                                             vmUpdate = vm;
-                                         }
-                                         vmStatusUnlock();
+                                 if (!hwUpdates.isEmpty()) {
+                                     for (final String hw : hwUpdates) {
+                                         parseHostInfo(checkHWInfoSeq(hw));
                                      }
-                                     drbdStatusLock();
-                                     drbdConfig = getOutput("drbd", outputBuffer);
-                                     if (drbdConfig != null) {
-                                         drbdUpdate = drbdConfig;
-                                     }
-                                     drbdStatusUnlock();
-                                 } while (hw != null || vm != null || drbdConfig != null);
-
-                                 Tools.chomp(outputBuffer);
-                                 if (hwUpdate != null) {
-                                     parseHostInfo(hwUpdate);
                                      for (final ResourceGraph g : graphs) {
                                          if (g != null) {
                                              g.repaint();
                                          }
                                      }
                                  }
-                                 if (vmUpdate != null) {
-                                     final VmsXml newVmsXml = new VmsXml(host);
-                                     if (newVmsXml.update(vmUpdate)) {
-                                         cb.vmsXmlPut(host, newVmsXml);
-                                         cb.updateVms();
-                                     }
+                                 if (!vmUpdates.isEmpty()) {
+                                     cb.updateVms(host, vmUpdates);
                                  }
                                  if (drbdUpdate != null) {
                                      final DrbdXml dxml = drbdXmlProvider.get();
@@ -1380,7 +1397,7 @@ public class Host implements Comparable<Host>, Value {
                                      });
                                  }
                                  if (drbdUpdate != null
-                                     || vmUpdate != null) {
+                                     || !vmUpdates.isEmpty()) {
                                      cb.updateHWInfo(host, !Host.UPDATE_LVM);
                                  }
                                  if (drbdUpdate != null) {
@@ -1391,36 +1408,115 @@ public class Host implements Comparable<Host>, Value {
                                  }
                                  setLoadingDone();
                              }
+
+                             private void parseFrames() {
+                                 HelperFrameDecoder.Frame frame;
+                                 while ((frame = frameDecoder.nextFrame()) != null) {
+                                     final String type = frame.getType();
+                                     if ("hw".equals(type)) {
+                                         final String hw = getOutput(frame);
+                                         if (hw != null) {
+                                             hwUpdates.add(hw);
+                                         }
+                                     } else if ("vm".equals(type)) {
+                                         final String vm = getOutput(frame);
+                                         vmStatusLock();
+                                         if (vm != null) {
+                                             vmUpdates.add(vm);
+                                         }
+                                         vmStatusUnlock();
+                                     } else if ("drbd".equals(type)) {
+                                         drbdStatusLock();
+                                         final String drbdConfig = getOutput(frame);
+                                         if (drbdConfig != null) {
+                                             drbdUpdate = drbdConfig;
+                                         }
+                                         drbdStatusUnlock();
+                                     } else {
+                                         LOG.debug1("startHWInfoDaemon: " + getName() + ": ignoring frame: " + type);
+                                     }
+                                 }
+                             }
+
+                             /** Older helpers send the info between text markers. */
+                             private void parseTextOutput(final String output) {
+                                 outputBuffer.append(output);
+                                 String hw, vm, drbdConfig;
+                                 do {
+                                     hw = getOutput("hw", outputBuffer);
+                                     if (hw != null) {
+                                         hwUpdates.add(hw);
+                                     }
+                                     vm = getOutput("vm", outputBuffer);
+                                     vmStatusLock();
+                                     if (vm != null) {
+                                         vmUpdates.add(vm);
+                                     }
+                                     vmStatusUnlock();
+                                     drbdStatusLock();
+                                     drbdConfig = getOutput("drbd", outputBuffer);
+                                     if (drbdConfig != null) {
+                                         drbdUpdate = drbdConfig;
+                                     }
+                                     drbdStatusUnlock();
+                                 } while (hw != null || vm != null || drbdConfig != null);
+                                 Tools.chomp(outputBuffer);
+                             }
                          })
                          .silentCommand()
                          .silentOutput()
                          .sshCommandTimeout(HW_INFO_TIMEOUT)).block();
     }
 
+    /**
+     * Returns the hw info from the daemon without its sequence number. The
+     * daemon sends only the sections, that changed, so if a hw info is
+     * missing, the whole hw info is fetched again. The first one after the
+     * daemon started has all sections.
+     */
+    String checkHWInfoSeq(final String hw) {
+        if (!hw.startsWith(HW_INFO_SEQ)) {
+            return hw;
+        }
+        final int end = hw.indexOf('\n');
+        final int seq;
+        try {
+            seq = Integer.parseInt(hw.substring(HW_INFO_SEQ.length(), end < 0 ? hw.length() : end).trim());
+        } catch (final NumberFormatException e) {
+            LOG.appWarning("checkHWInfoSeq: " + getName() + ": could not parse: " + e);
+            return hw;
+        }
+        if (seq != 1 && seq != hwInfoSeq + 1) {
+            LOG.debug1("checkHWInfoSeq: " + getName() + ": missed hw info " + (hwInfoSeq + 1) + " - " + (seq - 1));
+            commandScheduler.submit(getName(), new Runnable() {
+                @Override
+                public void run() {
+                    getHWInfo(!UPDATE_LVM);
+                }
+            });
+        }
+        hwInfoSeq = seq;
+        return end < 0 ? "" : hw.substring(end + 1);
+    }
+
     public void startConnectionStatus() {
-        final Thread thread = new Thread(new Runnable() {
+        commandScheduler.repeat(new Callable<Boolean>() {
             @Override
-            public void run() {
-                while (true) {
-                    if (ping.get()) {
-                       LOG.debug2("startConnectionStatus: connection ok on " + getName());
-                       setConnected();
-                       ping.set(false);
-                    } else {
-                       LOG.debug2("startConnectionStatus: connection lost on " + getName());
-                       getSSH().forceReconnect();
-                       setConnected();
-                    }
-                    Tools.sleep(PING_TIMEOUT);
-                    final ClusterBrowser cb = getBrowser().getClusterBrowser();
-                    /* cluster could be removed */
-                    if (cb == null || cb.isCancelServerStatus()) {
-                        break;
-                    }
+            public Boolean call() {
+                if (ping.get()) {
+                   LOG.debug2("startConnectionStatus: connection ok on " + getName());
+                   setConnected();
+                   ping.set(false);
+                } else {
+                   LOG.debug2("startConnectionStatus: connection lost on " + getName());
+                   getSSH().forceReconnect();
+                   setConnected();
                 }
+                final ClusterBrowser cb = getBrowser().getClusterBrowser();
+                /* cluster could be removed */
+                return cb != null && !cb.isCancelServerStatus();
             }
-        });
-        thread.start();
+        }, PING_TIMEOUT);
     }
 
     /** Returns whether host ssh connection was established. */
@@ -1454,53 +1550,53 @@ public class Host implements Comparable<Host>, Value {
      *
      * @return command with replaced variables
      */
-    public String replaceVars(String command, final boolean hidePassword) {
-        if (command.contains("@USER@")) {
-            command = command.replaceAll("@USER@", application.getDownloadUser());
+    public String replaceVars(final String command, final boolean hidePassword) {
+        final CommandTemplate template = CommandTemplate.compile(command);
+        if (!template.hasPlaceholders()) {
+            return command;
         }
-        if (command.indexOf("@PASSWORD@") > -1) {
+        return template.render(new CommandTemplate.Variables() {
+            @Override
+            public String get(final String placeholder) {
+                return getCommandVariable(placeholder, hidePassword);
+            }
+        });
+    }
+
+    /** Returns value of the variable in the command or null, if it's unknown. */
+    private String getCommandVariable(final String placeholder, final boolean hidePassword) {
+        if ("@USER@".equals(placeholder)) {
+            return application.getDownloadUser();
+        } else if ("@PASSWORD@".equals(placeholder)) {
             if (hidePassword) {
-                command = command.replaceAll("@PASSWORD@", "*****");
-            } else {
-                command = command.replaceAll("@PASSWORD@", application.getDownloadPassword());
+                return "*****";
             }
-        }
-        String supportDir = "support";
-        if (application.isStagingDrbd()) {
-            supportDir = "support/staging";
-        }
-        if (kernelVersion != null
-            && command.contains("@KERNELVERSIONDIR@")) {
-            command = command.replaceAll("@KERNELVERSIONDIR@", kernelVersion);
-        }
-        if (distributionVersion != null
-            && command.contains("@DISTRIBUTION@")) {
-            command = command.replaceAll("@DISTRIBUTION@", distributionVersion);
-        }
-        if (arch != null
-            && command.contains("@ARCH@")) {
-            command = command.replaceAll("@ARCH@", arch);
-        }
-        if (command.contains("@SUPPORTDIR@")) {
-            command = command.replaceAll("@SUPPORTDIR@", supportDir);
-        }
-        if (command.contains("@DRBDDIR@")) {
-            final String drbdDir = "drbd";
-            command = command.replaceAll("@DRBDDIR@", drbdDir);
-        }
-        if (command.contains("@GUI-HELPER@")) {
+            return application.getDownloadPassword();
+        } else if ("@KERNELVERSIONDIR@".equals(placeholder)) {
+            return kernelVersion;
+        } else if ("@DISTRIBUTION@".equals(placeholder)) {
+            return distributionVersion;
+        } else if ("@ARCH@".equals(placeholder)) {
+            return arch;
+        } else if ("@SUPPORTDIR@".equals(placeholder)) {
+            if (application.isStagingDrbd()) {
+                return "support/staging";
+            }
+            return "support";
+        } else if ("@DRBDDIR@".equals(placeholder)) {
+            return "drbd";
+        } else if ("@GUI-HELPER@".equals(placeholder)) {
             final StringBuilder helperProg = new StringBuilder("/usr/local/bin/lcmc-gui-helper-");
             helperProg.append(Tools.getRelease());
             if (application.isCmdLog()) {
                 helperProg.append(' ');
                 helperProg.append(LOG_COMMANDS_ON_SERVER_OPTION);
             }
-            command = command.replaceAll("@GUI-HELPER@", helperProg.toString());
-        }
-        if (command.contains("@GUI-HELPER-PROG@")) {
-            command = command.replaceAll("@GUI-HELPER-PROG@", "/usr/local/bin/lcmc-gui-helper-" + Tools.getRelease());
+            return helperProg.toString();
+        } else if ("@GUI-HELPER-PROG@".equals(placeholder)) {
+            return "/usr/local/bin/lcmc-gui-helper-" + Tools.getRelease();
         }
-        return command;
+        return null;
     }
 
     /**
@@ -1561,6 +1657,21 @@ public class Host implements Comparable<Host>, Value {
             if (INFO_TYPES.contains(line)) {
                 type = line;
                 changedTypes.add(type);
+                hwInfoSectionHashes.remove(type);
+                continue;
+            }
+            final int hashPos = line.indexOf(' ');
+            if (hashPos > 0 && INFO_TYPES.contains(line.substring(0, hashPos))) {
+                /* "disk-space <md5>" only changed sections from the daemon */
+                type = line.substring(0, hashPos);
+                final String hash = line.substring(hashPos + 1);
+                if (hash.equals(hwInfoSectionHashes.get(type))) {
+                    LOG.debug2("parseHostInfo: " + getName() + ": unchanged section: " + type);
+                    type = "";
+                } else {
+                    hwInfoSectionHashes.put(type, hash);
+                    changedTypes.add(type);
+                }
                 continue;
             }
             if ("net-info".equals(type)) {
@@ -1741,8 +1852,11 @@ public class Host implements Comparable<Host>, Value {
             drbdResourcesWithProxy = newDrbdResProxy;
         }
 
+        if (changedTypes.contains(DISK_INFO_DELIM)) {
+            lastBlockDevices = new ArrayList<BlockDevice>(newBlockDevices.values());
+        }
         if (changedTypes.contains(DISK_INFO_DELIM) || changedTypes.contains(VG_INFO_DELIM)) {
-            hwEventBus.post(new HwBlockDevicesChangedEvent(this, newBlockDevices.values()));
+            hwEventBus.post(new HwBlockDevicesChangedEvent(this, lastBlockDevices));
         }
     }
 
@@ -2121,6 +2235,22 @@ public class Host implements Comparable<Host>, Value {
         this.useSudo = useSudo;
     }
 
+    public Boolean getSshCompression() {
+        return sshCompression;
+    }
+
+    public void setSshCompression(final Boolean sshCompression) {
+        this.sshCompression = sshCompression;
+    }
+
+    /** Returns whether the ssh connection to this host should be compressed. */
+    public boolean isSshCompression() {
+        if (sshCompression == null) {
+            return "y".equals(Tools.getDefault("SSH.Compression"));
+        }
+        return sshCompression;
+    }
+
     public void setPacemakerInstallMethodIndex(final String pacemakerInstallMethodIndex) {
         this.pacemakerInstallMethodIndex = pacemakerInstallMethodIndex;
     }
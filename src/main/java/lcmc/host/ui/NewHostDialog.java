@@ -60,6 +60,7 @@ public class NewHostDialog extends DialogHost {
     private Widget usernameField;
     private Widget sshPortField;
     private Widget useSudoField;
+    private Widget compressionField;
     /** Whether the fields are big (if more hops are being used). */
     private boolean bigFields = false;
     /** Enable hostname after it was enabled at least once. */
@@ -87,6 +88,7 @@ public class NewHostDialog extends DialogHost {
         final String useSudoString = useSudoField.getStringValue().trim();
         getHost().setUseSudo("true".equals(useSudoString));
         application.setLastEnteredUseSudo("true".equals(useSudoString));
+        getHost().setSshCompression("true".equals(compressionField.getStringValue().trim()));
         if (!application.existsHost(getHost())) {
             application.addHostToHosts(getHost());
             guiData.setTerminalPanel(getHost().getTerminalPanel());
@@ -361,7 +363,27 @@ public class NewHostDialog extends DialogHost {
         inputPane.add(useSudoField.getComponent());
         useSudoField.setBackground(useSudoValue, useSudoValue, true);
 
-        SpringUtilities.makeCompactGrid(inputPane, 2, 4,  // rows, cols
+        /* ssh compression, for slow links */
+        final JLabel compressionLabel = new JLabel(Tools.getString("Dialog.Host.NewHost.Compression"));
+
+        inputPane.add(compressionLabel);
+        final Value compressionValue = new StringValue(Boolean.toString(getHost().isSshCompression()));
+        compressionField = widgetFactory.createInstance(
+                                      Widget.GUESS_TYPE,
+                                      compressionValue,
+                                      new Value[]{new StringValue("true"), new StringValue("false")},
+                                      Widget.NO_REGEXP,
+                                      50,
+                                      Widget.NO_ABBRV,
+                                      new AccessMode(AccessMode.RO, AccessMode.NORMAL),
+                                      Widget.NO_BUTTON);
+        compressionLabel.setLabelFor(compressionField.getComponent());
+        inputPane.add(compressionField.getComponent());
+        compressionField.setBackground(compressionValue, compressionValue, true);
+        inputPane.add(new JLabel(""));
+        inputPane.add(new JLabel(""));
+
+        SpringUtilities.makeCompactGrid(inputPane, 3, 4,  // rows, cols
                                                    1, 1,  // initX, initY
                                                    1, 1); // xPad, yPad
         p.add(inputPane, BorderLayout.PAGE_END);
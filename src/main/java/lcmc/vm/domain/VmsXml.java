@@ -52,8 +52,10 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import com.google.common.hash.Hashing;
 import lcmc.host.domain.Host;
 import lcmc.common.domain.StringValue;
 import lcmc.common.domain.Value;
@@ -82,6 +84,8 @@ public final class VmsXml extends XML {
     private static final Logger LOG = LoggerFactory.getLogger(VmsXml.class);
     /** Pattern that maches display e.g. :4. */
     private static final Pattern DISPLAY_PATTERN = Pattern.compile(".*:(\\d+)$");
+    private static final Pattern NAME_PATTERN = Pattern.compile("\\sname=\"([^\"]*)\"");
+    private static final Pattern MD5_PATTERN = Pattern.compile("\\smd5=\"([^\"]*)\"");
     public static final String VM_PARAM_NAME = "name";
     public static final String VM_PARAM_UUID = "uuid";
     public static final String VM_PARAM_DEFINED = "defined";
@@ -418,12 +422,58 @@ public final class VmsXml extends XML {
     private final Lock mXMLDocumentWriteLock = mXMLDocumentLock.writeLock();
     private Document xmlDocument = null;
     private String oldConfig = null;
+    /** Hashes of the <vm> elements from the last whole vm info, by domain name. */
+    private final Map<String, String> domainHashes = new HashMap<String, String>();
+    private String networksHash = null;
 
     public VmsXml(final Host definedOnHost) {
         super();
         this.definedOnHost = definedOnHost;
     }
 
+    /**
+     * Copy of the object, that the next update can change, while the old
+     * one is still used. The maps of the devices are shared, they are
+     * replaced and never changed.
+     */
+    public VmsXml(final VmsXml vmsXml) {
+        super();
+        definedOnHost = vmsXml.definedOnHost;
+        vmsXml.mXMLDocumentReadLock.lock();
+        try {
+            if (vmsXml.xmlDocument != null) {
+                xmlDocument = (Document) vmsXml.xmlDocument.cloneNode(true);
+            }
+        } finally {
+            vmsXml.mXMLDocumentReadLock.unlock();
+        }
+        oldConfig = vmsXml.oldConfig;
+        domainNames.addAll(vmsXml.domainNames);
+        configsToNames.putAll(vmsXml.configsToNames);
+        namesToConfigs.putAll(vmsXml.namesToConfigs);
+        netToConfigs.putAll(vmsXml.netToConfigs);
+        netNamesConfigsMap.putAll(vmsXml.netNamesConfigsMap);
+        parameterValues.putAll(vmsXml.parameterValues);
+        domainRemotePorts.putAll(vmsXml.domainRemotePorts);
+        domainAutoports.putAll(vmsXml.domainAutoports);
+        domainRunningMap.putAll(vmsXml.domainRunningMap);
+        domainSuspendedMap.putAll(vmsXml.domainSuspendedMap);
+        disksMap.putAll(vmsXml.disksMap);
+        filesystemsMap.putAll(vmsXml.filesystemsMap);
+        interfacesMap.putAll(vmsXml.interfacesMap);
+        inputDevsMap.putAll(vmsXml.inputDevsMap);
+        graphicsDevsMap.putAll(vmsXml.graphicsDevsMap);
+        soundsMap.putAll(vmsXml.soundsMap);
+        serialsMap.putAll(vmsXml.serialsMap);
+        parallelsMap.putAll(vmsXml.parallelsMap);
+        videosMap.putAll(vmsXml.videosMap);
+        networkMap.putAll(vmsXml.networkMap);
+        sourceFileDirs.addAll(vmsXml.sourceFileDirs);
+        usedMacAddresses.addAll(vmsXml.usedMacAddresses);
+        domainHashes.putAll(vmsXml.domainHashes);
+        networksHash = vmsXml.networksHash;
+    }
+
     public Node getDomainNode(final String domainName) {
         mXMLDocumentReadLock.lock();
         final Document document;
@@ -1141,25 +1191,102 @@ public final class VmsXml extends XML {
     }
 
     public boolean update() {
-        final String command = definedOnHost.getDistCommand("VMSXML.GetData", (ConvertCmdCallback) null);
-        final SshOutput ret = definedOnHost.captureCommand(new ExecCommandConfig().command(command)
-                                                                                  .silentCommand()
-                                                                                  .silentOutput());
-        if (ret.getExitCode() != 0) {
-            return false;
-        }
-        final String output = ret.getOutput();
+        final String output = getVmInfo(definedOnHost);
         if (output == null) {
             return false;
         }
         return update(output);
     }
 
+    /** Returns the whole vm info from the host or null, if it failed. */
+    public static String getVmInfo(final Host host) {
+        final String command = host.getDistCommand("VMSXML.GetData", (ConvertCmdCallback) null);
+        final SshOutput ret = host.captureCommand(new ExecCommandConfig().command(command)
+                                                                         .silentCommand()
+                                                                         .silentOutput());
+        if (ret.getExitCode() != 0) {
+            return null;
+        }
+        return ret.getOutput();
+    }
+
+    /** Whether the output has only the changed domains. */
+    public static boolean isDelta(final CharSequence output) {
+        return getVmsHeader(output).contains(" delta=\"true\"");
+    }
+
+    /** Whether the whole vm info has the same md5, as the last one, that was parsed on the host. */
+    public static boolean isUnchanged(final Host host, final CharSequence output) {
+        if (isDelta(output)) {
+            return false;
+        }
+        final Matcher m = MD5_PATTERN.matcher(getVmsHeader(output));
+        return m.find() && m.group(1).equals(host.getVMInfoMD5());
+    }
+
+    /** Returns the start tag of the vms element. */
+    private static String getVmsHeader(final CharSequence output) {
+        final int max = Math.min(output.length(), 200);
+        int start = -1;
+        for (int i = 0; i < max; i++) {
+            final char c = output.charAt(i);
+            if (c == '<' && start < 0) {
+                start = i;
+            } else if (c == '>' && start >= 0) {
+                return output.subSequence(start, i + 1).toString();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Updates the domains from the helper output. If the output has only
+     * the changed domains, they are merged into this object. Otherwise the
+     * md5 from the header is checked first and if this object has the
+     * domains from the last update, only the <vm> elements, that changed,
+     * are parsed.
+     */
     public boolean update(final String output) {
+        if (isDelta(output)) {
+            return mergeDelta(output);
+        }
+        final Matcher m = MD5_PATTERN.matcher(getVmsHeader(output));
+        final String md5 = m.find() ? m.group(1) : null;
+        if (md5 == null || md5.equals(definedOnHost.getVMInfoMD5())) {
+            return false;
+        }
+        final VmsOutput vmsOutput = VmsOutput.split(output);
+        final boolean hasDocument;
+        mXMLDocumentReadLock.lock();
+        try {
+            hasDocument = xmlDocument != null;
+        } finally {
+            mXMLDocumentReadLock.unlock();
+        }
+        if (hasDocument && vmsOutput != null) {
+            final Map<String, String> newDomainHashes = new HashMap<String, String>();
+            for (final Map.Entry<String, String> domain : vmsOutput.getDomains().entrySet()) {
+                newDomainHashes.put(domain.getKey(), hash(domain.getValue()));
+            }
+            final String newNetworksHash = hash(vmsOutput.getNetworks());
+            if (mergeDelta(createDelta(vmsOutput, newDomainHashes, newNetworksHash))) {
+                /* the hashes and the md5 are current only after the merge */
+                domainHashes.clear();
+                domainHashes.putAll(newDomainHashes);
+                networksHash = newNetworksHash;
+                oldConfig = output;
+                definedOnHost.setVMInfoMD5(md5);
+                return true;
+            }
+            LOG.appWarning("update: " + definedOnHost.getName() + ": merging failed, parsing everything");
+        }
         oldConfig = output;
         final Document document = getXMLDocument(output);
         mXMLDocumentWriteLock.lock();
         try {
+            if (hasDocument) {
+                clearDomains();
+            }
             xmlDocument = document;
         } finally {
             mXMLDocumentWriteLock.unlock();
@@ -1167,12 +1294,14 @@ public final class VmsXml extends XML {
         if (document == null) {
             return false;
         }
-        final Node vmsNode = getChildNode(document, "vms");
-        final String md5 = getAttribute(vmsNode, "md5");
-        if (md5 == null || md5.equals(definedOnHost.getVMInfoMD5())) {
-            return false;
-        }
         definedOnHost.setVMInfoMD5(md5);
+        if (vmsOutput != null) {
+            for (final Map.Entry<String, String> domain : vmsOutput.getDomains().entrySet()) {
+                domainHashes.put(domain.getKey(), hash(domain.getValue()));
+            }
+            networksHash = hash(vmsOutput.getNetworks());
+        }
+        final Node vmsNode = getChildNode(document, "vms");
         final NodeList vms = vmsNode.getChildNodes();
         for (int i = 0; i < vms.getLength(); i++) {
             final Node node = vms.item(i);
@@ -1187,6 +1316,139 @@ public final class VmsXml extends XML {
         return true;
     }
 
+    /**
+     * Returns a delta with the domains, that changed since the last update,
+     * and the removed ones. The networks are there, if they changed.
+     */
+    private String createDelta(final VmsOutput vmsOutput,
+                               final Map<String, String> newDomainHashes,
+                               final String newNetworksHash) {
+        final StringBuilder delta = new StringBuilder("<vms delta=\"true\">\n");
+        delta.append(vmsOutput.getVersion());
+        final Collection<String> removedDomains = new HashSet<String>(domainHashes.keySet());
+        for (final Map.Entry<String, String> domain : vmsOutput.getDomains().entrySet()) {
+            final String name = domain.getKey();
+            removedDomains.remove(name);
+            if (!newDomainHashes.get(name).equals(domainHashes.get(name))) {
+                delta.append(domain.getValue());
+            }
+        }
+        for (final String name : removedDomains) {
+            delta.append("<vm-removed name=\"").append(name).append("\"/>\n");
+        }
+        if (!newNetworksHash.equals(networksHash)) {
+            delta.append("<nets-removed/>\n");
+            delta.append(vmsOutput.getNetworks());
+        }
+        LOG.debug2("createDelta: " + definedOnHost.getName() + ": " + delta.length() + " of " + vmsOutput.getLength());
+        return delta.append("</vms>\n").toString();
+    }
+
+    private static String hash(final CharSequence text) {
+        return Hashing.md5().hashString(text, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Merges the changed domains into this object, the other domains are
+     * kept. The domains in <vm-removed/> elements don't exist anymore. If
+     * there are networks, they replace all the old ones. Returns false, if
+     * there is nothing to merge into.
+     */
+    private boolean mergeDelta(final String output) {
+        final Document delta = getXMLDocument(output);
+        if (delta == null) {
+            return false;
+        }
+        final NodeList changes = getChildNode(delta, "vms").getChildNodes();
+        mXMLDocumentWriteLock.lock();
+        try {
+            if (xmlDocument == null) {
+                return false;
+            }
+            final Node vmsNode = getChildNode(xmlDocument, "vms");
+            boolean networksReplaced = false;
+            for (int i = 0; i < changes.getLength(); i++) {
+                final Node node = changes.item(i);
+                if ("vm".equals(node.getNodeName()) || "vm-removed".equals(node.getNodeName())) {
+                    final String domainName = getAttribute(node, VM_PARAM_NAME);
+                    removeDomain(domainName);
+                    removeChildNodes(vmsNode, "vm", domainName);
+                    if ("vm".equals(node.getNodeName())) {
+                        updateVM(vmsNode.appendChild(xmlDocument.importNode(node, true)));
+                    }
+                } else if ("net".equals(node.getNodeName()) || "nets-removed".equals(node.getNodeName())) {
+                    if (!networksReplaced) {
+                        netToConfigs.clear();
+                        netNamesConfigsMap.clear();
+                        networkMap.clear();
+                        removeChildNodes(vmsNode, "net", null);
+                        networksReplaced = true;
+                    }
+                    if ("net".equals(node.getNodeName())) {
+                        updateNetworks(vmsNode.appendChild(xmlDocument.importNode(node, true)));
+                    }
+                } else if ("version".equals(node.getNodeName())) {
+                    definedOnHost.setLibvirtVersion(getText(node));
+                }
+            }
+        } finally {
+            mXMLDocumentWriteLock.unlock();
+        }
+        /* the next whole vm info must be parsed again */
+        definedOnHost.setVMInfoMD5(null);
+        return true;
+    }
+
+    /** Removes all domains and networks, before the whole vm info is parsed again. */
+    private void clearDomains() {
+        for (final String domainName : new ArrayList<String>(domainNames)) {
+            removeDomain(domainName);
+        }
+        domainNames.clear();
+        parameterValues.clear();
+        configsToNames.clear();
+        namesToConfigs.clear();
+        netToConfigs.clear();
+        netNamesConfigsMap.clear();
+        networkMap.clear();
+        domainHashes.clear();
+        networksHash = null;
+    }
+
+    /** Removes all data of the domain. Used mac addresses and source dirs are kept. */
+    private void removeDomain(final String domainName) {
+        domainNames.remove(domainName);
+        parameterValues.row(domainName).clear();
+        domainRemotePorts.remove(domainName);
+        domainAutoports.remove(domainName);
+        domainRunningMap.remove(domainName);
+        domainSuspendedMap.remove(domainName);
+        disksMap.remove(domainName);
+        filesystemsMap.remove(domainName);
+        interfacesMap.remove(domainName);
+        inputDevsMap.remove(domainName);
+        graphicsDevsMap.remove(domainName);
+        soundsMap.remove(domainName);
+        serialsMap.remove(domainName);
+        parallelsMap.remove(domainName);
+        videosMap.remove(domainName);
+        final String configName = namesToConfigs.remove(domainName);
+        if (configName != null) {
+            configsToNames.remove(new StringValue(configName));
+        }
+    }
+
+    /** Removes child elements with the name, all of them, if the name is null. */
+    private void removeChildNodes(final Node parent, final String tag, final String name) {
+        final NodeList children = parent.getChildNodes();
+        for (int i = children.getLength() - 1; i >= 0; i--) {
+            final Node child = children.item(i);
+            if (tag.equals(child.getNodeName()) && (name == null || name.equals(getAttribute(child, VM_PARAM_NAME)))) {
+                parent.removeChild(child);
+            }
+        }
+    }
+
     private void updateNetworks(final Node netNode) {
         /* one vm */
         if (netNode == null) {
@@ -2098,4 +2360,76 @@ public final class VmsXml extends XML {
     public String getConfig() {
         return oldConfig;
     }
+
+    /**
+     * The whole vm info split into the top-level elements without parsing
+     * it, so that the elements can be compared with the last update.
+     */
+    private static final class VmsOutput {
+        private final Map<String, String> domains = new LinkedHashMap<String, String>();
+        private final StringBuilder networks = new StringBuilder();
+        private String version = "";
+        private int length;
+
+        /** Returns the split output or null, if it has an unexpected format. */
+        static VmsOutput split(final String output) {
+            final VmsOutput vmsOutput = new VmsOutput();
+            vmsOutput.length = output.length();
+            int pos = output.indexOf('>', output.indexOf("<vms")) + 1;
+            if (pos == 0) {
+                return null;
+            }
+            while (true) {
+                while (pos < output.length() && Character.isWhitespace(output.charAt(pos))) {
+                    pos++;
+                }
+                if (output.startsWith("</vms>", pos)) {
+                    return vmsOutput;
+                }
+                final String endTag;
+                if (output.startsWith("<vm ", pos)) {
+                    endTag = "</vm>";
+                } else if (output.startsWith("<net ", pos)) {
+                    endTag = "</net>";
+                } else if (output.startsWith("<version>", pos)) {
+                    endTag = "</version>";
+                } else {
+                    return null;
+                }
+                final int end = output.indexOf(endTag, pos);
+                if (end < 0) {
+                    return null;
+                }
+                final String element = output.substring(pos, end + endTag.length()) + '\n';
+                if ("</vm>".equals(endTag)) {
+                    final Matcher m = NAME_PATTERN.matcher(element.substring(0, element.indexOf('>')));
+                    if (!m.find()) {
+                        return null;
+                    }
+                    vmsOutput.domains.put(m.group(1), element);
+                } else if ("</net>".equals(endTag)) {
+                    vmsOutput.networks.append(element);
+                } else {
+                    vmsOutput.version = element;
+                }
+                pos = end + endTag.length();
+            }
+        }
+
+        Map<String, String> getDomains() {
+            return domains;
+        }
+
+        CharSequence getNetworks() {
+            return networks;
+        }
+
+        String getVersion() {
+            return version;
+        }
+
+        int getLength() {
+            return length;
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package ch.ethz.ssh2.channel;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public final class ChannelBufferTest {
+    private static byte[] bytes(final int from, final int len) {
+        final byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte) (from + i);
+        }
+        return data;
+    }
+
+    private static byte[] read(final ChannelBuffer buffer, final int len) {
+        final byte[] target = new byte[len];
+        final int n = buffer.read(target, 0, len);
+        return Arrays.copyOf(target, n);
+    }
+
+    @Test
+    public void bufferShouldStartSmall() {
+        assertThat(new ChannelBuffer(30000).capacity(), is(4096));
+        assertThat(new ChannelBuffer(1024).capacity(), is(1024));
+    }
+
+    @Test
+    public void dataShouldBeReadInOrder() {
+        final ChannelBuffer buffer = new ChannelBuffer(30000);
+        buffer.write(bytes(0, 100), 0, 100);
+        buffer.write(bytes(100, 50), 0, 50);
+
+        assertThat(buffer.available(), is(150));
+        assertThat(read(buffer, 120), equalTo(bytes(0, 120)));
+        assertThat(read(buffer, 120), equalTo(bytes(120, 30)));
+        assertThat(buffer.available(), is(0));
+    }
+
+    @Test
+    public void bufferShouldGrowAndKeepUnreadData() {
+        final ChannelBuffer buffer = new ChannelBuffer(30000);
+        buffer.write(bytes(0, 3000), 0, 3000);
+        assertThat(read(buffer, 1000), equalTo(bytes(0, 1000)));
+
+        buffer.write(bytes(3000, 7000), 0, 7000);
+
+        assertThat(buffer.capacity(), is(16384));
+        assertThat(buffer.available(), is(9000));
+        assertThat(read(buffer, 9000), equalTo(bytes(1000, 9000)));
+    }
+
+    @Test
+    public void unreadDataShouldBeMovedToTheFrontInsteadOfGrowing() {
+        final ChannelBuffer buffer = new ChannelBuffer(30000);
+        buffer.write(bytes(0, 4000), 0, 4000);
+        assertThat(read(buffer, 3000), equalTo(bytes(0, 3000)));
+
+        buffer.write(bytes(4000, 2000), 0, 2000);
+
+        assertThat(buffer.capacity(), is(4096));
+        assertThat(read(buffer, 4096), equalTo(bytes(3000, 3000)));
+    }
+
+    @Test
+    public void emptiedBufferShouldBeReusedFromTheStart() {
+        final ChannelBuffer buffer = new ChannelBuffer(30000);
+        for (int i = 0; i < 100; i++) {
+            buffer.write(bytes(i, 4096), 0, 4096);
+            assertThat(read(buffer, 4096), equalTo(bytes(i, 4096)));
+        }
+
+        assertThat(buffer.capacity(), is(4096));
+    }
+
+    @Test
+    public void writeShouldTakeTheGivenRange() {
+        final ChannelBuffer buffer = new ChannelBuffer(30000);
+        buffer.write(bytes(0, 100), 9, 20);
+
+        assertThat(read(buffer, 100), equalTo(bytes(9, 20)));
+    }
+}
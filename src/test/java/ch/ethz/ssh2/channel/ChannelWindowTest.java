@@ -0,0 +1,107 @@
+package ch.ethz.ssh2.channel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import ch.ethz.ssh2.ChannelWindowParameters;
+import ch.ethz.ssh2.transport.TransportManager;
+import org.junit.Test;
+
+public final class ChannelWindowTest {
+    private static final int PACKET = 16384;
+
+    private static Channel createChannel(final int initialWindow, final int maxWindow) throws IOException {
+        final ChannelManager cm = new ChannelManager(new TransportManager("localhost", 22),
+                                                     new ChannelWindowParameters(initialWindow, maxWindow, PACKET));
+        final Channel c = new Channel(cm);
+        c.state = Channel.STATE_OPEN;
+        return c;
+    }
+
+    /** What the remote side may send: as long as the window allows. */
+    private static void receive(final Channel c, final ChannelBuffer buffer, final int len) {
+        final int thisLen = Math.min(len, c.localWindow);
+        c.dataReceived(thisLen);
+        buffer.write(new byte[thisLen], 0, thisLen);
+    }
+
+    private static void assertInvariant(final Channel c) {
+        assertTrue(c.windowSize <= c.maxWindowSize);
+        assertTrue(c.localWindow + c.stdoutBuffer.available() <= c.windowSize);
+        assertTrue(c.localWindow + c.stderrBuffer.available() <= c.windowSize);
+        assertTrue(c.stdoutBuffer.capacity() <= Math.max(4096, 2 * c.windowSize));
+    }
+
+    @Test
+    public void fixedWindowShouldNotGrow() throws IOException {
+        final Channel c = createChannel(30000, 30000);
+        for (int i = 0; i < 20; i++) {
+            receive(c, c.stdoutBuffer, 30000);
+            c.stdoutBuffer.read(new byte[30000], 0, 30000);
+            c.adjustWindow();
+            assertInvariant(c);
+        }
+
+        assertThat(c.windowSize, is(30000));
+        assertThat(c.localWindow, is(30000));
+    }
+
+    @Test
+    public void windowShouldGrowUpToTheMaximumWhenTheReaderKeepsUp() throws IOException {
+        final Channel c = createChannel(30000, 1000000);
+        final byte[] target = new byte[1000000];
+        for (int i = 0; i < 20; i++) {
+            receive(c, c.stdoutBuffer, Integer.MAX_VALUE);
+            assertThat(c.windowStalled, is(true));
+            c.stdoutBuffer.read(target, 0, target.length);
+            assertTrue(c.adjustWindow() > 0);
+            assertInvariant(c);
+        }
+
+        assertThat(c.windowSize, is(1000000));
+        assertThat(c.localWindow, is(1000000));
+        assertTrue(c.bytesReceived > 1000000L);
+    }
+
+    @Test
+    public void windowShouldNotGrowWhenTheReaderIsBehind() throws IOException {
+        final Channel c = createChannel(30000, 1000000);
+        receive(c, c.stdoutBuffer, 30000);
+        c.stdoutBuffer.read(new byte[20000], 0, 20000);
+
+        final int increment = c.adjustWindow();
+
+        assertThat(c.windowSize, is(30000));
+        assertThat(increment, is(20000));
+        assertInvariant(c);
+    }
+
+    @Test
+    public void windowShouldNotBeAdjustedWhileMoreThanHalfOpen() throws IOException {
+        final Channel c = createChannel(30000, 1000000);
+        receive(c, c.stdoutBuffer, 10000);
+        c.stdoutBuffer.read(new byte[10000], 0, 10000);
+
+        assertThat(c.adjustWindow(), is(0));
+        assertThat(c.localWindow, is(20000));
+        assertInvariant(c);
+    }
+
+    @Test
+    public void unreadStderrShouldLimitTheWindow() throws IOException {
+        final Channel c = createChannel(30000, 1000000);
+        receive(c, c.stderrBuffer, 10000);
+        receive(c, c.stdoutBuffer, 20000);
+        c.stdoutBuffer.read(new byte[20000], 0, 20000);
+
+        final int increment = c.adjustWindow();
+
+        assertThat(c.windowSize, is(30000));
+        assertThat(increment, is(20000));
+        assertThat(c.localWindow, is(20000));
+        assertInvariant(c);
+    }
+}
@@ -0,0 +1,189 @@
+package lcmc.cluster.domain;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lcmc.cluster.service.ssh.CommandScheduler;
+import lcmc.host.domain.Host;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public final class HostConnectorTest {
+    private static final int MAX_CONNECTIONS = 2;
+    @Mock
+    private CommandScheduler commandSchedulerStub;
+    private ExecutorService executor;
+    private HostConnector hostConnector;
+    private final List<Host> connected = Collections.synchronizedList(new ArrayList<Host>());
+    /** Threads of the executor. */
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable);
+                threads.add(thread);
+                return thread;
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                executor.execute((Runnable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(commandSchedulerStub).execute(any(Runnable.class));
+        hostConnector = new HostConnector(commandSchedulerStub, MAX_CONNECTIONS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void allHostsShouldBeConnectedOnTheScheduler() {
+        final List<Host> hosts = hosts(5);
+
+        hostConnector.connectAll(hosts, new HostConnector.Connection() {
+            @Override
+            public void connect(final Host host, final HostConnector.Permit permit) {
+                connected.add(host);
+            }
+        });
+
+        verify(commandSchedulerStub, times(5)).execute(any(Runnable.class));
+        assertThat(connected.size(), is(5));
+        assertThat(connected.containsAll(hosts), is(true));
+    }
+
+    @Test
+    public void connectionLimitShouldBeKept() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(MAX_CONNECTIONS);
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicInteger connecting = new AtomicInteger(0);
+        final Thread connectAllThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                hostConnector.connectAll(hosts(MAX_CONNECTIONS + 1), new HostConnector.Connection() {
+                    @Override
+                    public void connect(final Host host, final HostConnector.Permit permit) {
+                        connecting.incrementAndGet();
+                        entered.countDown();
+                        await(released);
+                        connected.add(host);
+                    }
+                });
+            }
+        });
+        connectAllThread.start();
+
+        assertThat(entered.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(awaitThreadWaitingForPermit(), is(true));
+        assertThat(connecting.get(), is(MAX_CONNECTIONS));
+
+        released.countDown();
+        connectAllThread.join(5000);
+        assertThat(connected.size(), is(MAX_CONNECTIONS + 1));
+    }
+
+    @Test
+    public void promptingHostShouldGiveItsPermitAway() throws InterruptedException {
+        final CountDownLatch prompting = new CountDownLatch(1);
+        final CountDownLatch answered = new CountDownLatch(1);
+        final CountDownLatch othersConnected = new CountDownLatch(MAX_CONNECTIONS);
+        final Host promptingHost = mock(Host.class);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                hostConnector.connect(promptingHost, new HostConnector.Connection() {
+                    @Override
+                    public void connect(final Host host, final HostConnector.Permit permit) {
+                        permit.suspend();
+                        prompting.countDown();
+                        await(answered);
+                        permit.resume();
+                    }
+                });
+            }
+        });
+        assertThat(prompting.await(5, TimeUnit.SECONDS), is(true));
+
+        for (final Host otherHost : hosts(MAX_CONNECTIONS)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    hostConnector.connect(otherHost, new HostConnector.Connection() {
+                        @Override
+                        public void connect(final Host host, final HostConnector.Permit permit) {
+                            othersConnected.countDown();
+                            await(answered);
+                        }
+                    });
+                }
+            });
+        }
+
+        assertThat(othersConnected.await(5, TimeUnit.SECONDS), is(true));
+        answered.countDown();
+    }
+
+    private List<Host> hosts(final int count) {
+        final List<Host> hosts = new ArrayList<Host>();
+        for (int i = 0; i < count; i++) {
+            hosts.add(mock(Host.class));
+        }
+        return hosts;
+    }
+
+    /**
+     * Waits, till one of the executor threads waits without a timeout. The
+     * connections wait with a timeout, so it is the host waiting for a permit.
+     */
+    private boolean awaitThreadWaitingForPermit() throws InterruptedException {
+        final long end = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < end) {
+            synchronized (threads) {
+                for (final Thread thread : threads) {
+                    if (thread.getState() == Thread.State.WAITING) {
+                        return true;
+                    }
+                }
+            }
+            Thread.sleep(1);
+        }
+        return false;
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package lcmc.cluster.service.ssh;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class CommandSchedulerTest {
+    private ExecutorService executor;
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void hostLimitShouldBeKept() {
+        final CommandScheduler scheduler = new CommandScheduler(10, 2, executor);
+        final List<CommandScheduler.Task> tasks = new ArrayList<CommandScheduler.Task>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(scheduler.submit("host-a", waitingCommand("a" + i)));
+        }
+        scheduler.submit("host-b", command("b0"));
+
+        waitForRunning(scheduler, 2);
+        assertThat(scheduler.getQueueDepth("host-a"), is(2));
+        assertThat(scheduler.getQueueDepth("host-b"), is(0));
+        gate.countDown();
+        waitFor(tasks.get(3));
+        waitFor(tasks.get(2));
+        assertThat(scheduler.getQueueDepth(), is(0));
+    }
+
+    @Test
+    public void hostsShouldTakeTurns() {
+        final CommandScheduler scheduler = new CommandScheduler(1, 1, executor);
+        scheduler.submit("host-a", waitingCommand("blocker"));
+        scheduler.submit("host-a", command("a1"));
+        scheduler.submit("host-a", command("a2"));
+        final CommandScheduler.Task lastTask = scheduler.submit("host-b", command("b1"));
+
+        gate.countDown();
+        waitFor(lastTask);
+        waitForCompleted(scheduler, 4);
+        assertThat(order, equalTo(Arrays.asList("blocker", "a1", "b1", "a2")));
+    }
+
+    @Test
+    public void commandWaitingForQueuedCommandShouldStartIt() {
+        final CommandScheduler scheduler = new CommandScheduler(1, 1, executor);
+        final CommandScheduler.Task outer = scheduler.submit("host-a", new Runnable() {
+            @Override
+            public void run() {
+                scheduler.submit("host-a", command("inner")).await();
+                order.add("outer");
+            }
+        });
+
+        waitFor(outer);
+        assertThat(order, equalTo(Arrays.asList("inner", "outer")));
+        assertThat(scheduler.getQueueDepth(), is(0));
+    }
+
+    @Test
+    public void waitingOutsideOfCommandsShouldKeepTheTurns() throws InterruptedException {
+        final CommandScheduler scheduler = new CommandScheduler(1, 1, executor);
+        scheduler.submit("host-a", waitingCommand("blocker"));
+        final CommandScheduler.Task task = scheduler.submit("host-a", command("a1"));
+        final Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.await();
+            }
+        });
+        waiter.start();
+
+        waiter.join(100);
+        assertThat(task.isDone(), is(false));
+        assertThat(scheduler.getQueueDepth("host-a"), is(1));
+        gate.countDown();
+        waiter.join();
+        assertThat(task.isDone(), is(true));
+    }
+
+    @Test
+    public void completedTasksShouldBeCounted() {
+        final CommandScheduler scheduler = new CommandScheduler(2, 2, executor);
+        waitFor(scheduler.submit("host-a", command("a1")));
+        waitFor(scheduler.submit("host-b", command("b1")));
+        waitFor(scheduler.execute(command("long")));
+
+        waitForCompleted(scheduler, 2);
+        assertThat(scheduler.getRunningUnlimited(), is(0));
+        assertThat(scheduler.toString().contains("host-b: running: 0, queued: 0, completed: 1"), is(true));
+    }
+
+    @Test
+    public void canceledTimeoutShouldNotRun() throws InterruptedException {
+        final CommandScheduler scheduler = new CommandScheduler(2, 2, executor);
+        final CountDownLatch fired = new CountDownLatch(1);
+        scheduler.schedule(command("canceled"), 50).cancel(false);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }, 100);
+
+        assertThat(fired.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(order.isEmpty(), is(true));
+    }
+
+    @Test
+    public void sessionOpenTimesShouldBeKeptPerHost() {
+        final CommandScheduler scheduler = new CommandScheduler(2, 2, executor);
+        for (int i = 1; i <= 10; i++) {
+            scheduler.recordSessionOpen("host-a", TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertThat(scheduler.getSessionOpenTime("host-a", 90, TimeUnit.MILLISECONDS), is(9L));
+        assertThat(scheduler.getSessionOpenTime("host-b", 90, TimeUnit.MILLISECONDS), is(0L));
+        assertThat(scheduler.toString().contains("host-a: sessions: 10, open p50: 5 ms, p90: 9 ms, p99: 10 ms"),
+                   is(true));
+    }
+
+    private Runnable command(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    private Runnable waitingCommand(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                try {
+                    gate.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private void waitFor(final CommandScheduler.Task task) {
+        while (!task.isDone()) {
+            Thread.yield();
+        }
+    }
+
+    private void waitForRunning(final CommandScheduler scheduler, final int running) {
+        while (scheduler.getRunning() < running) {
+            Thread.yield();
+        }
+    }
+
+    private void waitForCompleted(final CommandScheduler scheduler, final long completed) {
+        while (scheduler.getCompleted() < completed || scheduler.getRunningUnlimited() > 0) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package lcmc.cluster.service.ssh;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import lcmc.host.domain.Host;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public final class ConnectionThreadTest {
+    private static final int BASTION_PORT = 2222;
+    @Mock
+    private Host hostStub;
+
+    @Before
+    public void setUp() {
+        when(hostStub.getSSHPortInt()).thenReturn(BASTION_PORT);
+    }
+
+    @Test
+    public void firstHopShouldUseThePortOfTheHost() {
+        assertThat(ConnectionThread.getHopPort(hostStub, 0), is(BASTION_PORT));
+    }
+
+    @Test
+    public void innerHopsShouldUseTheDefaultPort() {
+        assertThat(ConnectionThread.getHopPort(hostStub, 1), is(22));
+        assertThat(ConnectionThread.getHopPort(hostStub, 2), is(22));
+    }
+}
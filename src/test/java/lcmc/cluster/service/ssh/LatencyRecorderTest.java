@@ -0,0 +1,39 @@
+package lcmc.cluster.service.ssh;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public final class LatencyRecorderTest {
+    @Test
+    public void percentilesShouldBeComputed() {
+        final LatencyRecorder recorder = new LatencyRecorder(100);
+        for (int i = 100; i > 0; i--) {
+            recorder.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertThat(recorder.getPercentile(50, TimeUnit.MILLISECONDS), is(50L));
+        assertThat(recorder.getPercentile(99, TimeUnit.MILLISECONDS), is(99L));
+        assertThat(recorder.getPercentile(100, TimeUnit.MILLISECONDS), is(100L));
+        assertThat(recorder.getPercentile(0, TimeUnit.MILLISECONDS), is(1L));
+    }
+
+    @Test
+    public void oldSamplesShouldBeOverwritten() {
+        final LatencyRecorder recorder = new LatencyRecorder(2);
+        recorder.record(1000);
+        recorder.record(5);
+        recorder.record(7);
+
+        assertThat(recorder.getCount(), is(3L));
+        assertThat(recorder.getPercentile(100, TimeUnit.NANOSECONDS), is(7L));
+    }
+
+    @Test
+    public void noSamplesShouldGiveZero() {
+        assertThat(new LatencyRecorder(10).getPercentile(90, TimeUnit.MILLISECONDS), is(0L));
+    }
+}
@@ -0,0 +1,99 @@
+package lcmc.cluster.service.ssh;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+public final class OutputDecoderTest {
+    private static final String TEXT = "\u017elu\u0165ou\u010dk\u00fd k\u016f\u0148 \u20ac \ud83d\ude00\n";
+
+    @Test
+    public void charactersSplitBetweenReadsShouldBeDecoded() throws IOException {
+        final byte[] bytes = TEXT.getBytes(Charsets.UTF_8);
+        for (int readSize = 1; readSize <= 5; readSize++) {
+            final OutputDecoder decoder = new OutputDecoder(16);
+            final InputStream stream = new ByteArrayInputStream(bytes);
+            final StringBuilder chunks = new StringBuilder();
+            for (int pos = 0; pos < bytes.length; pos += readSize) {
+                decoder.read(new LimitedInputStream(stream, readSize));
+                chunks.append(decoder.getChunk());
+            }
+            assertThat(decoder.getOutput().toString(), equalTo(TEXT));
+            assertThat(chunks.toString(), equalTo(TEXT));
+        }
+    }
+
+    @Test
+    public void outputShouldGrowAndBeCleared() throws IOException {
+        final OutputDecoder decoder = new OutputDecoder(4);
+        final InputStream stream = new ByteArrayInputStream("0123456789".getBytes(Charsets.UTF_8));
+        while (decoder.read(stream) > 0) {
+            /* read all */
+        }
+        assertThat(decoder.getOutput().toString(), equalTo("0123456789"));
+
+        decoder.deleteStart(2);
+        final StringBuilder res = new StringBuilder("a");
+        decoder.appendTo(res);
+        assertThat(res.toString(), equalTo("a23456789"));
+
+        decoder.clear();
+        assertThat(decoder.length(), is(0));
+    }
+
+    @Test
+    public void incompleteCharacterAtTheEndShouldBeReplaced() throws IOException {
+        final OutputDecoder decoder = new OutputDecoder(16);
+        decoder.read(new ByteArrayInputStream(new byte[]{'a', (byte) 0xe2, (byte) 0x82}));
+        assertThat(decoder.getOutput().toString(), equalTo("a"));
+
+        decoder.finish();
+        assertThat(decoder.getOutput().toString(), equalTo("a\ufffd"));
+    }
+
+    @Test
+    public void splitCharacterAtTheEndOfTheStreamShouldBeFinished() throws IOException {
+        final byte[] bytes = "ab\u20ac".getBytes(Charsets.UTF_8);
+        final OutputDecoder decoder = new OutputDecoder(16);
+        final InputStream stream = new LimitedInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 1), 3);
+        final StringBuilder res = new StringBuilder();
+        while (decoder.read(stream) > 0) {
+            decoder.appendTo(res);
+            decoder.clear();
+        }
+        assertThat(res.toString(), equalTo("ab"));
+
+        decoder.finish();
+        assertThat(decoder.getChunk().toString(), equalTo("\ufffd"));
+        decoder.appendTo(res);
+        assertThat(res.toString(), equalTo("ab\ufffd"));
+    }
+
+    /** Returns at most limit bytes in one read. */
+    private static final class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private final int limit;
+
+        LimitedInputStream(final InputStream in, final int limit) {
+            this.in = in;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return in.read(b, off, Math.min(len, limit));
+        }
+    }
+}
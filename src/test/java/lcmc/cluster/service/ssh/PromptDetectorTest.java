@@ -0,0 +1,35 @@
+package lcmc.cluster.service.ssh;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public final class PromptDetectorTest {
+    @Test
+    public void promptShouldBeFound() {
+        final PromptDetector detector = new PromptDetector(Ssh.SUDO_PROMPT);
+
+        assertThat(detector.find("output\n"), is(false));
+        assertThat(detector.find("x" + Ssh.SUDO_PROMPT), is(true));
+        assertThat(detector.find("more output"), is(false));
+    }
+
+    @Test
+    public void promptSplitBetweenOutputsShouldBeFound() {
+        final PromptDetector detector = new PromptDetector(Ssh.SUDO_PROMPT);
+
+        assertThat(detector.find("DRBD MC su"), is(false));
+        assertThat(detector.find("do pwd: "), is(true));
+    }
+
+    @Test
+    public void overlappingPrefixShouldBeFound() {
+        final PromptDetector detector = new PromptDetector("aab");
+
+        assertThat(detector.find("aa"), is(false));
+        assertThat(detector.find("ab"), is(true));
+        detector.reset();
+        assertThat(detector.find("b"), is(false));
+    }
+}
@@ -0,0 +1,41 @@
+package lcmc.cluster.service.ssh;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+public final class SshTest {
+    private static final byte[] CONFIG = "totem {\n}\n".getBytes(Charsets.UTF_8);
+    private static final String MD5 = Hashing.md5().hashBytes(CONFIG).toString();
+
+    @Test
+    public void sameContentAndModeShouldNotBeSent() {
+        assertThat(Ssh.isSameContent(CONFIG, "0600", MD5 + "  -\n600\n"), is(true));
+    }
+
+    @Test
+    public void sameContentShouldNotBeSentWithoutMode() {
+        assertThat(Ssh.isSameContent(CONFIG, null, MD5 + "  -\n644\n"), is(true));
+    }
+
+    @Test
+    public void otherContentShouldBeSent() {
+        final String otherMd5 = Hashing.md5().hashBytes("totem {}\n".getBytes(Charsets.UTF_8)).toString();
+
+        assertThat(Ssh.isSameContent(CONFIG, "0600", otherMd5 + "  -\n600\n"), is(false));
+    }
+
+    @Test
+    public void otherModeShouldBeSent() {
+        assertThat(Ssh.isSameContent(CONFIG, "0600", MD5 + "  -\n644\n"), is(false));
+    }
+
+    @Test
+    public void missingFileShouldBeSent() {
+        assertThat(Ssh.isSameContent(CONFIG, "0600", ""), is(false));
+        assertThat(Ssh.isSameContent(CONFIG, "0600", null), is(false));
+    }
+}
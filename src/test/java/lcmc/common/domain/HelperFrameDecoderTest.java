@@ -0,0 +1,110 @@
+package lcmc.common.domain;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class HelperFrameDecoderTest {
+    private HelperFrameDecoder decoder;
+
+    @Before
+    public void setUp() {
+        decoder = new HelperFrameDecoder();
+    }
+
+    @Test
+    public void olderHelperOutputShouldBePassedAsText() {
+        decoder.append("\r\n--hw-info-start--1");
+
+        assertThat(decoder.isText(), is(true));
+        assertThat(decoder.nextFrame(), is(nullValue()));
+        assertThat(decoder.takeText(), equalTo("\r\n--hw-info-start--1"));
+        decoder.append("23\r\n");
+        assertThat(decoder.takeText(), equalTo("23\r\n"));
+    }
+
+    @Test
+    public void modeShouldWaitForTheHello() {
+        decoder.append("@fra");
+
+        assertThat(decoder.isFramed(), is(false));
+        assertThat(decoder.isText(), is(false));
+        decoder.append("mes 1\r\n@hw 12.5 3\r\nabc\r\n");
+        assertThat(decoder.isFramed(), is(true));
+        final HelperFrameDecoder.Frame frame = decoder.nextFrame();
+        assertThat(frame.getType(), equalTo("hw"));
+        assertThat(frame.getTimestamp(), equalTo(12.5));
+        assertThat(frame.getContent(), equalTo("abc"));
+    }
+
+    @Test
+    public void unsupportedVersionShouldFallBackToText() {
+        decoder.append("@frames 99\n");
+
+        assertThat(decoder.isText(), is(true));
+    }
+
+    @Test
+    public void frameSplitIntoChunksShouldBeDecoded() {
+        decoder.append("@frames 1\r\n");
+        final String frame = "@cluster - 12\r\nline1\r\nline2\r\n\r\n";
+        for (int i = 0; i < frame.length(); i++) {
+            assertThat(decoder.nextFrame(), is(nullValue()));
+            decoder.append(frame.substring(i, i + 1));
+        }
+
+        final HelperFrameDecoder.Frame decoded = decoder.nextFrame();
+        assertThat(decoded.getTimestamp(), is(nullValue()));
+        assertThat(decoded.getContent(), equalTo("line1\nline2\n"));
+        assertThat(decoder.nextFrame(), is(nullValue()));
+        assertThat(decoder.getBufferedSize(), is(0));
+    }
+
+    @Test
+    public void lengthShouldBeInUtf8Bytes() {
+        decoder.append("@frames 1\n@vm - 6\n\u017eu\u20ac\n@vm - 1\nx\n");
+
+        assertThat(decoder.nextFrame().getContent(), equalTo("\u017eu\u20ac"));
+        assertThat(decoder.nextFrame().getContent(), equalTo("x"));
+    }
+
+    @Test
+    public void resetFramesShouldBeSkipped() {
+        decoder.append("@frames 1\n@reset - 0\n\n@reset - 0\n\n@drbd 1 1\nx\n");
+
+        assertThat(decoder.nextFrame().getType(), equalTo("drbd"));
+        assertThat(decoder.nextFrame(), is(nullValue()));
+    }
+
+    @Test
+    public void garbageBetweenFramesShouldBeSkipped() {
+        decoder.append("@frames 1\nsome warning\n@hw 1 1\nx\n\n@hw 2 2\nxyz\n@hw 3 1\ny\n");
+
+        assertThat(decoder.nextFrame().getContent(), equalTo("x"));
+        assertThat(decoder.nextFrame().getTimestamp(), equalTo(3.0));
+    }
+
+    @Test
+    public void largeFramesShouldGrowTheBuffer() {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+        decoder.append("@frames 1\n");
+        for (int i = 0; i < 5; i++) {
+            decoder.append("@hw " + i + ' ' + content.length() + '\n' + content + '\n');
+            decoder.append("@reset - 0\n\n");
+        }
+
+        for (int i = 0; i < 5; i++) {
+            final HelperFrameDecoder.Frame frame = decoder.nextFrame();
+            assertThat(frame.getTimestamp(), equalTo((double) i));
+            assertThat(frame.getContent(), equalTo(content.toString()));
+        }
+        assertThat(decoder.nextFrame(), is(nullValue()));
+    }
+}
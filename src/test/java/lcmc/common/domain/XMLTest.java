@@ -0,0 +1,74 @@
+package lcmc.common.domain;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public final class XMLTest {
+    private static final String XML_STRING = "<test><node name=\"\u017elu\u0165ou\u010dk\u00fd\"/></test>";
+
+    private TestXML xml;
+
+    @Before
+    public void setUp() {
+        xml = new TestXML();
+        XML.getParseStats().clear();
+    }
+
+    @Test
+    public void stringShouldBeParsedWithoutEncodingLoss() {
+        final Document document = xml.getXMLDocument(XML_STRING);
+
+        assertThat(getName(document), equalTo("\u017elu\u0165ou\u010dk\u00fd"));
+    }
+
+    @Test
+    public void charSequenceShouldBeParsed() {
+        final String text = "dump: " + XML_STRING;
+        final Document document = xml.getXMLDocument(CharBuffer.wrap(text, text.indexOf('<'), text.length()));
+
+        assertThat(getName(document), equalTo("\u017elu\u0165ou\u010dk\u00fd"));
+    }
+
+    @Test
+    public void readerShouldBeParsed() {
+        final Document document = xml.getXMLDocument(new StringReader(XML_STRING));
+
+        assertThat(getName(document), equalTo("\u017elu\u0165ou\u010dk\u00fd"));
+    }
+
+    @Test
+    public void emptyXmlShouldNotBeParsed() {
+        assertThat(xml.getXMLDocument("  \n"), is(nullValue()));
+        assertThat(XML.getParseStats().getTypes().isEmpty(), is(true));
+    }
+
+    @Test
+    public void parsingShouldBeCountedPerDocumentType() {
+        xml.getXMLDocument(XML_STRING);
+        xml.getXMLDocument(new StringReader(XML_STRING));
+        xml.getXMLDocument("<other/>");
+
+        final XmlParseStats stats = XML.getParseStats();
+        assertThat(stats.getCount("TestXML/test"), is(2L));
+        assertThat(stats.getSize("TestXML/test"), is(2L * XML_STRING.length()));
+        assertThat(stats.getCount("TestXML/other"), is(1L));
+        assertThat(stats.getTime("TestXML/other", TimeUnit.NANOSECONDS) > 0, is(true));
+    }
+
+    private String getName(final Document document) {
+        return document.getDocumentElement().getFirstChild().getAttributes().getNamedItem("name").getNodeValue();
+    }
+
+    private static final class TestXML extends XML {
+    }
+}
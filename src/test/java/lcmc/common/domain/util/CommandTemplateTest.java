@@ -0,0 +1,51 @@
+package lcmc.common.domain.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public final class CommandTemplateTest {
+    @Test
+    public void placeholdersShouldBeReplaced() {
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("@GUI-HELPER@", "/usr/local/bin/lcmc-gui-helper-1.7.0");
+        values.put("@ID@", "res_Dummy_1");
+
+        assertThat(CommandTemplate.compile("@GUI-HELPER@ cleanup @ID@; @GUI-HELPER@ status @ID@").render(values),
+                   equalTo("/usr/local/bin/lcmc-gui-helper-1.7.0 cleanup res_Dummy_1;"
+                           + " /usr/local/bin/lcmc-gui-helper-1.7.0 status res_Dummy_1"));
+    }
+
+    @Test
+    public void unknownPlaceholdersAndMarksShouldStay() {
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("@USER@", "lcmc");
+
+        assertThat(CommandTemplate.compile("echo \"$@\" root@@USER@ @DRYRUN@ @").render(values),
+                   equalTo("echo \"$@\" root@lcmc @DRYRUN@ @"));
+    }
+
+    @Test
+    public void valuesShouldBeInsertedAsTheyAre() {
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("@PASSWORD@", "a$1\\b@USER@");
+        values.put("@USER@", "lcmc");
+        values.put("@OPTIONS@", null);
+
+        assertThat(CommandTemplate.compile("-p @PASSWORD@ @OPTIONS@-u @USER@").render(values),
+                   equalTo("-p a$1\\b@USER@ -u lcmc"));
+    }
+
+    @Test
+    public void commandWithoutPlaceholdersShouldBeReturned() {
+        final CommandTemplate template = CommandTemplate.compile("cat /proc/drbd");
+
+        assertThat(template.hasPlaceholders(), is(false));
+        assertThat(template.render(new HashMap<String, String>()), equalTo("cat /proc/drbd"));
+    }
+}
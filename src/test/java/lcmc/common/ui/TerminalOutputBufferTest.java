@@ -0,0 +1,54 @@
+package lcmc.common.ui;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+
+import org.junit.Test;
+
+public final class TerminalOutputBufferTest {
+    private final MutableAttributeSet outputColor = new SimpleAttributeSet();
+    private final MutableAttributeSet errorColor = new SimpleAttributeSet();
+
+    @Test
+    public void chunksWithSameColorShouldBeJoined() {
+        final TerminalOutputBuffer buffer = new TerminalOutputBuffer(1000);
+        buffer.add("a\n", outputColor);
+        buffer.add("b\n", outputColor);
+        buffer.add("error\n", errorColor);
+        buffer.add("c", outputColor);
+
+        final List<TerminalOutputBuffer.Chunk> chunks = buffer.takeAll();
+        assertThat(chunks.size(), is(3));
+        assertThat(chunks.get(0).getText(), equalTo("a\nb\n"));
+        assertThat(chunks.get(0).getColor(), sameInstance(outputColor));
+        assertThat(chunks.get(1).getText(), equalTo("error\n"));
+        assertThat(chunks.get(1).getColor(), sameInstance(errorColor));
+        assertThat(chunks.get(2).getText(), equalTo("c"));
+        assertThat(buffer.takeAll().isEmpty(), is(true));
+    }
+
+    @Test
+    public void oldestLinesShouldBeDropped() {
+        final TerminalOutputBuffer buffer = new TerminalOutputBuffer(10);
+        buffer.add("line1\nline2\n", outputColor);
+        buffer.add("line3\n", errorColor);
+
+        final List<TerminalOutputBuffer.Chunk> chunks = buffer.takeAll();
+        assertThat(chunks.size(), is(1));
+        assertThat(chunks.get(0).getText(), equalTo("line3\n"));
+    }
+
+    @Test
+    public void partOfTheLineShouldBeDroppedWithoutNewLine() {
+        final TerminalOutputBuffer buffer = new TerminalOutputBuffer(4);
+        buffer.add("0123456789", outputColor);
+
+        assertThat(buffer.takeAll().get(0).getText(), equalTo("6789"));
+    }
+}
@@ -0,0 +1,95 @@
+package lcmc.common.ui;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.Color;
+import javax.swing.JTextPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+import lcmc.common.domain.Application;
+import lcmc.common.domain.util.Tools;
+import lcmc.common.ui.utils.FrameUpdateScheduler;
+import lcmc.host.domain.Host;
+import lcmc.robotest.StartTests;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public final class TerminalPanelTest {
+    @Mock
+    private Host hostStub;
+    @Mock
+    private GUIData guiData;
+    @Mock
+    private Application application;
+    @Mock
+    private StartTests startTests;
+    @Mock
+    private FrameUpdateScheduler frameUpdateScheduler;
+    @InjectMocks
+    private TerminalPanel terminalPanel;
+
+    @Before
+    public void setUp() {
+        when(hostStub.getPmColors()).thenReturn(new Color[]{Color.GREEN});
+        terminalPanel.initWithHost(hostStub);
+    }
+
+    @Test
+    public void escapeSequenceSplitBetweenAppendsShouldBeHandledAsWhole() throws BadLocationException {
+        terminalPanel.addContent("a\u001b[0;3");
+        appendFrame();
+        terminalPanel.addContent("2mb");
+        appendFrame();
+
+        final StyledDocument doc = getDocument();
+        assertThat(doc.getText(0, doc.getLength()), equalTo("# ab"));
+        assertThat(StyleConstants.getForeground(doc.getCharacterElement(3).getAttributes()),
+                   equalTo(Tools.getDefaultColor("TerminalPanel.TerminalGreen")));
+    }
+
+    @Test
+    public void newLineSplitBetweenAppendsShouldNotOverwriteTheLine() throws BadLocationException {
+        terminalPanel.addContent("abc\r");
+        appendFrame();
+        terminalPanel.addContent("\ndef");
+        appendFrame();
+
+        final StyledDocument doc = getDocument();
+        assertThat(doc.getText(0, doc.getLength()), equalTo("# abc\r\ndef"));
+    }
+
+    @Test
+    public void carriageReturnShouldOverwriteTheLine() throws BadLocationException {
+        terminalPanel.addContent("abc\r");
+        appendFrame();
+        terminalPanel.addContent("xy");
+        appendFrame();
+
+        final StyledDocument doc = getDocument();
+        assertThat(doc.getText(0, doc.getLength()), equalTo("xyabc"));
+    }
+
+    /** Runs the update, that was scheduled for the next frame. */
+    private void appendFrame() {
+        final ArgumentCaptor<Runnable> update = ArgumentCaptor.forClass(Runnable.class);
+        verify(frameUpdateScheduler, atLeastOnce()).schedule(same(terminalPanel), update.capture());
+        update.getValue().run();
+    }
+
+    private StyledDocument getDocument() {
+        return ((JTextPane) terminalPanel.getViewport().getView()).getStyledDocument();
+    }
+}
@@ -0,0 +1,82 @@
+package lcmc.common.ui.utils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lcmc.common.domain.Application;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public final class FrameUpdateSchedulerTest {
+    @Mock
+    private Application applicationStub;
+    @InjectMocks
+    private FrameUpdateScheduler frameUpdateScheduler;
+    private final List<String> updates = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        /* long frame, so that only the test flushes */
+        when(applicationStub.getAnimFPS()).thenReturn(0.01f);
+    }
+
+    @Test
+    public void sameKeyShouldBeRunOnce() {
+        frameUpdateScheduler.schedule("a", update("a1"));
+        frameUpdateScheduler.schedule("b", update("b"));
+        frameUpdateScheduler.schedule("a", update("a2"));
+
+        frameUpdateScheduler.flush();
+
+        assertThat(updates, equalTo(Arrays.asList("a1", "b")));
+        assertThat(frameUpdateScheduler.getRequestedCount(), is(3L));
+        assertThat(frameUpdateScheduler.getExecutedCount(), is(2L));
+    }
+
+    @Test
+    public void keyShouldBeScheduledAgainAfterFlush() {
+        frameUpdateScheduler.schedule("a", update("a1"));
+        frameUpdateScheduler.flush();
+        frameUpdateScheduler.schedule("a", update("a2"));
+        frameUpdateScheduler.flush();
+        frameUpdateScheduler.flush();
+
+        assertThat(updates, equalTo(Arrays.asList("a1", "a2")));
+        assertThat(frameUpdateScheduler.getExecutedCount(), is(2L));
+    }
+
+    @Test
+    public void failedUpdateShouldNotStopTheOthers() {
+        frameUpdateScheduler.schedule("a", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("test");
+            }
+        });
+        frameUpdateScheduler.schedule("b", update("b"));
+
+        frameUpdateScheduler.flush();
+
+        assertThat(updates, equalTo(Arrays.asList("b")));
+    }
+
+    private Runnable update(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                updates.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package lcmc.common.ui.utils;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.JButton;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class KeyedTableModelTest {
+    private static final String[] COLUMNS = {"Host", "State"};
+    private KeyedTableModel model;
+    private final List<String> events = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        model = new KeyedTableModel(new Object[][]{row("node1", "online"), row("node2", "online")}, COLUMNS);
+        model.addTableModelListener(new TableModelListener() {
+            @Override
+            public void tableChanged(final TableModelEvent e) {
+                events.add(e.getType() + ":" + e.getFirstRow() + "-" + e.getLastRow());
+            }
+        });
+    }
+
+    @Test
+    public void sameDataShouldNotFireEvents() {
+        final Object button = model.getValueAt(0, 0);
+
+        assertThat(model.update(new Object[][]{row("node1", "online"), row("node2", "online")}, COLUMNS),
+                   equalTo(Collections.<Integer>emptyList()));
+        assertThat(events.isEmpty(), is(true));
+        assertThat(model.getValueAt(0, 0), sameInstance(button));
+    }
+
+    @Test
+    public void changedRowShouldBeUpdated() {
+        assertThat(model.update(new Object[][]{row("node1", "online"), row("node2", "offline")}, COLUMNS),
+                   equalTo(Arrays.asList(1)));
+        assertThat(events, equalTo(Arrays.asList(TableModelEvent.UPDATE + ":1-1")));
+        assertThat((String) model.getValueAt(1, 1), equalTo("offline"));
+    }
+
+    @Test
+    public void newRowShouldBeInserted() {
+        assertThat(model.update(new Object[][]{row("node0", "online"), row("node1", "online"), row("node2", "online")},
+                                COLUMNS),
+                   equalTo(Arrays.asList(0)));
+        assertThat(events, equalTo(Arrays.asList(TableModelEvent.INSERT + ":0-0")));
+        assertThat(model.getRowCount(), is(3));
+    }
+
+    @Test
+    public void removedRowShouldRequireResize() {
+        assertThat(model.update(new Object[][]{row("node2", "online")}, COLUMNS), is(nullValue()));
+        assertThat(events, equalTo(Arrays.asList(TableModelEvent.DELETE + ":0-0")));
+        assertThat(((JButton) model.getValueAt(0, 0)).getText(), equalTo("node2"));
+    }
+
+    @Test
+    public void movedRowsShouldKeepTheOrder() {
+        assertThat(model.update(new Object[][]{row("node2", "online"), row("node1", "online")}, COLUMNS),
+                   equalTo(Collections.<Integer>emptyList()));
+        assertThat(((JButton) model.getValueAt(0, 0)).getText(), equalTo("node2"));
+        assertThat(((JButton) model.getValueAt(1, 0)).getText(), equalTo("node1"));
+    }
+
+    @Test
+    public void duplicateKeysShouldReplaceAllData() {
+        assertThat(model.update(new Object[][]{row("node1", "a"), row("node1", "b")}, COLUMNS), is(nullValue()));
+        assertThat(model.getRowCount(), is(2));
+    }
+
+    private static Object[] row(final String host, final String state) {
+        return new Object[]{new JButton(host), state};
+    }
+}
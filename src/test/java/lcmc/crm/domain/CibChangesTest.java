@@ -0,0 +1,108 @@
+package lcmc.crm.domain;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+
+import com.google.common.collect.Sets;
+import lcmc.host.domain.Host;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public final class CibChangesTest {
+    private static final String CIB = CibStreamParserTest.CIB;
+
+    @Mock
+    private Host hostStub;
+    @InjectMocks
+    private CrmXml crmXml;
+
+    @Test
+    public void sameCibShouldHaveNoChanges() {
+        final CibChanges changes = compute(CIB, CIB);
+
+        assertThat(changes.getAdded().isEmpty(), is(true));
+        assertThat(changes.getRemoved().isEmpty(), is(true));
+        assertThat(changes.getChanged().isEmpty(), is(true));
+        assertThat(changes.isStructureChanged(), is(false));
+        assertThat(changes.isConstraintsChanged(), is(false));
+    }
+
+    @Test
+    public void statusChangeShouldHaveNoResourceChanges() {
+        final CibChanges changes = compute(CIB, CIB.replace("operation=\"start\"/>", "operation=\"stop\"/>")
+                                                   .replace("\"pingd\" value=\"1000\"", "\"pingd\" value=\"0\""));
+
+        assertThat(changes.getChanged().isEmpty(), is(true));
+        assertThat(changes.isStructureChanged(), is(false));
+        assertThat(changes.isConstraintsChanged(), is(false));
+    }
+
+    @Test
+    public void changedParameterShouldChangeTheResource() {
+        final CibChanges changes = compute(CIB, CIB.replace("name=\"priority\" value=\"3\"",
+                                                            "name=\"priority\" value=\"4\""));
+
+        assertThat(changes.getChanged(), equalTo(Collections.singleton("res_null")));
+        assertThat(changes.isChanged("res_null"), is(true));
+        assertThat(changes.isChanged("res_Dummy_1"), is(false));
+        assertThat(changes.isStructureChanged(), is(false));
+    }
+
+    @Test
+    public void changedReferencedOperationsShouldChangeTheReferrer() {
+        final CibChanges changes = compute(CIB, CIB.replace("timeout=\"200s\"", "timeout=\"100s\""));
+
+        assertThat(changes.getChanged(), equalTo(Sets.newHashSet("res_Dummy_1", "res_Dummy_2")));
+    }
+
+    @Test
+    public void removedResourceShouldChangeTheStructure() {
+        final CibChanges changes = compute(CIB, CIB.replace(
+                "    <primitive class=\"lsb\" id=\"res_lsb\" type=\"cron\"/>\n", ""));
+
+        assertThat(changes.getRemoved(), equalTo(Collections.singleton("res_lsb")));
+        assertThat(changes.isStructureChanged(), is(true));
+    }
+
+    @Test
+    public void changedScoreShouldChangeTheConstraints() {
+        final CibChanges changes = compute(CIB, CIB.replace("id=\"ord_2\" score=\"0\"", "id=\"ord_2\" score=\"10\""));
+
+        assertThat(changes.getChanged().isEmpty(), is(true));
+        assertThat(changes.isConstraintsChanged(), is(true));
+    }
+
+    @Test
+    public void changedRscDefaultsShouldChangeAll() {
+        final CibChanges changes = compute(CIB, CIB.replace("\"resource-stickiness\" value=\"100\"",
+                                                            "\"resource-stickiness\" value=\"0\""));
+
+        assertThat(changes, is(nullValue()));
+    }
+
+    @Test
+    public void mergeShouldContainChangesFromBoth() {
+        final CibChanges changes1 = compute(CIB, CIB.replace("name=\"priority\" value=\"3\"",
+                                                             "name=\"priority\" value=\"4\""));
+        final CibChanges changes2 = compute(CIB, CIB.replace("id=\"ord_2\" score=\"0\"", "id=\"ord_2\" score=\"10\""));
+
+        final CibChanges changes = CibChanges.merge(changes1, changes2);
+
+        assertThat(changes.isChanged("res_null"), is(true));
+        assertThat(changes.isConstraintsChanged(), is(true));
+        assertThat(CibChanges.merge(changes, null), is(nullValue()));
+        assertThat(CibChanges.merge(CibChanges.NONE, changes1), is(changes1));
+    }
+
+    private CibChanges compute(final String oldCib, final String newCib) {
+        return CibChanges.compute(crmXml.parseCibQuery(oldCib), crmXml.parseCibQuery(newCib));
+    }
+}
@@ -0,0 +1,131 @@
+package lcmc.crm.domain;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CibPatchTest {
+    private static final String CIB =
+        "<pcmk>\n"
+        + "<fenced>\n <node>node2</node>\n</fenced>\n"
+        + "<cib admin_epoch=\"0\" epoch=\"5\" num_updates=\"3\">\n"
+        + " <configuration>\n"
+        + "  <crm_config/>\n"
+        + "  <resources>\n"
+        + "   <primitive class=\"ocf\" id=\"res_Dummy_1\" provider=\"heartbeat\" type=\"Dummy\">\n"
+        + "    <meta_attributes id=\"res_Dummy_1-meta_attributes\">\n"
+        + "     <nvpair id=\"res_Dummy_1-meta_attributes-target-role\" name=\"target-role\""
+        + " value=\"stopped\"/>\n"
+        + "    </meta_attributes>\n"
+        + "   </primitive>\n"
+        + "   <primitive class=\"ocf\" id=\"res_Dummy_2\" provider=\"heartbeat\" type=\"Dummy\"/>\n"
+        + "  </resources>\n"
+        + "  <constraints/>\n"
+        + " </configuration>\n"
+        + " <status/>\n"
+        + "</cib>\n"
+        + "</pcmk>";
+
+    private static final String VERSION =
+        "<version>"
+        + "<source admin_epoch=\"0\" epoch=\"5\" num_updates=\"3\"/>"
+        + "<target admin_epoch=\"0\" epoch=\"6\" num_updates=\"0\"/>"
+        + "</version>";
+
+    private CibPatch cibPatch;
+
+    @Before
+    public void setUp() {
+        cibPatch = new CibPatch();
+        assertThat(cibPatch.setCib(CIB), is(true));
+    }
+
+    @Test
+    public void patchShouldModifyAttributes() {
+        final boolean applied = cibPatch.apply(
+            "<pcmk><diff format=\"2\">" + VERSION
+            + "<change operation=\"modify\" path=\"/cib/configuration/resources/primitive[@id='res_Dummy_1']"
+            + "/meta_attributes[@id='res_Dummy_1-meta_attributes']"
+            + "/nvpair[@id='res_Dummy_1-meta_attributes-target-role']\">"
+            + "<change-list><change-attr name=\"value\" operation=\"set\" value=\"started\"/></change-list>"
+            + "</change>"
+            + "<change operation=\"modify\" path=\"/cib/configuration/resources/primitive[@id='res_Dummy_2']\">"
+            + "<change-list><change-attr name=\"provider\" operation=\"unset\"/></change-list>"
+            + "</change>"
+            + "</diff></pcmk>");
+
+        assertThat(applied, is(true));
+        final String cib = cibPatch.getCib();
+        assertThat(cib, containsString("name=\"target-role\" value=\"started\""));
+        assertThat(cib, containsString("<primitive class=\"ocf\" id=\"res_Dummy_2\" type=\"Dummy\"/>"));
+        assertThat(cib, containsString("<cib admin_epoch=\"0\" epoch=\"6\" num_updates=\"0\">"));
+    }
+
+    @Test
+    public void patchShouldCreateMoveAndDeleteElements() {
+        final boolean applied = cibPatch.apply(
+            "<pcmk><diff format=\"2\">" + VERSION
+            + "<change operation=\"create\" path=\"/cib/configuration/resources\" position=\"1\">"
+            + "<primitive class=\"ocf\" id=\"res_Dummy_3\" provider=\"heartbeat\" type=\"Dummy\"/>"
+            + "</change>"
+            + "<change operation=\"move\" path=\"/cib/configuration/resources/primitive[@id='res_Dummy_1']\""
+            + " position=\"2\"/>"
+            + "<change operation=\"delete\" path=\"/cib/configuration/crm_config\"/>"
+            + "</diff></pcmk>");
+
+        assertThat(applied, is(true));
+        final String cib = cibPatch.getCib();
+        assertThat(cib, not(containsString("crm_config")));
+        final int res1 = cib.indexOf("res_Dummy_1\"");
+        final int res2 = cib.indexOf("res_Dummy_2\"");
+        final int res3 = cib.indexOf("res_Dummy_3\"");
+        assertThat(res3 > 0 && res3 < res2 && res2 < res1, is(true));
+    }
+
+    @Test
+    public void patchShouldReplaceFencedNodes() {
+        assertThat(cibPatch.apply("<pcmk>\n<fenced>\n <node>node1</node>\n</fenced>\n</pcmk>"), is(true));
+
+        final String cib = cibPatch.getCib();
+        assertThat(cib, containsString("<node>node1</node>"));
+        assertThat(cib, not(containsString("node2")));
+    }
+
+    @Test
+    public void patchWithVersionGapShouldNotApply() {
+        final boolean applied = cibPatch.apply(
+            "<pcmk><diff format=\"2\"><version>"
+            + "<source admin_epoch=\"0\" epoch=\"5\" num_updates=\"4\"/>"
+            + "<target admin_epoch=\"0\" epoch=\"5\" num_updates=\"5\"/>"
+            + "</version></diff></pcmk>");
+
+        assertThat(applied, is(false));
+    }
+
+    @Test
+    public void patchWithUnknownPathShouldNotApply() {
+        final boolean applied = cibPatch.apply(
+            "<pcmk><diff format=\"2\">" + VERSION
+            + "<change operation=\"delete\" path=\"/cib/configuration/resources/primitive[@id='res_Dummy_4']\"/>"
+            + "</diff></pcmk>");
+
+        assertThat(applied, is(false));
+    }
+
+    @Test
+    public void appliedPatchShouldBeIgnored() {
+        final String patch = "<pcmk><diff format=\"2\">" + VERSION
+                             + "<change operation=\"delete\" path=\"/cib/configuration/crm_config\"/>"
+                             + "</diff></pcmk>";
+        assertThat(cibPatch.apply(patch), is(true));
+        final String cib = cibPatch.getCib();
+
+        assertThat(cibPatch.apply(patch), is(true));
+        assertThat(cibPatch.getCib(), equalTo(cib));
+    }
+}
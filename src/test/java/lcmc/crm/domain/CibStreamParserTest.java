@@ -0,0 +1,285 @@
+/*
+ * This file is part of LCMC written by Rasto Levrinc.
+ *
+ * Copyright (C) 2015, Rastislav Levrinc.
+ *
+ * The LCMC is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * The LCMC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LCMC; see the file COPYING.  If not, write to
+ * the Free Software Foundation, 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package lcmc.crm.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import lcmc.host.domain.Host;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public final class CibStreamParserTest {
+    static final String CIB =
+          "<pcmk>\n"
+        + "<fenced>\n <node>Node2</node>\n</fenced>\n"
+        + "<cib epoch=\"12\" num_updates=\"3\" admin_epoch=\"0\" dc-uuid=\"1\">\n"
+        + " <configuration>\n"
+        + "  <crm_config>\n"
+        + "   <cluster_property_set id=\"cib-bootstrap-options\">\n"
+        + "    <nvpair id=\"o-1\" name=\"stonith-enabled\" value=\"false\"/>\n"
+        + "    <nvpair id=\"o-2\" name=\"no-quorum-policy\" value=\"ignore\"/>\n"
+        + "   </cluster_property_set>\n"
+        + "  </crm_config>\n"
+        + "  <nodes>\n"
+        + "   <node id=\"1\" uname=\"node1\"/>\n"
+        + "   <node id=\"2\" uname=\"Node2\">\n"
+        + "    <instance_attributes id=\"n2-ia\">\n"
+        + "     <nvpair id=\"n2-standby\" name=\"standby\" value=\"on\"/>\n"
+        + "    </instance_attributes>\n"
+        + "   </node>\n"
+        + "  </nodes>\n"
+        + "  <resources>\n"
+        + "   <primitive class=\"ocf\" id=\"res_Dummy_1\" provider=\"heartbeat\" type=\"Dummy\">\n"
+        + "    <instance_attributes id=\"res_Dummy_1-ia\">\n"
+        + "     <nvpair id=\"res_Dummy_1-fake\" name=\"fake\" value=\"x\"/>\n"
+        + "    </instance_attributes>\n"
+        + "    <operations id=\"res_Dummy_1-ops\">\n"
+        + "     <op id=\"res_Dummy_1-start\" interval=\"0\" name=\"start\" timeout=\"200s\"/>\n"
+        + "     <op id=\"res_Dummy_1-monitor\" interval=\"10s\" name=\"monitor\" timeout=\"20\">\n"
+        + "      <instance_attributes id=\"res_Dummy_1-monitor-ia\">\n"
+        + "       <nvpair id=\"res_Dummy_1-cl\" name=\"OCF_CHECK_LEVEL\" value=\"10\"/>\n"
+        + "      </instance_attributes>\n"
+        + "     </op>\n"
+        + "    </operations>\n"
+        + "    <meta_attributes id=\"res_Dummy_1-ma\">\n"
+        + "     <nvpair id=\"res_Dummy_1-tr\" name=\"target-role\" value=\"Stopped\"/>\n"
+        + "    </meta_attributes>\n"
+        + "   </primitive>\n"
+        + "   <primitive class=\"ocf\" id=\"res_Dummy_2\" provider=\"heartbeat\" type=\"Dummy\">\n"
+        + "    <operations id-ref=\"res_Dummy_1-ops\"/>\n"
+        + "    <meta_attributes id-ref=\"res_Dummy_1-ma\"/>\n"
+        + "   </primitive>\n"
+        + "   <primitive id=\"res_tmpl\" template=\"tmpl\"/>\n"
+        + "   <primitive class=\"stonith\" id=\"res_null\" type=\"null\">\n"
+        + "    <instance_attributes id=\"res_null-ia\">\n"
+        + "     <nvpair id=\"res_null-priority\" name=\"priority\" value=\"3\"/>\n"
+        + "    </instance_attributes>\n"
+        + "   </primitive>\n"
+        + "   <group id=\"grp_1\">\n"
+        + "    <primitive class=\"lsb\" id=\"res_lsb\" type=\"cron\"/>\n"
+        + "    <primitive class=\"ocf\" id=\"res_Dummy_3\" provider=\"heartbeat\" type=\"Dummy\"/>\n"
+        + "    <meta_attributes id=\"grp_1-ma\">\n"
+        + "     <nvpair id=\"grp_1-ordered\" name=\"ordered\" value=\"false\"/>\n"
+        + "     <nvpair id=\"grp_1-tr\" name=\"target-role\" value=\"Started\"/>\n"
+        + "    </meta_attributes>\n"
+        + "   </group>\n"
+        + "   <clone id=\"cl_grp\">\n"
+        + "    <meta_attributes id=\"cl_grp-ma\">\n"
+        + "     <nvpair id=\"cl_grp-cm\" name=\"clone-max\" value=\"2\"/>\n"
+        + "    </meta_attributes>\n"
+        + "    <group id=\"grp_2\">\n"
+        + "     <primitive class=\"ocf\" id=\"res_Dummy_4\" provider=\"heartbeat\" type=\"Dummy\"/>\n"
+        + "    </group>\n"
+        + "   </clone>\n"
+        + "   <master id=\"ms_drbd\">\n"
+        + "    <primitive class=\"ocf\" id=\"res_drbd\" provider=\"linbit\" type=\"drbd\">\n"
+        + "     <instance_attributes id=\"res_drbd-ia\">\n"
+        + "      <nvpair id=\"res_drbd-r\" name=\"drbd_resource\" value=\"r0\"/>\n"
+        + "     </instance_attributes>\n"
+        + "    </primitive>\n"
+        + "   </master>\n"
+        + "  </resources>\n"
+        + "  <constraints>\n"
+        + "   <rsc_colocation id=\"col_1\" rsc=\"grp_1\" score=\"INFINITY\" with-rsc=\"ms_drbd\""
+        + " with-rsc-role=\"Master\"/>\n"
+        + "   <rsc_order first=\"ms_drbd\" first-action=\"promote\" id=\"ord_1\" score=\"INFINITY\""
+        + " then=\"grp_1\" then-action=\"start\"/>\n"
+        + "   <rsc_order first=\"res_Dummy_1\" id=\"ord_2\" score=\"0\" then=\"res_Dummy_2\" type=\"before\"/>\n"
+        + "   <rsc_colocation id=\"col_set\" score=\"INFINITY\">\n"
+        + "    <resource_set id=\"col_set-0\" sequential=\"false\">\n"
+        + "     <resource_ref id=\"res_Dummy_1\"/>\n"
+        + "     <resource_ref id=\"res_Dummy_2\"/>\n"
+        + "    </resource_set>\n"
+        + "    <resource_set id=\"col_set-1\" role=\"Master\">\n"
+        + "     <resource_ref id=\"ms_drbd\"/>\n"
+        + "    </resource_set>\n"
+        + "   </rsc_colocation>\n"
+        + "   <rsc_order id=\"ord_set\" score=\"INFINITY\">\n"
+        + "    <resource_set id=\"ord_set-0\" require-all=\"false\" action=\"start\">\n"
+        + "     <resource_ref id=\"res_null\"/>\n"
+        + "    </resource_set>\n"
+        + "   </rsc_order>\n"
+        + "   <rsc_location id=\"loc_1\" node=\"Node2\" rsc=\"res_Dummy_1\" score=\"100\"/>\n"
+        + "   <rsc_location id=\"loc_2\" rsc=\"res_Dummy_2\">\n"
+        + "    <rule id=\"loc_2-rule\" score=\"-INFINITY\">\n"
+        + "     <expression attribute=\"#uname\" id=\"loc_2-exp\" operation=\"ne\" value=\"node1\"/>\n"
+        + "    </rule>\n"
+        + "   </rsc_location>\n"
+        + "   <rsc_location id=\"loc_3\" rsc=\"grp_1\">\n"
+        + "    <rule id=\"loc_3-rule\" score=\"-INFINITY\" boolean-op=\"and\">\n"
+        + "     <expression attribute=\"pingd\" id=\"loc_3-exp\" operation=\"defined\"/>\n"
+        + "    </rule>\n"
+        + "   </rsc_location>\n"
+        + "  </constraints>\n"
+        + "  <rsc_defaults>\n"
+        + "   <meta_attributes id=\"rsc-options\">\n"
+        + "    <nvpair id=\"rsc-options-tr\" name=\"target-role\" value=\"Started\"/>\n"
+        + "    <nvpair id=\"rsc-options-rs\" name=\"resource-stickiness\" value=\"100\"/>\n"
+        + "   </meta_attributes>\n"
+        + "  </rsc_defaults>\n"
+        + "  <op_defaults>\n"
+        + "   <meta_attributes id=\"op-options\">\n"
+        + "    <nvpair id=\"op-options-timeout\" name=\"timeout\" value=\"30s\"/>\n"
+        + "   </meta_attributes>\n"
+        + "  </op_defaults>\n"
+        + " </configuration>\n"
+        + " <status>\n"
+        + "  <node_state id=\"1\" uname=\"node1\" in_ccm=\"true\" crmd=\"online\" join=\"member\">\n"
+        + "   <lrm id=\"1\">\n"
+        + "    <lrm_resources>\n"
+        + "     <lrm_resource id=\"res_Dummy_1\" type=\"Dummy\" class=\"ocf\" provider=\"heartbeat\">\n"
+        + "      <lrm_rsc_op id=\"res_Dummy_1_last_0\" operation=\"start\"/>\n"
+        + "     </lrm_resource>\n"
+        + "     <lrm_resource id=\"res_orphan:1\" type=\"Dummy\" class=\"ocf\" provider=\"heartbeat\"/>\n"
+        + "    </lrm_resources>\n"
+        + "   </lrm>\n"
+        + "   <transient_attributes id=\"1\">\n"
+        + "    <instance_attributes id=\"status-1\">\n"
+        + "     <nvpair id=\"status-1-pingd\" name=\"pingd\" value=\"1000\"/>\n"
+        + "     <nvpair id=\"status-1-fc\" name=\"fail-count-res_orphan:0\" value=\"INFINITY\"/>\n"
+        + "    </instance_attributes>\n"
+        + "   </transient_attributes>\n"
+        + "  </node_state>\n"
+        + "  <node_state id=\"2\" uname=\"Node2\" in_ccm=\"true\" crmd=\"online\" join=\"pending\"/>\n"
+        + "  <node_state id=\"3\" uname=\"node3\" in_ccm=\"false\" crmd=\"offline\" join=\"down\"/>\n"
+        + " </status>\n"
+        + "</cib>\n"
+        + "</pcmk>";
+
+    @Mock
+    private Host hostStub;
+    @InjectMocks
+    private CrmXml crmXml;
+
+    @Test
+    public void streamParserShouldMatchDomParser() {
+        final CibQuery dom = crmXml.parseCibQueryDom(CIB);
+        final CibQuery stream = crmXml.parseCibQuery(CIB);
+        assertSameCibQuery(dom, stream);
+    }
+
+    @Test
+    public void cibDocumentShouldMatchStreamParser() {
+        final CibPatch cibPatch = new CibPatch();
+        assertTrue(cibPatch.setCib(CIB));
+        assertSameCibQuery(crmXml.parseCibQuery(CIB), crmXml.parseCibQuery(cibPatch.getDocument()));
+    }
+
+    @Test
+    public void streamParserShouldParseCib() {
+        final CibQuery cibQuery = crmXml.parseCibQuery(CIB);
+        assertEquals("node1", cibQuery.getDC());
+        assertEquals("ignore", cibQuery.getCrmConfig().get("no-quorum-policy"));
+        assertEquals("stopped", cibQuery.getResourceParameters().get("res_Dummy_1").get("target-role"));
+        assertEquals("10", cibQuery.getOperations().get("res_Dummy_1", "monitor", "OCF_CHECK_LEVEL").getValueForConfig());
+        assertEquals("res_Dummy_1", cibQuery.getOperationsRefs().get("res_Dummy_2"));
+        assertEquals("3", cibQuery.getResourceParameters().get("res_null").get(CrmXml.STONITH_PRIORITY_INSTANCE_ATTR));
+        assertEquals("false", cibQuery.getResourceParameters().get("grp_1").get(CrmXml.GROUP_ORDERED_META_ATTR));
+        assertEquals("[none, grp_1, cl_grp, grp_2, ms_drbd]",
+                     new ArrayList<String>(cibQuery.getGroupsToResources().keySet()).toString());
+        assertEquals("grp_2", cibQuery.getCloneToResource().get("cl_grp"));
+        assertTrue(cibQuery.getMasterList().contains("ms_drbd"));
+        assertTrue(cibQuery.getOrphaned().contains("res_orphan"));
+        assertEquals("[0, 1]", cibQuery.getResourceFailedCloneIds().get("node1", "res_orphan").toString());
+        assertEquals("yes", cibQuery.getNodeOnline().get("node1"));
+        assertTrue(cibQuery.getNodePending().contains("node2"));
+        assertTrue(cibQuery.getFencedNodes().contains("node2"));
+        assertEquals(2, cibQuery.getRscSetConnections().size());
+    }
+
+    @Test
+    public void streamParserShouldReturnEmptyQueryForBrokenCib() {
+        assertTrue(crmXml.parseCibQuery("no resources defined!").getResourceParameters().isEmpty());
+        assertTrue(crmXml.parseCibQuery("<pcmk><cib></cib></pcmk>").getResourceParameters().isEmpty());
+    }
+
+    private void assertSameCibQuery(final CibQuery expected, final CibQuery actual) {
+        assertEquals(expected.getDC(), actual.getDC());
+        assertEquals(expected.getCrmConfig(), actual.getCrmConfig());
+        assertEquals(expected.getNodeParameters(), actual.getNodeParameters());
+        assertEquals(expected.getResourceParameters(), actual.getResourceParameters());
+        assertEquals(expected.getResourceParametersNvpairsIds(), actual.getResourceParametersNvpairsIds());
+        assertEquals(expected.getResourceType(), actual.getResourceType());
+        assertEquals(expected.getInLRM(), actual.getInLRM());
+        assertEquals(expected.getOrphaned(), actual.getOrphaned());
+        assertEquals(expected.getResourceInstanceAttrId(), actual.getResourceInstanceAttrId());
+        assertEquals(colocationsToString(expected.getColocationId()), colocationsToString(actual.getColocationId()));
+        assertEquals(expected.getColocationRsc().keySet(), actual.getColocationRsc().keySet());
+        assertEquals(ordersToString(expected.getOrderId()), ordersToString(actual.getOrderId()));
+        assertEquals(expected.getOrderRsc().keySet(), actual.getOrderRsc().keySet());
+        assertEquals(expected.getOrderIdRscSets().toString(), actual.getOrderIdRscSets().toString());
+        assertEquals(expected.getColocationIdRscSets().toString(), actual.getColocationIdRscSets().toString());
+        assertEquals(expected.getRscSetConnections().toString(), actual.getRscSetConnections().toString());
+        assertEquals(expected.getLocations(), actual.getLocations());
+        assertEquals(expected.getPingLocations(), actual.getPingLocations());
+        assertEquals(expected.getLocationsId(), actual.getLocationsId());
+        assertEquals(expected.getResHostToLocId(), actual.getResHostToLocId());
+        assertEquals(expected.getResPingToLocId(), actual.getResPingToLocId());
+        assertEquals(expected.getOperations(), actual.getOperations());
+        assertEquals(expected.getOperationsId(), actual.getOperationsId());
+        assertEquals(expected.getOperationsRefs(), actual.getOperationsRefs());
+        assertEquals(expected.getMetaAttrsId(), actual.getMetaAttrsId());
+        assertEquals(expected.getMetaAttrsRefs(), actual.getMetaAttrsRefs());
+        assertEquals(expected.getResOpIds(), actual.getResOpIds());
+        assertEquals(expected.getNodeOnline(), actual.getNodeOnline());
+        assertEquals(expected.getNodePending(), actual.getNodePending());
+        assertEquals(expected.getFencedNodes(), actual.getFencedNodes());
+        assertEquals(new ArrayList<String>(expected.getGroupsToResources().keySet()),
+                     new ArrayList<String>(actual.getGroupsToResources().keySet()));
+        assertEquals(expected.getGroupsToResources(), actual.getGroupsToResources());
+        assertEquals(expected.getCloneToResource(), actual.getCloneToResource());
+        assertEquals(expected.getMasterList(), actual.getMasterList());
+        assertEquals(expected.getNodeFailedCount(), actual.getNodeFailedCount());
+        assertEquals(expected.getResourceFailedCloneIds().toString(), actual.getResourceFailedCloneIds().toString());
+        assertEquals(expected.getNodePingCount(), actual.getNodePingCount());
+        assertEquals(expected.getRscDefaultsId(), actual.getRscDefaultsId());
+        assertEquals(expected.getRscDefaultsParams(), actual.getRscDefaultsParams());
+        assertEquals(expected.getRscDefaultsParamsNvpairIds(), actual.getRscDefaultsParamsNvpairIds());
+        assertEquals(expected.getOpDefaultsParams(), actual.getOpDefaultsParams());
+    }
+
+    private List<String> colocationsToString(final Map<String, CrmXml.ColocationData> colocations) {
+        final List<String> result = new ArrayList<String>();
+        for (final CrmXml.ColocationData data : colocations.values()) {
+            result.add(data.getId() + ' ' + data.getRsc() + ' ' + data.getWithRsc() + ' ' + data.getRscRole()
+                       + ' ' + data.getWithRscRole() + ' ' + data.getScore());
+        }
+        return result;
+    }
+
+    private List<String> ordersToString(final Map<String, CrmXml.OrderData> orders) {
+        final List<String> result = new ArrayList<String>();
+        for (final CrmXml.OrderData data : orders.values()) {
+            result.add(data.getId() + ' ' + data.getRscFirst() + ' ' + data.getRscThen() + ' ' + data.getScore()
+                       + ' ' + data.getSymmetrical() + ' ' + data.getFirstAction() + ' ' + data.getThenAction());
+        }
+        return result;
+    }
+}
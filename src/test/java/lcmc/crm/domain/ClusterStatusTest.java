@@ -0,0 +1,39 @@
+package lcmc.crm.domain;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public final class ClusterStatusTest {
+    private static final String CIB = "<cib epoch=\"5\" num_updates=\"1\"/>";
+
+    @Test
+    public void sameChangesOnSameCibShouldHaveSameKey() {
+        assertThat(ClusterStatus.getPtestKey(CIB, "host-a", Arrays.asList("a", "b")),
+                   equalTo(ClusterStatus.getPtestKey(CIB, "host-a", Arrays.asList("a", "b"))));
+    }
+
+    @Test
+    public void differentChangesShouldHaveDifferentKeys() {
+        final String key = ClusterStatus.getPtestKey(CIB, "host-a", Arrays.asList("a", "b"));
+
+        assertThat(ClusterStatus.getPtestKey(CIB, "host-a", Arrays.asList("ab")), not(equalTo(key)));
+        assertThat(ClusterStatus.getPtestKey(CIB, "host-a", Arrays.asList("b", "a")), not(equalTo(key)));
+        assertThat(ClusterStatus.getPtestKey(CIB, "host-b", Arrays.asList("a", "b")), not(equalTo(key)));
+    }
+
+    @Test
+    public void changedCibShouldHaveDifferentKey() {
+        assertThat(ClusterStatus.getPtestKey("<cib epoch=\"6\" num_updates=\"1\"/>",
+                                             "host-a",
+                                             Collections.<String>emptyList()),
+                   not(equalTo(ClusterStatus.getPtestKey(CIB, "host-a", Collections.<String>emptyList()))));
+        assertThat(ClusterStatus.getPtestKey(null, "host-a", Collections.<String>emptyList()),
+                   not(equalTo(ClusterStatus.getPtestKey(CIB, "host-a", Collections.<String>emptyList()))));
+    }
+}
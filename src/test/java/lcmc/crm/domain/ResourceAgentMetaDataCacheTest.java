@@ -0,0 +1,100 @@
+package lcmc.crm.domain;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ResourceAgentMetaDataCacheTest {
+    private static final String DUMMY_KEY = ResourceAgentMetaDataCache.getKey("ocf", "heartbeat", "Dummy");
+    private static final String DUMMY_XML = "<resource-agent name=\"Dummy\">\n"
+                                            + "<longdesc>\u017elu\u0165ou\u010dk\u00fd \u20ac</longdesc>\n"
+                                            + "</resource-agent>";
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("ra-metadata", ".cache");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void savedEntriesShouldBeLoaded() {
+        final ResourceAgentMetaDataCache cache = new ResourceAgentMetaDataCache(file);
+        cache.setVersions("v1");
+        cache.put(DUMMY_KEY, "sum1", false, DUMMY_XML);
+        cache.put(ResourceAgentMetaDataCache.getKey("ocf", "linbit", "drbd"), "sum2", true, "<a>\n\n</a>\n");
+        cache.save();
+
+        final ResourceAgentMetaDataCache loaded = new ResourceAgentMetaDataCache(file);
+        loaded.load();
+        assertThat(loaded.getVersions(), equalTo("v1"));
+        assertThat(loaded.size(), is(2));
+        assertThat(loaded.get(DUMMY_KEY, "sum1").getXml(), equalTo(DUMMY_XML));
+        assertThat(loaded.get(DUMMY_KEY, "sum1").isMasterSlave(), is(false));
+        final ResourceAgentMetaDataCache.Entry drbd =
+                                    loaded.get(ResourceAgentMetaDataCache.getKey("ocf", "linbit", "drbd"), "sum2");
+        assertThat(drbd.getXml(), equalTo("<a>\n\n</a>\n"));
+        assertThat(drbd.isMasterSlave(), is(true));
+    }
+
+    @Test
+    public void changedAgentShouldNotBeReturned() {
+        final ResourceAgentMetaDataCache cache = new ResourceAgentMetaDataCache(file);
+        cache.setVersions("v1");
+        cache.put(DUMMY_KEY, "sum1", false, DUMMY_XML);
+
+        assertThat(cache.get(DUMMY_KEY, "sum2"), is(nullValue()));
+        assertThat(cache.get(DUMMY_KEY, null), is(nullValue()));
+    }
+
+    @Test
+    public void changedVersionsShouldDropTheEntries() {
+        final ResourceAgentMetaDataCache cache = new ResourceAgentMetaDataCache(file);
+        cache.setVersions("v1");
+        cache.put(DUMMY_KEY, "sum1", false, DUMMY_XML);
+
+        cache.setVersions("v1");
+        assertThat(cache.size(), is(1));
+        cache.setVersions("v2");
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void removedAgentsShouldBeDropped() {
+        final ResourceAgentMetaDataCache cache = new ResourceAgentMetaDataCache(file);
+        cache.setVersions("v1");
+        cache.put(DUMMY_KEY, "sum1", false, DUMMY_XML);
+        cache.put(ResourceAgentMetaDataCache.getKey("stonith", "heartbeat", "fence_xvm"), "sum2", false, "<a/>");
+
+        cache.retainAll(Arrays.asList(DUMMY_KEY));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.get(DUMMY_KEY, "sum1").getXml(), equalTo(DUMMY_XML));
+    }
+
+    @Test
+    public void corruptFileShouldLoadEmpty() throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write("lcmc-ra-metadata 1\nversions v1\n@ra ocf heartbeat Dummy sum1 0 1000\n<a/>\n".getBytes("UTF-8"));
+        out.close();
+
+        final ResourceAgentMetaDataCache cache = new ResourceAgentMetaDataCache(file);
+        cache.load();
+        assertThat(cache.getVersions(), is(nullValue()));
+        assertThat(cache.size(), is(0));
+    }
+}
@@ -0,0 +1,82 @@
+package lcmc.crm.service;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import lcmc.cluster.service.ssh.SshOutput;
+import lcmc.common.domain.Application;
+import org.junit.Test;
+
+public final class CibTransactionTest {
+    private static final List<String> COMMANDS = Arrays.asList("cibadmin -o constraints -C -X '<a/>'",
+                                                               "cibadmin -o constraints -C -X '<b/>'");
+
+    @Test
+    public void liveScriptShouldApplyOnePatch() {
+        final String script = CibTransaction.getScript(COMMANDS);
+
+        assertThat(script, containsString("export CIB_file=$T/new.xml;"));
+        assertThat(script, containsString("crm_diff -o $T/old.xml -n $T/new.xml"));
+        assertThat(script, containsString("cibadmin --patch --xml-file $T/patch.xml"));
+        assertThat(script.indexOf("<a/>") < script.indexOf("<b/>"), is(true));
+    }
+
+    @Test
+    public void successfulChangesShouldBeApplied() {
+        final List<CibTransaction.Result> results =
+                CibTransaction.parseResults(COMMANDS, new SshOutput(opOutput("", 0) + opOutput("", 0)
+                                                                    + CibTransaction.PATCH_START + '\n', 0));
+
+        assertThat(results.size(), is(2));
+        assertThat(results.get(0).isApplied(), is(true));
+        assertThat(results.get(1).isApplied(), is(true));
+        assertThat(results.get(1).getCommand(), equalTo(COMMANDS.get(1)));
+    }
+
+    @Test
+    public void nothingShouldBeAppliedIfOneChangeFails() {
+        final List<CibTransaction.Result> results =
+                CibTransaction.parseResults(COMMANDS, new SshOutput(opOutput("", 0) + opOutput("bad xml\n", 22), 22));
+
+        assertThat(results.get(0).isApplied(), is(false));
+        assertThat(results.get(0).getExitCode(), is(22));
+        assertThat(results.get(1).isApplied(), is(false));
+        assertThat(results.get(1).getOutput(), equalTo("bad xml\n"));
+    }
+
+    @Test
+    public void failedPatchShouldBeReported() {
+        final List<CibTransaction.Result> results =
+                CibTransaction.parseResults(COMMANDS, new SshOutput(opOutput("", 0) + opOutput("", 0)
+                                                                    + CibTransaction.PATCH_START
+                                                                    + "\nupdate diff failed\n", 205));
+
+        assertThat(results.get(0).isApplied(), is(false));
+        assertThat(results.get(0).getExitCode(), is(205));
+        assertThat(results.get(0).getOutput(), containsString("update diff failed"));
+    }
+
+    @Test
+    public void nestedTransactionShouldJoinTheOuterOne() {
+        final CibTransaction outer = CibTransaction.begin(null, Application.RunMode.LIVE);
+        final CibTransaction inner = CibTransaction.begin(null, Application.RunMode.LIVE);
+        assertThat(inner, sameInstance(outer));
+        assertThat(inner.add(null, COMMANDS.get(0), Application.RunMode.TEST), is(false));
+
+        assertThat(inner.commit().isEmpty(), is(true));
+        assertThat(CibTransaction.current(), sameInstance(outer));
+        assertThat(outer.commit().isEmpty(), is(true));
+        assertThat(CibTransaction.current(), nullValue());
+    }
+
+    private static String opOutput(final String output, final int exitCode) {
+        return CibTransaction.OP_START + '\n' + output + CibTransaction.OP_END + exitCode + " ---\n";
+    }
+}
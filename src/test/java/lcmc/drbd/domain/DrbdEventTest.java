@@ -0,0 +1,65 @@
+package lcmc.drbd.domain;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public final class DrbdEventTest {
+    @Test
+    public void drbd83StateShouldBeParsed() {
+        final DrbdEvent event =
+                DrbdEvent.parse("2 ST 0 { cs:SyncSource st:Primary/Secondary ds:UpToDate/Inconsistent r--- }\n");
+
+        assertThat(event.getType(), is(DrbdEvent.STATE));
+        assertThat(event.getDevNr(), equalTo("0"));
+        assertThat(event.getConnectionState(), equalTo("SyncSource"));
+        assertThat(event.getNodeState(), equalTo("Primary"));
+        assertThat(event.getNodeStateOther(), equalTo("Secondary"));
+        assertThat(event.getDiskState(), equalTo("UpToDate"));
+        assertThat(event.getDiskStateOther(), equalTo("Inconsistent"));
+        assertThat(event.getFlags(), equalTo("r---"));
+    }
+
+    @Test
+    public void drbd84StateShouldBeParsed() {
+        final DrbdEvent event =
+            DrbdEvent.parse("  13 ST 12,r0[1] { cs:Connected ro:Secondary/Unknown ds:Diskless/DUnknown r----- }");
+
+        assertThat(event.getDevNr(), equalTo("12"));
+        assertThat(event.getNodeState(), equalTo("Secondary"));
+        assertThat(event.getDiskStateOther(), equalTo("DUnknown"));
+        assertThat(event.getFlags(), equalTo("r-----"));
+    }
+
+    @Test
+    public void syncProgressShouldBeParsed() {
+        final DrbdEvent event = DrbdEvent.parse("19 SP 0,r0[0] 16.9\r\n");
+
+        assertThat(event.getType(), is(DrbdEvent.SYNC_PROGRESS));
+        assertThat(event.getDevNr(), equalTo("0"));
+        assertThat(event.getSyncedProgress(), equalTo("16.9"));
+    }
+
+    @Test
+    public void helperShouldBeParsed() {
+        final DrbdEvent event = DrbdEvent.parse("19 UH 1 split-brain");
+
+        assertThat(event.getType(), is(DrbdEvent.HELPER));
+        assertThat(event.getDevNr(), equalTo("1"));
+        assertThat(event.getHelper(), equalTo("split-brain"));
+    }
+
+    @Test
+    public void unknownLinesShouldBeSkipped() {
+        assertThat(DrbdEvent.parse(""), is(nullValue()));
+        assertThat(DrbdEvent.parse("No response from the DRBD driver! Is the module loaded?"), is(nullValue()));
+        assertThat(DrbdEvent.parse("3 ZZ 0"), is(nullValue()));
+        assertThat(DrbdEvent.parse("3 SP 0 done"), is(nullValue()));
+        assertThat(DrbdEvent.parse("3 ST 0 { cs:Connected ro:Primary ds:UpToDate/UpToDate r--- }"), is(nullValue()));
+        assertThat(DrbdEvent.parse("change peer-device name:r0 peer-node-id:1 volume:0 done:12.34"),
+                   is(nullValue()));
+    }
+}
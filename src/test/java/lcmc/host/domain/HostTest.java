@@ -0,0 +1,118 @@
+package lcmc.host.domain;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import lcmc.cluster.service.ssh.CommandScheduler;
+import lcmc.drbd.domain.DrbdHost;
+import lcmc.event.HwBlockDevicesChangedEvent;
+import lcmc.event.HwBlockDevicesDiskSpaceEvent;
+import lcmc.HwEventBus;
+import lcmc.event.HwFileSystemsChangedEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HostTest {
+    @Mock
+    private HwEventBus hwEventBusStub;
+    @Mock
+    private DrbdHost drbdHostStub;
+    @Mock
+    private CommandScheduler commandSchedulerStub;
+    @InjectMocks
+    private Host host;
+
+    @Test
+    public void unchangedSectionsShouldNotBeParsedAgain() {
+        host.parseHostInfo("filesystems-info 1111\next3\next4\ndisk-space 2222\n/dev/sda1 10\n");
+        host.parseHostInfo("filesystems-info 1111\next3\ndisk-space 3333\n/dev/sda1 11\n");
+
+        verify(hwEventBusStub, times(1)).post(isA(HwFileSystemsChangedEvent.class));
+        verify(hwEventBusStub, times(2)).post(isA(HwBlockDevicesDiskSpaceEvent.class));
+    }
+
+    @Test
+    public void hwInfoSeqShouldBeRemoved() {
+        assertThat(host.checkHWInfoSeq("hw-info-seq 1\nfilesystems-info 1111\next3\n"),
+                   is("filesystems-info 1111\next3\n"));
+        assertThat(host.checkHWInfoSeq("filesystems-info\next3\n"), is("filesystems-info\next3\n"));
+
+        verify(commandSchedulerStub, never()).submit(anyString(), any(Runnable.class));
+    }
+
+    @Test
+    public void missedHwInfoShouldFetchTheWholeHwInfo() {
+        host.checkHWInfoSeq("hw-info-seq 1\nfilesystems-info 1111\next3\n");
+        host.checkHWInfoSeq("hw-info-seq 2\nfilesystems-info 2222\next4\n");
+        verify(commandSchedulerStub, never()).submit(anyString(), any(Runnable.class));
+
+        host.checkHWInfoSeq("hw-info-seq 4\nfilesystems-info 4444\next3\n");
+        verify(commandSchedulerStub, times(1)).submit(anyString(), any(Runnable.class));
+
+        /* the daemon was started again */
+        host.checkHWInfoSeq("hw-info-seq 1\nfilesystems-info 1111\next3\n");
+        verify(commandSchedulerStub, times(1)).submit(anyString(), any(Runnable.class));
+    }
+
+    @Test
+    public void sectionsWithoutHashShouldAlwaysBeParsed() {
+        host.parseHostInfo("filesystems-info 1111\next3\n");
+        host.parseHostInfo("filesystems-info\next3\n");
+        host.parseHostInfo("filesystems-info 1111\next3\n");
+
+        verify(hwEventBusStub, times(3)).post(isA(HwFileSystemsChangedEvent.class));
+    }
+
+    @Test
+    public void volumeGroupChangeShouldKeepTheBlockDevices() {
+        host.parseHostInfo("disk-info 1111\n"
+                           + "/dev/sda1 size:1000 bd:true\n"
+                           + "vg-info 2222\n"
+                           + "vg0 1000\n");
+        host.parseHostInfo("vg-info 3333\nvg0 500\n");
+
+        final ArgumentCaptor<Object> events = ArgumentCaptor.forClass(Object.class);
+        verify(hwEventBusStub, times(2)).post(isA(HwBlockDevicesChangedEvent.class));
+        verify(hwEventBusStub, atLeastOnce()).post(events.capture());
+        final List<Object> allEvents = events.getAllValues();
+        final HwBlockDevicesChangedEvent lastEvent =
+                                               (HwBlockDevicesChangedEvent) allEvents.get(allEvents.size() - 1);
+        assertThat(lastEvent.getBlockDevices().size(), is(1));
+        verify(hwEventBusStub, never()).post(isA(HwFileSystemsChangedEvent.class));
+    }
+
+    @Test
+    public void missingHopUsernamesShouldBeRoot() {
+        host.setIpAddress("10.0.0.1,10.0.0.2,10.0.0.3");
+        host.setUsername("jump,admin");
+
+        assertThat(host.getHops(), is(3));
+        assertThat(host.getUsername(0), is("jump"));
+        assertThat(host.getUsername(1), is("admin"));
+        assertThat(host.getUsername(2), is("root"));
+    }
+
+    @Test
+    public void sshCompressionShouldBeOffUntilSwitchedOnPerHost() {
+        assertThat(host.isSshCompression(), is(false));
+
+        host.setSshCompression(true);
+
+        assertThat(host.isSshCompression(), is(true));
+    }
+}
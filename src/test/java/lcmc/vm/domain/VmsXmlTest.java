@@ -20,10 +20,23 @@
 
 package lcmc.vm.domain;
 
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import lcmc.common.domain.StringValue;
+import lcmc.host.domain.Host;
 import org.junit.Test;
+import org.w3c.dom.Node;
 
 
 public final class VmsXmlTest {
@@ -78,4 +91,114 @@ public final class VmsXmlTest {
         assertEquals(-1, VmsXml.convertToKilobytes(new StringValue("P")));
         assertEquals(-1, VmsXml.convertToKilobytes(new StringValue("-3")));
     }
+
+    @Test
+    public void deltaShouldBeMergedIntoTheDomains() {
+        final Host host = mock(Host.class);
+        when(host.getName()).thenReturn("host1");
+        final VmsXml vmsXml = new VmsXml(host);
+        assertThat(vmsXml.update("<vms md5=\"1\">\n"
+                                 + "<version>1.2.3</version>\n"
+                                 + vm("vm1", "running", "1024")
+                                 + vm("vm2", "running", "512")
+                                 + "<net name=\"default\" config=\"/etc/libvirt/qemu/networks/default.xml\""
+                                 + " autostart=\"True\">\n<network><name>default</name></network>\n</net>\n"
+                                 + "</vms>\n"),
+                   is(true));
+
+        assertThat(VmsXml.isDelta("<vms delta=\"true\">\n"), is(true));
+        assertThat(vmsXml.update("<vms delta=\"true\">\n"
+                                 + vm("vm1", "shut off", "2048")
+                                 + "<vm-removed name=\"vm2\"/>\n"
+                                 + vm("vm3", "paused", "256")
+                                 + "</vms>\n"),
+                   is(true));
+        assertThat(vmsXml.getDomainNames(), hasItems("vm1", "vm3"));
+        assertThat(vmsXml.getDomainNames(), not(hasItems("vm2")));
+        assertThat(vmsXml.getValue("vm1", VmsXml.VM_PARAM_MEMORY), equalTo("2048"));
+        assertThat(vmsXml.isRunning("vm1"), is(false));
+        assertThat(vmsXml.isSuspended("vm3"), is(true));
+        assertThat(vmsXml.getValue("vm2", VmsXml.VM_PARAM_MEMORY), is(nullValue()));
+        assertThat(vmsXml.getNameFromConfig("/etc/libvirt/qemu/vm2.xml"), is(nullValue()));
+        assertThat(vmsXml.getDomainNode("vm2"), is(nullValue()));
+        assertThat(vmsXml.getDomainNode("vm1").getTextContent().contains("2048"), is(true));
+        assertThat(vmsXml.getNetworks().size(), is(1));
+        verify(host).setVMInfoMD5(null);
+    }
+
+    @Test
+    public void deltaWithoutDomainsShouldNotBeMerged() {
+        final VmsXml vmsXml = new VmsXml(mock(Host.class));
+
+        assertThat(VmsXml.isDelta("<vms md5=\"1\">\n"), is(false));
+        assertThat(vmsXml.update("<vms delta=\"true\">\n" + vm("vm1", "running", "1024") + "</vms>\n"), is(false));
+    }
+
+    @Test
+    public void unchangedDomainsShouldNotBeParsedAgain() {
+        final Host host = mock(Host.class);
+        when(host.getName()).thenReturn("host1");
+        final VmsXml vmsXml = new VmsXml(host);
+        vmsXml.update("<vms md5=\"1\">\n" + vm("vm1", "running", "1024") + vm("vm2", "running", "512") + "</vms>\n");
+        final Node vm2Node = vmsXml.getDomainNode("vm2");
+
+        assertThat(vmsXml.update("<vms md5=\"2\">\n"
+                                 + "<version>1.2.3</version>\n"
+                                 + vm("vm1", "shut off", "1024")
+                                 + vm("vm2", "running", "512")
+                                 + "</vms>\n"),
+                   is(true));
+        assertThat(vmsXml.isRunning("vm1"), is(false));
+        assertThat(vmsXml.isRunning("vm2"), is(true));
+        assertThat(vmsXml.getDomainNode("vm2"), sameInstance(vm2Node));
+        verify(host).setLibvirtVersion("1.2.3");
+        verify(host).setVMInfoMD5("2");
+
+        assertThat(vmsXml.update("<vms md5=\"3\">\n" + vm("vm2", "running", "512") + "</vms>\n"), is(true));
+        assertThat(vmsXml.getDomainNames(), not(hasItems("vm1")));
+        assertThat(vmsXml.getDomainNode("vm2"), sameInstance(vm2Node));
+    }
+
+    @Test
+    public void updatedCopyShouldNotChangeTheOldObject() {
+        final Host host = mock(Host.class);
+        when(host.getName()).thenReturn("host1");
+        final VmsXml vmsXml = new VmsXml(host);
+        vmsXml.update("<vms md5=\"1\">\n" + vm("vm1", "running", "1024") + vm("vm2", "running", "512") + "</vms>\n");
+        final VmsXml copy = new VmsXml(vmsXml);
+
+        assertThat(copy.update("<vms delta=\"true\">\n"
+                               + vm("vm1", "shut off", "2048")
+                               + "<vm-removed name=\"vm2\"/>\n"
+                               + "</vms>\n"),
+                   is(true));
+        assertThat(copy.getDomainNames(), not(hasItems("vm2")));
+        assertThat(copy.getValue("vm1", VmsXml.VM_PARAM_MEMORY), equalTo("2048"));
+        assertThat(vmsXml.getDomainNames(), hasItems("vm1", "vm2"));
+        assertThat(vmsXml.getValue("vm1", VmsXml.VM_PARAM_MEMORY), equalTo("1024"));
+        assertThat(vmsXml.isRunning("vm1"), is(true));
+        assertThat(vmsXml.getDomainNode("vm2"), is(notNullValue()));
+        assertThat(vmsXml.getDomainNode("vm1").getTextContent().contains("1024"), is(true));
+    }
+
+    @Test
+    public void unchangedMd5ShouldSkipTheUpdate() {
+        final Host host = mock(Host.class);
+        when(host.getVMInfoMD5()).thenReturn("1");
+        final VmsXml vmsXml = new VmsXml(host);
+
+        assertThat(vmsXml.update("<vms md5=\"1\">\n" + vm("vm1", "running", "1024") + "</vms>\n"), is(false));
+        assertThat(vmsXml.getDomainNames().isEmpty(), is(true));
+    }
+
+    private static String vm(final String name, final String state, final String memory) {
+        return "<vm name=\"" + name + "\" autostart=\"False\">\n"
+               + "<info>\nName: " + name + "\nState: " + state + "\n</info>\n"
+               + "<vncdisplay>:1</vncdisplay>\n"
+               + "<config>\n<domain type=\"kvm\">\n<name>" + name + "</name>\n"
+               + "<memory>" + memory + "</memory>\n"
+               + "<devices><input type=\"tablet\" bus=\"usb\"/></devices>\n"
+               + "</domain>\n</config>\n"
+               + "</vm>\n";
+    }
 }